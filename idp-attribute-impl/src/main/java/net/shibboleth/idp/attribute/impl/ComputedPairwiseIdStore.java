@@ -23,6 +23,8 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -52,6 +54,8 @@ import org.slf4j.LoggerFactory;
  * but due to discovery of the lack of appropriate case handling of identifiers by applications, the
  * ability to use base32 has been added to eliminate the possibility of case conflicts.</p>
  * 
+ * <p>A digest instance is prepared once and cloned for each computation where the provider allows it.</p>
+ * 
  * @since 4.0.0
  */
 public class ComputedPairwiseIdStore extends AbstractInitializableComponent implements PairwiseIdStore {
@@ -80,6 +84,9 @@ public class ComputedPairwiseIdStore extends AbstractInitializableComponent impl
     /** The encoding to apply to the digest. */
     @Nonnull private Encoding encoding;
     
+    /** Prepared digest to clone, if the provider supports cloning. */
+    @Nullable private volatile MessageDigest prototypeDigest;
+    
     /** Override map to block or re-issue identifiers. */
     @Nonnull private Map<String,Map<String,String>> exceptionMap;
     
@@ -235,6 +242,16 @@ public class ComputedPairwiseIdStore extends AbstractInitializableComponent impl
         if (getSalt().length < 16) {
             throw new ComponentInitializationException("Salt must be at least 16 bytes in size");
         }
+        
+        try {
+            final MessageDigest md = MessageDigest.getInstance(algorithm);
+            md.clone();
+            prototypeDigest = md;
+        } catch (final NoSuchAlgorithmException e) {
+            // Reported when an ID is computed.
+        } catch (final CloneNotSupportedException e) {
+            log.debug("Digest algorithm {} cannot be cloned, a new instance will be obtained for each ID", algorithm);
+        }
     }
 
     /** {@inheritDoc} */
@@ -253,7 +270,7 @@ public class ComputedPairwiseIdStore extends AbstractInitializableComponent impl
         }
         
         try {
-            final MessageDigest md = MessageDigest.getInstance(algorithm);
+            final MessageDigest md = newDigest();
             md.update(pid.getRecipientEntityID().getBytes());
             md.update((byte) '!');
             md.update(pid.getSourceSystemId().getBytes());
@@ -277,6 +294,53 @@ public class ComputedPairwiseIdStore extends AbstractInitializableComponent impl
         return pid;
     }
     
+    /**
+     * Compute IDs for a stream of inputs in parallel, for bulk operations such as pre-computing the
+     * identifiers to export to a relying party.
+     * 
+     * <p>Each input must be populated as for {@link #getBySourceValue(PairwiseId, boolean)}. Inputs for which
+     * generation is blocked by an exception rule, or fails, are omitted from the result, and failures are
+     * logged. The computation is lazy, and occurs in the common fork-join pool as the result is consumed.</p>
+     * 
+     * @param pids inputs to compute IDs for
+     * 
+     * @return the populated inputs
+     * 
+     * @since 4.1.0
+     */
+    @Nonnull public Stream<PairwiseId> getBySourceValues(@Nonnull final Stream<PairwiseId> pids) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        
+        return pids.parallel().map(pid -> {
+            try {
+                return getBySourceValue(pid, true);
+            } catch (final IOException e) {
+                log.warn("Unable to compute ID for principal '{}' and relying party '{}'", pid.getPrincipalName(),
+                        pid.getRecipientEntityID(), e);
+                return null;
+            }
+        }).filter(Objects::nonNull);
+    }
+    
+    /**
+     * Get a digest instance to use for a single computation.
+     * 
+     * @return a new or cloned digest
+     * 
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     */
+    @Nonnull private MessageDigest newDigest() throws NoSuchAlgorithmException {
+        final MessageDigest prototype = prototypeDigest;
+        if (prototype != null) {
+            try {
+                return (MessageDigest) prototype.clone();
+            } catch (final CloneNotSupportedException e) {
+                prototypeDigest = null;
+            }
+        }
+        return MessageDigest.getInstance(algorithm);
+    }
+    
     /**
      * Get the effective salt to apply for a particular principal/RP pair, or null to refuse to generate one.
      * 
@@ -18,6 +18,7 @@
 package net.shibboleth.idp.attribute.impl;
 
 import java.io.IOException;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -30,7 +31,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -53,6 +60,9 @@ import net.shibboleth.utilities.java.support.primitive.StringSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * JDBC-based storage management for pairwise IDs.
  * 
@@ -74,6 +84,14 @@ import org.slf4j.LoggerFactory;
  * <p>The first three columns should be defined as the primary key of the table, and the other columns
  * should be indexed.</p>
  * 
+ * <p>An optional, bounded local cache of lookups by source value may be enabled to avoid a database
+ * round trip for every issuance of an already established ID. The cache is node-local, so deactivations
+ * and attachments made by other nodes are not observed until the affected entries expire.</p>
+ * 
+ * <p>When a computed initial value store is used, newly minted IDs may also be written asynchronously
+ * in JDBC batches. This is only safe because such values are deterministic: an insert that is lost
+ * or that loses a race with another node produces the same value the next time it is computed.</p>
+ * 
  * @since 4.0.0
  */
 public class JDBCPairwiseIdStore extends AbstractInitializableComponent implements DurablePairwiseIdStore {
@@ -143,6 +161,30 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
     
     /** Optional hook for obtaining initial values from a primary store, usually a computed algorithm. */
     @Nullable private PairwiseIdStore initialValueStore;
+    
+    /** Maximum number of lookups to cache locally, zero to disable. */
+    @NonNegative private long cacheSize;
+    
+    /** Lifetime of cached lookup results. */
+    @Nonnull private Duration cacheLifetime;
+
+    /** Lifetime of cached failed lookups. */
+    @Nonnull private Duration negativeCacheLifetime;
+    
+    /** Maximum number of computed IDs to insert per asynchronous batch, zero to insert synchronously. */
+    @NonNegative private int insertBatchSize;
+    
+    /** Interval between flushes of pending asynchronous inserts. */
+    @Nonnull private Duration insertFlushInterval;
+    
+    /** Local cache of lookups by source value. */
+    @Nullable private Cache<CacheKey,CachedId> idCache;
+    
+    /** Computed IDs awaiting insertion. */
+    @Nonnull private final Queue<PairwiseId> pendingInserts;
+    
+    /** Timer driving asynchronous inserts. */
+    @Nullable private Timer insertTimer;
 
     /** Constructor. */
     public JDBCPairwiseIdStore() {
@@ -150,6 +192,10 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         retryableErrors = Arrays.asList("23000", "23505");
         queryTimeout = Duration.ofSeconds(5);
         verifyDatabase = true;
+        cacheLifetime = Duration.ofMinutes(10);
+        negativeCacheLifetime = Duration.ofMinutes(1);
+        insertFlushInterval = Duration.ofSeconds(1);
+        pendingInserts = new ConcurrentLinkedQueue<>();
         
         tableName = "shibpid";
         issuerColumn = "localEntity";
@@ -469,6 +515,100 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         initialValueStore = store;
     }
     
+    /**
+     * Get the maximum number of lookups by source value to cache locally.
+     * 
+     * @return cache size, zero if caching is disabled
+     * 
+     * @since 4.1.0
+     */
+    @NonNegative public long getCacheSize() {
+        return cacheSize;
+    }
+    
+    /**
+     * Set the maximum number of lookups by source value to cache locally.
+     * 
+     * <p>Defaults to zero, which disables the cache.</p>
+     * 
+     * @param size cache size
+     * 
+     * @since 4.1.0
+     */
+    public void setCacheSize(@NonNegative final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        cacheSize = Constraint.isGreaterThanOrEqual(0, size, "Cache size must be greater than or equal to 0");
+    }
+    
+    /**
+     * Set the lifetime of cached lookup results.
+     * 
+     * <p>Defaults to 10 minutes.</p>
+     * 
+     * @param lifetime cache entry lifetime
+     * 
+     * @since 4.1.0
+     */
+    public void setCacheLifetime(@Nonnull final Duration lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(lifetime, "Lifetime cannot be null");
+        Constraint.isFalse(lifetime.isNegative() || lifetime.isZero(), "Lifetime must be positive");
+        
+        cacheLifetime = lifetime;
+    }
+
+    /**
+     * Set the lifetime of cached lookups that found no active ID and were not permitted to create one.
+     * 
+     * <p>Defaults to 1 minute, and is capped by the general cache lifetime.</p>
+     * 
+     * @param lifetime negative cache entry lifetime
+     * 
+     * @since 4.1.0
+     */
+    public void setNegativeCacheLifetime(@Nonnull final Duration lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(lifetime, "Lifetime cannot be null");
+        Constraint.isFalse(lifetime.isNegative(), "Lifetime cannot be negative");
+        
+        negativeCacheLifetime = lifetime;
+    }
+    
+    /**
+     * Set the maximum number of newly computed IDs to insert in a single asynchronous batch.
+     * 
+     * <p>Defaults to zero, which stores every new ID synchronously. Only IDs obtained from the
+     * {@link #setInitialValueStore(PairwiseIdStore)} hook are ever inserted asynchronously.</p>
+     * 
+     * @param size batch size
+     * 
+     * @since 4.1.0
+     */
+    public void setInsertBatchSize(@NonNegative final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        insertBatchSize = (int) Constraint.isGreaterThanOrEqual(0, size,
+                "Batch size must be greater than or equal to 0");
+    }
+    
+    /**
+     * Set the interval between flushes of pending asynchronous inserts.
+     * 
+     * <p>Defaults to 1 second.</p>
+     * 
+     * @param interval flush interval
+     * 
+     * @since 4.1.0
+     */
+    public void setInsertFlushInterval(@Nonnull final Duration interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(interval, "Interval cannot be null");
+        Constraint.isFalse(interval.isNegative() || interval.isZero(), "Interval must be positive");
+        
+        insertFlushInterval = interval;
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -531,6 +671,38 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
             }
             log.warn("The database was not reachable or was not defined with an appropriate table + primary key", e);
         }
+        
+        if (cacheSize > 0) {
+            idCache = CacheBuilder.newBuilder()
+                    .maximumSize(cacheSize)
+                    .expireAfterWrite(cacheLifetime.toMillis(), TimeUnit.MILLISECONDS)
+                    .build();
+        }
+        
+        if (insertBatchSize > 0 && initialValueStore != null) {
+            insertTimer = new Timer("JDBCPairwiseIdStore-inserts", true);
+            insertTimer.schedule(new TimerTask() {
+                public void run() {
+                    flushPendingInserts();
+                }
+            }, insertFlushInterval.toMillis(), insertFlushInterval.toMillis());
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (insertTimer != null) {
+            insertTimer.cancel();
+            insertTimer = null;
+        }
+        flushPendingInserts();
+        if (idCache != null) {
+            idCache.invalidateAll();
+            idCache = null;
+        }
+        
+        super.doDestroy();
     }
 
     // Checkstyle: MethodLength|CyclomaticComplexity OFF
@@ -545,6 +717,22 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         Constraint.isNotEmpty(pid.getSourceSystemId(), "Source system ID cannot be null or empty");
         
         log.debug("Obtaining pairwise ID for source ID: {}", pid.getSourceSystemId());
+        
+        final CacheKey cacheKey = idCache != null ? new CacheKey(pid) : null;
+        if (cacheKey != null) {
+            final CachedId cached = idCache.getIfPresent(cacheKey);
+            if (cached != null) {
+                if (cached.id != null && (cached.id.getDeactivationTime() == null
+                        || cached.id.getDeactivationTime().isAfter(Instant.now()))) {
+                    log.debug("Returning cached active pairwise ID: {}", cached.id.getPairwiseId());
+                    return copy(cached.id);
+                } else if (cached.id == null && !allowCreate && cached.expiration.isAfter(Instant.now())) {
+                    log.debug("Cached lookup found no existing pairwise ID and creation is not permitted by caller");
+                    return null;
+                }
+                idCache.invalidate(cacheKey);
+            }
+        }
 
         log.trace("Prepared statement: {}", getBySourceSelectSQL);
         log.trace("Setting prepared statement parameter {}: {}", 1, pid.getIssuerEntityID());
@@ -572,10 +760,16 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
                         || entries.get(0).getDeactivationTime().isAfter(Instant.now()))) {
                     dbConn.commit();
                     log.debug("Returning existing active pairwise ID: {}", entries.get(0).getPairwiseId());
+                    if (cacheKey != null) {
+                        idCache.put(cacheKey, new CachedId(copy(entries.get(0)), null));
+                    }
                     return entries.get(0);
                 } else if (!allowCreate) {
                     dbConn.commit();
                     log.debug("No existing pairwise ID and creation is not permitted by caller");
+                    if (cacheKey != null && !negativeCacheLifetime.isZero()) {
+                        idCache.put(cacheKey, new CachedId(null, Instant.now().plus(negativeCacheLifetime)));
+                    }
                     return null;
                 }
 
@@ -584,9 +778,11 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
                 // Circumvent final modifier on parameter.
                 PairwiseId retValue = pid;
 
+                boolean computed = false;
                 if ((entries == null || entries.size() == 0) && initialValueStore != null) {
                     log.debug("Issuing new pairwise ID using initial value store");
                     retValue = initialValueStore.getBySourceValue(pid, allowCreate);
+                    computed = retValue != null;
                 } else {
                     log.debug("Issuing new random pairwise ID");
                     retValue.setPairwiseId(UUID.randomUUID().toString());
@@ -594,20 +790,21 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
                         retValue.setPeerProvidedId(entries.get(0).getPeerProvidedId());
                     }
                 }
-                store(retValue, dbConn);
-                dbConn.commit();
+                if (computed && insertTimer != null) {
+                    dbConn.commit();
+                    log.debug("Queueing computed pairwise ID for asynchronous insert");
+                    pendingInserts.add(copy(retValue));
+                } else {
+                    store(retValue, dbConn);
+                    dbConn.commit();
+                }
+                if (cacheKey != null) {
+                    idCache.put(cacheKey, new CachedId(copy(retValue), null));
+                }
                 return retValue;
             } catch (final SQLException e) {
-                boolean retry = false;
-                for (final String msg : retryableErrors) {
-                    if (e.getSQLState() != null && e.getSQLState().contains(msg)) {
-                        log.warn("Caught retryable SQL exception", e);
-                        retry = true;
-                        break;
-                    }
-                }
-                
-                if (retry) {
+                if (isRetryable(e)) {
+                    log.warn("Caught retryable SQL exception", e);
                     if (--retries < 0) {
                         log.warn("Error retryable, but retry limit exceeded");
                         throw new IOException(e);
@@ -681,6 +878,8 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         }
 
         log.debug("Deactivating pairwise ID {} as of {}", pid.getPairwiseId(), deactivationTime);
+        
+        prepareForUpdate(pid);
 
         log.trace("Prepared statement: {}", deactivateSQL);
         log.trace("Setting prepared statement parameter {}: {}", 1, deactivationTime);
@@ -715,6 +914,8 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         Constraint.isNotEmpty(pid.getPeerProvidedId(), "Peer-provided ID cannot be null or empty");
 
         log.debug("Attaching peer-provided ID {} to pairwise id {}", pid.getPeerProvidedId(), pid.getPairwiseId());
+        
+        prepareForUpdate(pid);
 
         log.trace("Prepared statement: {}", attachSQL);
         log.trace("Setting prepared statement parameter {}: {}", 1, pid.getPeerProvidedId());
@@ -752,6 +953,95 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         
         log.debug("Storing new pairwise ID entry");
         
+        final PreparedStatement statement = dbConn.prepareStatement(insertSQL);
+        statement.setQueryTimeout((int) queryTimeout.toSeconds());
+        bindInsert(entry, statement);
+        statement.executeUpdate();
+    }
+    
+    /**
+     * Insert any computed IDs awaiting asynchronous storage, in batches.
+     * 
+     * <p>A batch that fails because of a retryable error, usually a duplicate inserted by another node,
+     * is retried one record at a time. Records that cannot be stored are dropped, since they will be
+     * computed again identically if they are needed.</p>
+     */
+    void flushPendingInserts() {
+        synchronized (pendingInserts) {
+            final List<PairwiseId> batch = new ArrayList<>(Math.max(insertBatchSize, 1));
+            PairwiseId entry;
+            while ((entry = pendingInserts.poll()) != null) {
+                batch.add(entry);
+                if (batch.size() >= insertBatchSize) {
+                    storeBatch(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                storeBatch(batch);
+            }
+        }
+    }
+    
+    /**
+     * Store a batch of records in a single transaction, falling back to individual inserts if the
+     * batch fails with a retryable error.
+     * 
+     * @param batch records to store
+     */
+    private void storeBatch(@Nonnull @NonnullElements final List<PairwiseId> batch) {
+        
+        log.debug("Storing batch of {} pairwise ID entries", batch.size());
+        
+        try (final Connection dbConn = getConnection(false)) {
+            try {
+                final PreparedStatement statement = dbConn.prepareStatement(insertSQL);
+                statement.setQueryTimeout((int) queryTimeout.toSeconds());
+                for (final PairwiseId entry : batch) {
+                    bindInsert(entry, statement);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                dbConn.commit();
+                return;
+            } catch (final SQLException e) {
+                dbConn.rollback();
+                throw e;
+            }
+        } catch (final SQLException e) {
+            final SQLException cause = e instanceof BatchUpdateException && e.getNextException() != null
+                    ? e.getNextException() : e;
+            if (!isRetryable(e) && !isRetryable(cause)) {
+                log.error("Error storing batch of {} pairwise ID entries", batch.size(), e);
+                return;
+            }
+            log.debug("Batch insert failed with retryable error, storing entries individually");
+        }
+        
+        for (final PairwiseId entry : batch) {
+            try (final Connection dbConn = getConnection(true)) {
+                store(entry, dbConn);
+            } catch (final SQLException e) {
+                if (isRetryable(e)) {
+                    log.debug("Pairwise ID {} was already stored", entry.getPairwiseId());
+                } else {
+                    log.error("Error storing pairwise ID {}", entry.getPairwiseId(), e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Validate a record and bind its values to an insert statement.
+     * 
+     * @param entry object to store
+     * @param statement insert statement
+     * 
+     * @throws SQLException if an error occurs
+     */
+    private void bindInsert(@Nonnull final PairwiseId entry, @Nonnull final PreparedStatement statement)
+            throws SQLException {
+        
         if (StringSupport.trimOrNull(entry.getIssuerEntityID()) == null
                 || StringSupport.trimOrNull(entry.getRecipientEntityID()) == null
                 || StringSupport.trimOrNull(entry.getPairwiseId()) == null
@@ -770,9 +1060,6 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         log.trace("Setting prepared statement parameter {}: {}", 6, entry.getPeerProvidedId());
         log.trace("Setting prepared statement parameter {}: {}", 7, entry.getCreationTime());
         log.trace("Setting prepared statement parameter {}: {}", 8, entry.getDeactivationTime());
-        
-        final PreparedStatement statement = dbConn.prepareStatement(insertSQL);
-        statement.setQueryTimeout((int) queryTimeout.toSeconds());
     
         statement.setString(1, entry.getIssuerEntityID());
         statement.setString(2, entry.getRecipientEntityID());
@@ -790,8 +1077,63 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         } else {
             statement.setNull(8, Types.TIMESTAMP);
         }
+    }
     
-        statement.executeUpdate();
+    /**
+     * Get whether an exception signals a retryable error.
+     * 
+     * @param e exception to check
+     * 
+     * @return true iff the SQL state matches a retryable error
+     */
+    private boolean isRetryable(@Nonnull final SQLException e) {
+        if (e.getSQLState() != null) {
+            for (final String msg : retryableErrors) {
+                if (e.getSQLState().contains(msg)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Ensure any pending insert of an ID is complete and drop it from the local cache ahead of
+     * an update to the record.
+     * 
+     * @param pid ID being updated
+     */
+    private void prepareForUpdate(@Nonnull final PairwiseId pid) {
+        if (!pendingInserts.isEmpty()) {
+            flushPendingInserts();
+        }
+        
+        if (idCache != null) {
+            idCache.asMap().values().removeIf(cached -> cached.id != null
+                    && Objects.equals(cached.id.getPairwiseId(), pid.getPairwiseId())
+                    && Objects.equals(cached.id.getIssuerEntityID(), pid.getIssuerEntityID())
+                    && Objects.equals(cached.id.getRecipientEntityID(), pid.getRecipientEntityID()));
+        }
+    }
+    
+    /**
+     * Copy an ID so cached state is isolated from callers.
+     * 
+     * @param pid ID to copy
+     * 
+     * @return the copy
+     */
+    @Nonnull private static PairwiseId copy(@Nonnull final PairwiseId pid) {
+        final PairwiseId result = new PairwiseId();
+        result.setIssuerEntityID(pid.getIssuerEntityID());
+        result.setRecipientEntityID(pid.getRecipientEntityID());
+        result.setPrincipalName(pid.getPrincipalName());
+        result.setSourceSystemId(pid.getSourceSystemId());
+        result.setPairwiseId(pid.getPairwiseId());
+        result.setPeerProvidedId(pid.getPeerProvidedId());
+        result.setCreationTime(pid.getCreationTime());
+        result.setDeactivationTime(pid.getDeactivationTime());
+        return result;
     }
 
     /**
@@ -893,4 +1235,73 @@ public class JDBCPairwiseIdStore extends AbstractInitializableComponent implemen
         return entries;
     }
     
-}
\ No newline at end of file
+
+    /** Key for cached lookups by source value. */
+    private static final class CacheKey {
+        
+        /** Issuer. */
+        @Nonnull private final String issuer;
+
+        /** Recipient. */
+        @Nonnull private final String recipient;
+
+        /** Principal name. */
+        @Nonnull private final String principal;
+
+        /** Source ID. */
+        @Nonnull private final String source;
+        
+        /**
+         * Constructor.
+         * 
+         * @param pid input to the lookup
+         */
+        CacheKey(@Nonnull final PairwiseId pid) {
+            issuer = pid.getIssuerEntityID();
+            recipient = pid.getRecipientEntityID();
+            principal = pid.getPrincipalName();
+            source = pid.getSourceSystemId();
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) obj;
+            return issuer.equals(other.issuer) && recipient.equals(other.recipient)
+                    && principal.equals(other.principal) && source.equals(other.source);
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return Objects.hash(issuer, recipient, principal, source);
+        }
+    }
+    
+    /** Cached lookup result, with a null ID denoting a failed lookup. */
+    private static final class CachedId {
+        
+        /** Cached ID. */
+        @Nullable private final PairwiseId id;
+        
+        /** Expiration of a failed lookup. */
+        @Nullable private final Instant expiration;
+        
+        /**
+         * Constructor.
+         * 
+         * @param pid cached ID
+         * @param exp expiration of a failed lookup
+         */
+        CachedId(@Nullable final PairwiseId pid, @Nullable final Instant exp) {
+            id = pid;
+            expiration = exp;
+        }
+    }
+
+}
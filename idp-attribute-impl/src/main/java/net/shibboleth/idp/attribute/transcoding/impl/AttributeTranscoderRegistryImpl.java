@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -54,7 +55,12 @@ import net.shibboleth.utilities.java.support.primitive.DeprecationSupport;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 import net.shibboleth.utilities.java.support.primitive.DeprecationSupport.ObjectType;
 
-/** Service implementation of the {@link AttributeTranscoderRegistry} interface. */
+/**
+ * Service implementation of the {@link AttributeTranscoderRegistry} interface.
+ * 
+ * <p>The rules are compiled when installed into immutable per-name, per-type lists that are returned
+ * directly, and the effective type of each class passed in is computed once and cached.</p>
+ */
 @ThreadSafe
 public class AttributeTranscoderRegistryImpl extends AbstractServiceableComponent<AttributeTranscoderRegistry>
         implements AttributeTranscoderRegistry {
@@ -65,6 +71,12 @@ public class AttributeTranscoderRegistryImpl extends AbstractServiceableComponen
     /** Registry of transcoding instructions for a given "name" and type of object. */
     @Nonnull @NonnullElements private final Map<String,Multimap<Class<?>,TranscodingRule>> transcodingRegistry;
     
+    /** Immutable form of {@link #transcodingRegistry} used at runtime. */
+    @Nonnull @NonnullElements private Map<String,Map<Class<?>,List<TranscodingRule>>> compiledRegistry;
+    
+    /** Cache of effective types for input types. */
+    @Nonnull private final ClassValue<Optional<Class<?>>> effectiveTypeCache;
+    
     /** Registry of display name mappings associated with internal attribute IDs. */
     @Nonnull @NonnullElements private final Map<String,Map<Locale,String>> displayNameRegistry;
     
@@ -80,6 +92,13 @@ public class AttributeTranscoderRegistryImpl extends AbstractServiceableComponen
         namingFunctionRegistry = new HashMap<>();
         displayNameRegistry = new HashMap<>();
         descriptionRegistry = new HashMap<>();
+        compiledRegistry = Collections.emptyMap();
+        effectiveTypeCache = new ClassValue<>() {
+            /** {@inheritDoc} */
+            protected Optional<Class<?>> computeValue(final Class<?> type) {
+                return Optional.ofNullable(findEffectiveType(type));
+            }
+        };
     }
     
     /** {@inheritDoc} */
@@ -155,6 +174,14 @@ public class AttributeTranscoderRegistryImpl extends AbstractServiceableComponen
                 log.warn("Ignoring TranscodingRule with invalid id property: {}", internalId);
             }
         }
+        
+        final Map<String,Map<Class<?>,List<TranscodingRule>>> compiled = new HashMap<>(transcodingRegistry.size());
+        transcodingRegistry.forEach((name,rules) -> {
+            final Map<Class<?>,List<TranscodingRule>> byType = new HashMap<>(rules.keySet().size());
+            rules.asMap().forEach((type,list) -> byType.put(type, List.copyOf(list)));
+            compiled.put(name, Map.copyOf(byType));
+        });
+        compiledRegistry = Map.copyOf(compiled);
     }
     
     /** {@inheritDoc} */
@@ -188,7 +215,7 @@ public class AttributeTranscoderRegistryImpl extends AbstractServiceableComponen
         Constraint.isNotNull(from, "IdPAttribute cannot be null");
         Constraint.isNotNull(to, "Target type cannot be null");
         
-        final Multimap<Class<?>,TranscodingRule> propertyCollections = transcodingRegistry.get(from.getId());
+        final Map<Class<?>,List<TranscodingRule>> propertyCollections = compiledRegistry.get(from.getId());
         if (propertyCollections == null) {
             return Collections.emptyList();
         }
@@ -201,7 +228,7 @@ public class AttributeTranscoderRegistryImpl extends AbstractServiceableComponen
         
         log.trace("Using rules for effective type {}", effectiveType.getName());
         
-        return List.copyOf(propertyCollections.get(effectiveType));
+        return propertyCollections.getOrDefault(effectiveType, Collections.emptyList());
     }
 
     /** {@inheritDoc} */
@@ -223,9 +250,10 @@ public class AttributeTranscoderRegistryImpl extends AbstractServiceableComponen
         // Don't know if we can work around this cast or not.
         @SuppressWarnings("unchecked") final String id = ((Function<? super T,String>) namingFunction).apply(from);
         if (id != null) {
-            final Multimap<Class<?>,TranscodingRule> propertyCollections = transcodingRegistry.get(id);
+            final Map<Class<?>,List<TranscodingRule>> propertyCollections = compiledRegistry.get(id);
             
-            return propertyCollections != null ? List.copyOf(propertyCollections.get(effectiveType))
+            return propertyCollections != null
+                    ? propertyCollections.getOrDefault(effectiveType, Collections.emptyList())
                     : Collections.emptyList();
         }
         log.warn("Object of type {} did not have a canonical name", from.getClass().getName());
@@ -382,6 +410,17 @@ public class AttributeTranscoderRegistryImpl extends AbstractServiceableComponen
      * @return the appropriate type to use subsequently or null if not found
      */
     @Nullable private Class<?> getEffectiveType(@Nonnull final Class<?> inputType) {
+        return effectiveTypeCache.get(inputType).orElse(null);
+    }
+    
+    /**
+     * Search for the appropriate type to use in looking up rules for an input type.
+     * 
+     * @param inputType the type passed into the registry operation
+     * 
+     * @return the appropriate type to use subsequently or null if not found
+     */
+    @Nullable private Class<?> findEffectiveType(@Nonnull final Class<?> inputType) {
         
         // Check for explicit support.
         if (namingFunctionRegistry.containsKey(inputType)) {
@@ -19,6 +19,9 @@ package net.shibboleth.idp.attribute.impl;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import net.shibboleth.idp.attribute.PairwiseId;
 import net.shibboleth.idp.attribute.impl.ComputedPairwiseIdStore.Encoding;
@@ -175,4 +178,50 @@ public class ComputedPairwiseIdStoreTest {
         Assert.assertEquals(pid.getPairwiseId(), B32RESULT);
     }
    
-}
\ No newline at end of file
+    @Test
+    public void testRepeatedComputation() throws Exception {
+        final ComputedPairwiseIdStore store = new ComputedPairwiseIdStore();
+        store.setSalt(salt);
+        store.initialize();
+
+        for (int i = 0; i < 3; ++i) {
+            PairwiseId pid = new PairwiseId();
+            pid.setRecipientEntityID(DatabaseTestingSupport.SP_ENTITY_ID);
+            pid.setPrincipalName("foo");
+            pid.setSourceSystemId(COMMON_ATTRIBUTE_VALUE_STRING);
+            pid = store.getBySourceValue(pid, true);
+            Assert.assertEquals(pid.getPairwiseId(), RESULT);
+        }
+    }
+
+    @Test
+    public void testBulk() throws Exception {
+        final ComputedPairwiseIdStore store = new ComputedPairwiseIdStore();
+        store.setSalt(salt);
+        store.setExceptionMap(Collections.singletonMap("user7",
+                Collections.<String,String>singletonMap(ComputedPairwiseIdStore.WILDCARD_OVERRIDE, null)));
+        store.initialize();
+
+        final List<PairwiseId> results = store.getBySourceValues(IntStream.range(0, 1000).mapToObj(i -> {
+            final PairwiseId pid = new PairwiseId();
+            pid.setRecipientEntityID(i % 2 == 0 ? DatabaseTestingSupport.SP_ENTITY_ID : "https://sp2.example.org");
+            pid.setPrincipalName("user" + i);
+            pid.setSourceSystemId(i == 0 ? COMMON_ATTRIBUTE_VALUE_STRING : "user" + i);
+            return pid;
+        })).collect(Collectors.toList());
+
+        Assert.assertEquals(results.size(), 999);
+        for (final PairwiseId pid : results) {
+            Assert.assertNotEquals(pid.getPrincipalName(), "user7");
+            final PairwiseId single = new PairwiseId();
+            single.setRecipientEntityID(pid.getRecipientEntityID());
+            single.setPrincipalName(pid.getPrincipalName());
+            single.setSourceSystemId(pid.getSourceSystemId());
+            Assert.assertEquals(store.getBySourceValue(single, true).getPairwiseId(), pid.getPairwiseId());
+            if ("user0".equals(pid.getPrincipalName())) {
+                Assert.assertEquals(pid.getPairwiseId(), RESULT);
+            }
+        }
+    }
+   
+}
@@ -172,4 +172,98 @@ public class JDBCPairwiseIdStoreTest {
         Assert.assertTrue(comparePersistentIdEntrys(id3, id));
     }
     
-}
\ No newline at end of file
+    @Test public void cachedLookups() throws ComponentInitializationException, IOException, SQLException {
+        final JDBCPairwiseIdStore store = new JDBCPairwiseIdStore();
+        store.setDataSource(testSource);
+        store.setCacheSize(100);
+        store.initialize();
+        
+        final PairwiseId id = newSourceId("localID");
+        Assert.assertNull(store.getBySourceValue(id, false));
+        
+        // Established behind the store's back, so hidden by the negative entry.
+        final PairwiseId stored = newSourceId("localID");
+        stored.setPairwiseId(UUID.randomUUID().toString());
+        stored.setCreationTime(Instant.now());
+        try (final Connection conn = testSource.getConnection()) {
+            store.store(stored, conn);
+        }
+        Assert.assertNull(store.getBySourceValue(newSourceId("localID"), false));
+        
+        final PairwiseId found = store.getBySourceValue(newSourceId("localID"), true);
+        Assert.assertTrue(comparePersistentIdEntrys(found, stored));
+        
+        // Subsequent lookups are served from the cache and isolated from caller modification.
+        found.setPeerProvidedId("changed");
+        deleteAll();
+        PairwiseId cached = store.getBySourceValue(newSourceId("localID"), false);
+        Assert.assertTrue(comparePersistentIdEntrys(cached, stored));
+        
+        cached.setDeactivationTime(null);
+        store.deactivate(cached);
+        Assert.assertNull(store.getBySourceValue(newSourceId("localID"), false));
+        
+        cached = store.getBySourceValue(newSourceId("localID"), true);
+        Assert.assertNotNull(cached);
+        Assert.assertNotEquals(cached.getPairwiseId(), stored.getPairwiseId());
+        
+        cached.setPeerProvidedId("attached");
+        store.attach(cached);
+        Assert.assertEquals(store.getBySourceValue(newSourceId("localID"), false).getPeerProvidedId(), "attached");
+    }
+
+    @Test public void batchedInserts() throws ComponentInitializationException, IOException, SQLException {
+        final ComputedPairwiseIdStore computed = new ComputedPairwiseIdStore();
+        computed.setSalt("thisisaspecialsalt".getBytes());
+        computed.initialize();
+        
+        final JDBCPairwiseIdStore store = new JDBCPairwiseIdStore();
+        store.setDataSource(testSource);
+        store.setInitialValueStore(computed);
+        store.setInsertBatchSize(2);
+        store.setInsertFlushInterval(Duration.ofHours(1));
+        store.initialize();
+        
+        final PairwiseId[] ids = new PairwiseId[3];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = store.getBySourceValue(newSourceId("localID" + i), true);
+            Assert.assertNotNull(ids[i]);
+            Assert.assertNull(store.getByIssuedValue(ids[i]));
+        }
+
+        // Pre-empt one insert to force the batch containing it to fall back.
+        final PairwiseId duplicate = newSourceId("localID1");
+        duplicate.setPairwiseId(ids[1].getPairwiseId());
+        duplicate.setCreationTime(Instant.now());
+        try (final Connection conn = testSource.getConnection()) {
+            store.store(duplicate, conn);
+        }
+        
+        store.flushPendingInserts();
+        for (final PairwiseId id : ids) {
+            Assert.assertTrue(comparePersistentIdEntrys(store.getByIssuedValue(id), id));
+        }
+        
+        // Deterministic values mean the same ID is found again.
+        Assert.assertEquals(store.getBySourceValue(newSourceId("localID0"), true).getPairwiseId(),
+                ids[0].getPairwiseId());
+        store.destroy();
+    }
+    
+    @Nonnull private PairwiseId newSourceId(@Nonnull final String source) {
+        final PairwiseId id = new PairwiseId();
+        id.setIssuerEntityID(DatabaseTestingSupport.IDP_ENTITY_ID);
+        id.setRecipientEntityID(DatabaseTestingSupport.SP_ENTITY_ID);
+        id.setPrincipalName(DatabaseTestingSupport.PRINCIPAL_ID);
+        id.setSourceSystemId(source);
+        return id;
+    }
+    
+    private void deleteAll() throws SQLException {
+        try (final Connection conn = testSource.getConnection()) {
+            conn.setAutoCommit(true);
+            conn.prepareStatement("DELETE FROM shibpid").executeUpdate();
+        }
+    }
+    
+}
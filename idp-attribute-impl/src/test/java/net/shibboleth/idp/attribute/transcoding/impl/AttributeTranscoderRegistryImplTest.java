@@ -121,6 +121,19 @@ public class AttributeTranscoderRegistryImplTest {
         assertTrue(registry.getTranscodingRules(new IdPAttribute("foo"), String.class).isEmpty());
 }
 
+    @Test public void testCompiledRules() {
+        final Collection<TranscodingRule> rules = registry.getTranscodingRules(new IdPAttribute("foo"), Pair.class);
+        assertEquals(rules.size(), 3);
+        assertSame(registry.getTranscodingRules(new IdPAttribute("foo"), Pair.class), rules);
+        assertSame(registry.getTranscodingRules(new IdPAttribute("foo"), MyPair.class), rules);
+        try {
+            rules.clear();
+            fail("Rules should be unmodifiable");
+        } catch (final UnsupportedOperationException e) {
+            
+        }
+    }
+
     @Test public void testDecodeNoMappings() throws AttributeDecodingException {
         
         assertTrue(registry.getTranscodingRules(new Pair<>("foo", "value")).isEmpty());
@@ -23,10 +23,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 
 import org.opensaml.core.xml.XMLObjectBaseTestCase;
 import org.opensaml.saml.metadata.resolver.filter.FilterException;
 import org.opensaml.saml.saml2.metadata.AttributeConsumingService;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.springframework.context.support.ConversionServiceFactoryBean;
 import org.springframework.context.support.GenericApplicationContext;
@@ -129,6 +131,29 @@ public class AttributeMappingNodeProcessorTest extends XMLObjectBaseTestCase {
                 Collections.singletonList("http://id.incommon.org/category/research-and-scholarship"));
     }
 
+    // Groups are shared by their entities, so must be decoded once rather than once per entity.
+    @Test public void groupAttributes() throws FilterException {
+        
+        final EntitiesDescriptor group =
+                unmarshallElement("/net/shibboleth/idp/attribute/resolver/filter/groupWithAttributes.xml");
+        assertNotNull(group);
+        assertEquals(group.getEntityDescriptors().size(), 2);
+        
+        processor.process(group.getEntityDescriptors().get(0));
+        
+        final List<AttributesMapContainer> containers = group.getObjectMetadata().get(AttributesMapContainer.class);
+        assertEquals(containers.size(), 1);
+        final AttributesMapContainer container = containers.get(0);
+        assertEquals(container.getStringValues("http://macedir.org/entity-category"),
+                Collections.singletonList("http://refeds.org/category/research-and-scholarship"));
+        
+        processor.process(group.getEntityDescriptors().get(1));
+        
+        final List<AttributesMapContainer> after = group.getObjectMetadata().get(AttributesMapContainer.class);
+        assertEquals(after.size(), 1);
+        assertSame(after.get(0), container);
+    }
+
     @Test public void requiredAttributes() throws FilterException {
 
         final AttributeConsumingService acs =
@@ -17,10 +17,15 @@
 
 package net.shibboleth.idp.authn;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -31,21 +36,27 @@ import javax.security.auth.Subject;
 import javax.security.auth.login.LoginException;
 
 import net.shibboleth.idp.authn.context.AuthenticationContext;
+import net.shibboleth.idp.authn.context.AuthenticationErrorContext;
 import net.shibboleth.idp.authn.context.UsernamePasswordContext;
 import net.shibboleth.idp.authn.principal.PasswordPrincipal;
 import net.shibboleth.idp.authn.principal.UsernamePrincipal;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.messaging.context.navigate.ChildContextLookup;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
 /**
  * An abstract {@link CredentialValidator} that checks for a {@link UsernamePasswordContext} and delegates
  * to subclasses to produce a result.
@@ -84,6 +95,27 @@ public abstract class AbstractUsernamePasswordCredentialValidator extends Abstra
     /** Trim username prior to transforms? */
     private boolean trim;
     
+    /** Optional cache of successful validations. */
+    @Nullable private VerifiedCredentialCache verifiedCredentialCache;
+    
+    /** Optional filter of known usernames. */
+    @Nullable private UsernameExistenceFilter usernameFilter;
+    
+    /** Maximum number of concurrent back-end validations, or zero for no limit. */
+    private int maxConcurrentValidations;
+    
+    /** Maximum number of validations allowed to wait for a back-end slot. */
+    private int maxQueuedValidations;
+    
+    /** Maximum time to wait for a back-end slot. */
+    @Nonnull private Duration queueTimeout;
+    
+    /** Back-end slots, if concurrency is limited. */
+    @Nullable private Semaphore bulkhead;
+    
+    /** Validations waiting for a back-end slot. */
+    @Nonnull private final AtomicInteger queuedValidations;
+    
     /** Constructor. */
     public AbstractUsernamePasswordCredentialValidator() {
         usernamePasswordContextLookupStrategy = new ChildContextLookup<>(UsernamePasswordContext.class);
@@ -94,6 +126,10 @@ public abstract class AbstractUsernamePasswordCredentialValidator extends Abstra
         uppercase = false;
         lowercase = false;
         trim = false;
+        
+        maxQueuedValidations = 100;
+        queueTimeout = Duration.ofSeconds(5);
+        queuedValidations = new AtomicInteger();
     }
     
     /**
@@ -214,6 +250,122 @@ public abstract class AbstractUsernamePasswordCredentialValidator extends Abstra
         trim = flag;
     }
     
+    /**
+     * Set a cache of successful validations to consult before, and populate after, validation.
+     * 
+     * <p>A result obtained from the cache reflects the {@link Subject} produced by the original validation,
+     * but any other side effects of that validation, such as warnings or contexts populated with back-end
+     * responses, are not repeated. Results that produced a warning are not cached.</p>
+     * 
+     * @param cache verified credential cache
+     * 
+     * @since 4.1.0
+     */
+    public void setVerifiedCredentialCache(@Nullable final VerifiedCredentialCache cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        verifiedCredentialCache = cache;
+    }
+    
+    /**
+     * Set a filter of known usernames to consult before contacting the back-end.
+     * 
+     * <p>Usernames the filter rejects fail with {@link AuthnEventIds#UNKNOWN_USERNAME}, after a delay
+     * sampled from recent back-end latencies unless the filter's padding is turned off. The exception is a
+     * {@link UsernameExistenceFilter.RejectedUsernameException}, which does not count toward account lockout.
+     * </p>
+     * 
+     * @param filter username filter
+     * 
+     * @since 4.1.0
+     */
+    public void setUsernameFilter(@Nullable final UsernameExistenceFilter filter) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        usernameFilter = filter;
+    }
+    
+    /**
+     * Set the maximum number of validations to run against the back-end at once.
+     * 
+     * <p>Defaults to zero, meaning no limit. When a limit is set, further requests wait for a slot,
+     * subject to {@link #setMaxQueuedValidations(int)} and {@link #setQueueTimeout(Duration)}, and
+     * fail with {@link AuthnEventIds#BACKEND_BUSY} if none is available, so that a slow back-end
+     * cannot tie up every request thread.</p>
+     * 
+     * @param max maximum concurrent validations
+     * 
+     * @since 4.1.0
+     */
+    public void setMaxConcurrentValidations(final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        maxConcurrentValidations = (int) Constraint.isGreaterThanOrEqual(0, max,
+                "Maximum concurrent validations cannot be negative");
+    }
+
+    /**
+     * Set the maximum number of validations allowed to wait for a back-end slot.
+     * 
+     * <p>Defaults to 100. Requests arriving when this many are already waiting are rejected immediately.</p>
+     * 
+     * @param max maximum waiting validations
+     * 
+     * @since 4.1.0
+     */
+    public void setMaxQueuedValidations(final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        maxQueuedValidations = (int) Constraint.isGreaterThanOrEqual(0, max,
+                "Maximum queued validations cannot be negative");
+    }
+
+    /**
+     * Set the maximum time to wait for a back-end slot.
+     * 
+     * <p>Defaults to 5 seconds.</p>
+     * 
+     * @param timeout queue timeout
+     * 
+     * @since 4.1.0
+     */
+    public void setQueueTimeout(@Nonnull final Duration timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(timeout, "Queue timeout cannot be null");
+        Constraint.isFalse(timeout.isNegative(), "Queue timeout cannot be negative");
+        
+        queueTimeout = timeout;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        if (maxConcurrentValidations > 0) {
+            bulkhead = new Semaphore(maxConcurrentValidations, true);
+            final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+            registry.remove(getBulkheadMetricName("active"));
+            registry.register(getBulkheadMetricName("active"),
+                    (Gauge<Integer>) () -> maxConcurrentValidations - bulkhead.availablePermits());
+            registry.remove(getBulkheadMetricName("queued"));
+            registry.register(getBulkheadMetricName("queued"), (Gauge<Integer>) queuedValidations::get);
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (bulkhead != null) {
+            final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+            registry.remove(getBulkheadMetricName("active"));
+            registry.remove(getBulkheadMetricName("queued"));
+            bulkhead = null;
+        }
+        
+        super.doDestroy();
+    }
+
     /** {@inheritDoc} */
     @Override
     protected Subject doValidate(@Nonnull final ProfileRequestContext profileRequestContext,
@@ -252,7 +404,161 @@ public abstract class AbstractUsernamePasswordCredentialValidator extends Abstra
             return null;
         }
                 
-        return doValidate(profileRequestContext, authenticationContext, upContext, warningHandler, errorHandler);
+        if (usernameFilter != null && !usernameFilter.mightExist(upContext.getTransformedUsername())) {
+            log.info("{} Username '{}' is not known", getLogPrefix(), upContext.getTransformedUsername());
+            final Duration delay = usernameFilter.getRejectionDelay();
+            if (!delay.isZero()) {
+                try {
+                    Thread.sleep(delay.toMillis());
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final LoginException e = new UsernameExistenceFilter.RejectedUsernameException();
+            if (errorHandler != null) {
+                errorHandler.handleError(profileRequestContext, authenticationContext, e,
+                        AuthnEventIds.UNKNOWN_USERNAME);
+            }
+            throw e;
+        }
+        
+        if (verifiedCredentialCache == null || getId() == null) {
+            return doBoundedValidate(profileRequestContext, authenticationContext, upContext, warningHandler,
+                    errorHandler);
+        }
+        
+        final String username = upContext.getTransformedUsername();
+        final String password = upContext.getPassword();
+        final Subject cached = verifiedCredentialCache.get(getId(), username, password);
+        if (cached != null) {
+            log.info("{} Login by '{}' succeeded using cached validation result", getLogPrefix(), username);
+            return populateSubject(cached, upContext);
+        }
+        
+        final AtomicBoolean warned = new AtomicBoolean();
+        final WarningHandler trackingHandler = warningHandler == null ? null : (prc, ac, message, eventId) -> {
+            warned.set(true);
+            warningHandler.handleWarning(prc, ac, message, eventId);
+        };
+        
+        final Subject subject = doBoundedValidate(profileRequestContext, authenticationContext, upContext,
+                trackingHandler, errorHandler);
+        if (subject != null && !warned.get()) {
+            verifiedCredentialCache.put(getId(), username, password, subject);
+        }
+        return subject;
+    }
+    
+    /**
+     * Run the subclass validation, subject to any limit on concurrent back-end validations.
+     * 
+     * @param profileRequestContext profile request context
+     * @param authenticationContext authentication context
+     * @param usernamePasswordContext the username/password to validate
+     * @param warningHandler optional warning handler interface
+     * @param errorHandler optional error handler interface
+     * 
+     * @return the validated result, or null if inapplicable
+     * 
+     * @throws Exception if an error occurs
+     */
+    @Nullable private Subject doBoundedValidate(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final AuthenticationContext authenticationContext,
+            @Nonnull final UsernamePasswordContext usernamePasswordContext,
+            @Nullable final WarningHandler warningHandler,
+            @Nullable final ErrorHandler errorHandler) throws Exception {
+        
+        final Semaphore slots = bulkhead;
+        if (slots == null) {
+            return doMeasuredValidate(profileRequestContext, authenticationContext, usernamePasswordContext,
+                    warningHandler, errorHandler);
+        }
+        
+        if (!slots.tryAcquire()) {
+            boolean acquired = false;
+            if (queuedValidations.incrementAndGet() <= maxQueuedValidations) {
+                try {
+                    acquired = slots.tryAcquire(queueTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    queuedValidations.decrementAndGet();
+                }
+            } else {
+                queuedValidations.decrementAndGet();
+            }
+            
+            if (!acquired) {
+                log.warn("{} Back-end busy, rejecting validation of '{}'", getLogPrefix(),
+                        usernamePasswordContext.getTransformedUsername());
+                MetricsSupport.getMetricRegistry().counter(getBulkheadMetricName("rejections")).inc();
+                final LoginException e = new LoginException(AuthnEventIds.BACKEND_BUSY);
+                if (errorHandler != null) {
+                    errorHandler.handleError(profileRequestContext, authenticationContext, e,
+                            AuthnEventIds.BACKEND_BUSY);
+                }
+                throw e;
+            }
+        }
+        
+        try {
+            return doMeasuredValidate(profileRequestContext, authenticationContext, usernamePasswordContext,
+                    warningHandler, errorHandler);
+        } finally {
+            slots.release();
+        }
+    }
+    
+    /**
+     * Run the subclass validation, reporting its latency and outcome to the username filter, if any.
+     * 
+     * @param profileRequestContext profile request context
+     * @param authenticationContext authentication context
+     * @param usernamePasswordContext the username/password to validate
+     * @param warningHandler optional warning handler interface
+     * @param errorHandler optional error handler interface
+     * 
+     * @return the validated result, or null if inapplicable
+     * 
+     * @throws Exception if an error occurs
+     */
+    @Nullable private Subject doMeasuredValidate(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final AuthenticationContext authenticationContext,
+            @Nonnull final UsernamePasswordContext usernamePasswordContext,
+            @Nullable final WarningHandler warningHandler,
+            @Nullable final ErrorHandler errorHandler) throws Exception {
+        
+        if (usernameFilter == null) {
+            return doValidate(profileRequestContext, authenticationContext, usernamePasswordContext, warningHandler,
+                    errorHandler);
+        }
+        
+        final String username = usernamePasswordContext.getTransformedUsername();
+        final long start = System.nanoTime();
+        try {
+            return doValidate(profileRequestContext, authenticationContext, usernamePasswordContext, warningHandler,
+                    errorHandler);
+        } catch (final Exception e) {
+            final AuthenticationErrorContext errorCtx =
+                    authenticationContext.getSubcontext(AuthenticationErrorContext.class);
+            if (errorCtx != null && errorCtx.isClassifiedError(AuthnEventIds.UNKNOWN_USERNAME)) {
+                usernameFilter.recordFalsePositive(username);
+            }
+            throw e;
+        } finally {
+            usernameFilter.recordBackendLatency(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Get the name of a metric reporting on the back-end concurrency limit.
+     * 
+     * @param suffix metric-specific suffix
+     * 
+     * @return the metric name
+     */
+    @Nonnull @NotEmpty private String getBulkheadMetricName(@Nonnull @NotEmpty final String suffix) {
+        return DEFAULT_METRIC_NAME + ".bulkhead." + (getId() != null ? getId() : "unknown") + '.' + suffix;
     }
 
     /**
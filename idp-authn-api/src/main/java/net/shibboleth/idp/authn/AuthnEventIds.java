@@ -87,6 +87,13 @@ public final class AuthnEventIds {
     /** ID of event returned if authentication throws an exception unrelated to credential validation. */
     @Nonnull @NotEmpty public static final String AUTHN_EXCEPTION = "AuthenticationException";
 
+    /**
+     * ID of event returned if an authentication back-end is too busy to handle the request.
+     * 
+     * @since 4.1.0
+     */
+    @Nonnull @NotEmpty public static final String BACKEND_BUSY = "BackendBusy";
+
     /** Constructor. */
     private AuthnEventIds() {
     }
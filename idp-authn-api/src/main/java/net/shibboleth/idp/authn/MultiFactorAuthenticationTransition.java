@@ -25,9 +25,10 @@ import java.util.function.Function;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import net.shibboleth.utilities.java.support.annotation.constraint.Live;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotLive;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.logic.FunctionSupport;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
@@ -46,16 +47,28 @@ import org.slf4j.LoggerFactory;
  * <p>Note that raising the "proceed" event from a previous step will cause the MFA flow itself to attempt
  * successful completion by finalizing its result.</p>
  * 
+ * <p>The rules are compiled into an immutable table when set, with literal flow IDs resolved directly
+ * and without a function call, and the wildcard ('*') rule held separately as the fallback.</p>
+ * 
  * @since 3.3.0
  */
 public class MultiFactorAuthenticationTransition {
 
+    /** Wildcard event. */
+    @Nonnull @NotEmpty private static final String WILDCARD_EVENT = "*";
+    
+    /** Shared strategy for unmapped events. */
+    @Nonnull private static final Function<ProfileRequestContext,String> NO_FLOW = FunctionSupport.constant(null);
+    
     /** A function that determines the next flow to execute. */
     @Nonnull @NonnullElements private Map<String,Function<ProfileRequestContext,String>> nextFlowStrategyMap;
     
+    /** Strategy for the wildcard event, if any. */
+    @Nullable private Function<ProfileRequestContext,String> wildcardStrategy;
+    
     /** Constructor. */
     public MultiFactorAuthenticationTransition() {
-        nextFlowStrategyMap = new HashMap<>();
+        nextFlowStrategyMap = Collections.emptyMap();
     }
     
     /**
@@ -66,10 +79,28 @@ public class MultiFactorAuthenticationTransition {
      * @return flow determination strategy
      */
     @Nonnull public Function<ProfileRequestContext,String> getNextFlowStrategy(@Nonnull @NotEmpty final String event) {
-        if (nextFlowStrategyMap.containsKey(event)) {
-            return nextFlowStrategyMap.get(event);
+        final Function<ProfileRequestContext,String> strategy = nextFlowStrategyMap.get(event);
+        return strategy != null ? strategy : NO_FLOW;
+    }
+    
+    /**
+     * Determine the next subflow to run after a given event, falling back to the wildcard ('*') rule
+     * if no rule exists for the event or it produces no result.
+     * 
+     * @param event the event to transition from
+     * @param profileRequestContext profile request context
+     * 
+     * @return the flow to run, or null
+     * 
+     * @since 4.1.0
+     */
+    @Nullable public String getNextFlow(@Nonnull @NotEmpty final String event,
+            @Nullable final ProfileRequestContext profileRequestContext) {
+        final String flowId = apply(nextFlowStrategyMap.get(event), profileRequestContext);
+        if (flowId != null || WILDCARD_EVENT.equals(event)) {
+            return flowId;
         }
-        return FunctionSupport.constant(null);
+        return apply(wildcardStrategy, profileRequestContext);
     }
     
     /**
@@ -77,7 +108,8 @@ public class MultiFactorAuthenticationTransition {
      * 
      * @return a map of transition functions keyed by event ID
      */
-    @Nonnull @NonnullElements @Live Map<String,Function<ProfileRequestContext,String>> getNextFlowStrategyMap() {
+    @Nonnull @NonnullElements @NotLive @Unmodifiable
+    Map<String,Function<ProfileRequestContext,String>> getNextFlowStrategyMap() {
         return nextFlowStrategyMap;
     }
     
@@ -94,18 +126,17 @@ public class MultiFactorAuthenticationTransition {
     public void setNextFlowStrategyMap(@Nonnull @NonnullElements final Map<String,Object> map) {
         Constraint.isNotNull(map, "Transition strategy map cannot be null");
         
-        nextFlowStrategyMap.clear();
+        final Map<String,Function<ProfileRequestContext,String>> compiled = new HashMap<>(map.size());
         for (final Map.Entry<String,Object> entry : map.entrySet()) {
             final String trimmed = StringSupport.trimOrNull(entry.getKey());
             if (trimmed != null) {
                 if (entry.getValue() instanceof String) {
                     final String flowId = StringSupport.trimOrNull((String) entry.getValue());
                     if (flowId != null) {
-                        nextFlowStrategyMap.put(trimmed,
-                                FunctionSupport.<ProfileRequestContext,String>constant(flowId));
+                        compiled.put(trimmed, new ConstantFlow(flowId));
                     }
                 } else if (entry.getValue() instanceof Function) {
-                    nextFlowStrategyMap.put(trimmed, (Function<ProfileRequestContext, String>) entry.getValue());
+                    compiled.put(trimmed, (Function<ProfileRequestContext, String>) entry.getValue());
                 } else if (entry.getValue() != null) {
                     LoggerFactory.getLogger(MultiFactorAuthenticationTransition.class).warn(
                             "Ignoring mapping from {} to unsupported object of type {}", trimmed,
@@ -113,6 +144,9 @@ public class MultiFactorAuthenticationTransition {
                 }
             }
         }
+        
+        nextFlowStrategyMap = Map.copyOf(compiled);
+        wildcardStrategy = nextFlowStrategyMap.get(WILDCARD_EVENT);
     }
     
     /**
@@ -141,4 +175,44 @@ public class MultiFactorAuthenticationTransition {
         setNextFlowStrategyMap(Collections.singletonMap("proceed", strategy));
     }
 
-}
\ No newline at end of file
+    /**
+     * Apply a strategy, bypassing the call for a literal flow ID.
+     * 
+     * @param strategy strategy to apply, or null
+     * @param profileRequestContext profile request context
+     * 
+     * @return the result of the strategy, or null
+     */
+    @Nullable private static String apply(@Nullable final Function<ProfileRequestContext,String> strategy,
+            @Nullable final ProfileRequestContext profileRequestContext) {
+        if (strategy == null) {
+            return null;
+        } else if (strategy instanceof ConstantFlow) {
+            return ((ConstantFlow) strategy).flowId;
+        }
+        return strategy.apply(profileRequestContext);
+    }
+
+    /** Strategy wrapping a literal flow ID. */
+    private static final class ConstantFlow implements Function<ProfileRequestContext,String> {
+        
+        /** Flow ID. */
+        @Nonnull @NotEmpty private final String flowId;
+        
+        /**
+         * Constructor.
+         *
+         * @param id flow ID
+         */
+        ConstantFlow(@Nonnull @NotEmpty final String id) {
+            flowId = id;
+        }
+
+        /** {@inheritDoc} */
+        public String apply(@Nullable final ProfileRequestContext input) {
+            return flowId;
+        }
+        
+    }
+
+}
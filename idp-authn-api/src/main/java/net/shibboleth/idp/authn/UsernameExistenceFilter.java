@@ -0,0 +1,472 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.security.auth.login.LoginException;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * A compact, probabilistic record of the usernames known to exist, built from a resource containing one
+ * username per line (e.g., the output of a periodic directory export) and rebuilt on a schedule.
+ * 
+ * <p>A {@link AbstractUsernamePasswordCredentialValidator} consults the filter before contacting its
+ * back-end. A username the filter rejects certainly does not appear in the resource, while a username it
+ * accepts probably does, with a false positive rate bounded by {@link #setFalsePositiveProbability(double)}.
+ * </p>
+ * 
+ * <p>Usernames are compared without regard to case, so the filter works whether or not the validator
+ * converts case before consulting it.</p>
+ * 
+ * <p>By default a rejection is delayed by a latency sampled from recent back-end validations (see
+ * {@link #getRejectionDelay()}), so response times do not reveal whether a username is known to the
+ * filter. This holds a request thread for the duration of each rejection, and can be turned off with
+ * {@link #setPadRejections(boolean)}.</p>
+ * 
+ * <p>If the resource cannot be read, initialization fails, and a failed rebuild retains the previous
+ * filter. If the resource contains no usernames, the filter accepts everything.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class UsernameExistenceFilter extends AbstractIdentifiableInitializableComponent {
+    
+    /** Base name of metrics. */
+    @Nonnull @NotEmpty public static final String METRIC_NAME = "net.shibboleth.idp.authn.password.usernameFilter";
+    
+    /** Number of recent back-end latencies retained for sampling. */
+    private static final int LATENCY_SAMPLES = 64;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(UsernameExistenceFilter.class);
+
+    /** Source of usernames. */
+    @NonnullAfterInit private Resource resource;
+    
+    /** Target false positive probability. */
+    private double falsePositiveProbability;
+    
+    /** Interval between checks for a changed resource, zero to disable. */
+    @Nonnull private Duration rebuildInterval;
+
+    /** Whether to pad rejections to the observed back-end latency. */
+    private boolean padRejections;
+    
+    /** Upper bound on rejection delay. */
+    @Nonnull private Duration maxRejectionDelay;
+
+    /** Timer used to schedule rebuilds. */
+    @Nullable private Timer taskTimer;
+    
+    /** Timer created internally if none is supplied. */
+    @Nullable private Timer internalTaskTimer;
+    
+    /** Rebuild task. */
+    @Nullable private TimerTask rebuildTask;
+    
+    /** Current filter, or null if none is loaded. */
+    @Nullable private volatile BloomFilter<CharSequence> filter;
+    
+    /** Number of usernames in the current filter. */
+    private volatile long size;
+    
+    /** Last modification time of the resource when the filter was built. */
+    private volatile long resourceLastModified;
+    
+    /** Time of the last successful build. */
+    @Nullable private volatile Instant lastBuild;
+    
+    /** Recent back-end validation latencies in nanoseconds. */
+    @Nonnull private final AtomicLongArray latencies;
+    
+    /** Number of latencies recorded. */
+    @Nonnull private final AtomicLong latencyCount;
+    
+    /** Constructor. */
+    public UsernameExistenceFilter() {
+        falsePositiveProbability = 0.01;
+        rebuildInterval = Duration.ofMinutes(15);
+        padRejections = true;
+        maxRejectionDelay = Duration.ofSeconds(2);
+        latencies = new AtomicLongArray(LATENCY_SAMPLES);
+        latencyCount = new AtomicLong();
+    }
+    
+    /**
+     * Set the resource containing one username per line.
+     * 
+     * @param res username resource
+     */
+    public void setResource(@Nonnull final Resource res) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        resource = Constraint.isNotNull(res, "Resource cannot be null");
+    }
+
+    /**
+     * Set the target false positive probability.
+     * 
+     * <p>Defaults to 0.01. Lower values use more memory.</p>
+     * 
+     * @param probability target probability, between 0 and 1 exclusive
+     */
+    public void setFalsePositiveProbability(final double probability) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isTrue(probability > 0 && probability < 1, "Probability must be between 0 and 1");
+        
+        falsePositiveProbability = probability;
+    }
+    
+    /**
+     * Set the interval between checks for a modified resource.
+     * 
+     * <p>Defaults to 15 minutes. Zero disables rebuilding.</p>
+     * 
+     * @param interval rebuild interval
+     */
+    public void setRebuildInterval(@Nonnull final Duration interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(interval, "Interval cannot be null");
+        Constraint.isFalse(interval.isNegative(), "Interval cannot be negative");
+        
+        rebuildInterval = interval;
+    }
+    
+    /**
+     * Set the timer used to schedule rebuilds.
+     * 
+     * <p>If not set, a timer is created internally when rebuilding is enabled.</p>
+     * 
+     * @param timer timer to use
+     */
+    public void setTaskTimer(@Nullable final Timer timer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        taskTimer = timer;
+    }
+    
+    /**
+     * Set whether to delay rejections by a latency sampled from recent back-end validations.
+     * 
+     * <p>Defaults to true.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setPadRejections(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        padRejections = flag;
+    }
+    
+    /**
+     * Set the upper bound on the delay applied to rejections.
+     * 
+     * <p>Defaults to 2 seconds.</p>
+     * 
+     * @param delay maximum delay
+     */
+    public void setMaxRejectionDelay(@Nonnull final Duration delay) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(delay, "Delay cannot be null");
+        Constraint.isFalse(delay.isNegative(), "Delay cannot be negative");
+        
+        maxRejectionDelay = delay;
+    }
+    
+    /**
+     * Get whether a username may exist.
+     * 
+     * @param username username to check
+     * 
+     * @return false if the username is known not to exist, true otherwise
+     */
+    public boolean mightExist(@Nonnull @NotEmpty final String username) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        final BloomFilter<CharSequence> current = filter;
+        if (current == null) {
+            return true;
+        }
+        
+        final boolean result = current.mightContain(normalize(username));
+        MetricsSupport.getMetricRegistry().counter(getMetricName(result ? "passes" : "rejections")).inc();
+        return result;
+    }
+    
+    /**
+     * Record that a username accepted by the filter turned out not to exist, for false positive tracking.
+     * 
+     * @param username the username
+     */
+    public void recordFalsePositive(@Nonnull @NotEmpty final String username) {
+        if (filter != null) {
+            log.debug("{} Username '{}' passed filter but was unknown to back-end", getLogPrefix(), username);
+            MetricsSupport.getMetricRegistry().counter(getMetricName("falsePositives")).inc();
+        }
+    }
+    
+    /**
+     * Record the time taken by a back-end validation.
+     * 
+     * @param latency elapsed time in nanoseconds
+     */
+    public void recordBackendLatency(final long latency) {
+        latencies.set((int) (latencyCount.getAndIncrement() % LATENCY_SAMPLES), latency);
+    }
+    
+    /**
+     * Get the time by which to delay a rejection.
+     * 
+     * <p>If padding is enabled, this is one of the recently recorded back-end latencies chosen at random,
+     * capped by the maximum delay.</p>
+     * 
+     * @return the delay, possibly zero
+     */
+    @Nonnull public Duration getRejectionDelay() {
+        final int available = (int) Math.min(latencyCount.get(), LATENCY_SAMPLES);
+        if (!padRejections || available == 0) {
+            return Duration.ZERO;
+        }
+        final Duration sample = Duration.ofNanos(latencies.get(ThreadLocalRandom.current().nextInt(available)));
+        return sample.compareTo(maxRejectionDelay) > 0 ? maxRejectionDelay : sample;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        if (resource == null) {
+            throw new ComponentInitializationException(getLogPrefix() + " Resource cannot be null");
+        }
+        
+        try {
+            rebuild();
+        } catch (final IOException e) {
+            throw new ComponentInitializationException(getLogPrefix() + " Error reading usernames", e);
+        }
+        
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        registry.remove(getMetricName("size"));
+        registry.register(getMetricName("size"), (Gauge<Long>) () -> size);
+        registry.remove(getMetricName("expectedFalsePositiveRate"));
+        registry.register(getMetricName("expectedFalsePositiveRate"), (Gauge<Double>) () -> {
+            final BloomFilter<CharSequence> current = filter;
+            return current != null ? current.expectedFpp() : 0;
+        });
+        registry.remove(getMetricName("lastRebuild"));
+        registry.register(getMetricName("lastRebuild"), (Gauge<Instant>) () -> lastBuild);
+        
+        if (!rebuildInterval.isZero()) {
+            if (taskTimer == null) {
+                internalTaskTimer = new Timer("UsernameExistenceFilter-" + getId(), true);
+            }
+            rebuildTask = new TimerTask() {
+                public void run() {
+                    try {
+                        final long lastModified = getResourceLastModified();
+                        if (lastModified < 0 || lastModified != resourceLastModified) {
+                            rebuild();
+                        }
+                    } catch (final Exception e) {
+                        log.error("{} Error rebuilding filter, retaining previous copy", getLogPrefix(), e);
+                    }
+                }
+            };
+            final long interval = rebuildInterval.toMillis();
+            (taskTimer != null ? taskTimer : internalTaskTimer).schedule(rebuildTask, interval, interval);
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (rebuildTask != null) {
+            rebuildTask.cancel();
+            rebuildTask = null;
+        }
+        if (internalTaskTimer != null) {
+            internalTaskTimer.cancel();
+            internalTaskTimer = null;
+        }
+        
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        registry.remove(getMetricName("size"));
+        registry.remove(getMetricName("expectedFalsePositiveRate"));
+        registry.remove(getMetricName("lastRebuild"));
+        filter = null;
+        
+        super.doDestroy();
+    }
+    
+    /**
+     * Rebuild the filter from the resource.
+     * 
+     * <p>The resource is read twice, once to size the filter and once to populate it.</p>
+     * 
+     * @throws IOException if the resource cannot be read
+     */
+    protected void rebuild() throws IOException {
+        final long lastModified = getResourceLastModified();
+        
+        long count = 0;
+        try (final BufferedReader reader = openReader()) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (StringSupport.trimOrNull(line) != null) {
+                    count++;
+                }
+            }
+        }
+        
+        if (count == 0) {
+            log.warn("{} No usernames found in {}, filter disabled", getLogPrefix(), resource.getDescription());
+            filter = null;
+            size = 0;
+            resourceLastModified = lastModified;
+            return;
+        }
+        
+        final BloomFilter<CharSequence> newFilter =
+                BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), count, falsePositiveProbability);
+        long added = 0;
+        try (final BufferedReader reader = openReader()) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String username = StringSupport.trimOrNull(line);
+                if (username != null) {
+                    newFilter.put(normalize(username));
+                    added++;
+                }
+            }
+        }
+        
+        filter = newFilter;
+        size = added;
+        resourceLastModified = lastModified;
+        lastBuild = Instant.now();
+        log.info("{} Loaded {} usernames from {}", getLogPrefix(), added, resource.getDescription());
+    }
+    
+    /**
+     * Normalize the case of a username.
+     * 
+     * <p>Converting to upper case first folds the characters that do not survive a round trip, so that
+     * a username converted to either case by the validator maps to the same value.</p>
+     * 
+     * @param username input username
+     * 
+     * @return normalized username
+     */
+    @Nonnull private String normalize(@Nonnull final String username) {
+        return username.toUpperCase().toLowerCase();
+    }
+    
+    /**
+     * Get the last modification time of the resource, if available.
+     * 
+     * @return modification time, or -1 if unknown
+     */
+    private long getResourceLastModified() {
+        try {
+            return resource.lastModified();
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Open the resource for reading.
+     * 
+     * @return a reader
+     * 
+     * @throws IOException if the resource cannot be opened
+     */
+    @Nonnull private BufferedReader openReader() throws IOException {
+        return new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Get the name of a metric.
+     * 
+     * @param suffix metric-specific suffix
+     * 
+     * @return the metric name
+     */
+    @Nonnull @NotEmpty private String getMetricName(@Nonnull @NotEmpty final String suffix) {
+        return METRIC_NAME + '.' + (getId() != null ? getId() : "default") + '.' + suffix;
+    }
+    
+    /**
+     * Get a prefix for log messages.
+     * 
+     * @return log prefix
+     */
+    @Nonnull @NotEmpty private String getLogPrefix() {
+        return "Username filter " + (getId() != null ? getId() : "(unknown)") + ":";
+    }
+
+    /**
+     * Exception signaling a username rejected by the filter.
+     * 
+     * <p>The message is {@link AuthnEventIds#UNKNOWN_USERNAME}, so it classifies like an unknown username
+     * reported by a back-end, but no back-end was contacted, so it should not count against the account.</p>
+     */
+    public static class RejectedUsernameException extends LoginException {
+
+        /** Serial version UID. */
+        private static final long serialVersionUID = -2806186471540113546L;
+
+        /** Constructor. */
+        public RejectedUsernameException() {
+            super(AuthnEventIds.UNKNOWN_USERNAME);
+        }
+    }
+
+}
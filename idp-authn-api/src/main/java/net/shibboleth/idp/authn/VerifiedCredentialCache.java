@@ -0,0 +1,312 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.security.auth.Subject;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.idp.authn.principal.PasswordPrincipal;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A short-lived, in-memory record of successful password validations, allowing a
+ * {@link AbstractUsernamePasswordCredentialValidator} to skip its back-end when the same user
+ * presents the same password again shortly afterwards.
+ * 
+ * <p>Entries are keyed by validator ID and username, and hold a salted PBKDF2 hash of the password
+ * rather than the password itself, along with a copy of the {@link Subject} the validator produced
+ * (less any {@link PasswordPrincipal}), so that principals the back-end attached for later use,
+ * such as a directory entry, remain available on a cached result.</p>
+ * 
+ * <p>All entries for a username can be dropped via {@link #invalidate(String)}, which an
+ * {@link AccountLockoutManager} can call as failed attempts are recorded.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class VerifiedCredentialCache extends AbstractInitializableComponent {
+
+    /** Name of counter tracking cache hits. */
+    @Nonnull @NotEmpty public static final String HITS_METRIC_NAME = "net.shibboleth.idp.authn.password.cache.hits";
+
+    /** Name of counter tracking cache misses. */
+    @Nonnull @NotEmpty public static final String MISSES_METRIC_NAME =
+            "net.shibboleth.idp.authn.password.cache.misses";
+    
+    /** Hash algorithm. */
+    @Nonnull @NotEmpty private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+    
+    /** Size of salt in bytes. */
+    private static final int SALT_LENGTH = 16;
+    
+    /** Size of hash in bits. */
+    private static final int HASH_LENGTH = 256;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(VerifiedCredentialCache.class);
+
+    /** Entries keyed by username, then validator ID. */
+    @Nonnull private final ConcurrentMap<String,Map<String,Entry>> entries;
+    
+    /** Source of salts. */
+    @Nonnull private final SecureRandom random;
+
+    /** Time to retain an entry. */
+    @Nonnull private Duration entryLifetime;
+    
+    /** Maximum number of usernames to hold. */
+    private int maxEntries;
+    
+    /** PBKDF2 iteration count. */
+    private int hashIterations;
+    
+    /** Constructor. */
+    public VerifiedCredentialCache() {
+        entries = new ConcurrentHashMap<>();
+        random = new SecureRandom();
+        entryLifetime = Duration.ofMinutes(2);
+        maxEntries = 10000;
+        hashIterations = 10000;
+    }
+    
+    /**
+     * Set the time to retain a successful validation.
+     * 
+     * <p>Defaults to 2 minutes.</p>
+     * 
+     * @param lifetime entry lifetime
+     */
+    public void setEntryLifetime(@Nonnull final Duration lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(lifetime, "Lifetime cannot be null");
+        Constraint.isFalse(lifetime.isNegative() || lifetime.isZero(), "Lifetime must be positive");
+
+        entryLifetime = lifetime;
+    }
+
+    /**
+     * Set the maximum number of usernames to hold entries for.
+     * 
+     * <p>Defaults to 10000. Once reached, further validations are not cached until entries expire.</p>
+     * 
+     * @param max maximum number of usernames
+     */
+    public void setMaxEntries(final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxEntries = (int) Constraint.isGreaterThan(0, max, "Maximum entries must be greater than zero");
+    }
+    
+    /**
+     * Set the iteration count for hashing passwords.
+     * 
+     * <p>Defaults to 10000.</p>
+     * 
+     * @param iterations iteration count
+     */
+    public void setHashIterations(final int iterations) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        hashIterations = (int) Constraint.isGreaterThan(0, iterations, "Iterations must be greater than zero");
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        try {
+            SecretKeyFactory.getInstance(HASH_ALGORITHM);
+        } catch (final GeneralSecurityException e) {
+            throw new ComponentInitializationException("Hash algorithm " + HASH_ALGORITHM + " unavailable", e);
+        }
+    }
+
+    /**
+     * Get a copy of the result of an earlier successful validation of the same credentials.
+     * 
+     * @param validatorId ID of the validator
+     * @param username the (transformed) username
+     * @param password the password presented
+     * 
+     * @return a copy of the cached subject, or null
+     */
+    @Nullable public Subject get(@Nonnull @NotEmpty final String validatorId, @Nonnull @NotEmpty final String username,
+            @Nonnull final String password) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        
+        final Map<String,Entry> byValidator = entries.get(username);
+        final Entry entry = byValidator != null ? byValidator.get(validatorId) : null;
+        if (entry != null) {
+            if (entry.isExpired()) {
+                byValidator.remove(validatorId, entry);
+                if (byValidator.isEmpty()) {
+                    entries.remove(username, byValidator);
+                }
+            } else if (MessageDigest.isEqual(entry.hash, hash(password, entry.salt))) {
+                log.debug("Using cached validation result for '{}' from validator {}", username, validatorId);
+                MetricsSupport.getMetricRegistry().counter(HITS_METRIC_NAME).inc();
+                return copy(entry.subject);
+            }
+        }
+        
+        MetricsSupport.getMetricRegistry().counter(MISSES_METRIC_NAME).inc();
+        return null;
+    }
+    
+    /**
+     * Record a successful validation.
+     * 
+     * @param validatorId ID of the validator
+     * @param username the (transformed) username
+     * @param password the password validated
+     * @param subject the validation result
+     */
+    public void put(@Nonnull @NotEmpty final String validatorId, @Nonnull @NotEmpty final String username,
+            @Nonnull final String password, @Nonnull final Subject subject) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        
+        if (entries.size() >= maxEntries && !entries.containsKey(username)) {
+            purgeExpired();
+            if (entries.size() >= maxEntries) {
+                log.debug("Verified credential cache is full, not caching result for '{}'", username);
+                return;
+            }
+        }
+        
+        final byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        final Entry entry = new Entry(salt, hash(password, salt), copy(subject),
+                System.currentTimeMillis() + entryLifetime.toMillis());
+        entries.computeIfAbsent(username, k -> new ConcurrentHashMap<>()).put(validatorId, entry);
+    }
+    
+    /**
+     * Drop any cached results for a username.
+     * 
+     * @param username the username
+     */
+    public void invalidate(@Nonnull @NotEmpty final String username) {
+        if (entries.remove(username) != null) {
+            log.debug("Invalidated cached validation results for '{}'", username);
+        }
+    }
+    
+    /** Remove expired entries. */
+    public void purgeExpired() {
+        entries.values().forEach(m -> m.values().removeIf(Entry::isExpired));
+        entries.values().removeIf(Map::isEmpty);
+    }
+    
+    /**
+     * Hash a password with a salt.
+     * 
+     * @param password password to hash
+     * @param salt salt to apply
+     * 
+     * @return the hash
+     */
+    @Nonnull private byte[] hash(@Nonnull final String password, @Nonnull final byte[] salt) {
+        final PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, hashIterations, HASH_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (final GeneralSecurityException e) {
+            // Checked at initialization.
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+    
+    /**
+     * Copy a subject, omitting any password.
+     * 
+     * @param subject subject to copy
+     * 
+     * @return the copy
+     */
+    @Nonnull private static Subject copy(@Nonnull final Subject subject) {
+        final Set<Object> privateCredentials = new HashSet<>(subject.getPrivateCredentials());
+        privateCredentials.removeIf(PasswordPrincipal.class::isInstance);
+        return new Subject(false, subject.getPrincipals(), subject.getPublicCredentials(), privateCredentials);
+    }
+    
+    /** A cached validation result. */
+    private static final class Entry {
+        
+        /** Salt used for the hash. */
+        @Nonnull private final byte[] salt;
+        
+        /** Password hash. */
+        @Nonnull private final byte[] hash;
+        
+        /** Result of the validation. */
+        @Nonnull private final Subject subject;
+        
+        /** Expiration time in milliseconds since the epoch. */
+        private final long expiration;
+
+        /**
+         * Constructor.
+         *
+         * @param theSalt salt
+         * @param theHash password hash
+         * @param theSubject validation result
+         * @param exp expiration time
+         */
+        Entry(@Nonnull final byte[] theSalt, @Nonnull final byte[] theHash, @Nonnull final Subject theSubject,
+                final long exp) {
+            salt = theSalt;
+            hash = theHash;
+            subject = theSubject;
+            expiration = exp;
+        }
+        
+        /**
+         * Get whether the entry has expired.
+         * 
+         * @return true iff expired
+         */
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiration;
+        }
+    }
+
+}
@@ -46,6 +46,20 @@ public final class DuoAuthAPI {
     /** Duo AuthAPI parameter name. */
     @Nonnull @NotEmpty public static final String DUO_PUSHINFO = "pushinfo";
 
+    /**
+     * Duo AuthAPI parameter name.
+     * 
+     * @since 4.1.0
+     */
+    @Nonnull @NotEmpty public static final String DUO_ASYNC = "async";
+
+    /**
+     * Duo AuthAPI parameter name.
+     * 
+     * @since 4.1.0
+     */
+    @Nonnull @NotEmpty public static final String DUO_TXID = "txid";
+
     /** Duo AuthAPI factor "auto" value. */
     @Nonnull @NotEmpty public static final String DUO_FACTOR_AUTO = "auto";
 
@@ -82,6 +96,13 @@ public final class DuoAuthAPI {
     /** Duo AuthAPI auth "deny" result value. */
     @Nonnull @NotEmpty public static final String DUO_AUTH_RESULT_DENY = "deny";
 
+    /**
+     * Duo AuthAPI auth_status "waiting" result value.
+     * 
+     * @since 4.1.0
+     */
+    @Nonnull @NotEmpty public static final String DUO_AUTH_RESULT_WAITING = "waiting";
+
     /** Duo AuthAPI auth "bypass" result value. */
     @Nonnull @NotEmpty public static final String DUO_AUTH_STATUS_BYPASS = "bypass";
 
@@ -97,6 +118,13 @@ public final class DuoAuthAPI {
     /** Duo flow default header name for passcode. */
     @Nonnull @NotEmpty public static final String DUO_PASSCODE_HEADER_NAME = "X-Shibboleth-Duo-Passcode";
 
+    /**
+     * Duo flow event signaling that an asynchronous authentication is awaiting the user's response.
+     * 
+     * @since 4.1.0
+     */
+    @Nonnull @NotEmpty public static final String DUO_AUTH_PENDING_EVENT = "DuoAuthPending";
+
     /** Constructor. */
     private DuoAuthAPI() {
     }
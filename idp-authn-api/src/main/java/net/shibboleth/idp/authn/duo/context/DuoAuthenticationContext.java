@@ -17,6 +17,7 @@
 
 package net.shibboleth.idp.authn.duo.context;
 
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -57,6 +58,12 @@ public final class DuoAuthenticationContext extends BaseContext {
     
     /** PushInfo data. */
     @Nullable private Map<String,String> pushInfo;
+    
+    /** Transaction ID of an asynchronous authentication. */
+    @Nullable private String transactionId;
+    
+    /** Time at which an asynchronous authentication was started. */
+    @Nullable private Instant transactionStart;
 
     /** Constructor. */
     public DuoAuthenticationContext() {
@@ -176,5 +183,55 @@ public final class DuoAuthenticationContext extends BaseContext {
     @Nonnull @NonnullElements @Live public Map<String,String> getPushInfo() {
         return pushInfo;
     }
+
+    /**
+     * Get the transaction ID of an asynchronous authentication awaiting the user's response.
+     * 
+     * @return transaction ID
+     * 
+     * @since 4.1.0
+     */
+    @Nullable public String getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Set the transaction ID of an asynchronous authentication awaiting the user's response.
+     * 
+     * @param txid transaction ID
+     * 
+     * @return this context
+     * 
+     * @since 4.1.0
+     */
+    @Nonnull public DuoAuthenticationContext setTransactionId(@Nullable final String txid) {
+        transactionId = txid;
+        return this;
+    }
+
+    /**
+     * Get the time at which an asynchronous authentication was started.
+     * 
+     * @return start time
+     * 
+     * @since 4.1.0
+     */
+    @Nullable public Instant getTransactionStart() {
+        return transactionStart;
+    }
+
+    /**
+     * Set the time at which an asynchronous authentication was started.
+     * 
+     * @param start start time
+     * 
+     * @return this context
+     * 
+     * @since 4.1.0
+     */
+    @Nonnull public DuoAuthenticationContext setTransactionStart(@Nullable final Instant start) {
+        transactionStart = start;
+        return this;
+    }
     
 }
\ No newline at end of file
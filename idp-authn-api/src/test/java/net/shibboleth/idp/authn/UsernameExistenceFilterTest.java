@@ -0,0 +1,113 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link UsernameExistenceFilter}. */
+public class UsernameExistenceFilterTest {
+
+    private UsernameExistenceFilter build(final String content) throws ComponentInitializationException {
+        final UsernameExistenceFilter filter = new UsernameExistenceFilter();
+        filter.setId("test");
+        filter.setResource(new ByteArrayResource(content.getBytes(StandardCharsets.UTF_8)));
+        filter.setFalsePositiveProbability(0.001);
+        filter.setRebuildInterval(Duration.ZERO);
+        filter.initialize();
+        return filter;
+    }
+    
+    @Test public void testFilter() throws ComponentInitializationException {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            content.append("user").append(i).append("\n\n");
+        }
+        final UsernameExistenceFilter filter = build(content.toString());
+        
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertTrue(filter.mightExist("user" + i));
+        }
+        
+        int accepted = 0;
+        for (int i = 0; i < 1000; ++i) {
+            if (filter.mightExist("nobody" + i)) {
+                accepted++;
+            }
+        }
+        Assert.assertTrue(accepted < 10);
+        
+        filter.destroy();
+    }
+
+    @Test public void testEmpty() throws ComponentInitializationException {
+        final UsernameExistenceFilter filter = build(" \n");
+        
+        Assert.assertTrue(filter.mightExist("anybody"));
+        
+        filter.destroy();
+    }
+
+    @Test public void testCase() throws ComponentInitializationException {
+        final UsernameExistenceFilter filter = build("JDoe\nstra\u00dfe\n");
+        
+        Assert.assertTrue(filter.mightExist("JDoe"));
+        Assert.assertTrue(filter.mightExist("jdoe"));
+        Assert.assertTrue(filter.mightExist("JDOE"));
+        Assert.assertTrue(filter.mightExist("stra\u00dfe"));
+        Assert.assertTrue(filter.mightExist("STRASSE"));
+        
+        filter.destroy();
+    }
+
+    @Test public void testRejectionDelay() throws ComponentInitializationException {
+        final UsernameExistenceFilter unpadded = new UsernameExistenceFilter();
+        unpadded.setId("test");
+        unpadded.setResource(new ByteArrayResource("jdoe\n".getBytes(StandardCharsets.UTF_8)));
+        unpadded.setRebuildInterval(Duration.ZERO);
+        unpadded.setPadRejections(false);
+        unpadded.initialize();
+        unpadded.recordBackendLatency(Duration.ofMillis(100).toNanos());
+        Assert.assertEquals(unpadded.getRejectionDelay(), Duration.ZERO);
+        unpadded.destroy();
+        
+        final UsernameExistenceFilter filter = build("jdoe\n");
+        Assert.assertEquals(filter.getRejectionDelay(), Duration.ZERO);
+        
+        filter.recordBackendLatency(Duration.ofMillis(100).toNanos());
+        Assert.assertEquals(filter.getRejectionDelay(), Duration.ofMillis(100));
+        
+        filter.recordBackendLatency(Duration.ofSeconds(100).toNanos());
+        final Set<Duration> delays = new HashSet<>();
+        for (int i = 0; i < 100; ++i) {
+            delays.add(filter.getRejectionDelay());
+        }
+        Assert.assertEquals(delays, Set.of(Duration.ofMillis(100), Duration.ofSeconds(2)));
+        
+        filter.destroy();
+    }
+    
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn;
+
+import java.time.Duration;
+
+import javax.security.auth.Subject;
+
+import net.shibboleth.idp.authn.principal.PasswordPrincipal;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link VerifiedCredentialCache}. */
+public class VerifiedCredentialCacheTest {
+
+    private VerifiedCredentialCache cache;
+    
+    private Subject subject;
+    
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        cache = new VerifiedCredentialCache();
+        cache.setHashIterations(10);
+        cache.setMaxEntries(2);
+        cache.initialize();
+        
+        subject = new Subject();
+        subject.getPrincipals().add(new UsernamePrincipal("jdoe"));
+        subject.getPrivateCredentials().add(new PasswordPrincipal("changeit"));
+    }
+    
+    @Test public void testHit() {
+        Assert.assertNull(cache.get("validator", "jdoe", "changeit"));
+        
+        cache.put("validator", "jdoe", "changeit", subject);
+        final Subject cached = cache.get("validator", "jdoe", "changeit");
+        Assert.assertNotNull(cached);
+        Assert.assertNotSame(cached, subject);
+        Assert.assertEquals(cached.getPrincipals(), subject.getPrincipals());
+        Assert.assertTrue(cached.getPrivateCredentials(PasswordPrincipal.class).isEmpty());
+        
+        // Copies are independent.
+        cached.getPrincipals().add(new UsernamePrincipal("other"));
+        Assert.assertEquals(cache.get("validator", "jdoe", "changeit").getPrincipals().size(), 1);
+    }
+
+    @Test public void testMiss() {
+        cache.put("validator", "jdoe", "changeit", subject);
+        
+        Assert.assertNull(cache.get("validator", "jdoe", "wrong"));
+        Assert.assertNull(cache.get("other", "jdoe", "changeit"));
+        Assert.assertNull(cache.get("validator", "jsmith", "changeit"));
+    }
+
+    @Test public void testInvalidate() {
+        cache.put("validator", "jdoe", "changeit", subject);
+        cache.put("other", "jdoe", "changeit", subject);
+        
+        cache.invalidate("jdoe");
+        Assert.assertNull(cache.get("validator", "jdoe", "changeit"));
+        Assert.assertNull(cache.get("other", "jdoe", "changeit"));
+    }
+
+    @Test public void testExpiration() throws Exception {
+        cache = new VerifiedCredentialCache();
+        cache.setHashIterations(10);
+        cache.setEntryLifetime(Duration.ofMillis(50));
+        cache.initialize();
+
+        cache.put("validator", "jdoe", "changeit", subject);
+        Assert.assertNotNull(cache.get("validator", "jdoe", "changeit"));
+        
+        Thread.sleep(100);
+        Assert.assertNull(cache.get("validator", "jdoe", "changeit"));
+    }
+
+    @Test public void testFull() {
+        cache.put("validator", "jdoe", "changeit", subject);
+        cache.put("validator", "jsmith", "changeit", subject);
+        cache.put("validator", "jbloggs", "changeit", subject);
+        
+        Assert.assertNotNull(cache.get("validator", "jdoe", "changeit"));
+        Assert.assertNotNull(cache.get("validator", "jsmith", "changeit"));
+        Assert.assertNull(cache.get("validator", "jbloggs", "changeit"));
+    }
+    
+}
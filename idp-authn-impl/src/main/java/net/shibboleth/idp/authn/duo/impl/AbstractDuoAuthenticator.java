@@ -33,11 +33,14 @@ import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.util.EntityUtils;
 import org.opensaml.security.httpclient.HttpClientSecurityParameters;
 import org.opensaml.security.httpclient.HttpClientSecuritySupport;
 
 import com.duosecurity.duoweb.DuoWebException;
 
+import net.shibboleth.idp.authn.duo.DuoIntegration;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -109,10 +112,25 @@ public abstract class AbstractDuoAuthenticator extends AbstractInitializableComp
         }
     }
 
+    /**
+     * Get a {@link URIBuilder} populated with the scheme and host of the Duo AuthAPI for an integration.
+     * 
+     * @param duoIntegration Duo integration to use
+     * 
+     * @return a URI builder to which a path and parameters may be added
+     * 
+     * @since 4.1.0
+     */
+    @Nonnull protected URIBuilder newURIBuilder(@Nonnull final DuoIntegration duoIntegration) {
+        return new URIBuilder().setScheme("https").setHost(duoIntegration.getAPIHost());
+    }
+
     /**
      * Performs a call to the Duo AuthAPI. Upon a successful call, the JSON response is mapped into the appropriate type
      * of {@link DuoResponseWrapper}.
      * 
+     * <p>The response entity is always consumed so that the underlying connection can be reused.</p>
+     * 
      * @param request the prepared HTTP request
      * @param wrapperTypeRef the type of {@link DuoResponseWrapper} to use
      * @param <T> the DuoResponse type being wrapped
@@ -132,26 +150,31 @@ public abstract class AbstractDuoAuthenticator extends AbstractInitializableComp
         HttpClientSecuritySupport.marshalSecurityParameters(clientContext, httpClientSecurityParameters, true);
         HttpClientSecuritySupport.addDefaultTLSTrustEngineCriteria(clientContext, request);
         final HttpResponse httpResponse = httpClient.execute(request, clientContext);
-        HttpClientSecuritySupport.checkTLSCredentialEvaluated(clientContext, request.getURI().getScheme());
-
-        // Check the HTTP response code.
-        final int httpStatusCode = httpResponse.getStatusLine().getStatusCode();
-        if (httpStatusCode == HttpStatus.SC_BAD_REQUEST) {
-            final InputStream httpContent = httpResponse.getEntity().getContent();
-            final DuoFailureResponse msg = objectMapper.readValue(httpContent, DuoFailureResponse.class);
-            throw new DuoWebException(msg.getMessage() != null ? msg.getMessage() : "no message" + "("
-                    + msg.getMessageDetail() != null ? msg.getMessageDetail() : "no detail" + ")");
-        }
-        if (httpStatusCode != HttpStatus.SC_OK) {
-            throw new IOException("Non-ok status code (" + httpStatusCode + ") returned from Duo: "
-                    + httpResponse.getStatusLine().getReasonPhrase());
-        } else if (httpResponse.getEntity() == null) {
-            throw new IOException("No response body returned from Duo");
+        final T duoResponse;
+        try {
+            HttpClientSecuritySupport.checkTLSCredentialEvaluated(clientContext, request.getURI().getScheme());
+    
+            // Check the HTTP response code.
+            final int httpStatusCode = httpResponse.getStatusLine().getStatusCode();
+            if (httpStatusCode == HttpStatus.SC_BAD_REQUEST) {
+                final InputStream httpContent = httpResponse.getEntity().getContent();
+                final DuoFailureResponse msg = objectMapper.readValue(httpContent, DuoFailureResponse.class);
+                throw new DuoWebException(msg.getMessage() != null ? msg.getMessage() : "no message" + "("
+                        + msg.getMessageDetail() != null ? msg.getMessageDetail() : "no detail" + ")");
+            }
+            if (httpStatusCode != HttpStatus.SC_OK) {
+                throw new IOException("Non-ok status code (" + httpStatusCode + ") returned from Duo: "
+                        + httpResponse.getStatusLine().getReasonPhrase());
+            } else if (httpResponse.getEntity() == null) {
+                throw new IOException("No response body returned from Duo");
+            }
+    
+            // Parse the JSON response.
+            duoResponse = objectMapper.readValue(httpResponse.getEntity().getContent(), wrapperTypeRef);
+        } finally {
+            EntityUtils.consumeQuietly(httpResponse.getEntity());
         }
 
-        // Parse the JSON response.
-        final T duoResponse = objectMapper.readValue(httpResponse.getEntity().getContent(), wrapperTypeRef);
-
         if (duoResponse == null) {
             throw new DuoWebException("Unable to parse JSON response");
         } else if (!"OK".equals(duoResponse.getStat())) {
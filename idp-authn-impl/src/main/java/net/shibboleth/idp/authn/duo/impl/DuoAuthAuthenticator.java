@@ -29,7 +29,6 @@ import javax.annotation.Nonnull;
 
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
-import org.apache.http.client.utils.URIBuilder;
 
 import com.duosecurity.duoweb.DuoWebException;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -39,25 +38,60 @@ import com.google.common.net.UrlEscapers;
 import net.shibboleth.idp.authn.duo.DuoAuthAPI;
 import net.shibboleth.idp.authn.duo.DuoIntegration;
 import net.shibboleth.idp.authn.duo.context.DuoAuthenticationContext;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 /**
  * Implementation of the the Duo AuthApi /v2/auth endpoint.
+ * 
+ * <p>In asynchronous mode, the request is made with the "async" option and returns at once with a
+ * transaction ID, and the outcome is obtained by calling {@link #getStatus(DuoAuthenticationContext, DuoIntegration)}
+ * on later requests, so no request thread is held while the user responds.</p>
  */
 public class DuoAuthAuthenticator extends AbstractDuoAuthenticator {
-    
+
     /** pushinfo escaper. */
     @Nonnull private final Escaper paramEscaper;
 
     /** a TypeReference for the repsonse generated by the endpoint. */
     @Nonnull private final TypeReference<DuoResponseWrapper<DuoAuthResponse>> wrapperTypeRef;
     
+    /** Whether to use the asynchronous form of the endpoint. */
+    private boolean async;
+    
     /** Constructor. */
     public DuoAuthAuthenticator() {
         wrapperTypeRef = new TypeReference<>() {};
         paramEscaper = UrlEscapers.urlFormParameterEscaper();
     }
     
+    /**
+     * Get whether to request asynchronous processing.
+     * 
+     * @return whether to request asynchronous processing
+     * 
+     * @since 4.1.0
+     */
+    public boolean isAsync() {
+        return async;
+    }
+    
+    /**
+     * Set whether to request asynchronous processing.
+     * 
+     * <p>The response to an asynchronous request carries a "waiting" result and a transaction ID
+     * for use with {@link #getStatus(DuoAuthenticationContext, DuoIntegration)}.</p>
+     * 
+     * @param flag flag to set
+     * 
+     * @since 4.1.0
+     */
+    public void setAsync(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        async = flag;
+    }
+    
     /**
      * Perform an authentication action via the Duo AuthApi /auth endpoint.
      * 
@@ -73,8 +107,7 @@ public class DuoAuthAuthenticator extends AbstractDuoAuthenticator {
 
         try {
             // prepare the request
-            final URI uri = new URIBuilder().setScheme("https").setHost(duoIntegration.getAPIHost())
-                    .setPath("/auth/v2/auth").build();
+            final URI uri = newURIBuilder(duoIntegration).setPath("/auth/v2/auth").build();
             final RequestBuilder rb =
                     RequestBuilder.post().setUri(uri).addParameter(DuoAuthAPI.DUO_USERNAME, duoContext.getUsername());
             if (duoContext.getClientAddress() != null) {
@@ -96,6 +129,9 @@ public class DuoAuthAuthenticator extends AbstractDuoAuthenticator {
                 }
                 rb.addParameter(DuoAuthAPI.DUO_PUSHINFO, StringSupport.listToStringValue(pushinfo, "&"));
             }
+            if (async) {
+                rb.addParameter(DuoAuthAPI.DUO_ASYNC, "1");
+            }
             DuoSupport.signRequest(rb, duoIntegration);
             final HttpUriRequest request = rb.build();
 
@@ -105,5 +141,37 @@ public class DuoAuthAuthenticator extends AbstractDuoAuthenticator {
             throw new DuoWebException("Duo AuthAPI auth request failed: " + ex.getMessage());
         }
     }
+    
+    /**
+     * Check the outcome of an asynchronous authentication via the Duo AuthApi /auth_status endpoint.
+     * 
+     * <p>This returns at once, with a "waiting" result if the user has yet to respond.</p>
+     * 
+     * @param duoContext Duo authentication context carrying the transaction ID
+     * @param duoIntegration Duo integration to use
+     * 
+     * @return a {@link DuoAuthResponse}
+     * 
+     * @throws DuoWebException if an error occurs
+     * 
+     * @since 4.1.0
+     */
+    public DuoAuthResponse getStatus(@Nonnull final DuoAuthenticationContext duoContext,
+            @Nonnull final DuoIntegration duoIntegration) throws DuoWebException {
+        
+        if (duoContext.getTransactionId() == null) {
+            throw new DuoWebException("No transaction ID for Duo AuthAPI auth_status request");
+        }
+        
+        try {
+            final URI uri = newURIBuilder(duoIntegration).setPath("/auth/v2/auth_status").build();
+            final RequestBuilder rb =
+                    RequestBuilder.get().setUri(uri).addParameter(DuoAuthAPI.DUO_TXID, duoContext.getTransactionId());
+            DuoSupport.signRequest(rb, duoIntegration);
+            return doAPIRequest(rb.build(), wrapperTypeRef).getResponse();
+        } catch (final IOException | URISyntaxException | InvalidKeyException | NoSuchAlgorithmException ex) {
+            throw new DuoWebException("Duo AuthAPI auth_status request failed: " + ex.getMessage());
+        }
+    }
 
 }
\ No newline at end of file
@@ -33,6 +33,9 @@ public class DuoAuthResponse extends DuoAuthAPIResponse {
     /** the status string. */
     @JsonProperty("status") @Nonnull private String status;
 
+    /** the transaction ID of an asynchronous request. */
+    @JsonProperty("txid") @Nullable private String txid;
+
     /** the trusted device token string. */
     @JsonProperty("trusted_device_token") @Nullable private String trustedDeviceToken;
 
@@ -45,6 +48,17 @@ public class DuoAuthResponse extends DuoAuthAPIResponse {
         return status;
     }
 
+    /**
+     * Get the transaction ID returned by an asynchronous request, to be supplied to the /auth_status endpoint.
+     * 
+     * @return transaction ID
+     * 
+     * @since 4.1.0
+     */
+    @Nullable public String getTxid() {
+        return txid;
+    }
+
     /**
      * Get the Duo trusted device token string.
      * 
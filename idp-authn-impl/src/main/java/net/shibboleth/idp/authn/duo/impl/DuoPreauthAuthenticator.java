@@ -22,8 +22,12 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.duosecurity.duoweb.DuoWebException;
 //import javax.json.JsonObject;
@@ -31,23 +35,78 @@ import com.fasterxml.jackson.core.type.TypeReference;
 
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
-import org.apache.http.client.utils.URIBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import net.shibboleth.idp.authn.duo.DuoAuthAPI;
 import net.shibboleth.idp.authn.duo.DuoIntegration;
 import net.shibboleth.idp.authn.duo.context.DuoAuthenticationContext;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
 
 /**
  * Implementation of the the Duo AuthAPI /v2/preauth endpoint.
+ * 
+ * <p>Responses directing the caller to proceed with authentication may optionally be cached for a short
+ * period per integration, user, and client address, to avoid a round trip to Duo when a user retries or
+ * re-authenticates. Other results are never cached, and Duo continues to enforce its policy when the
+ * subsequent /auth call is made.</p>
  */
 public class DuoPreauthAuthenticator extends AbstractDuoAuthenticator {
 
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(DuoPreauthAuthenticator.class);
+
     /** TypeReference for the response generated by the endpoint. */
     @Nonnull private final TypeReference<DuoResponseWrapper<DuoPreauthResponse>> wrapperTypeRef;
 
+    /** Cached responses. */
+    @Nonnull private final ConcurrentMap<String,CachedResponse> responseCache;
+    
+    /** Time to cache a response. */
+    @Nonnull private Duration resultCacheLifetime;
+    
+    /** Maximum number of responses to cache. */
+    private int maxCachedResults;
+
     /** Constructor. */
     public DuoPreauthAuthenticator() {
         wrapperTypeRef = new TypeReference<>() {};
+        responseCache = new ConcurrentHashMap<>();
+        resultCacheLifetime = Duration.ZERO;
+        maxCachedResults = 10000;
+    }
+
+    /**
+     * Set the time to cache a response directing the caller to proceed with authentication.
+     * 
+     * <p>Defaults to zero, which disables caching.</p>
+     * 
+     * @param lifetime cache lifetime
+     * 
+     * @since 4.1.0
+     */
+    public void setResultCacheLifetime(@Nonnull final Duration lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(lifetime, "Lifetime cannot be null");
+        Constraint.isFalse(lifetime.isNegative(), "Lifetime cannot be negative");
+        
+        resultCacheLifetime = lifetime;
+    }
+
+    /**
+     * Set the maximum number of responses to cache.
+     * 
+     * <p>Defaults to 10000.</p>
+     * 
+     * @param max maximum number of responses
+     * 
+     * @since 4.1.0
+     */
+    public void setMaxCachedResults(final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        maxCachedResults = (int) Constraint.isGreaterThan(0, max, "Maximum cached results must be greater than 0");
     }
 
     /**
@@ -62,10 +121,23 @@ public class DuoPreauthAuthenticator extends AbstractDuoAuthenticator {
      */
     public DuoPreauthResponse authenticate(@Nonnull final DuoAuthenticationContext duoContext,
             @Nonnull final DuoIntegration duoIntegration) throws DuoWebException {
+        
+        final String cacheKey = resultCacheLifetime.isZero() ? null : getCacheKey(duoContext, duoIntegration);
+        if (cacheKey != null) {
+            final CachedResponse cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                if (cached.expiration > System.currentTimeMillis()) {
+                    log.debug("Using cached Duo preauth response for '{}'", duoContext.getUsername());
+                    return cached.response;
+                }
+                responseCache.remove(cacheKey, cached);
+            }
+        }
+        
+        final DuoPreauthResponse response;
         try {
             // Prepare the request
-            final URI uri = new URIBuilder().setScheme("https").setHost(duoIntegration.getAPIHost())
-                    .setPath("/auth/v2/preauth").build();
+            final URI uri = newURIBuilder(duoIntegration).setPath("/auth/v2/preauth").build();
             final RequestBuilder rb =
                     RequestBuilder.post().setUri(uri).addParameter(DuoAuthAPI.DUO_USERNAME, duoContext.getUsername());
             
@@ -76,10 +148,62 @@ public class DuoPreauthAuthenticator extends AbstractDuoAuthenticator {
             DuoSupport.signRequest(rb, duoIntegration);
             final HttpUriRequest request = rb.build();
 
-            return doAPIRequest(request, wrapperTypeRef).getResponse();
+            response = doAPIRequest(request, wrapperTypeRef).getResponse();
         } catch (final IOException | URISyntaxException | InvalidKeyException | NoSuchAlgorithmException ex) {
             throw new DuoWebException("Duo AuthAPI preauth request failed: " + ex.getMessage());
         }
+        
+        if (cacheKey != null && response != null && DuoAuthAPI.DUO_PREAUTH_RESULT_AUTH.equals(response.getResult())) {
+            final long now = System.currentTimeMillis();
+            if (responseCache.size() >= maxCachedResults) {
+                responseCache.values().removeIf(c -> c.expiration <= now);
+                if (responseCache.size() >= maxCachedResults) {
+                    responseCache.clear();
+                }
+            }
+            responseCache.put(cacheKey, new CachedResponse(response, now + resultCacheLifetime.toMillis()));
+        }
+        
+        return response;
+    }
+    
+    /**
+     * Get the key under which to cache a response.
+     * 
+     * @param duoContext Duo authentication context to use
+     * @param duoIntegration Duo integration to use
+     * 
+     * @return cache key, or null if the response should not be cached
+     */
+    @Nullable private String getCacheKey(@Nonnull final DuoAuthenticationContext duoContext,
+            @Nonnull final DuoIntegration duoIntegration) {
+        if (duoContext.getUsername() == null) {
+            return null;
+        }
+        return duoIntegration.getAPIHost() + '!' + duoIntegration.getIntegrationKey() + '!'
+                + duoContext.getUsername() + '!' + (duoContext.getClientAddress() != null
+                        ? duoContext.getClientAddress() : "");
+    }
+
+    /** A cached response. */
+    private static final class CachedResponse {
+        
+        /** The response. */
+        @Nonnull private final DuoPreauthResponse response;
+        
+        /** Expiration time. */
+        private final long expiration;
+        
+        /**
+         * Constructor.
+         *
+         * @param resp the response
+         * @param exp expiration time
+         */
+        CachedResponse(@Nonnull final DuoPreauthResponse resp, final long exp) {
+            response = resp;
+            expiration = exp;
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -18,6 +18,8 @@
 package net.shibboleth.idp.authn.duo.impl;
 
 import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
@@ -52,7 +54,12 @@ import com.duosecurity.duoweb.DuoWebException;
  * {@link net.shibboleth.idp.authn.AuthenticationResult} based on that identity by authenticating against the Duo
  * AuthAPI.
  * 
+ * <p>If the {@link DuoAuthAuthenticator} is asynchronous, an authentication awaiting the user's response is
+ * signaled with {@link DuoAuthAPI#DUO_AUTH_PENDING_EVENT}, and its outcome is checked each time the action
+ * is re-executed, until it is known or the maximum wait has elapsed.</p>
+ * 
  * @event {@link org.opensaml.profile.action.EventIds#PROCEED_EVENT_ID}
+ * @event {@link DuoAuthAPI#DUO_AUTH_PENDING_EVENT}
  * @event {@link AuthnEventIds#AUTHN_EXCEPTION}
  * @event {@link AuthnEventIds#ACCOUNT_LOCKED}
  * @event {@link AuthnEventIds#ACCOUNT_WARNING}
@@ -99,11 +106,15 @@ public class ValidateDuoAuthAPI extends AbstractValidationAction {
 
     /** Attempted username. */
     @Nullable @NotEmpty private String username;
+    
+    /** Maximum time to wait for the user to respond to an asynchronous authentication. */
+    @Nonnull private Duration maxWait;
 
     /** Constructor. */
     public ValidateDuoAuthAPI() {
         duoIntegrationLookupStrategy = FunctionSupport.constant(null);
         usernameLookupStrategy = new CanonicalUsernameLookupStrategy();
+        maxWait = Duration.ofSeconds(60);
         setMetricName(DEFAULT_METRIC_NAME);
     }
 
@@ -164,6 +175,23 @@ public class ValidateDuoAuthAPI extends AbstractValidationAction {
         preauthAuthenticator = Constraint.isNotNull(authenticator, "DuoPreauthAuthenticator cannot be null");
     }
 
+    /**
+     * Set the maximum time to wait for the user to respond to an asynchronous authentication.
+     * 
+     * <p>Defaults to 60 seconds.</p>
+     * 
+     * @param wait maximum wait
+     * 
+     * @since 4.1.0
+     */
+    public void setMaxWait(@Nonnull final Duration wait) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(wait, "Maximum wait cannot be null");
+        Constraint.isFalse(wait.isNegative() || wait.isZero(), "Maximum wait must be positive");
+        
+        maxWait = wait;
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -227,6 +255,13 @@ public class ValidateDuoAuthAPI extends AbstractValidationAction {
         log.trace("{} Attempting Duo AuthAPI authentication", getLogPrefix());
 
         try {
+            if (duoContext.getTransactionId() != null) {
+                // Check on an asynchronous authentication already started.
+                handleAuthResponse(profileRequestContext, authenticationContext,
+                        authAuthenticator.getStatus(duoContext, duoIntegration));
+                return;
+            }
+            
             // Duo AuthAPI pre-authentication
             final DuoPreauthResponse preAuthResponse = preauthAuthenticator.authenticate(duoContext, duoIntegration);
             if (preAuthResponse == null) {
@@ -281,33 +316,68 @@ public class ValidateDuoAuthAPI extends AbstractValidationAction {
             }
 
             // Duo AuthAPI authentication
-            final DuoAuthResponse authenticationResponse = authAuthenticator.authenticate(duoContext, duoIntegration);
-            if (authenticationResponse == null) {
-                log.info("{} No Duo AuthAPI authentication response", getLogPrefix());
-                throw new DuoWebException("No authentication response");
-            }
-
-            final String authResult = authenticationResponse.getResult();
-            if (DuoAuthAPI.DUO_AUTH_RESULT_ALLOW.equals(authResult)) {
-                log.info("{} Duo authentication succeeded for '{}' (Factor: {}, Device: {})", getLogPrefix(), username,
-                        duoContext.getFactor(), duoContext.getDeviceID());
-                recordSuccess();
-                buildAuthenticationResult(profileRequestContext, authenticationContext);
-            } else if (DuoAuthAPI.DUO_AUTH_RESULT_DENY.equals(authResult)) {
-                log.info("{} Duo authentication failed for '{}'", getLogPrefix(), username);
-                handleError(profileRequestContext, authenticationContext, authenticationResponse.getStatus(),
-                        AuthnEventIds.INVALID_CREDENTIALS);
-                recordFailure();
-            } else {
-                throw new DuoWebException("Unexpected authentication response");
-            }
+            handleAuthResponse(profileRequestContext, authenticationContext,
+                    authAuthenticator.authenticate(duoContext, duoIntegration));
         } catch (final DuoWebException e) {
+            duoContext.setTransactionId(null);
             log.error("{} Duo AuthAPI access failed for '{}'", getLogPrefix(), username, e);
             handleError(profileRequestContext, authenticationContext, e, AuthnEventIds.AUTHN_EXCEPTION);
             recordFailure();
         }
     }
     // CheckStyle: CyclomaticComplexity|MethodLength|ReturnCount OFF
+    
+    /**
+     * Act on the response to an authentication request or status check.
+     * 
+     * @param profileRequestContext profile request context
+     * @param authenticationContext authentication context
+     * @param authenticationResponse response to handle
+     * 
+     * @throws DuoWebException if the response is missing or unexpected, or the maximum wait has elapsed
+     */
+    private void handleAuthResponse(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final AuthenticationContext authenticationContext,
+            @Nullable final DuoAuthResponse authenticationResponse) throws DuoWebException {
+        
+        if (authenticationResponse == null) {
+            log.info("{} No Duo AuthAPI authentication response", getLogPrefix());
+            throw new DuoWebException("No authentication response");
+        }
+
+        final String authResult = authenticationResponse.getResult();
+        if (authResult == null && authenticationResponse.getTxid() != null && duoContext.getTransactionId() == null) {
+            // An asynchronous request returns only a transaction ID.
+            duoContext.setTransactionId(authenticationResponse.getTxid());
+            duoContext.setTransactionStart(Instant.now());
+            log.debug("{} Duo authentication for '{}' started asynchronously", getLogPrefix(), username);
+            ActionSupport.buildEvent(profileRequestContext, DuoAuthAPI.DUO_AUTH_PENDING_EVENT);
+            return;
+        } else if (DuoAuthAPI.DUO_AUTH_RESULT_WAITING.equals(authResult) && duoContext.getTransactionId() != null) {
+            if (Duration.between(duoContext.getTransactionStart(), Instant.now()).compareTo(maxWait) > 0) {
+                throw new DuoWebException("Timed out waiting for Duo authentication to complete");
+            }
+            log.debug("{} Duo authentication for '{}' awaiting user response: {}", getLogPrefix(), username,
+                    authenticationResponse.getStatus());
+            ActionSupport.buildEvent(profileRequestContext, DuoAuthAPI.DUO_AUTH_PENDING_EVENT);
+            return;
+        }
+        
+        duoContext.setTransactionId(null);
+        if (DuoAuthAPI.DUO_AUTH_RESULT_ALLOW.equals(authResult)) {
+            log.info("{} Duo authentication succeeded for '{}' (Factor: {}, Device: {})", getLogPrefix(), username,
+                    duoContext.getFactor(), duoContext.getDeviceID());
+            recordSuccess();
+            buildAuthenticationResult(profileRequestContext, authenticationContext);
+        } else if (DuoAuthAPI.DUO_AUTH_RESULT_DENY.equals(authResult)) {
+            log.info("{} Duo authentication failed for '{}'", getLogPrefix(), username);
+            handleError(profileRequestContext, authenticationContext, authenticationResponse.getStatus(),
+                    AuthnEventIds.INVALID_CREDENTIALS);
+            recordFailure();
+        } else {
+            throw new DuoWebException("Unexpected authentication response");
+        }
+    }
 
     /** {@inheritDoc} */
     @Override protected Subject populateSubject(@Nonnull final Subject subject) {
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.authn.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.authn.AbstractSubjectCanonicalizationAction;
+import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A canonicalization action that stores the result of a successful canonicalization flow in a
+ * {@link SubjectCanonicalizationCache}, for reuse by {@link SelectSubjectCanonicalizationFlow}.
+ * 
+ * <p>Nothing is done if no cache is installed, or if the flow's results are not cacheable.</p>
+ * 
+ * @event {@link org.opensaml.profile.action.EventIds#PROCEED_EVENT_ID}
+ * @pre <pre>ProfileRequestContext.getSubcontext(SubjectCanonicalizationContext.class, false) != null</pre>
+ * 
+ * @since 4.1.0
+ */
+public class CacheSubjectCanonicalizationResult extends AbstractSubjectCanonicalizationAction {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CacheSubjectCanonicalizationResult.class);
+
+    /** Cache of results. */
+    @Nullable private SubjectCanonicalizationCache resultCache;
+    
+    /**
+     * Set the cache of results to populate.
+     * 
+     * @param cache result cache
+     */
+    public void setResultCache(@Nullable final SubjectCanonicalizationCache cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        resultCache = cache;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final SubjectCanonicalizationContext c14nContext) {
+        
+        return resultCache != null && c14nContext.getAttemptedFlow() != null
+                && c14nContext.getPrincipalName() != null && c14nContext.getSubject() != null
+                && resultCache.isCacheable(c14nContext.getAttemptedFlow().getId());
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final SubjectCanonicalizationContext c14nContext) {
+        
+        log.debug("{} Caching result of canonicalization flow {}", getLogPrefix(),
+                c14nContext.getAttemptedFlow().getId());
+        resultCache.put(c14nContext.getAttemptedFlow().getId(), c14nContext, c14nContext.getPrincipalName());
+    }
+
+}
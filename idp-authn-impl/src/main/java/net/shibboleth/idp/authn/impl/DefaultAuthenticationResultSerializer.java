@@ -20,11 +20,14 @@ package net.shibboleth.idp.authn.impl;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -44,12 +47,17 @@ import javax.json.JsonValue.ValueType;
 import javax.json.stream.JsonGenerator;
 import javax.json.stream.JsonGeneratorFactory;
 import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.x500.X500Principal;
 
 import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.principal.AuthenticationResultPrincipal;
 import net.shibboleth.idp.authn.principal.PrincipalSerializer;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
 import net.shibboleth.idp.authn.principal.impl.AuthenticationResultPrincipalSerializer;
 import net.shibboleth.idp.authn.principal.impl.GenericPrincipalSerializer;
 import net.shibboleth.idp.authn.principal.impl.UsernamePrincipalSerializer;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
@@ -61,6 +69,10 @@ import org.opensaml.storage.StorageSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
 /**
  * Handles serialization of results, delegating handling of {@link Principal} objects to one or more
  * {@link PrincipalSerializer} plugins.
@@ -106,6 +118,15 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
     
     /** Generic principal serializer for any unsupported principals. */
     @Nonnull private final GenericPrincipalSerializer genericSerializer;
+    
+    /** Maximum number of parsed results to cache. */
+    @NonNegative private long resultCacheSize;
+    
+    /** Cache of parsed results keyed by a digest of the serialized form. */
+    @Nullable private Cache<String,ParsedResult> resultCache;
+    
+    /** Immutable principal types that may be shared between results loaded from the cache. */
+    @Nonnull @NonnullElements private Set<Class<? extends Principal>> cacheablePrincipalTypes;
 
     /** Constructor. */
     public DefaultAuthenticationResultSerializer() {
@@ -115,6 +136,7 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
         principalSerializers = Collections.emptyList();
         authnResultPrincipalSerializer = new AuthenticationResultPrincipalSerializer(this);
         genericSerializer = new GenericPrincipalSerializer();
+        cacheablePrincipalTypes = Set.of(UsernamePrincipal.class, X500Principal.class, KerberosPrincipal.class);
     }
 
     /**
@@ -129,6 +151,49 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
         principalSerializers = List.copyOf(Constraint.isNotNull(serializers, "Serializers cannot be null"));
     }
 
+    /**
+     * Set the maximum number of parsed results to cache for reuse, keyed by a digest of their serialized form.
+     * 
+     * <p>Parsing, and in particular principal deserialization, is repeated every time a result is loaded
+     * from a session. Each result loaded from an entry in the cache gets its own subject and mutable state,
+     * but shares the principal and credential objects, so a result is cached only if every such object is
+     * of a type named via {@link #setCacheablePrincipalTypes(Collection)}.</p>
+     * 
+     * <p>Defaults to 0, which disables the cache.</p>
+     * 
+     * @param size maximum number of entries
+     * 
+     * @since 4.1.0
+     */
+    public void setResultCacheSize(@NonNegative final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        resultCacheSize = Constraint.isGreaterThanOrEqual(0, size, "Cache size cannot be negative");
+    }
+
+    /**
+     * Set the principal types that may be shared between results loaded from the cache.
+     * 
+     * <p>Types must be immutable, and are matched exactly, since a subclass may add mutable state.
+     * {@link AuthenticationResultPrincipal} objects wrap a mutable result and are never shared.</p>
+     * 
+     * <p>Defaults to {@link UsernamePrincipal}, {@link X500Principal} and {@link KerberosPrincipal}.</p>
+     * 
+     * @param types principal types
+     * 
+     * @since 4.1.0
+     */
+    public void setCacheablePrincipalTypes(
+            @Nullable @NonnullElements final Collection<Class<? extends Principal>> types) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        if (types != null) {
+            cacheablePrincipalTypes = Set.copyOf(types);
+        } else {
+            cacheablePrincipalTypes = Collections.emptySet();
+        }
+    }
+
     /**
      * Returns the {@link GenericPrincipalSerializer} used for any unsupported principals found
      * in the {@link AuthenticationResult}.
@@ -157,6 +222,10 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
             copy.add(authnResultPrincipalSerializer);
             principalSerializers = List.copyOf(copy);
         }
+        
+        if (resultCacheSize > 0) {
+            resultCache = CacheBuilder.newBuilder().maximumSize(resultCacheSize).build();
+        }
 
     }
 
@@ -211,13 +280,51 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
         }
     }
     
-    // Checkstyle: CyclomaticComplexity OFF
     /** {@inheritDoc} */
     @Nonnull public AuthenticationResult deserialize(final long version, @Nonnull @NotEmpty final String context,
                     @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value,
                     @Nullable final Long expiration) throws IOException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         
+        ParsedResult parsed = null;
+        String digest = null;
+        if (resultCache != null) {
+            digest = Hashing.sha256().hashString(value, StandardCharsets.UTF_8).toString();
+            parsed = resultCache.getIfPresent(digest);
+        }
+        
+        if (parsed == null) {
+            parsed = parse(value);
+            if (digest != null && parsed.cacheable) {
+                resultCache.put(digest, parsed);
+            }
+        } else {
+            log.trace("Reusing cached parse of AuthenticationResult for flow {}", parsed.flowId);
+        }
+        
+        // Only the containing sets and the mutable state of the result are new to each call.
+        final AuthenticationResult result = new AuthenticationResult(parsed.flowId,
+                new Subject(false, parsed.principals, parsed.publicCredentials, parsed.privateCredentials));
+        result.setAuthenticationInstant(Instant.ofEpochMilli(parsed.authnInstant));
+        result.setLastActivityInstant(Instant.ofEpochMilli(expiration != null ? expiration : parsed.authnInstant));
+        result.setPreviousResult(true);
+        result.getAdditionalData().putAll(parsed.additionalData);
+        
+        return result;
+    }
+    
+    // Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Parse the serialized form of a result.
+     * 
+     * @param value serialized result
+     * 
+     * @return the parsed content
+     * 
+     * @throws IOException if an error occurs
+     */
+    @Nonnull private ParsedResult parse(@Nonnull @NotEmpty final String value) throws IOException {
+        
         try (final JsonReader reader = readerFactory.createReader(new StringReader(value))) {
             
             final JsonStructure st = reader.read();
@@ -227,52 +334,20 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
             }
             final JsonObject obj = (JsonObject) st;
 
-            final String flowId = obj.getString(FLOW_ID_FIELD);
-            final long authnInstant = obj.getJsonNumber(AUTHN_INSTANT_FIELD).longValueExact();
-
-            final AuthenticationResult result = new AuthenticationResult(flowId, new Subject());
-            result.setAuthenticationInstant(Instant.ofEpochMilli(authnInstant));
-            result.setLastActivityInstant(Instant.ofEpochMilli(expiration != null ? expiration : authnInstant));
-            result.setPreviousResult(true);
+            final ParsedResult result = new ParsedResult(obj.getString(FLOW_ID_FIELD),
+                    obj.getJsonNumber(AUTHN_INSTANT_FIELD).longValueExact());
 
             final JsonObject addtlData = obj.getJsonObject(ADDTL_DATA_FIELD);
             if (addtlData != null) {
-                final Map<String,String> dataMap = result.getAdditionalData();
                 addtlData.entrySet()
                     .stream()
                     .filter(e -> e.getValue().getValueType().equals(ValueType.STRING))
-                    .forEach(e -> dataMap.put(e.getKey(), ((JsonString) e.getValue()).getString()));
+                    .forEach(e -> result.additionalData.put(e.getKey(), ((JsonString) e.getValue()).getString()));
             }
             
-            final JsonArray principals = obj.getJsonArray(PRINCIPAL_ARRAY_FIELD);
-            if (principals != null) {
-                for (final JsonValue val : principals) {
-                    final Principal principal = deserializePrincipal(val);
-                    if (principal != null) {
-                        result.getSubject().getPrincipals().add(principal);
-                    }
-                }
-            }
-
-            final JsonArray publicCreds = obj.getJsonArray(PUB_CREDS_ARRAY_FIELD);
-            if (publicCreds != null) {
-                for (final JsonValue val : publicCreds) {
-                    final Principal principal = deserializePrincipal(val);
-                    if (principal != null) {
-                        result.getSubject().getPublicCredentials().add(principal);
-                    }
-                }
-            }
-
-            final JsonArray privateCreds = obj.getJsonArray(PRIV_CREDS_ARRAY_FIELD);
-            if (privateCreds != null) {
-                for (final JsonValue val : privateCreds) {
-                    final Principal principal = deserializePrincipal(val);
-                    if (principal != null) {
-                        result.getSubject().getPrivateCredentials().add(principal);
-                    }
-                }
-            }
+            result.addPrincipals(obj.getJsonArray(PRINCIPAL_ARRAY_FIELD), result.principals);
+            result.addPrincipals(obj.getJsonArray(PUB_CREDS_ARRAY_FIELD), result.publicCredentials);
+            result.addPrincipals(obj.getJsonArray(PRIV_CREDS_ARRAY_FIELD), result.privateCredentials);
 
             // TODO handle custom creds
 
@@ -336,4 +411,71 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
         return null;
     }
     
-}
\ No newline at end of file
+    /** The parsed content of a serialized result, which may be shared across calls. */
+    private final class ParsedResult {
+        
+        /** Flow ID. */
+        @Nonnull @NotEmpty private final String flowId;
+        
+        /** Authentication instant. */
+        private final long authnInstant;
+        
+        /** Additional data. */
+        @Nonnull @NonnullElements private final Map<String,String> additionalData;
+        
+        /** Principals. */
+        @Nonnull @NonnullElements private final Set<Principal> principals;
+
+        /** Public credentials. */
+        @Nonnull @NonnullElements private final Set<Object> publicCredentials;
+
+        /** Private credentials. */
+        @Nonnull @NonnullElements private final Set<Object> privateCredentials;
+        
+        /** Whether the content may be shared. */
+        private boolean cacheable;
+
+        /**
+         * Constructor.
+         *
+         * @param id flow ID
+         * @param instant authentication instant
+         */
+        ParsedResult(@Nonnull @NotEmpty final String id, final long instant) {
+            flowId = id;
+            authnInstant = instant;
+            additionalData = new HashMap<>();
+            principals = new LinkedHashSet<>();
+            publicCredentials = new LinkedHashSet<>();
+            privateCredentials = new LinkedHashSet<>();
+            cacheable = true;
+        }
+        
+        /**
+         * Deserialize an array of principals into a set.
+         * 
+         * <p>Any principal not of a cacheable type prevents the content from being shared.</p>
+         * 
+         * @param array JSON array, or null
+         * @param target set to populate
+         * 
+         * @throws IOException if an error occurs
+         */
+        private void addPrincipals(@Nullable final JsonArray array, @Nonnull final Set<? super Principal> target)
+                throws IOException {
+            if (array != null) {
+                for (final JsonValue val : array) {
+                    final Principal principal = deserializePrincipal(val);
+                    if (principal != null) {
+                        target.add(principal);
+                        if (principal instanceof AuthenticationResultPrincipal
+                                || !cacheablePrincipalTypes.contains(principal.getClass())) {
+                            cacheable = false;
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.impl;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.context.RequestedPrincipalContext;
+import net.shibboleth.idp.authn.principal.PrincipalEvalPredicate;
+import net.shibboleth.idp.authn.principal.PrincipalEvalPredicateFactoryRegistry;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Memoizes the static portion of the flow selection process carried out by {@link SelectAuthenticationFlow}.
+ * 
+ * <p>For a given comparison operator, ordered list of requested principals, and ordered set of potential
+ * flows, the flows that satisfy each requested principal depend only on configuration, so the result of
+ * evaluating every {@link PrincipalEvalPredicate} against every {@link AuthenticationFlowDescriptor} can be
+ * computed once and reused. Per-request considerations (activation conditions, intermediate flows, passive
+ * and proxy restrictions, and active results) are still evaluated by the caller.</p>
+ * 
+ * <p>Entries are validated against the identity of the descriptors supplied, so reloading the flow
+ * descriptors causes affected entries to be rebuilt on next use. The table is cleared when it reaches
+ * its maximum size.</p>
+ * 
+ * <p>This relies on descriptors and predicate factories being immutable once initialized, which is true
+ * of the supplied implementations.</p>
+ * 
+ * @since 4.1.0
+ */
+public class FlowSelectionTable extends AbstractInitializableComponent {
+
+    /** Memoized entries. */
+    @Nonnull private final ConcurrentMap<Key,Entry> entries;
+    
+    /** Maximum number of entries to hold. */
+    private int maxEntries;
+    
+    /** Constructor. */
+    public FlowSelectionTable() {
+        entries = new ConcurrentHashMap<>();
+        maxEntries = 1000;
+    }
+    
+    /**
+     * Set the maximum number of entries to hold before the table is cleared.
+     * 
+     * <p>Defaults to 1000.</p>
+     * 
+     * @param max maximum number of entries
+     */
+    public void setMaxEntries(final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        maxEntries = (int) Constraint.isGreaterThan(0, max, "Maximum entries must be greater than 0");
+    }
+    
+    /**
+     * Get the number of entries currently held.
+     * 
+     * @return number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+    
+    /** Remove all entries. */
+    public void clear() {
+        entries.clear();
+    }
+    
+    /**
+     * Get the flows that satisfy each requested principal, in the order of the potential flows supplied.
+     * 
+     * <p>The result contains one element per requested principal, in request order, each of which is the
+     * list of potential flows that satisfy that principal, or null if no predicate is available for the
+     * principal's type and the request's operator.</p>
+     * 
+     * @param requestedPrincipalCtx the requested principal context
+     * @param potentialFlows the potential flows to evaluate
+     * 
+     * @return the candidate flows for each requested principal
+     */
+    @Nonnull @Unmodifiable public List<List<AuthenticationFlowDescriptor>> getCandidateFlows(
+            @Nonnull final RequestedPrincipalContext requestedPrincipalCtx,
+            @Nonnull @NonnullElements final Map<String,AuthenticationFlowDescriptor> potentialFlows) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        
+        final Key key = new Key(requestedPrincipalCtx, potentialFlows);
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.isCurrent(potentialFlows.values())) {
+            return entry.candidates;
+        }
+        
+        final Entry newEntry = new Entry(potentialFlows.values(),
+                buildCandidateFlows(requestedPrincipalCtx, potentialFlows));
+        if (entries.size() >= maxEntries) {
+            entries.clear();
+        }
+        entries.put(key, newEntry);
+        return newEntry.candidates;
+    }
+
+    /**
+     * Evaluate the flows that satisfy each requested principal without memoizing the result.
+     * 
+     * @param requestedPrincipalCtx the requested principal context
+     * @param potentialFlows the potential flows to evaluate
+     * 
+     * @return the candidate flows for each requested principal
+     * 
+     * @see #getCandidateFlows(RequestedPrincipalContext, Map)
+     */
+    @Nonnull @Unmodifiable public static List<List<AuthenticationFlowDescriptor>> buildCandidateFlows(
+            @Nonnull final RequestedPrincipalContext requestedPrincipalCtx,
+            @Nonnull @NonnullElements final Map<String,AuthenticationFlowDescriptor> potentialFlows) {
+        
+        final List<Principal> principals = requestedPrincipalCtx.getRequestedPrincipals();
+        final List<List<AuthenticationFlowDescriptor>> candidates = new ArrayList<>(principals.size());
+        for (final Principal p : principals) {
+            final PrincipalEvalPredicate predicate = requestedPrincipalCtx.getPredicate(p);
+            if (predicate != null) {
+                final List<AuthenticationFlowDescriptor> row = new ArrayList<>();
+                for (final AuthenticationFlowDescriptor descriptor : potentialFlows.values()) {
+                    if (predicate.test(descriptor)) {
+                        row.add(descriptor);
+                    }
+                }
+                candidates.add(List.copyOf(row));
+            } else {
+                candidates.add(null);
+            }
+        }
+        return Collections.unmodifiableList(candidates);
+    }
+    
+    /** Table key, comprising the inputs that influence the result. */
+    private static final class Key {
+        
+        /** Predicate factory registry, compared by identity. */
+        @Nonnull private final PrincipalEvalPredicateFactoryRegistry registry;
+        
+        /** Comparison operator. */
+        @Nullable private final String operator;
+        
+        /** Requested principals. */
+        @Nonnull private final List<Principal> principals;
+        
+        /** Potential flow IDs. */
+        @Nonnull private final List<String> flowIds;
+        
+        /** Cached hash code. */
+        private final int hashCode;
+        
+        /**
+         * Constructor.
+         *
+         * @param requestedPrincipalCtx the requested principal context
+         * @param potentialFlows the potential flows
+         */
+        Key(@Nonnull final RequestedPrincipalContext requestedPrincipalCtx,
+                @Nonnull final Map<String,AuthenticationFlowDescriptor> potentialFlows) {
+            registry = requestedPrincipalCtx.getPrincipalEvalPredicateFactoryRegistry();
+            operator = requestedPrincipalCtx.getOperator();
+            principals = requestedPrincipalCtx.getRequestedPrincipals();
+            flowIds = List.copyOf(potentialFlows.keySet());
+            hashCode = Objects.hash(System.identityHashCode(registry), operator, principals, flowIds);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof Key)) {
+                return false;
+            }
+            
+            final Key other = (Key) obj;
+            return registry == other.registry && Objects.equals(operator, other.operator)
+                    && principals.equals(other.principals) && flowIds.equals(other.flowIds);
+        }
+    }
+    
+    /** Table entry. */
+    private static final class Entry {
+        
+        /** The descriptors the entry was computed from. */
+        @Nonnull private final List<AuthenticationFlowDescriptor> descriptors;
+        
+        /** The candidate flows for each requested principal. */
+        @Nonnull private final List<List<AuthenticationFlowDescriptor>> candidates;
+        
+        /**
+         * Constructor.
+         *
+         * @param flows the descriptors the entry was computed from
+         * @param candidateFlows the candidate flows for each requested principal
+         */
+        Entry(@Nonnull final Collection<AuthenticationFlowDescriptor> flows,
+                @Nonnull final List<List<AuthenticationFlowDescriptor>> candidateFlows) {
+            descriptors = List.copyOf(flows);
+            candidates = candidateFlows;
+        }
+        
+        /**
+         * Check whether the entry was computed from the same descriptor objects as those supplied.
+         * 
+         * <p>Descriptors compare equal by ID, so this guards against reuse across a reload.</p>
+         * 
+         * @param flows the descriptors to compare
+         * 
+         * @return true iff the descriptors are the same objects in the same order
+         */
+        boolean isCurrent(@Nonnull final Collection<AuthenticationFlowDescriptor> flows) {
+            if (flows.size() != descriptors.size()) {
+                return false;
+            }
+            final Iterator<AuthenticationFlowDescriptor> iter = descriptors.iterator();
+            for (final AuthenticationFlowDescriptor flow : flows) {
+                if (flow != iter.next()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+}
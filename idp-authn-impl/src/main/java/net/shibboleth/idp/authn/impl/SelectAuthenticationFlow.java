@@ -18,6 +18,7 @@
 package net.shibboleth.idp.authn.impl;
 
 import java.security.Principal;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
@@ -62,6 +63,9 @@ import org.slf4j.LoggerFactory;
  * in the order specified by the {@link RequestedPrincipalContext}, or to favor an active but matching result
  * over a new flow. Forced authentication trumps the use of any active result.</p>
  * 
+ * <p>The evaluation of requested principals against potential flows depends only on configuration,
+ * and may be memoized across requests by supplying a {@link FlowSelectionTable}.</p>
+ * 
  * @event {@link org.opensaml.profile.action.EventIds#PROCEED_EVENT_ID} (reuse of a result, i.e., SSO)
  * @event {@link AuthnEventIds#NO_PASSIVE}
  * @event {@link AuthnEventIds#NO_POTENTIAL_FLOW}
@@ -90,6 +94,12 @@ public class SelectAuthenticationFlow extends AbstractAuthenticationAction {
     
     /** Tracks a proxy count of zero for the request. */
     private boolean noProxying;
+    
+    /** Optional table of memoized flow selection results. */
+    @Nullable private FlowSelectionTable selectionTable;
+    
+    /** Potential flows satisfying each requested principal, in request order. */
+    @Nullable private List<List<AuthenticationFlowDescriptor>> candidateFlows;
 
     /**
      * Get whether SSO should trump explicit relying party requirements preference.
@@ -110,6 +120,19 @@ public class SelectAuthenticationFlow extends AbstractAuthenticationAction {
         
         favorSSO = flag;
     }
+    
+    /**
+     * Set a table to memoize the evaluation of requested principals against potential flows.
+     * 
+     * @param table memoization table
+     * 
+     * @since 4.1.0
+     */
+    public void setSelectionTable(@Nullable final FlowSelectionTable table) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        selectionTable = table;
+    }
 
     /** {@inheritDoc} */
     @Override
@@ -401,6 +424,13 @@ public class SelectAuthenticationFlow extends AbstractAuthenticationAction {
         log.debug("{} Specific principals requested with '{}' operator: {}", getLogPrefix(),
                 requestedPrincipalCtx.getOperator(), requestedPrincipalCtx.getRequestedPrincipals());
 
+        if (selectionTable != null) {
+            candidateFlows = selectionTable.getCandidateFlows(requestedPrincipalCtx,
+                    authenticationContext.getPotentialFlows());
+        } else {
+            candidateFlows = FlowSelectionTable.buildCandidateFlows(requestedPrincipalCtx,
+                    authenticationContext.getPotentialFlows());
+        }
         
         if (authenticationContext.isForceAuthn()) {
             log.debug("{} Forced authentication requested, selecting an inactive flow", getLogPrefix());
@@ -423,18 +453,19 @@ public class SelectAuthenticationFlow extends AbstractAuthenticationAction {
     private void selectRequestedInactiveFlow(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull final AuthenticationContext authenticationContext) {
 
-        final Map<String,AuthenticationFlowDescriptor> potentialFlows = authenticationContext.getPotentialFlows();
+        final List<Principal> principals = requestedPrincipalCtx.getRequestedPrincipals();
         
         // Check each flow for compatibility with request. Don't check for an active result also.
         // Also omit anything in the intermediates collection already.
-        for (final Principal p : requestedPrincipalCtx.getRequestedPrincipals()) {
+        for (int i = 0; i < principals.size(); ++i) {
+            final Principal p = principals.get(i);
             log.debug("{} Checking for inactive flow compatible with operator '{}' and principal '{}'",
                     getLogPrefix(), requestedPrincipalCtx.getOperator(), p.getName());
-            final PrincipalEvalPredicate predicate = requestedPrincipalCtx.getPredicate(p);
-            if (predicate != null) {
-                for (final AuthenticationFlowDescriptor descriptor : potentialFlows.values()) {
+            final List<AuthenticationFlowDescriptor> candidates = candidateFlows.get(i);
+            if (candidates != null) {
+                for (final AuthenticationFlowDescriptor descriptor : candidates) {
                     if (!authenticationContext.getIntermediateFlows().containsKey(descriptor.getId())
-                            && predicate.test(descriptor) && descriptor.test(profileRequestContext)) {
+                            && descriptor.test(profileRequestContext)) {
                         if (!authenticationContext.isPassive() || descriptor.isPassiveAuthenticationSupported()) {
                             if (!noProxying || !descriptor.isProxyScopingEnforced()) {
                                 selectInactiveFlow(profileRequestContext, authenticationContext, descriptor);
@@ -502,24 +533,29 @@ public class SelectAuthenticationFlow extends AbstractAuthenticationAction {
 
         }
         
-        final Map<String,AuthenticationFlowDescriptor> potentialFlows = authenticationContext.getPotentialFlows();
+        final List<Principal> principals = requestedPrincipalCtx.getRequestedPrincipals();
 
         // In this branch, we check each flow for compatibility *and* then double check to see if an active
         // result from that flow also exists and is compatible. This favors a matching inactive flow that is
         // higher in request precedence than an active result.
-        for (final Principal p : requestedPrincipalCtx.getRequestedPrincipals()) {
+        for (int i = 0; i < principals.size(); ++i) {
+            final Principal p = principals.get(i);
             log.debug("{} Checking for an inactive flow or active result compatible with "
                     + "operator '{}' and principal '{}'", getLogPrefix(), requestedPrincipalCtx.getOperator(),
                     p.getName());
-            final PrincipalEvalPredicate predicate = requestedPrincipalCtx.getPredicate(p);
-            if (predicate != null) {
-                for (final AuthenticationFlowDescriptor descriptor : potentialFlows.values()) {
+            final List<AuthenticationFlowDescriptor> candidates = candidateFlows.get(i);
+            if (candidates != null) {
+                PrincipalEvalPredicate predicate = null;
+                for (final AuthenticationFlowDescriptor descriptor : candidates) {
                     if (!authenticationContext.getIntermediateFlows().containsKey(descriptor.getId())
-                            && predicate.test(descriptor) && descriptor.test(profileRequestContext)) {
+                            && descriptor.test(profileRequestContext)) {
                         
                         // Now check for an active result we can use from this flow. Not all results from a flow
                         // will necessarily match the request just because the flow might.
                         final AuthenticationResult result = activeResults.get(descriptor.getId());
+                        if (result != null && predicate == null) {
+                            predicate = requestedPrincipalCtx.getPredicate(p);
+                        }
                         if (result == null || !result.getReuseCondition().test(profileRequestContext)
                                 || !predicate.test(result)) {
                             if (result != null) {
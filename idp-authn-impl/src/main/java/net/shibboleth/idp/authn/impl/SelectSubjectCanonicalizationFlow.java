@@ -24,6 +24,7 @@ import net.shibboleth.idp.authn.AbstractSubjectCanonicalizationAction;
 import net.shibboleth.idp.authn.AuthnEventIds;
 import net.shibboleth.idp.authn.SubjectCanonicalizationFlowDescriptor;
 import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
 
 import org.opensaml.profile.action.ActionSupport;
 import org.opensaml.profile.context.ProfileRequestContext;
@@ -39,9 +40,11 @@ import org.slf4j.LoggerFactory;
  * and their associated activation conditions to decide how to proceed.</p>
  * 
  * <p>This is a rare case in that the standard default event,
- * {@link org.opensaml.profile.action.EventIds#PROCEED_EVENT_ID}, cannot be returned,
- * because the action must either dispatch to a flow by name, or signal an error.</p>
+ * {@link org.opensaml.profile.action.EventIds#PROCEED_EVENT_ID}, is returned only if a
+ * {@link SubjectCanonicalizationCache} is installed and supplies the result of the selected flow,
+ * because the action must otherwise either dispatch to a flow by name, or signal an error.</p>
  * 
+ * @event {@link org.opensaml.profile.action.EventIds#PROCEED_EVENT_ID}
  * @event {@link AuthnEventIds#NO_POTENTIAL_FLOW}
  * @event Selected flow ID to execute
  * @pre <pre>ProfileRequestContext.getSubcontext(SubjectCanonicalizationContext.class, false) != null</pre>
@@ -51,6 +54,22 @@ public class SelectSubjectCanonicalizationFlow extends AbstractSubjectCanonicali
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(SelectSubjectCanonicalizationFlow.class);
 
+    /** Optional cache of previous results. */
+    @Nullable private SubjectCanonicalizationCache resultCache;
+    
+    /**
+     * Set a cache of previous results to consult before dispatching to a flow.
+     * 
+     * @param cache result cache
+     * 
+     * @since 4.1.0
+     */
+    public void setResultCache(@Nullable final SubjectCanonicalizationCache cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        resultCache = cache;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext,
@@ -80,6 +99,16 @@ public class SelectSubjectCanonicalizationFlow extends AbstractSubjectCanonicali
             return;
         }
 
+        if (resultCache != null) {
+            final String principalName = resultCache.get(flow.getId(), c14nContext);
+            if (principalName != null) {
+                log.debug("{} Using cached result of canonicalization flow {}", getLogPrefix(), flow.getId());
+                c14nContext.setPrincipalName(principalName);
+                ActionSupport.buildProceedEvent(profileRequestContext);
+                return;
+            }
+        }
+
         log.debug("{} Selecting canonicalization flow {}", getLogPrefix(), flow.getId());
         ActionSupport.buildEvent(profileRequestContext, flow.getId());
     }
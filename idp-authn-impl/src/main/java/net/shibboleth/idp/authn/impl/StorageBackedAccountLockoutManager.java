@@ -20,6 +20,13 @@ package net.shibboleth.idp.authn.impl;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
@@ -34,7 +41,12 @@ import org.opensaml.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+
 import net.shibboleth.idp.authn.AccountLockoutManager;
+import net.shibboleth.idp.authn.VerifiedCredentialCache;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.context.LockoutManagerContext;
 import net.shibboleth.idp.authn.context.UsernamePasswordContext;
@@ -50,6 +62,17 @@ import net.shibboleth.utilities.java.support.logic.FunctionSupport;
 /**
  * Implementation of {@link AccountLockoutManager} interface that relies on a {@link StorageService}
  * to track lockout state.
+ * 
+ * <p>Optionally, a local tier of in-memory counters can be enabled by setting a non-zero flush interval.
+ * In that mode, failed attempts are counted in memory and the accumulated increments are periodically
+ * added to the stored counters, while lockout checks are answered from memory using a copy of the stored
+ * state that is re-read at most once per interval. This trades a small delay in cluster-wide convergence
+ * for protection of the storage service during high volumes of failed logins. Operations carrying a
+ * {@link LockoutManagerContext} (i.e., the administrative API) always operate on the stored state
+ * directly, after flushing any local increments for the key involved.</p>
+ * 
+ * <p>The local tier tracks a bounded number of keys (see {@link #setMaxLocalCounters(long)}). A key evicted
+ * to make room has its local increments added to storage first.</p>
  */
 public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInitializableComponent
         implements AccountLockoutManager {
@@ -75,8 +98,31 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
     /** Controls whether attempts against locked accounts extend duration. */
     private boolean extendLockoutDuration;
     
+    /** Interval between flushes of local counters to storage, zero to disable the local tier. */
+    @Nonnull private Duration flushInterval;
+    
+    /** Timer used to schedule flushes of the local tier. */
+    @Nullable private Timer flushTaskTimer;
+
+    /** Timer created internally if none is supplied. */
+    @Nullable private Timer internalTaskTimer;
+    
+    /** Task that flushes the local tier. */
+    @Nullable private TimerTask flushTask;
+    
+    /** Maximum number of keys tracked by the local tier. */
+    @Positive private long maxLocalCounters;
+    
+    /** Local counter tier, keyed by lockout key. */
+    @NonnullAfterInit private Cache<String,LocalCounter> localCounters;
+    
+    /** Cache of successful validations to invalidate on failed attempts. */
+    @Nullable private VerifiedCredentialCache verifiedCredentialCache;
+    
     /** Constructor. */
     public StorageBackedAccountLockoutManager() {
+        flushInterval = Duration.ZERO;
+        maxLocalCounters = 10000;
         setMaxAttempts(5);
         setCounterInterval(Duration.ofMinutes(5));
         setLockoutDuration(Duration.ofMinutes(5));
@@ -207,6 +253,68 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         extendLockoutDuration = flag;
     }
     
+    /**
+     * Set the interval between flushes of the local counter tier to storage.
+     * 
+     * <p>Defaults to zero, which disables the local tier so that every operation goes to storage.</p>
+     * 
+     * @param interval flush interval
+     * 
+     * @since 4.1.0
+     */
+    public void setFlushInterval(@Nonnull final Duration interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        Constraint.isNotNull(interval, "Flush interval cannot be null");
+        Constraint.isFalse(interval.isNegative(), "Flush interval cannot be negative");
+        flushInterval = interval;
+    }
+    
+    /**
+     * Set the maximum number of keys tracked by the local counter tier.
+     * 
+     * <p>Defaults to 10000. When the limit is reached, the least recently used key is evicted after adding
+     * its local increments to storage.</p>
+     * 
+     * @param max maximum number of keys
+     * 
+     * @since 4.1.0
+     */
+    public void setMaxLocalCounters(@Positive final long max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        maxLocalCounters = Constraint.isGreaterThan(0, max, "Maximum local counters must be greater than 0");
+    }
+    
+    /**
+     * Set the timer used to schedule flushes of the local counter tier.
+     * 
+     * <p>If not set, a timer is created internally when the local tier is enabled.</p>
+     * 
+     * @param timer timer to use
+     * 
+     * @since 4.1.0
+     */
+    public void setFlushTaskTimer(@Nullable final Timer timer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        flushTaskTimer = timer;
+    }
+    
+    /**
+     * Set a cache of successful validations from which to drop a user's entries whenever a failed attempt
+     * is recorded for, or a lockout is detected against, the username in the request.
+     * 
+     * @param cache verified credential cache
+     * 
+     * @since 4.1.0
+     */
+    public void setVerifiedCredentialCache(@Nullable final VerifiedCredentialCache cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        verifiedCredentialCache = cache;
+    }
+    
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -216,6 +324,46 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         } else if (lockoutKeyStrategy == null) {
             throw new ComponentInitializationException("Lockout key strategy cannot be null");
         }
+        
+        localCounters = CacheBuilder.newBuilder()
+                .maximumSize(maxLocalCounters)
+                .removalListener((RemovalListener<String,LocalCounter>) notification -> {
+                    if (notification.wasEvicted()) {
+                        retireLocalCounter(notification.getKey(), notification.getValue());
+                    }
+                })
+                .build();
+        
+        if (!flushInterval.isZero()) {
+            if (flushTaskTimer == null) {
+                internalTaskTimer = new Timer("AccountLockoutManager-" + getId(), true);
+            }
+            flushTask = new TimerTask() {
+                @Override
+                public void run() {
+                    flushLocalCounters();
+                }
+            };
+            getFlushTaskTimer().schedule(flushTask, flushInterval.toMillis(), flushInterval.toMillis());
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+            flushLocalCounters();
+        }
+        if (internalTaskTimer != null) {
+            internalTaskTimer.cancel();
+            internalTaskTimer = null;
+        }
+        if (localCounters != null) {
+            localCounters.invalidateAll();
+        }
+        
+        super.doDestroy();
     }
     
     /** {@inheritDoc} */
@@ -224,7 +372,12 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         if (key == null) {
             log.warn("No lockout key returned for request");
             return false;
+        } else if (isLocalTierApplicable(profileRequestContext)) {
+            return doLocalCheck(profileRequestContext, key);
         }
+        
+        // Make sure any local state for the key is reflected in storage.
+        flushLocalCounter(key);
 
         // Read back account state. No state obviously means no lockout, but in the case of errors
         // that does fail open. Of course, in-memory won't fail...
@@ -252,6 +405,7 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
                 final long timeDifference = System.currentTimeMillis() - lastAttempt;
                 if (timeDifference <= lockoutDuration) {
                     log.info("Lockout threshold reached for '{}', invalid count is {}", key, counter);
+                    invalidateVerifiedCredentials(profileRequestContext);
                     if (extendLockoutDuration) {
                         doIncrement(profileRequestContext, key, 10);
                     }
@@ -277,6 +431,7 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             return false;
         }
         
+        invalidateVerifiedCredentials(profileRequestContext);
         return doIncrement(profileRequestContext, key, 10);
     }
 
@@ -286,7 +441,22 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             final String key = lockoutKeyStrategy.apply(profileRequestContext);
             if (key != null) {
                 log.debug("Clearing lockout state for '{}'", key);
-                storageService.delete(getId(), key);
+                final LocalCounter localCounter = localCounters.getIfPresent(key);
+                if (localCounter != null) {
+                    // Wait out any flush in progress and discard the local increments. Increments that
+                    // land on the retired counter afterwards are moved to its replacement.
+                    localCounter.syncLock.lock();
+                    try {
+                        localCounter.retired = true;
+                        localCounter.discardPending();
+                        localCounters.asMap().remove(key, localCounter);
+                        storageService.delete(getId(), key);
+                    } finally {
+                        localCounter.syncLock.unlock();
+                    }
+                } else {
+                    storageService.delete(getId(), key);
+                }
                 return true;
             }
             log.warn("No lockout key returned for request");
@@ -296,10 +466,12 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         return false;
     }
     
-// Checkstyle: CyclomaticComplexity OFF
     /**
      * Implement invalid login attempt counter via storage service, retrying as necessary.
      * 
+     * <p>If the local counter tier is enabled, and applies to the request, the attempt is counted in
+     * memory instead.</p>
+     * 
      * @param profileRequestContext current profile request context
      * @param key account lockout key
      * @param retries number of additional retries to allow
@@ -308,10 +480,54 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
      */
     protected boolean doIncrement(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull @NotEmpty final String key, final int retries) {
+        
+        if (isLocalTierApplicable(profileRequestContext)) {
+            final long now = System.currentTimeMillis();
+            LocalCounter localCounter = getLocalCounter(profileRequestContext, key);
+            localCounter.add(1, now);
+            while (localCounter.retired) {
+                // The counter was cleared or evicted concurrently, so move what it missed to its replacement.
+                final long orphaned = localCounter.takeOrphaned();
+                if (orphaned <= 0) {
+                    break;
+                }
+                localCounter = getLocalCounter(profileRequestContext, key);
+                localCounter.add(orphaned, now);
+            }
+            log.debug("Invalid login count for '{}' is now {} (locally)", key, localCounter.getCount());
+            return true;
+        }
+        
+        final LocalCounter localCounter = localCounters.getIfPresent(key);
+        if (localCounter != null) {
+            // Force a refresh of the local copy to pick up the stored result.
+            localCounter.lastSync = 0;
+        }
+        
+        return doIncrement(key, 1, System.currentTimeMillis(),
+                lockoutDurationLookupStrategy.apply(profileRequestContext).toMillis(),
+                counterIntervalLookupStrategy.apply(profileRequestContext).toMillis(), retries) > 0;
+    }
+    
+// Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Add to the invalid login attempt counter via storage service, retrying as necessary.
+     * 
+     * @param key account lockout key
+     * @param amount amount to add to the counter
+     * @param attemptTime time of the most recent attempt being added
+     * @param lockoutDuration lockout duration in milliseconds
+     * @param counterInterval counter interval in milliseconds
+     * @param retries number of additional retries to allow
+     * 
+     * @return the new counter value, or -1 on failure
+     */
+    private int doIncrement(@Nonnull @NotEmpty final String key, final int amount, final long attemptTime,
+            final long lockoutDuration, final long counterInterval, final int retries) {
 
         if (retries <= 0) {
             log.error("Account lockout increment attempts for '{}' exceeded retry limit", key);
-            return false;
+            return -1;
         }
         
         // Read back account record, initializing counter to zero otherwise.
@@ -334,24 +550,20 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             log.error("Error converting lockout data for '{}' into integer", key, e);
         }
         
-        final long now = System.currentTimeMillis();
-        final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext).toMillis();
-        final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext).toMillis();
-        
         // Compute last access time by backing off from record expiration.
-        long lastAccess = now;
+        long lastAccess = attemptTime;
         if (sr != null) {
             lastAccess = sr.getExpiration() - Math.max(lockoutDuration, counterInterval);
         }
         
         // If difference between now and last access exceeds the counter interval, zero it.
-        if (now - lastAccess > counterInterval) {
+        if (attemptTime - lastAccess > counterInterval) {
             counter = 0;
         }
             
         // Increment, and set expiration to longer of the two settings to ensure it hangs around.
-        ++counter;
-        final long expiration = System.currentTimeMillis() + Math.max(lockoutDuration, counterInterval);
+        counter += amount;
+        final long expiration = attemptTime + Math.max(lockoutDuration, counterInterval);
 
         log.debug("Invalid login count for '{}' will be {}, expiring at {}", key, counter,
                 Instant.ofEpochMilli(expiration));
@@ -360,7 +572,7 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         if (sr == null) {
             try {
                 if (storageService.create(getId(), key, Integer.toString(counter), expiration)) {
-                    return true;
+                    return counter;
                 }
             } catch (final IOException e) {
                 log.error("Unable to create account lockout record for '{}'", key, e);
@@ -368,17 +580,441 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         } else {
             try {
                 if (storageService.update(getId(), key, Integer.toString(counter), expiration)) {
-                    return true;
+                    return counter;
                 }
             } catch (final IOException e) {
                 log.error("Unable to update account lockout record for '{}'", key, e);
             }
         }
         
-        return doIncrement(profileRequestContext, key, retries-1);
+        return doIncrement(key, amount, attemptTime, lockoutDuration, counterInterval, retries - 1);
     }
 // Checkstyle: CyclomaticComplexity ON
     
+    /**
+     * Get whether the local counter tier should be used for a request.
+     * 
+     * @param profileRequestContext current profile request context
+     * 
+     * @return true iff the local tier is enabled and the request is not an administrative one
+     */
+    private boolean isLocalTierApplicable(@Nonnull final ProfileRequestContext profileRequestContext) {
+        return flushTask != null && profileRequestContext.getSubcontext(LockoutManagerContext.class) == null;
+    }
+    
+    /**
+     * Drop any cached successful validations for the username in the request.
+     * 
+     * @param profileRequestContext current profile request context
+     */
+    private void invalidateVerifiedCredentials(@Nonnull final ProfileRequestContext profileRequestContext) {
+        if (verifiedCredentialCache == null) {
+            return;
+        }
+        
+        final AuthenticationContext authnContext = profileRequestContext.getSubcontext(AuthenticationContext.class);
+        final UsernamePasswordContext upContext =
+                authnContext != null ? authnContext.getSubcontext(UsernamePasswordContext.class) : null;
+        if (upContext != null) {
+            if (upContext.getUsername() != null) {
+                verifiedCredentialCache.invalidate(upContext.getUsername());
+            }
+            if (upContext.getTransformedUsername() != null) {
+                verifiedCredentialCache.invalidate(upContext.getTransformedUsername());
+            }
+        }
+    }
+    
+    /**
+     * Get the timer to use for the local tier.
+     * 
+     * @return the timer
+     */
+    @Nonnull private Timer getFlushTaskTimer() {
+        return flushTaskTimer != null ? flushTaskTimer : internalTaskTimer;
+    }
+    
+    /**
+     * Check for lockout using the local counter tier.
+     * 
+     * @param profileRequestContext current profile request context
+     * @param key account lockout key
+     * 
+     * @return true iff the account is locked out
+     */
+    private boolean doLocalCheck(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull @NotEmpty final String key) {
+        
+        final LocalCounter localCounter = getLocalCounter(profileRequestContext, key);
+        final long counter = localCounter.getCount();
+        if (counter >= maxAttemptsLookupStrategy.apply(profileRequestContext)) {
+            final long timeDifference = System.currentTimeMillis() - localCounter.lastAttempt.get();
+            if (timeDifference <= localCounter.lockoutDuration) {
+                log.info("Lockout threshold reached for '{}', invalid count is {}", key, counter);
+                invalidateVerifiedCredentials(profileRequestContext);
+                if (extendLockoutDuration) {
+                    doIncrement(profileRequestContext, key, 10);
+                }
+                return true;
+            }
+            log.debug("Lockout for '{}' has elapsed", key);
+        } else {
+            log.debug("Invalid attempts counter for '{}' has only reached {}", key, counter);
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Get the local counter for a key, creating it or synchronizing it with storage as needed.
+     * 
+     * <p>A counter that has never been synchronized waits for that to happen, but otherwise a refresh
+     * is skipped if another thread is already synchronizing the counter.</p>
+     * 
+     * @param profileRequestContext current profile request context
+     * @param key account lockout key
+     * 
+     * @return the local counter
+     */
+    @Nonnull private LocalCounter getLocalCounter(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull @NotEmpty final String key) {
+        
+        final LocalCounter localCounter = localCounters.asMap().computeIfAbsent(key, k -> new LocalCounter());
+        localCounter.lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext).toMillis();
+        localCounter.counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext).toMillis();
+        
+        if (System.currentTimeMillis() - localCounter.lastSync <= flushInterval.toMillis()) {
+            return localCounter;
+        } else if (localCounter.lastSync == 0) {
+            localCounter.syncLock.lock();
+        } else if (!localCounter.syncLock.tryLock()) {
+            return localCounter;
+        }
+        
+        try {
+            final long now = System.currentTimeMillis();
+            if (now - localCounter.lastSync > flushInterval.toMillis()) {
+                log.debug("Refreshing local copy of account lockout data for '{}'", key);
+                try {
+                    final StorageRecord<?> sr = storageService.read(getId(), key);
+                    if (sr != null) {
+                        localCounter.setStoredCount(Integer.parseInt(sr.getValue()));
+                        localCounter.lastAttempt.accumulateAndGet(sr.getExpiration()
+                                - Math.max(localCounter.lockoutDuration, localCounter.counterInterval), Math::max);
+                    } else {
+                        localCounter.setStoredCount(0);
+                    }
+                } catch (final IOException e) {
+                    log.error("Error reading back account lockout state for '{}'", key, e);
+                } catch (final NumberFormatException e) {
+                    log.error("Error converting lockout data for '{}' into integer", key, e);
+                }
+                localCounter.lastSync = now;
+            }
+        } finally {
+            localCounter.syncLock.unlock();
+        }
+        
+        return localCounter;
+    }
+    
+    /** Add the increments accumulated in the local tier to storage and evict idle entries. */
+    void flushLocalCounters() {
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String,LocalCounter> entry : localCounters.asMap().entrySet()) {
+            final LocalCounter localCounter = entry.getValue();
+            if (!flushLocalCounter(entry.getKey(), localCounter)
+                    && now - localCounter.lastAttempt.get() > Math.max(localCounter.lockoutDuration,
+                            localCounter.counterInterval)
+                    && now - localCounter.lastSync > flushInterval.toMillis()) {
+                retireLocalCounter(entry.getKey(), localCounter);
+            }
+        }
+    }
+    
+    /**
+     * Add the increments accumulated in the local tier for a key to storage.
+     * 
+     * @param key account lockout key
+     * 
+     * @return true iff there were increments to add
+     */
+    private boolean flushLocalCounter(@Nonnull @NotEmpty final String key) {
+        final LocalCounter localCounter = localCounters != null ? localCounters.getIfPresent(key) : null;
+        return localCounter != null && flushLocalCounter(key, localCounter);
+    }
+    
+    /**
+     * Add the increments accumulated in a local counter to storage.
+     * 
+     * @param key account lockout key
+     * @param localCounter the local counter
+     * 
+     * @return true iff there were increments to add
+     */
+    private boolean flushLocalCounter(@Nonnull @NotEmpty final String key, @Nonnull final LocalCounter localCounter) {
+        localCounter.syncLock.lock();
+        try {
+            // A retired counter was flushed or cleared when it was retired.
+            return !localCounter.retired && doFlush(key, localCounter);
+        } finally {
+            localCounter.syncLock.unlock();
+        }
+    }
+    
+    /**
+     * Remove a local counter from the local tier, adding its increments to storage.
+     * 
+     * @param key account lockout key
+     * @param localCounter the local counter
+     */
+    private void retireLocalCounter(@Nonnull @NotEmpty final String key, @Nonnull final LocalCounter localCounter) {
+        localCounter.syncLock.lock();
+        try {
+            if (!localCounter.retired) {
+                localCounter.retired = true;
+                localCounters.asMap().remove(key, localCounter);
+                doFlush(key, localCounter);
+            }
+        } finally {
+            localCounter.syncLock.unlock();
+        }
+    }
+    
+    /**
+     * Add the increments accumulated in a local counter to storage.
+     * 
+     * <p>The caller must hold the counter's lock.</p>
+     * 
+     * @param key account lockout key
+     * @param localCounter the local counter
+     * 
+     * @return true iff there were increments to add
+     */
+    private boolean doFlush(@Nonnull @NotEmpty final String key, @Nonnull final LocalCounter localCounter) {
+        final Window window = localCounter.window.get();
+        final StoredState state = window.state;
+        final long delta = window.attempts.sum() - state.flushed;
+        if (delta <= 0) {
+            return false;
+        }
+        
+        log.debug("Flushing {} local invalid login attempts for '{}' to storage", delta, key);
+        final int counter = doIncrement(key, (int) delta, localCounter.lastAttempt.get(),
+                localCounter.lockoutDuration, localCounter.counterInterval, 10);
+        if (counter >= 0) {
+            // Publish the new stored count together with the increments it covers, so the total never dips.
+            window.state = new StoredState(counter, state.flushed + delta);
+            localCounter.lastSync = System.currentTimeMillis();
+        }
+        return true;
+    }
+    
+    /**
+     * Local counter state for a lockout key.
+     * 
+     * <p>Attempts are counted without locking. Synchronization with storage is serialized by a lock that
+     * request threads wait on only when a counter is first synchronized or a new counter interval starts.</p>
+     */
+    private static final class LocalCounter {
+        
+        /** Lock held while synchronizing with storage. */
+        @Nonnull private final ReentrantLock syncLock;
+        
+        /** Attempts within the current counter interval. */
+        @Nonnull private final AtomicReference<Window> window;
+        
+        /** Time of the last attempt, as recorded locally or recovered from storage. */
+        @Nonnull private final AtomicLong lastAttempt;
+        
+        /** Time at which the stored count was last synchronized. */
+        private volatile long lastSync;
+        
+        /** Lockout duration in effect for the key, in milliseconds. */
+        private volatile long lockoutDuration;
+        
+        /** Counter interval in effect for the key, in milliseconds. */
+        private volatile long counterInterval;
+        
+        /** Whether the counter has been cleared or evicted from the local tier. */
+        private volatile boolean retired;
+        
+        /** Constructor. */
+        LocalCounter() {
+            syncLock = new ReentrantLock();
+            window = new AtomicReference<>(new Window(0));
+            lastAttempt = new AtomicLong();
+        }
+        
+        /**
+         * Get the current count, including increments not yet added to storage.
+         * 
+         * @return the current count
+         */
+        long getCount() {
+            final Window current = window.get();
+            final StoredState state = current.state;
+            return state.count + current.attempts.sum() - state.flushed;
+        }
+        
+        /**
+         * Add attempts, starting a new counter interval if the last attempt is too old.
+         * 
+         * @param amount number of attempts
+         * @param now time of the attempts
+         */
+        void add(final long amount, final long now) {
+            Window current = window.get();
+            if (isExpired(current, now)) {
+                syncLock.lock();
+                try {
+                    current = window.get();
+                    if (isExpired(current, now)) {
+                        // Attempts landing on the old window from here on are moved over below.
+                        current.discardPending();
+                        current = new Window(now);
+                        window.set(current);
+                    }
+                } finally {
+                    syncLock.unlock();
+                }
+            }
+            
+            current.attempts.add(amount);
+            lastAttempt.accumulateAndGet(now, Math::max);
+            
+            if (window.get() != current) {
+                // A new interval was started concurrently, so move the attempts to it.
+                syncLock.lock();
+                try {
+                    final long orphaned = current.takeUnflushed();
+                    if (orphaned > 0) {
+                        window.get().attempts.add(orphaned);
+                    }
+                } finally {
+                    syncLock.unlock();
+                }
+            }
+        }
+        
+        /**
+         * Replace the stored count with a value read from storage.
+         * 
+         * <p>The caller must hold the lock.</p>
+         * 
+         * @param count stored count
+         */
+        void setStoredCount(final long count) {
+            final Window current = window.get();
+            current.state = new StoredState(count, current.state.flushed);
+        }
+        
+        /**
+         * Drop all increments not yet added to storage.
+         * 
+         * <p>The caller must hold the lock.</p>
+         */
+        void discardPending() {
+            window.get().discardPending();
+        }
+        
+        /**
+         * Take the increments added after the counter was retired, so they can be moved to its replacement.
+         * 
+         * @return the number of increments taken
+         */
+        long takeOrphaned() {
+            syncLock.lock();
+            try {
+                return window.get().takeUnflushed();
+            } finally {
+                syncLock.unlock();
+            }
+        }
+        
+        /**
+         * Get whether the counter interval has elapsed since the last attempt in a window.
+         * 
+         * @param current the window
+         * @param now current time
+         * 
+         * @return true iff the window has expired
+         */
+        private boolean isExpired(@Nonnull final Window current, final long now) {
+            return now - Math.max(lastAttempt.get(), current.created) > counterInterval;
+        }
+    }
+    
+    /** Attempts counted locally within one counter interval. */
+    private static final class Window {
+        
+        /** Time the window was started, or zero for the initial window of a counter. */
+        private final long created;
+        
+        /** Attempts counted locally. */
+        @Nonnull private final LongAdder attempts;
+        
+        /** Most recent state known to be in storage. */
+        @Nonnull private volatile StoredState state;
+        
+        /**
+         * Constructor.
+         * 
+         * @param start time the window was started
+         */
+        Window(final long start) {
+            created = start;
+            attempts = new LongAdder();
+            state = new StoredState(0, 0);
+        }
+        
+        /**
+         * Drop all increments not yet added to storage, along with the stored count.
+         * 
+         * <p>The caller must hold the counter's lock.</p>
+         */
+        void discardPending() {
+            state = new StoredState(0, attempts.sum());
+        }
+        
+        /**
+         * Take the increments not yet added to storage, so that they can be counted elsewhere.
+         * 
+         * <p>The caller must hold the counter's lock.</p>
+         * 
+         * @return the number of increments taken
+         */
+        long takeUnflushed() {
+            final StoredState current = state;
+            final long unflushed = attempts.sum() - current.flushed;
+            if (unflushed > 0) {
+                state = new StoredState(current.count, current.flushed + unflushed);
+            }
+            return unflushed;
+        }
+    }
+    
+    /** Counter value known to be in storage, and how many of the local attempts it includes. */
+    private static final class StoredState {
+        
+        /** Stored counter value. */
+        private final long count;
+        
+        /** Number of local attempts included in the stored value, or otherwise accounted for. */
+        private final long flushed;
+        
+        /**
+         * Constructor.
+         * 
+         * @param storedCount stored counter value
+         * @param flushedAttempts number of local attempts accounted for
+         */
+        StoredState(final long storedCount, final long flushedAttempts) {
+            count = storedCount;
+            flushed = flushedAttempts;
+        }
+    }
+    
     /**
      * A function to generate a key for lockout storage. This effectively defines
      * the scope of the lockout; e.g. if the key depends on the supplied username and
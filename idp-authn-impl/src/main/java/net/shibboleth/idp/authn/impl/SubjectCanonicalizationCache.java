@@ -0,0 +1,304 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.authn.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.security.auth.Subject;
+
+import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A cache of subject canonicalization results, to allow expensive c14n flows to be bypassed when the
+ * same input is canonicalized repeatedly.
+ * 
+ * <p>Results are keyed by the ID of the flow that produced them, the requester and responder, and a digest
+ * of the class and name of every {@link Principal} and the encoding of every public {@link Certificate}
+ * in the input {@link Subject}, so that certificates sharing a subject name but differing in other content,
+ * such as subjectAltNames, are distinguished. Input carrying any other kind of public credential is not
+ * cached. Private credentials are not part of the key, so only flows whose result does not depend on them
+ * should be cached; flows are cached only if named via {@link #setCacheableFlows(Collection)}, which is
+ * empty by default.</p>
+ * 
+ * <p>Flows that decode one-time or short-lived identifiers, such as transient identifiers, must never be
+ * cached.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class SubjectCanonicalizationCache extends AbstractInitializableComponent {
+
+    /** Name of counter tracking cache hits. */
+    @Nonnull @NotEmpty public static final String HITS_METRIC_NAME = "net.shibboleth.idp.c14n.cache.hits";
+
+    /** Name of counter tracking cache misses. */
+    @Nonnull @NotEmpty public static final String MISSES_METRIC_NAME = "net.shibboleth.idp.c14n.cache.misses";
+
+    /** Digest algorithm for cache keys. */
+    @Nonnull @NotEmpty private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(SubjectCanonicalizationCache.class);
+
+    /** Cached results. */
+    @NonnullAfterInit private Cache<String,String> entries;
+    
+    /** Flows whose results may be cached. */
+    @Nonnull @NonnullElements private Set<String> cacheableFlows;
+    
+    /** Time to retain a result. */
+    @Nonnull private Duration lifetime;
+    
+    /** Maximum number of entries to hold. */
+    private int maxEntries;
+    
+    /** Constructor. */
+    public SubjectCanonicalizationCache() {
+        cacheableFlows = Collections.emptySet();
+        lifetime = Duration.ofMinutes(10);
+        maxEntries = 10000;
+    }
+    
+    /**
+     * Set the IDs of the c14n flows whose results may be cached.
+     * 
+     * @param flowIds flow IDs
+     */
+    public void setCacheableFlows(@Nullable @NonnullElements final Collection<String> flowIds) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        if (flowIds != null) {
+            cacheableFlows = Set.copyOf(StringSupport.normalizeStringCollection(flowIds));
+        } else {
+            cacheableFlows = Collections.emptySet();
+        }
+    }
+    
+    /**
+     * Set the time to retain a result.
+     * 
+     * <p>Defaults to 10 minutes. A zero lifetime disables the cache.</p>
+     * 
+     * @param duration entry lifetime
+     */
+    public void setLifetime(@Nonnull final Duration duration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(duration, "Lifetime cannot be null");
+        Constraint.isFalse(duration.isNegative(), "Lifetime cannot be negative");
+
+        lifetime = duration;
+    }
+    
+    /**
+     * Set the maximum number of results to hold.
+     * 
+     * <p>Defaults to 10000, beyond which the least recently used results are evicted.</p>
+     * 
+     * @param max maximum number of entries
+     */
+    public void setMaxEntries(final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        maxEntries = (int) Constraint.isGreaterThan(0, max, "Maximum entries must be greater than 0");
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        entries = CacheBuilder.newBuilder()
+                .expireAfterWrite(lifetime.toMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .build();
+    }
+    
+    /**
+     * Get whether the results of a flow may be cached.
+     * 
+     * @param flowId flow ID
+     * 
+     * @return true iff the flow's results may be cached
+     */
+    public boolean isCacheable(@Nullable final String flowId) {
+        return flowId != null && !lifetime.isZero() && cacheableFlows.contains(flowId);
+    }
+    
+    /**
+     * Get a cached canonical principal name produced by a flow for the input in a context.
+     * 
+     * @param flowId flow ID
+     * @param c14nContext context containing the input
+     * 
+     * @return cached principal name, or null
+     */
+    @Nullable public String get(@Nonnull @NotEmpty final String flowId,
+            @Nonnull final SubjectCanonicalizationContext c14nContext) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        
+        if (!isCacheable(flowId)) {
+            return null;
+        }
+        
+        final String key = getKey(flowId, c14nContext);
+        if (key != null) {
+            final String principalName = entries.getIfPresent(key);
+            if (principalName != null) {
+                MetricsSupport.getMetricRegistry().counter(HITS_METRIC_NAME).inc();
+                return principalName;
+            }
+        }
+        
+        MetricsSupport.getMetricRegistry().counter(MISSES_METRIC_NAME).inc();
+        return null;
+    }
+    
+    /**
+     * Cache the canonical principal name produced by a flow for the input in a context.
+     * 
+     * @param flowId flow ID
+     * @param c14nContext context containing the input
+     * @param principalName canonical principal name
+     */
+    public void put(@Nonnull @NotEmpty final String flowId, @Nonnull final SubjectCanonicalizationContext c14nContext,
+            @Nonnull @NotEmpty final String principalName) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        
+        if (!isCacheable(flowId)) {
+            return;
+        }
+        
+        final String key = getKey(flowId, c14nContext);
+        if (key != null) {
+            entries.put(key, principalName);
+        }
+    }
+    
+    /** Drop all cached results. */
+    public void clear() {
+        if (entries != null) {
+            entries.invalidateAll();
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        clear();
+        super.doDestroy();
+    }
+
+    /**
+     * Compute the cache key for the input to a flow.
+     * 
+     * @param flowId flow ID
+     * @param c14nContext context containing the input
+     * 
+     * @return the key, or null if the input is not suitable for caching
+     */
+    @Nullable private String getKey(@Nonnull @NotEmpty final String flowId,
+            @Nonnull final SubjectCanonicalizationContext c14nContext) {
+        final Subject subject = c14nContext.getSubject();
+        if (subject == null || subject.getPrincipals().isEmpty()) {
+            return null;
+        }
+        
+        final List<String> principals = new ArrayList<>(subject.getPrincipals().size());
+        for (final Principal principal : subject.getPrincipals()) {
+            if (principal.getName() == null) {
+                return null;
+            }
+            principals.add(principal.getClass().getName() + '\0' + principal.getName());
+        }
+        Collections.sort(principals);
+        
+        try {
+            final List<String> credentials = new ArrayList<>(subject.getPublicCredentials().size());
+            for (final Object credential : subject.getPublicCredentials()) {
+                if (!(credential instanceof Certificate)) {
+                    log.debug("Subject contains a public credential of type {}, bypassing cache",
+                            credential.getClass().getName());
+                    return null;
+                }
+                credentials.add(Base64.getEncoder().encodeToString(MessageDigest.getInstance(DIGEST_ALGORITHM)
+                        .digest(((Certificate) credential).getEncoded())));
+            }
+            Collections.sort(credentials);
+
+            final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            update(digest, flowId);
+            update(digest, c14nContext.getRequesterId());
+            update(digest, c14nContext.getResponderId());
+            for (final String principal : principals) {
+                update(digest, principal);
+            }
+            for (final String credential : credentials) {
+                update(digest, credential);
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (final NoSuchAlgorithmException | CertificateEncodingException e) {
+            log.warn("Unable to compute cache key, bypassing cache", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Add a delimited value to a digest.
+     * 
+     * @param digest the digest
+     * @param value value to add
+     */
+    private void update(@Nonnull final MessageDigest digest, @Nullable final String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+        digest.update((byte) (value != null ? 1 : 0));
+    }
+
+}
@@ -217,10 +217,7 @@ public class TransitionMultiFactorAuthentication extends AbstractAuthenticationA
         String flowId = null;
         final MultiFactorAuthenticationTransition transition = mfaContext.getTransitionMap().get(prevFlowId);
         if (transition != null) {
-            flowId = transition.getNextFlowStrategy(previousEvent).apply(profileRequestContext);
-            if (flowId == null) {
-                flowId = transition.getNextFlowStrategy("*").apply(profileRequestContext);
-            }
+            flowId = transition.getNextFlow(previousEvent, profileRequestContext);
         }
         if (flowId != null) {
             log.debug("{} MFA flow transition after '{}' event to '{}' flow", getLogPrefix(), previousEvent, flowId);
@@ -33,6 +33,7 @@ import net.shibboleth.idp.authn.AuthnEventIds;
 import net.shibboleth.idp.authn.CredentialValidator;
 import net.shibboleth.idp.authn.CredentialValidator.ErrorHandler;
 import net.shibboleth.idp.authn.CredentialValidator.WarningHandler;
+import net.shibboleth.idp.authn.UsernameExistenceFilter;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -82,6 +83,9 @@ public class ValidateCredentials extends AbstractValidationAction implements War
 
     /** Tracks whether an error event was signaled. */
     private boolean errorSignaled;
+
+    /** Tracks whether an error other than a busy back-end was signaled. */
+    private boolean attemptFailed;
     
     /** Constructor. */
     public ValidateCredentials() {
@@ -145,6 +149,9 @@ public class ValidateCredentials extends AbstractValidationAction implements War
             @Nonnull final AuthenticationContext authenticationContext, @Nullable final String message,
             @Nonnull @NotEmpty final String eventId) {
         errorSignaled = true;
+        if (!AuthnEventIds.BACKEND_BUSY.equals(eventId)) {
+            attemptFailed = true;
+        }
         super.handleError(profileRequestContext, authenticationContext, message, eventId);
     }
     
@@ -154,6 +161,9 @@ public class ValidateCredentials extends AbstractValidationAction implements War
             @Nonnull final AuthenticationContext authenticationContext, @Nonnull final Exception e,
             @Nonnull @NotEmpty final String eventId) {
         errorSignaled = true;
+        if (!AuthnEventIds.BACKEND_BUSY.equals(eventId)) {
+            attemptFailed = true;
+        }
         super.handleError(profileRequestContext, authenticationContext, e, eventId);
     }
     
@@ -207,7 +217,13 @@ public class ValidateCredentials extends AbstractValidationAction implements War
                     return;
                 }
             } catch (final Exception e) {
-                recordFailure();
+                if (!AuthnEventIds.BACKEND_BUSY.equals(e.getMessage())) {
+                    recordFailure();
+                    // A filtered username never reached the back-end, so there is no attempt to count.
+                    if (!(e instanceof UsernameExistenceFilter.RejectedUsernameException)) {
+                        attemptFailed = true;
+                    }
+                }
                 if (requireAll) {
                     super.handleError(profileRequestContext, authenticationContext, e, AuthnEventIds.AUTHN_EXCEPTION);
                     errorSignaled = true;
@@ -230,10 +246,11 @@ public class ValidateCredentials extends AbstractValidationAction implements War
         }
 
         // If failure, then we may need to bump a lockout count if one of them outright
-        // failed. Failure could also just mean nothing was attempted.
+        // failed. Failure could also just mean nothing was attempted, or that a back-end
+        // was too busy to try, which doesn't count against the account.
         
         if (errorSignaled) {
-            if (lockoutManager != null) {
+            if (lockoutManager != null && attemptFailed) {
                 lockoutManager.increment(profileRequestContext);
             }
         } else {
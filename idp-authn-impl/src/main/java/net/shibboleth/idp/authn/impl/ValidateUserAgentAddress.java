@@ -17,7 +17,6 @@
 
 package net.shibboleth.idp.authn.impl;
 
-import java.net.InetAddress;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -33,6 +32,7 @@ import net.shibboleth.idp.authn.AuthnEventIds;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.context.UserAgentContext;
 import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.profile.logic.IPRangeTrie;
 
 import org.opensaml.profile.action.ActionSupport;
 import org.opensaml.profile.action.EventIds;
@@ -71,6 +71,9 @@ public class ValidateUserAgentAddress extends AbstractValidationAction {
     /** Map of IP ranges to principal names. */
     @Nonnull @NonnullElements private Map<String,Collection<IPRange>> mappings;
 
+    /** Prefix trie built from the mappings. */
+    @Nonnull private IPRangeTrie<String> mappingTrie;
+
     /** User Agent context containing address to evaluate. */
     @Nullable private UserAgentContext uaContext;
     
@@ -81,11 +84,15 @@ public class ValidateUserAgentAddress extends AbstractValidationAction {
     public ValidateUserAgentAddress() {
         setMetricName(DEFAULT_METRIC_NAME);
         mappings = Collections.emptyMap();
+        mappingTrie = new IPRangeTrie<>(mappings);
     }
     
     /**
      * Set the IP range(s) to authenticate as particular principals.
      * 
+     * <p>If an address falls within ranges mapped to more than one principal, the principal
+     * with the most specific matching range is chosen.</p>
+     * 
      * @param newMappings the IP range(s) to authenticate as particular principals
      */
     public void setMappings(@Nonnull @NonnullElements final Map<String,Collection<IPRange>> newMappings) {
@@ -97,6 +104,7 @@ public class ValidateUserAgentAddress extends AbstractValidationAction {
                 mappings.put(e.getKey(), List.copyOf(e.getValue()));
             }
         }
+        mappingTrie = new IPRangeTrie<>(mappings);
     }
     
     /** {@inheritDoc} */
@@ -129,15 +137,14 @@ public class ValidateUserAgentAddress extends AbstractValidationAction {
     protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull final AuthenticationContext authenticationContext) {
 
-        for (final Map.Entry<String,Collection<IPRange>> e : mappings.entrySet()) {
-            if (isAuthenticated(uaContext.getAddress(), e.getValue())) {
-                principalName = e.getKey();
-                log.info("{} Authenticated user agent with address {} as {}",
-                        getLogPrefix(), uaContext.getAddress().getHostAddress(), principalName);
-                recordSuccess();
-                buildAuthenticationResult(profileRequestContext, authenticationContext);
-                return;
-            }
+        final List<String> matches = mappingTrie.lookup(uaContext.getAddress());
+        if (!matches.isEmpty()) {
+            principalName = matches.get(matches.size() - 1);
+            log.info("{} Authenticated user agent with address {} as {}",
+                    getLogPrefix(), uaContext.getAddress().getHostAddress(), principalName);
+            recordSuccess();
+            buildAuthenticationResult(profileRequestContext, authenticationContext);
+            return;
         }
 
         log.debug("{} User agent with address {} was not authenticated", getLogPrefix(),
@@ -146,27 +153,6 @@ public class ValidateUserAgentAddress extends AbstractValidationAction {
         recordFailure();
     }
 
-    /**
-     * Checks whether the given IP address meets a set of IP range requirements.
-     * 
-     * @param address the IP address to check
-     * @param ranges the ranges to check
-     * 
-     * @return true if the given IP address meets this stage's IP range requirements, false otherwise
-     */
-    private boolean isAuthenticated(@Nonnull final InetAddress address,
-            @Nonnull @NonnullElements final Collection<IPRange> ranges) {
-        final byte[] resolvedAddress = address.getAddress();
-
-        for (final IPRange range : ranges) {
-            if (range.contains(resolvedAddress)) {
-                return true;
-            }
-        }
-        
-        return false;
-    }
-
     /** {@inheritDoc} */
     @Override
     @Nonnull protected Subject populateSubject(@Nonnull final Subject subject) {
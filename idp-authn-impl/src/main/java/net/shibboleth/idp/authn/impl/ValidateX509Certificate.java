@@ -68,6 +68,9 @@ public class ValidateX509Certificate extends AbstractValidationAction {
     /** Optional trust engine to validate certificates against. */
     @Nullable private TrustEngine<? super X509Credential> trustEngine;
     
+    /** Optional cache of trust engine outcomes. */
+    @Nullable private X509TrustCache trustCache;
+    
     /** CertificateContext containing the credentials to validate. */
     @Nullable private CertificateContext certContext;
     
@@ -87,6 +90,19 @@ public class ValidateX509Certificate extends AbstractValidationAction {
         trustEngine = tm;
     }
     
+    /**
+     * Set a cache of trust engine outcomes to consult before invoking the {@link TrustEngine}.
+     * 
+     * @param cache trust cache
+     * 
+     * @since 4.1.0
+     */
+    public void setTrustCache(@Nullable final X509TrustCache cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        trustCache = cache;
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext,
@@ -131,7 +147,9 @@ public class ValidateX509Certificate extends AbstractValidationAction {
                         }
                     }
                 }
-                if (trustEngine.validate(cred, new CriteriaSet())) {
+                final boolean trusted = trustCache != null ? trustCache.validate(trustEngine, cred)
+                        : trustEngine.validate(cred, new CriteriaSet());
+                if (trusted) {
                     log.debug("{} Trust engine validated X.509 certificate", getLogPrefix());
                 } else {
                     log.warn("{} Trust engine failed to validate X.509 certificate", getLogPrefix());
@@ -58,6 +58,9 @@ public class X509AuthServlet extends HttpServlet {
     /** Init parameter identifying optional {@link TrustEngine} bean name. */
     @Nonnull @NotEmpty private static final String TRUST_ENGINE_PARAM = "trustEngine";
 
+    /** Init parameter identifying optional {@link X509TrustCache} bean name. */
+    @Nonnull @NotEmpty private static final String TRUST_CACHE_PARAM = "trustCache";
+
     /** Parameter/cookie for bypassing prompt page. */
     @Nonnull @NotEmpty private static final String PASSTHROUGH_PARAM = "x509passthrough";
     
@@ -66,6 +69,9 @@ public class X509AuthServlet extends HttpServlet {
 
     /** Trust engine. */
     @Nullable private TrustEngine<? super X509Credential> trustEngine;
+    
+    /** Trust engine outcome cache. */
+    @Nullable private X509TrustCache trustCache;
 
     /**
      * Set the {@link TrustEngine} to use.
@@ -76,6 +82,17 @@ public class X509AuthServlet extends HttpServlet {
         trustEngine = tm;
     }
     
+    /**
+     * Set a cache of trust engine outcomes to consult before invoking the {@link TrustEngine}.
+     * 
+     * @param cache trust cache
+     * 
+     * @since 4.1.0
+     */
+    public void setTrustCache(@Nullable final X509TrustCache cache) {
+        trustCache = cache;
+    }
+    
     /** {@inheritDoc} */
     @SuppressWarnings("unchecked")
     @Override
@@ -95,6 +112,17 @@ public class X509AuthServlet extends HttpServlet {
                 throw new ServletException("Bean " + param + " was missing, or not a TrustManager");
             }
         }
+        
+        final String cacheParam = config.getInitParameter(TRUST_CACHE_PARAM);
+        if (cacheParam != null) {
+            log.debug("Looking up X509TrustCache bean: {}", cacheParam);
+            final Object bean = springContext.getBean(cacheParam);
+            if (bean instanceof X509TrustCache) {
+                trustCache = (X509TrustCache) bean;
+            } else {
+                throw new ServletException("Bean " + cacheParam + " was missing, or not an X509TrustCache");
+            }
+        }
     }
 
 // Checkstyle: CyclomaticComplexity|ReturnCount OFF
@@ -125,7 +153,9 @@ public class X509AuthServlet extends HttpServlet {
                 try {
                     final BasicX509Credential cred = new BasicX509Credential(cert);
                     cred.setEntityCertificateChain(Arrays.asList(certs));
-                    if (trustEngine.validate(cred, new CriteriaSet())) {
+                    final boolean trusted = trustCache != null ? trustCache.validate(trustEngine, cred)
+                            : trustEngine.validate(cred, new CriteriaSet());
+                    if (trusted) {
                         log.debug("Trust engine validated X.509 certificate");
                     } else {
                         log.warn("Trust engine failed to validate X.509 certificate");
@@ -0,0 +1,408 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.impl;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.trust.TrustEngine;
+import org.opensaml.security.x509.PKIXTrustEngine;
+import org.opensaml.security.x509.PKIXValidationInformation;
+import org.opensaml.security.x509.X509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A cache of {@link TrustEngine} outcomes for X.509 certificate authentication.
+ * 
+ * <p>Outcomes are keyed by the identity of the trust engine and a digest of the end-entity certificate
+ * and any accompanying chain. Positive and negative outcomes are retained for separately configurable
+ * periods, in either case capped by the earliest expiration of any certificate supplied and, for
+ * {@link PKIXTrustEngine} instances, the earliest next update of any CRL in the trust material.</p>
+ * 
+ * <p>For {@link PKIXTrustEngine} instances, the trust material is also resolved on each use and
+ * compared by identity to that in effect when the outcome was cached, so that a reload of the trust
+ * material invalidates the affected entries. Other engines rely on the entry lifetimes and on explicit
+ * use of {@link #invalidate(TrustEngine)} or {@link #clear()}.</p>
+ * 
+ * <p>Exceptions raised by the trust engine are never cached.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class X509TrustCache extends AbstractInitializableComponent {
+
+    /** Name of counter tracking cache hits. */
+    @Nonnull @NotEmpty public static final String HITS_METRIC_NAME = "net.shibboleth.idp.authn.x509.trustCache.hits";
+
+    /** Name of counter tracking cache misses. */
+    @Nonnull @NotEmpty public static final String MISSES_METRIC_NAME =
+            "net.shibboleth.idp.authn.x509.trustCache.misses";
+
+    /** Digest algorithm for certificate fingerprints. */
+    @Nonnull @NotEmpty private static final String DIGEST_ALGORITHM = "SHA-256";
+    
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(X509TrustCache.class);
+
+    /** Cached outcomes. */
+    @NonnullAfterInit private Cache<Key,Entry> entries;
+    
+    /** Time to retain a successful validation. */
+    @Nonnull private Duration positiveLifetime;
+
+    /** Time to retain a failed validation. */
+    @Nonnull private Duration negativeLifetime;
+    
+    /** Maximum number of entries to hold. */
+    private int maxEntries;
+    
+    /** Constructor. */
+    public X509TrustCache() {
+        positiveLifetime = Duration.ofMinutes(10);
+        negativeLifetime = Duration.ofMinutes(1);
+        maxEntries = 10000;
+    }
+    
+    /**
+     * Set the time to retain a successful validation.
+     * 
+     * <p>Defaults to 10 minutes.</p>
+     * 
+     * @param lifetime entry lifetime
+     */
+    public void setPositiveLifetime(@Nonnull final Duration lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(lifetime, "Lifetime cannot be null");
+        Constraint.isFalse(lifetime.isNegative(), "Lifetime cannot be negative");
+
+        positiveLifetime = lifetime;
+    }
+
+    /**
+     * Set the time to retain a failed validation.
+     * 
+     * <p>Defaults to 1 minute. A zero lifetime disables caching of failures.</p>
+     * 
+     * @param lifetime entry lifetime
+     */
+    public void setNegativeLifetime(@Nonnull final Duration lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(lifetime, "Lifetime cannot be null");
+        Constraint.isFalse(lifetime.isNegative(), "Lifetime cannot be negative");
+
+        negativeLifetime = lifetime;
+    }
+    
+    /**
+     * Set the maximum number of outcomes to hold.
+     * 
+     * <p>Defaults to 10000, beyond which the least recently used outcomes are evicted.</p>
+     * 
+     * @param max maximum number of entries
+     */
+    public void setMaxEntries(final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        maxEntries = (int) Constraint.isGreaterThan(0, max, "Maximum entries must be greater than 0");
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        // Entries may carry a shorter lifetime of their own, which is checked on use.
+        entries = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(positiveLifetime.toMillis(), negativeLifetime.toMillis()),
+                        TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .build();
+    }
+    
+    /**
+     * Validate a credential using a trust engine, reusing a cached outcome if possible.
+     * 
+     * @param trustEngine the trust engine
+     * @param credential the credential to validate
+     * 
+     * @return the outcome of {@link TrustEngine#validate(Object, CriteriaSet)}
+     * 
+     * @throws SecurityException if raised by the trust engine
+     */
+    public boolean validate(@Nonnull final TrustEngine<? super X509Credential> trustEngine,
+            @Nonnull final X509Credential credential) throws SecurityException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        
+        final List<X509Certificate> certs = getCertificates(credential);
+        final String fingerprint = getFingerprint(certs);
+        if (fingerprint == null) {
+            return trustEngine.validate(credential, new CriteriaSet());
+        }
+        
+        final Key key = new Key(trustEngine, fingerprint);
+        final List<PKIXValidationInformation> trustMaterial = getTrustMaterial(trustEngine);
+        
+        final Entry entry = entries.getIfPresent(key);
+        if (entry != null) {
+            if (entry.isExpired() || !entry.isCurrent(trustMaterial)) {
+                entries.asMap().remove(key, entry);
+            } else {
+                log.debug("Using cached trust engine outcome for certificate '{}'",
+                        credential.getEntityCertificate().getSubjectX500Principal().getName());
+                MetricsSupport.getMetricRegistry().counter(HITS_METRIC_NAME).inc();
+                return entry.trusted;
+            }
+        }
+        
+        MetricsSupport.getMetricRegistry().counter(MISSES_METRIC_NAME).inc();
+        final boolean trusted = trustEngine.validate(credential, new CriteriaSet());
+        
+        final long now = System.currentTimeMillis();
+        long expiration = now + (trusted ? positiveLifetime : negativeLifetime).toMillis();
+        for (final X509Certificate cert : certs) {
+            expiration = Math.min(expiration, cert.getNotAfter().getTime());
+        }
+        if (trustMaterial != null) {
+            for (final PKIXValidationInformation info : trustMaterial) {
+                if (info.getCRLs() != null) {
+                    for (final X509CRL crl : info.getCRLs()) {
+                        if (crl.getNextUpdate() != null) {
+                            expiration = Math.min(expiration, crl.getNextUpdate().getTime());
+                        }
+                    }
+                }
+            }
+        }
+        
+        if (expiration > now) {
+            entries.put(key, new Entry(trusted, expiration, trustMaterial));
+        }
+        
+        return trusted;
+    }
+    
+    /**
+     * Drop any cached outcomes from a trust engine, e.g., after its trust material is reloaded.
+     * 
+     * @param trustEngine the trust engine
+     */
+    public void invalidate(@Nonnull final TrustEngine<?> trustEngine) {
+        if (entries != null) {
+            entries.asMap().keySet().removeIf(k -> k.trustEngine == trustEngine);
+        }
+    }
+    
+    /** Drop all cached outcomes. */
+    public void clear() {
+        if (entries != null) {
+            entries.invalidateAll();
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        clear();
+        super.doDestroy();
+    }
+
+    /**
+     * Get the certificates contained in a credential, starting with the end-entity certificate.
+     * 
+     * @param credential the credential
+     * 
+     * @return the certificates
+     */
+    @Nonnull private List<X509Certificate> getCertificates(@Nonnull final X509Credential credential) {
+        final List<X509Certificate> certs = new ArrayList<>();
+        certs.add(credential.getEntityCertificate());
+        final Collection<X509Certificate> chain = credential.getEntityCertificateChain();
+        if (chain != null) {
+            for (final X509Certificate cert : chain) {
+                if (!cert.equals(credential.getEntityCertificate())) {
+                    certs.add(cert);
+                }
+            }
+        }
+        return certs;
+    }
+    
+    /**
+     * Compute a digest over a sequence of certificates.
+     * 
+     * @param certs the certificates
+     * 
+     * @return the digest, or null if the certificates cannot be encoded
+     */
+    @Nullable private String getFingerprint(@Nonnull final List<X509Certificate> certs) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            for (final X509Certificate cert : certs) {
+                digest.update(cert.getEncoded());
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (final GeneralSecurityException e) {
+            log.warn("Unable to compute certificate fingerprint, bypassing cache", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Resolve the trust material of a {@link PKIXTrustEngine}.
+     * 
+     * @param trustEngine the trust engine
+     * 
+     * @return the trust material, or null if the engine is not PKIX-based or resolution fails
+     */
+    @Nullable private List<PKIXValidationInformation> getTrustMaterial(@Nonnull final TrustEngine<?> trustEngine) {
+        if (trustEngine instanceof PKIXTrustEngine) {
+            try {
+                final List<PKIXValidationInformation> infos = new ArrayList<>();
+                ((PKIXTrustEngine<?>) trustEngine).getPKIXResolver().resolve(new CriteriaSet()).forEach(infos::add);
+                return infos;
+            } catch (final ResolverException e) {
+                log.debug("Unable to resolve PKIX trust material for cache validation", e);
+            }
+        }
+        return null;
+    }
+    
+    /** Cache key. */
+    private static final class Key {
+        
+        /** Trust engine, compared by identity. */
+        @Nonnull private final TrustEngine<?> trustEngine;
+        
+        /** Certificate fingerprint. */
+        @Nonnull private final String fingerprint;
+
+        /**
+         * Constructor.
+         *
+         * @param engine trust engine
+         * @param print certificate fingerprint
+         */
+        Key(@Nonnull final TrustEngine<?> engine, @Nonnull final String print) {
+            trustEngine = engine;
+            fingerprint = print;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(trustEngine) + fingerprint.hashCode();
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof Key)) {
+                return false;
+            }
+            return trustEngine == ((Key) obj).trustEngine && fingerprint.equals(((Key) obj).fingerprint);
+        }
+    }
+    
+    /** Cached outcome. */
+    private static final class Entry {
+        
+        /** Outcome of validation. */
+        private final boolean trusted;
+        
+        /** Expiration time. */
+        private final long expiration;
+        
+        /** Trust material in effect, if known. */
+        @Nullable private final List<PKIXValidationInformation> trustMaterial;
+        
+        /**
+         * Constructor.
+         *
+         * @param outcome outcome of validation
+         * @param exp expiration time
+         * @param material trust material in effect
+         */
+        Entry(final boolean outcome, final long exp, @Nullable final List<PKIXValidationInformation> material) {
+            trusted = outcome;
+            expiration = exp;
+            trustMaterial = material;
+        }
+        
+        /**
+         * Get whether the entry has outlived its own lifetime, which may be shorter than the cache's.
+         * 
+         * @return true iff the entry has expired
+         */
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiration;
+        }
+        
+        /**
+         * Check whether the trust material supplied is the same as that in effect when the entry was created.
+         * 
+         * @param material current trust material
+         * 
+         * @return true iff the trust material is unchanged
+         */
+        boolean isCurrent(@Nullable final List<PKIXValidationInformation> material) {
+            if (trustMaterial == null || material == null) {
+                return trustMaterial == material;
+            } else if (trustMaterial.size() != material.size()) {
+                return false;
+            }
+            final Iterator<PKIXValidationInformation> iter = trustMaterial.iterator();
+            for (final PKIXValidationInformation info : material) {
+                if (info != iter.next()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -60,6 +60,9 @@ public class GSSContextAcceptor {
 
     /** Server credentials used during context establishment. */
     @Nullable private GSSCredential serverCreds;
+    
+    /** Whether the server credentials are shared via {@link KerberosSettings#getServerCredentialCache()}. */
+    private boolean sharedServerCreds;
 
     /** The GSSContext being established, or that was established. */
     @Nullable private GSSContext context;
@@ -126,6 +129,8 @@ public class GSSContextAcceptor {
     
     /**
      * Dispose of the context and the server's credentials, and do a logout of the Kerberos login module.
+     * 
+     * <p>Shared server credentials are returned to the cache that owns them.</p>
      */
     public void logout() {
         if (context != null) {
@@ -136,7 +141,14 @@ public class GSSContextAcceptor {
                 log.error("GSS-API context disposal failed", e);
             }
         }
-        if (serverCreds != null) {
+        if (sharedServerCreds) {
+            // Owned by the cache.
+            if (serverCreds != null) {
+                kerberosSettings.getServerCredentialCache().release(serverCreds);
+            }
+            serverCreds = null;
+            sharedServerCreds = false;
+        } else if (serverCreds != null) {
             try {
                 serverCreds.dispose();
                 serverCreds = null;
@@ -187,6 +199,7 @@ public class GSSContextAcceptor {
                 return tokenOut;
             } catch (final Exception e) {
                 log.debug("Error establishing security context", e);
+                invalidateSharedCredential(realm, e);
                 logout();
                 preserved = e;
             }
@@ -207,6 +220,21 @@ public class GSSContextAcceptor {
     private void createGSSContext(@Nonnull final KerberosRealmSettings realm)
             throws GSSException, LoginException, PrivilegedActionException {
         
+        final GSSServerCredentialCache credentialCache = kerberosSettings.getServerCredentialCache();
+        if (credentialCache != null) {
+            serverCreds = credentialCache.getCredential(realm);
+            sharedServerCreds = true;
+            log.trace("Creating GSS context using shared server credentials");
+            try {
+                context = GSSManager.getInstance().createContext(serverCreds);
+            } catch (final GSSException e) {
+                log.error("Error creating GSS acceptor context: {}", e.getMessage());
+                throw e;
+            }
+            log.trace("GSS acceptor context created");
+            return;
+        }
+        
         // Establish server login credentials.
         Subject krbSubject = null;
         krbLoginModule = new GSSAcceptorLoginModule(realm, kerberosSettings.getRefreshKrb5Config(),
@@ -235,6 +263,22 @@ public class GSSContextAcceptor {
         log.trace("GSS acceptor context created");
     }
 
+    /**
+     * Drop a shared server credential from the cache if an error indicates the credential itself is at fault.
+     * 
+     * @param realm realm settings in use
+     * @param e the error that occurred
+     */
+    private void invalidateSharedCredential(@Nonnull final KerberosRealmSettings realm, @Nonnull final Exception e) {
+        if (sharedServerCreds && serverCreds != null && e instanceof GSSException) {
+            final int major = ((GSSException) e).getMajor();
+            if (major == GSSException.NO_CRED || major == GSSException.CREDENTIALS_EXPIRED
+                    || major == GSSException.DEFECTIVE_CREDENTIAL) {
+                kerberosSettings.getServerCredentialCache().invalidate(realm, serverCreds);
+            }
+        }
+    }
+
     /**
      * Create the credential for the GSS-API.
      * 
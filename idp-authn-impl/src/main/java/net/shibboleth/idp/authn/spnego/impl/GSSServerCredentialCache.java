@@ -0,0 +1,458 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.spnego.impl;
+
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginException;
+
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.Oid;
+import org.opensaml.core.metrics.MetricsSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Holds the acceptor credentials for each {@link KerberosRealmSettings} so that a JAAS login is performed
+ * once per realm and renewed ahead of expiry, rather than on every SPNEGO exchange.
+ * 
+ * <p>A credential is renewed once it is within the renewal window of the earliest of the expiry of any
+ * ticket obtained by the login, the credential's own accept lifetime, or the maximum lifetime configured
+ * here. The latter also bounds how long a replaced keytab can go unnoticed.</p>
+ * 
+ * <p>Logins are serialized per realm, so concurrent requests for one realm wait for a single login while
+ * requests for other realms are unaffected.</p>
+ * 
+ * <p>Each credential handed out is leased to the caller, which must return it via
+ * {@link #release(GSSCredential)} once its exchange is over. Superseded credentials are disposed of when
+ * their last lease is returned. A lease that is never returned, e.g. because a client abandoned a multi-leg
+ * exchange, holds a superseded credential for no longer than the maximum lifetime.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class GSSServerCredentialCache {
+    
+    /** Name of counter tracking logins performed. */
+    @Nonnull @NotEmpty public static final String LOGINS_METRIC_NAME =
+            "net.shibboleth.idp.authn.spnego.credentials.logins";
+
+    /** Name of counter tracking credentials reused from the cache. */
+    @Nonnull @NotEmpty public static final String REUSES_METRIC_NAME =
+            "net.shibboleth.idp.authn.spnego.credentials.reuses";
+    
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(GSSServerCredentialCache.class);
+
+    /** The OID representing the SPNEGO pseudo-mechanism. */
+    @Nonnull private final Oid spnegoOid;
+    
+    /** Name of the JAAS login module to use. */
+    @Nonnull @NotEmpty private final String loginModuleClassName;
+    
+    /** Whether to refresh the Kerberos configuration on login. */
+    private final boolean refreshKrb5Config;
+
+    /** Maximum time to use a credential before logging in again. */
+    @Nonnull private final Duration maxLifetime;
+    
+    /** How far ahead of expiry to renew a credential. */
+    @Nonnull private final Duration renewalWindow;
+
+    /** Current credentials, keyed by realm. */
+    @Nonnull private final Map<KerberosRealmSettings,CachedCredential> credentials;
+    
+    /** Locks held while logging in, keyed by realm. */
+    @Nonnull private final Map<KerberosRealmSettings,Object> loginLocks;
+
+    /** Superseded credentials awaiting the return of their leases. */
+    @Nonnull private final List<CachedCredential> retired;
+    
+    /**
+     * Constructor.
+     *
+     * @param settings the Kerberos settings supplying the login options
+     * @param lifetime maximum time to use a credential before logging in again
+     * @param window how far ahead of expiry to renew a credential
+     * 
+     * @throws GSSException if the SPNEGO mechanism OID cannot be created
+     */
+    public GSSServerCredentialCache(@Nonnull final KerberosSettings settings, @Nonnull final Duration lifetime,
+            @Nonnull final Duration window) throws GSSException {
+        Constraint.isNotNull(settings, "KerberosSettings cannot be null");
+        loginModuleClassName = settings.getLoginModuleClassName();
+        refreshKrb5Config = settings.getRefreshKrb5Config();
+        maxLifetime = Constraint.isNotNull(lifetime, "Maximum lifetime cannot be null");
+        renewalWindow = Constraint.isNotNull(window, "Renewal window cannot be null");
+        Constraint.isFalse(maxLifetime.isNegative() || maxLifetime.isZero(), "Maximum lifetime must be positive");
+        Constraint.isFalse(renewalWindow.isNegative(), "Renewal window cannot be negative");
+        
+        spnegoOid = new Oid("1.3.6.1.5.5.2");
+        credentials = new ConcurrentHashMap<>();
+        loginLocks = new ConcurrentHashMap<>();
+        retired = new ArrayList<>();
+    }
+    
+    /**
+     * Get an acceptor credential for a realm, logging in if there is no usable credential cached.
+     * 
+     * <p>The credential returned is shared and must not be disposed of by the caller, which must instead
+     * return it via {@link #release(GSSCredential)} when it is no longer needed.</p>
+     * 
+     * @param realm realm settings to use
+     * 
+     * @return the acceptor credential
+     * 
+     * @throws LoginException thrown if login failed
+     * @throws PrivilegedActionException thrown if GSS credentials could not be created
+     */
+    @Nonnull public GSSCredential getCredential(@Nonnull final KerberosRealmSettings realm)
+            throws LoginException, PrivilegedActionException {
+        
+        final CachedCredential current = credentials.get(realm);
+        if (current != null && !current.needsRenewal() && current.acquire()) {
+            MetricsSupport.getMetricRegistry().counter(REUSES_METRIC_NAME).inc();
+            return current.credential;
+        }
+        
+        synchronized (loginLocks.computeIfAbsent(realm, k -> new Object())) {
+            final CachedCredential latest = credentials.get(realm);
+            if (latest != null && !latest.needsRenewal() && latest.acquire()) {
+                MetricsSupport.getMetricRegistry().counter(REUSES_METRIC_NAME).inc();
+                return latest.credential;
+            }
+            
+            final CachedCredential fresh = login(realm);
+            fresh.acquire();
+            synchronized (this) {
+                final CachedCredential replaced = credentials.put(realm, fresh);
+                if (replaced != null) {
+                    retire(replaced);
+                }
+            }
+            return fresh.credential;
+        }
+    }
+    
+    /**
+     * Return the lease on a credential obtained from {@link #getCredential(KerberosRealmSettings)}.
+     * 
+     * @param credential the credential to return
+     */
+    public synchronized void release(@Nonnull final GSSCredential credential) {
+        final CachedCredential entry = find(credential);
+        if (entry != null) {
+            entry.release();
+        }
+        purgeRetired();
+    }
+    
+    /**
+     * Drop a credential found to be unusable, so that the next request for the realm logs in again.
+     * 
+     * @param realm realm settings the credential belongs to
+     * @param credential the credential to drop
+     */
+    public void invalidate(@Nonnull final KerberosRealmSettings realm, @Nonnull final GSSCredential credential) {
+        synchronized (this) {
+            final CachedCredential current = credentials.get(realm);
+            if (current != null && current.credential == credential) {
+                log.debug("Invalidating cached credential for service principal: {}", realm.getServicePrincipal());
+                credentials.remove(realm);
+                retire(current);
+            }
+        }
+    }
+    
+    /** Dispose of every credential and log out of every login module. */
+    public synchronized void clear() {
+        final Collection<CachedCredential> entries = new ArrayList<>(credentials.values());
+        entries.addAll(retired);
+        credentials.clear();
+        retired.clear();
+        entries.forEach(CachedCredential::forceDispose);
+    }
+    
+    /**
+     * Set aside a superseded credential until its leases are returned.
+     * 
+     * <p>Must be called while holding the cache's monitor.</p>
+     * 
+     * @param entry the superseded credential
+     */
+    private void retire(@Nonnull final CachedCredential entry) {
+        entry.retiredAt = Instant.now();
+        retired.add(entry);
+        purgeRetired();
+    }
+    
+    /**
+     * Dispose of superseded credentials with no outstanding leases, or that were superseded longer ago than
+     * the maximum lifetime.
+     * 
+     * <p>Must be called while holding the cache's monitor.</p>
+     */
+    private void purgeRetired() {
+        final Instant cutoff = Instant.now().minus(maxLifetime);
+        final Iterator<CachedCredential> entries = retired.iterator();
+        while (entries.hasNext()) {
+            final CachedCredential entry = entries.next();
+            if (entry.tryDispose()) {
+                entries.remove();
+            } else if (entry.retiredAt.isBefore(cutoff)) {
+                log.debug("Disposing of superseded credential with unreturned leases");
+                entry.forceDispose();
+                entries.remove();
+            }
+        }
+    }
+    
+    /**
+     * Locate the cache entry for a credential.
+     * 
+     * <p>Must be called while holding the cache's monitor.</p>
+     * 
+     * @param credential the credential
+     * 
+     * @return the entry, or null
+     */
+    @Nullable private CachedCredential find(@Nonnull final GSSCredential credential) {
+        for (final CachedCredential entry : credentials.values()) {
+            if (entry.credential == credential) {
+                return entry;
+            }
+        }
+        for (final CachedCredential entry : retired) {
+            if (entry.credential == credential) {
+                return entry;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Perform a JAAS login for a realm and create an acceptor credential from it.
+     * 
+     * @param realm realm settings to use
+     * 
+     * @return the new cache entry
+     * 
+     * @throws LoginException thrown if login failed
+     * @throws PrivilegedActionException thrown if GSS credentials could not be created
+     */
+    @Nonnull private CachedCredential login(@Nonnull final KerberosRealmSettings realm)
+            throws LoginException, PrivilegedActionException {
+        
+        final GSSAcceptorLoginModule loginModule =
+                new GSSAcceptorLoginModule(realm, refreshKrb5Config, loginModuleClassName);
+        final Subject subject;
+        try {
+            subject = loginModule.login();
+        } catch (final LoginException e) {
+            log.error("Server login error using principal: {}", realm.getServicePrincipal());
+            throw e;
+        }
+        MetricsSupport.getMetricRegistry().counter(LOGINS_METRIC_NAME).inc();
+        log.debug("Server login successful using principal: {}", realm.getServicePrincipal());
+
+        final GSSCredential credential;
+        try {
+            credential = createCredential(subject);
+        } catch (final PrivilegedActionException e) {
+            log.error("Error creating GSS credentials: {}", e.getMessage());
+            try {
+                loginModule.logout();
+            } catch (final LoginException le) {
+                log.error("Server credentials logout failed", le);
+            }
+            throw e;
+        }
+        
+        return new CachedCredential(loginModule, credential, computeExpiry(subject, credential));
+    }
+    
+    /**
+     * Create an acceptor credential for the subject established by login.
+     * 
+     * @param subject the subject established by login
+     * 
+     * @return the acceptor credential
+     * 
+     * @throws PrivilegedActionException thrown if GSS credentials could not be created
+     */
+    @Nonnull GSSCredential createCredential(@Nonnull final Subject subject) throws PrivilegedActionException {
+        return Subject.doAs(subject, new PrivilegedExceptionAction<GSSCredential>() {
+            public GSSCredential run() throws GSSException {
+                return GSSManager.getInstance().createCredential(null, GSSCredential.INDEFINITE_LIFETIME,
+                        spnegoOid, GSSCredential.ACCEPT_ONLY);
+            }
+        });
+    }
+    
+    /**
+     * Compute the time after which a new credential should no longer be used.
+     * 
+     * @param subject the subject established by login
+     * @param credential the acceptor credential
+     * 
+     * @return the expiry time
+     */
+    @Nonnull private Instant computeExpiry(@Nonnull final Subject subject, @Nonnull final GSSCredential credential) {
+        final Instant now = Instant.now();
+        Instant expiry = now.plus(maxLifetime);
+        
+        for (final KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (ticket.getEndTime() != null && ticket.getEndTime().toInstant().isBefore(expiry)) {
+                expiry = ticket.getEndTime().toInstant();
+            }
+        }
+        
+        try {
+            final int remaining = credential.getRemainingAcceptLifetime(spnegoOid);
+            if (remaining != GSSCredential.INDEFINITE_LIFETIME) {
+                final Instant credExpiry = now.plusSeconds(remaining);
+                if (credExpiry.isBefore(expiry)) {
+                    expiry = credExpiry;
+                }
+            }
+        } catch (final GSSException e) {
+            log.debug("Unable to determine remaining lifetime of acceptor credential", e);
+        }
+        
+        return expiry.minus(renewalWindow);
+    }
+
+    /** A credential, the login state it depends on, and when to renew it. */
+    private final class CachedCredential {
+        
+        /** Login module holding the server login state. */
+        @Nonnull private final GSSAcceptorLoginModule loginModule;
+        
+        /** The acceptor credential. */
+        @Nonnull private final GSSCredential credential;
+        
+        /** Time at which to renew. */
+        @Nonnull private final Instant renewAt;
+        
+        /** Number of outstanding leases, or -1 once disposed of. */
+        @Nonnull private final AtomicInteger leases;
+        
+        /** Time at which the credential was superseded. */
+        @Nullable private Instant retiredAt;
+        
+        /**
+         * Constructor.
+         *
+         * @param module login module
+         * @param cred acceptor credential
+         * @param renewal time at which to renew
+         */
+        CachedCredential(@Nonnull final GSSAcceptorLoginModule module, @Nonnull final GSSCredential cred,
+                @Nonnull final Instant renewal) {
+            loginModule = module;
+            credential = cred;
+            renewAt = renewal;
+            leases = new AtomicInteger();
+        }
+        
+        /**
+         * Take out a lease on the credential.
+         * 
+         * @return true iff a lease was taken, false if the credential has been disposed of
+         */
+        boolean acquire() {
+            for (;;) {
+                final int count = leases.get();
+                if (count < 0) {
+                    return false;
+                } else if (leases.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+        
+        /** Return a lease on the credential. */
+        void release() {
+            leases.updateAndGet(count -> count > 0 ? count - 1 : count);
+        }
+        
+        /**
+         * Dispose of the credential if there are no outstanding leases.
+         * 
+         * @return true iff the credential was disposed of
+         */
+        boolean tryDispose() {
+            if (leases.compareAndSet(0, -1)) {
+                dispose();
+                return true;
+            }
+            return false;
+        }
+        
+        /** Dispose of the credential regardless of outstanding leases. */
+        void forceDispose() {
+            if (leases.getAndSet(-1) >= 0) {
+                dispose();
+            }
+        }
+        
+        /**
+         * Get whether the credential is due for renewal.
+         * 
+         * @return true iff the credential should be replaced
+         */
+        boolean needsRenewal() {
+            return !Instant.now().isBefore(renewAt);
+        }
+        
+        /** Dispose of the credential and log out. */
+        private void dispose() {
+            try {
+                credential.dispose();
+            } catch (final GSSException e) {
+                log.error("GSS-API credentials disposal failed", e);
+            }
+            try {
+                loginModule.logout();
+            } catch (final LoginException e) {
+                log.error("Server credentials logout failed", e);
+            }
+        }
+    }
+    
+}
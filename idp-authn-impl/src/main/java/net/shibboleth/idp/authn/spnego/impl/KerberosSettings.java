@@ -17,11 +17,15 @@
 
 package net.shibboleth.idp.authn.spnego.impl;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.ietf.jgss.GSSException;
 
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
@@ -47,11 +51,25 @@ public class KerberosSettings extends AbstractInitializableComponent {
 
     /** List of realms (KerberosRealmSettings objects). */
     @NonnullAfterInit @NonnullElements private Collection<KerberosRealmSettings> realmSettings;
+    
+    /** Whether to share server credentials across requests. */
+    private boolean cacheServerCredentials;
+    
+    /** Maximum time to use a shared server credential. */
+    @Nonnull private Duration credentialMaxLifetime;
+
+    /** How far ahead of expiry to renew a shared server credential. */
+    @Nonnull private Duration credentialRenewalWindow;
+    
+    /** Shared server credentials, if enabled. */
+    @Nullable private GSSServerCredentialCache serverCredentialCache;
 
     /** Constructor. */
     public KerberosSettings() {
         loginModuleClassName = "com.sun.security.auth.module.Krb5LoginModule";
         realmSettings = Collections.emptyList();
+        credentialMaxLifetime = Duration.ofHours(8);
+        credentialRenewalWindow = Duration.ofMinutes(5);
     }
 
     /**
@@ -115,6 +133,67 @@ public class KerberosSettings extends AbstractInitializableComponent {
         return realmSettings;
     }
 
+    /**
+     * Set whether to log in once per realm and share the resulting server credentials across requests,
+     * rather than logging in on every request.
+     * 
+     * <p>Defaults to false.</p>
+     * 
+     * @param flag flag to set
+     * 
+     * @since 4.1.0
+     */
+    public void setCacheServerCredentials(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        cacheServerCredentials = flag;
+    }
+    
+    /**
+     * Set the maximum time to use a shared server credential before logging in again.
+     * 
+     * <p>Defaults to 8 hours.</p>
+     * 
+     * @param lifetime maximum lifetime
+     * 
+     * @since 4.1.0
+     */
+    public void setCredentialMaxLifetime(@Nonnull final Duration lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(lifetime, "Lifetime cannot be null");
+        Constraint.isFalse(lifetime.isNegative() || lifetime.isZero(), "Lifetime must be positive");
+
+        credentialMaxLifetime = lifetime;
+    }
+
+    /**
+     * Set how far ahead of its expiry to renew a shared server credential.
+     * 
+     * <p>Defaults to 5 minutes.</p>
+     * 
+     * @param window renewal window
+     * 
+     * @since 4.1.0
+     */
+    public void setCredentialRenewalWindow(@Nonnull final Duration window) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(window, "Renewal window cannot be null");
+        Constraint.isFalse(window.isNegative(), "Renewal window cannot be negative");
+
+        credentialRenewalWindow = window;
+    }
+    
+    /**
+     * Get the shared server credentials, if caching is enabled.
+     * 
+     * @return the credential cache, or null
+     * 
+     * @since 4.1.0
+     */
+    @Nullable public GSSServerCredentialCache getServerCredentialCache() {
+        return serverCredentialCache;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -124,6 +203,25 @@ public class KerberosSettings extends AbstractInitializableComponent {
             throw new ComponentInitializationException("Realm collection cannot be empty");
         }
         
+        if (cacheServerCredentials) {
+            try {
+                serverCredentialCache =
+                        new GSSServerCredentialCache(this, credentialMaxLifetime, credentialRenewalWindow);
+            } catch (final GSSException e) {
+                throw new ComponentInitializationException(e);
+            }
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (serverCredentialCache != null) {
+            serverCredentialCache.clear();
+            serverCredentialCache = null;
+        }
+        
+        super.doDestroy();
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,315 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.duo.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.client.utils.URIBuilder;
+import org.opensaml.core.OpenSAMLInitBaseTestCase;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.duosecurity.duoweb.DuoWebException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.AuthnEventIds;
+import net.shibboleth.idp.authn.context.AuthenticationContext;
+import net.shibboleth.idp.authn.duo.BasicDuoIntegration;
+import net.shibboleth.idp.authn.duo.DuoAuthAPI;
+import net.shibboleth.idp.authn.duo.DuoIntegration;
+import net.shibboleth.idp.authn.duo.context.DuoAuthenticationContext;
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.idp.profile.RequestContextBuilder;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.utilities.java.support.httpclient.HttpClientBuilder;
+import net.shibboleth.utilities.java.support.logic.FunctionSupport;
+
+/**
+ * Tests for {@link DuoPreauthAuthenticator}, {@link DuoAuthAuthenticator} and {@link ValidateDuoAuthAPI}
+ * against a local stub of the Duo AuthAPI.
+ */
+public class DuoAuthenticatorTest extends OpenSAMLInitBaseTestCase {
+
+    private HttpServer server;
+    
+    private AtomicInteger preauthCalls;
+
+    private AtomicInteger statusCalls;
+    
+    private int waitingPolls;
+    
+    private boolean failPreauth;
+    
+    private BasicDuoIntegration integration;
+    
+    private DuoAuthenticationContext duoContext;
+    
+    @BeforeMethod public void setUp() throws IOException {
+        preauthCalls = new AtomicInteger();
+        statusCalls = new AtomicInteger();
+        waitingPolls = 2;
+        failPreauth = false;
+        
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/auth/v2/preauth", exchange -> {
+            preauthCalls.incrementAndGet();
+            if (failPreauth) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+                return;
+            }
+            respond(exchange, "{\"stat\":\"OK\",\"response\":{\"result\":\"auth\",\"status_msg\":\"Account is active\","
+                    + "\"devices\":[{\"device\":\"DP1\",\"type\":\"phone\",\"name\":\"phone1\"}]}}");
+        });
+        server.createContext("/auth/v2/auth", exchange -> {
+            final String body = readBody(exchange);
+            if (body.contains(DuoAuthAPI.DUO_ASYNC + "=1")) {
+                respond(exchange, "{\"stat\":\"OK\",\"response\":{\"txid\":\"tx1\"}}");
+            } else {
+                respond(exchange, "{\"stat\":\"OK\",\"response\":{\"result\":\"allow\",\"status\":\"allow\","
+                        + "\"status_msg\":\"Success. Logging you in...\"}}");
+            }
+        });
+        server.createContext("/auth/v2/auth_status", exchange -> {
+            Assert.assertTrue(exchange.getRequestURI().getQuery().contains("txid=tx1"));
+            if (statusCalls.incrementAndGet() <= waitingPolls) {
+                respond(exchange, "{\"stat\":\"OK\",\"response\":{\"result\":\"waiting\",\"status\":\"pushed\","
+                        + "\"status_msg\":\"Pushed a login request to your phone...\"}}");
+            } else {
+                respond(exchange, "{\"stat\":\"OK\",\"response\":{\"result\":\"allow\",\"status\":\"allow\","
+                        + "\"status_msg\":\"Success. Logging you in...\"}}");
+            }
+        });
+        server.start();
+        
+        integration = new BasicDuoIntegration();
+        integration.setAPIHost("127.0.0.1");
+        integration.setApplicationKey("akey");
+        integration.setIntegrationKey("ikey");
+        integration.setSecretKey("skey");
+        
+        duoContext = new DuoAuthenticationContext();
+        duoContext.setUsername("jdoe");
+        duoContext.setClientAddress("192.168.1.1");
+        duoContext.setFactor(DuoAuthAPI.DUO_FACTOR_PUSH);
+        duoContext.setDeviceID(DuoAuthAPI.DUO_DEVICE_AUTO);
+    }
+    
+    @AfterMethod public void tearDown() {
+        server.stop(0);
+    }
+    
+    @Test public void testPreauthUncached() throws Exception {
+        final DuoPreauthAuthenticator authenticator = initialize(new StubPreauthAuthenticator());
+        
+        for (int i = 0; i < 3; ++i) {
+            final DuoPreauthResponse response = authenticator.authenticate(duoContext, integration);
+            Assert.assertEquals(response.getResult(), DuoAuthAPI.DUO_PREAUTH_RESULT_AUTH);
+            Assert.assertEquals(response.getDevices().size(), 1);
+        }
+        Assert.assertEquals(preauthCalls.get(), 3);
+    }
+
+    @Test public void testPreauthCached() throws Exception {
+        final StubPreauthAuthenticator authenticator = new StubPreauthAuthenticator();
+        authenticator.setResultCacheLifetime(Duration.ofMinutes(1));
+        initialize(authenticator);
+        
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertEquals(authenticator.authenticate(duoContext, integration).getResult(),
+                    DuoAuthAPI.DUO_PREAUTH_RESULT_AUTH);
+        }
+        Assert.assertEquals(preauthCalls.get(), 1);
+        
+        duoContext.setClientAddress("192.168.1.2");
+        authenticator.authenticate(duoContext, integration);
+        duoContext.setUsername("jsmith");
+        authenticator.authenticate(duoContext, integration);
+        Assert.assertEquals(preauthCalls.get(), 3);
+    }
+
+    @Test public void testAuthSynchronous() throws Exception {
+        final DuoAuthAuthenticator authenticator = initialize(new StubAuthAuthenticator());
+        
+        final DuoAuthResponse response = authenticator.authenticate(duoContext, integration);
+        Assert.assertEquals(response.getResult(), DuoAuthAPI.DUO_AUTH_RESULT_ALLOW);
+        Assert.assertNull(response.getTxid());
+        Assert.assertEquals(statusCalls.get(), 0);
+    }
+
+    @Test public void testAuthAsync() throws Exception {
+        final StubAuthAuthenticator authenticator = new StubAuthAuthenticator();
+        authenticator.setAsync(true);
+        initialize(authenticator);
+        
+        final DuoAuthResponse response = authenticator.authenticate(duoContext, integration);
+        Assert.assertNull(response.getResult());
+        Assert.assertEquals(response.getTxid(), "tx1");
+        Assert.assertEquals(statusCalls.get(), 0);
+        
+        duoContext.setTransactionId(response.getTxid());
+        Assert.assertEquals(authenticator.getStatus(duoContext, integration).getResult(),
+                DuoAuthAPI.DUO_AUTH_RESULT_WAITING);
+        Assert.assertEquals(authenticator.getStatus(duoContext, integration).getResult(),
+                DuoAuthAPI.DUO_AUTH_RESULT_WAITING);
+        Assert.assertEquals(authenticator.getStatus(duoContext, integration).getResult(),
+                DuoAuthAPI.DUO_AUTH_RESULT_ALLOW);
+        Assert.assertEquals(statusCalls.get(), 3);
+    }
+
+    @Test(expectedExceptions = DuoWebException.class)
+    public void testStatusWithoutTransaction() throws Exception {
+        final StubAuthAuthenticator authenticator = new StubAuthAuthenticator();
+        authenticator.setAsync(true);
+        initialize(authenticator);
+        
+        authenticator.getStatus(duoContext, integration);
+    }
+
+    @Test public void testValidateAsync() throws Exception {
+        final RequestContext src = buildRequestContext();
+        final ValidateDuoAuthAPI action = buildAction(Duration.ofMinutes(1));
+        
+        ActionTestingSupport.assertEvent(action.execute(src), DuoAuthAPI.DUO_AUTH_PENDING_EVENT);
+        Assert.assertEquals(duoContext.getTransactionId(), "tx1");
+        Assert.assertNotNull(duoContext.getTransactionStart());
+        Assert.assertEquals(statusCalls.get(), 0);
+        
+        ActionTestingSupport.assertEvent(action.execute(src), DuoAuthAPI.DUO_AUTH_PENDING_EVENT);
+        ActionTestingSupport.assertEvent(action.execute(src), DuoAuthAPI.DUO_AUTH_PENDING_EVENT);
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+        Assert.assertNull(duoContext.getTransactionId());
+        Assert.assertEquals(statusCalls.get(), 3);
+        Assert.assertEquals(preauthCalls.get(), 1);
+        
+        final ProfileRequestContext prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+        Assert.assertNotNull(prc.getSubcontext(AuthenticationContext.class).getAuthenticationResult());
+    }
+
+    @Test public void testValidateAsyncTimeout() throws Exception {
+        waitingPolls = Integer.MAX_VALUE;
+        final RequestContext src = buildRequestContext();
+        final ValidateDuoAuthAPI action = buildAction(Duration.ofMinutes(1));
+        
+        ActionTestingSupport.assertEvent(action.execute(src), DuoAuthAPI.DUO_AUTH_PENDING_EVENT);
+        ActionTestingSupport.assertEvent(action.execute(src), DuoAuthAPI.DUO_AUTH_PENDING_EVENT);
+        
+        duoContext.setTransactionStart(Instant.now().minus(Duration.ofMinutes(2)));
+        ActionTestingSupport.assertEvent(action.execute(src), AuthnEventIds.AUTHN_EXCEPTION);
+        Assert.assertNull(duoContext.getTransactionId());
+        Assert.assertEquals(statusCalls.get(), 2);
+    }
+
+    @Test(expectedExceptions = DuoWebException.class)
+    public void testServerError() throws Exception {
+        failPreauth = true;
+        final StubPreauthAuthenticator authenticator = new StubPreauthAuthenticator();
+        authenticator.setResultCacheLifetime(Duration.ofMinutes(1));
+        initialize(authenticator);
+        
+        authenticator.authenticate(duoContext, integration);
+    }
+    
+    private <T extends AbstractDuoAuthenticator> T initialize(@Nonnull final T authenticator)
+            throws Exception {
+        authenticator.setHttpClient(new HttpClientBuilder().buildClient());
+        authenticator.setObjectMapper(new ObjectMapper());
+        authenticator.initialize();
+        return authenticator;
+    }
+    
+    private RequestContext buildRequestContext() {
+        final RequestContext src = new RequestContextBuilder().buildRequestContext();
+        final ProfileRequestContext prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+        final AuthenticationContext ac = prc.getSubcontext(AuthenticationContext.class, true);
+        final AuthenticationFlowDescriptor flow = new AuthenticationFlowDescriptor();
+        flow.setId("authn/Duo");
+        ac.setAttemptedFlow(flow);
+        ac.addSubcontext(duoContext);
+        return src;
+    }
+    
+    private ValidateDuoAuthAPI buildAction(@Nonnull final Duration maxWait) throws Exception {
+        final StubAuthAuthenticator authenticator = new StubAuthAuthenticator();
+        authenticator.setAsync(true);
+        
+        final ValidateDuoAuthAPI action = new ValidateDuoAuthAPI();
+        action.setDuoIntegration(integration);
+        action.setUsernameLookupStrategy(FunctionSupport.constant("jdoe"));
+        action.setPreauthAuthenticator(initialize(new StubPreauthAuthenticator()));
+        action.setAuthAuthenticator(initialize(authenticator));
+        action.setMaxWait(maxWait);
+        action.initialize();
+        return action;
+    }
+    
+    private URIBuilder stubURIBuilder() {
+        return new URIBuilder().setScheme("http").setHost("127.0.0.1").setPort(server.getAddress().getPort());
+    }
+    
+    private static String readBody(@Nonnull final HttpExchange exchange) throws IOException {
+        try (final InputStream is = exchange.getRequestBody()) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+    
+    private static void respond(@Nonnull final HttpExchange exchange, @Nonnull final String json)
+            throws IOException {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (final OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+    
+    /** Preauth authenticator directed at the stub server. */
+    private class StubPreauthAuthenticator extends DuoPreauthAuthenticator {
+        /** {@inheritDoc} */
+        @Override
+        @Nonnull protected URIBuilder newURIBuilder(@Nonnull final DuoIntegration duoIntegration) {
+            return stubURIBuilder();
+        }
+    }
+
+    /** Auth authenticator directed at the stub server. */
+    private class StubAuthAuthenticator extends DuoAuthAuthenticator {
+        /** {@inheritDoc} */
+        @Override
+        @Nonnull protected URIBuilder newURIBuilder(@Nonnull final DuoIntegration duoIntegration) {
+            return stubURIBuilder();
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.security.Principal;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
@@ -335,6 +336,72 @@ public class DefaultAuthenticationResultSerializerTest {
         assertEquals(nested.getSubject(), nested2.getSubject());
     }
 
+    @Test public void testResultCache() throws Exception {
+        serializer.setResultCacheSize(10);
+        serializer.setCacheablePrincipalTypes(List.of(UsernamePrincipal.class, TestPrincipal.class));
+        serializer.initialize();
+        
+        final AuthenticationResult result = createResult("test", new Subject());
+        result.getAdditionalData().put("foo", "bar");
+        result.getSubject().getPrincipals().add(new UsernamePrincipal("bob"));
+        result.getSubject().getPublicCredentials().add(new TestPrincipal("pub"));
+        final String s = serializer.serialize(result);
+        
+        final AuthenticationResult result2 = serializer.deserialize(1, CONTEXT, KEY, s, ACTIVITY);
+        final AuthenticationResult result3 = serializer.deserialize(1, CONTEXT, KEY, s, ACTIVITY + 1000);
+        assertNotSame(result2, result3);
+        assertEquals(result2.getSubject(), result.getSubject());
+        assertEquals(result3.getSubject(), result.getSubject());
+        assertSame(result3.getSubject().getPrincipals().iterator().next(),
+                result2.getSubject().getPrincipals().iterator().next());
+        assertEquals(result3.getAuthenticationInstant(), INSTANT);
+        assertEquals(result2.getLastActivityInstant(), Instant.ofEpochMilli(ACTIVITY));
+        assertEquals(result3.getLastActivityInstant(), Instant.ofEpochMilli(ACTIVITY + 1000));
+        assertEquals(result3.getAdditionalData(), Collections.singletonMap("foo", "bar"));
+        
+        // Per-call state must not leak between results.
+        result2.getSubject().getPrincipals().add(new UsernamePrincipal("mallory"));
+        result2.getAdditionalData().put("frobnitz", "zorkmid");
+        result2.setLastActivityInstantToNow();
+        final AuthenticationResult result4 = serializer.deserialize(1, CONTEXT, KEY, s, ACTIVITY);
+        assertEquals(result4.getSubject().getPrincipals().size(), 1);
+        assertEquals(result4.getAdditionalData().size(), 1);
+        assertEquals(result4.getLastActivityInstant(), Instant.ofEpochMilli(ACTIVITY));
+        
+        // Results wrapping other results are not shared.
+        final AuthenticationResult outer = createResult("outer", new Subject());
+        outer.getSubject().getPrincipals().add(new AuthenticationResultPrincipal(result));
+        final String s2 = serializer.serialize(outer);
+        final AuthenticationResult nested =
+                ((AuthenticationResultPrincipal) serializer.deserialize(1, CONTEXT, KEY, s2, ACTIVITY)
+                        .getSubject().getPrincipals().iterator().next()).getAuthenticationResult();
+        final AuthenticationResult nested2 =
+                ((AuthenticationResultPrincipal) serializer.deserialize(1, CONTEXT, KEY, s2, ACTIVITY)
+                        .getSubject().getPrincipals().iterator().next()).getAuthenticationResult();
+        assertNotSame(nested, nested2);
+        assertEquals(nested.getSubject(), nested2.getSubject());
+    }
+
+    @Test public void testResultCacheMutablePrincipal() throws Exception {
+        serializer.setResultCacheSize(10);
+        serializer.initialize();
+        
+        final AuthenticationResult result = createResult("test", new Subject());
+        result.getSubject().getPrincipals().add(new UsernamePrincipal("bob"));
+        result.getSubject().getPrincipals().add(new TestPrincipal("foo"));
+        final String s = serializer.serialize(result);
+        
+        final AuthenticationResult result2 = serializer.deserialize(1, CONTEXT, KEY, s, ACTIVITY);
+        final AuthenticationResult result3 = serializer.deserialize(1, CONTEXT, KEY, s, ACTIVITY);
+        assertEquals(result2.getSubject(), result.getSubject());
+        assertEquals(result3.getSubject(), result.getSubject());
+        for (final Principal p : result2.getSubject().getPrincipals()) {
+            for (final Principal p2 : result3.getSubject().getPrincipals()) {
+                assertNotSame(p, p2);
+            }
+        }
+    }
+
     private AuthenticationResult createResult(String flowId, Subject subject) {
         final AuthenticationResult result = new AuthenticationResult(flowId, subject);
         result.setAuthenticationInstant(INSTANT);
@@ -17,16 +17,25 @@
 
 package net.shibboleth.idp.authn.impl;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.security.auth.Subject;
 import javax.security.auth.login.LoginException;
 
+import net.shibboleth.idp.authn.AccountLockoutManager;
 import net.shibboleth.idp.authn.AuthnEventIds;
+import net.shibboleth.idp.authn.UsernameExistenceFilter;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.context.AuthenticationErrorContext;
 import net.shibboleth.idp.authn.context.RequestedPrincipalContext;
@@ -36,6 +45,8 @@ import net.shibboleth.idp.authn.principal.UsernamePrincipal;
 import net.shibboleth.idp.authn.principal.impl.ExactPrincipalEvalPredicateFactory;
 import net.shibboleth.idp.profile.ActionTestingSupport;
 
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -153,6 +164,8 @@ public class HTPasswdCredentialValidatorTest extends BaseAuthenticationContextTe
         
         validator.initialize();
         
+        final CountingLockoutManager lockout = new CountingLockoutManager();
+        action.setLockoutManager(lockout);
         action.initialize();
 
         doExtract();
@@ -163,6 +176,65 @@ public class HTPasswdCredentialValidatorTest extends BaseAuthenticationContextTe
         Assert.assertTrue(errorCtx.getExceptions().get(0) instanceof LoginException);
         Assert.assertTrue(errorCtx.isClassifiedError(AuthnEventIds.UNKNOWN_USERNAME));
         Assert.assertFalse(errorCtx.isClassifiedError("InvalidPassword"));
+        Assert.assertEquals(lockout.increments.get(), 1);
+    }
+
+    @Test public void testFilteredUsername() throws Exception {
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("username", "foo");
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("password", "bar");
+
+        final AuthenticationContext ac = prc.getSubcontext(AuthenticationContext.class);
+        ac.setAttemptedFlow(authenticationFlows.get(0));
+        
+        final UsernameExistenceFilter filter = new UsernameExistenceFilter();
+        filter.setId("filter");
+        filter.setResource(new ByteArrayResource("PETER_THE_PRINCIPAL\n".getBytes(StandardCharsets.UTF_8)));
+        filter.setRebuildInterval(Duration.ZERO);
+        filter.initialize();
+        
+        validator.setUsernameFilter(filter);
+        validator.initialize();
+        
+        final CountingLockoutManager lockout = new CountingLockoutManager();
+        action.setLockoutManager(lockout);
+        action.initialize();
+
+        doExtract();
+
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertEvent(event, AuthnEventIds.UNKNOWN_USERNAME);
+        AuthenticationErrorContext errorCtx = ac.getSubcontext(AuthenticationErrorContext.class);
+        Assert.assertTrue(errorCtx.isClassifiedError(AuthnEventIds.UNKNOWN_USERNAME));
+        Assert.assertEquals(lockout.increments.get(), 0);
+        
+        filter.destroy();
+    }
+
+    @Test public void testFilteredUsernameCase() throws Exception {
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("username", "peter_the_principal");
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("password", "changeit");
+
+        final AuthenticationContext ac = prc.getSubcontext(AuthenticationContext.class);
+        ac.setAttemptedFlow(authenticationFlows.get(0));
+        
+        final UsernameExistenceFilter filter = new UsernameExistenceFilter();
+        filter.setId("filter");
+        filter.setResource(new ByteArrayResource("peter_the_principal\n".getBytes(StandardCharsets.UTF_8)));
+        filter.setRebuildInterval(Duration.ZERO);
+        filter.initialize();
+        
+        validator.setUppercase(true);
+        validator.setUsernameFilter(filter);
+        validator.initialize();
+        
+        action.initialize();
+
+        doExtract();
+
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        
+        filter.destroy();
     }
 
     @Test public void testBadPassword() throws Exception {
@@ -329,11 +401,92 @@ public class HTPasswdCredentialValidatorTest extends BaseAuthenticationContextTe
                 .next().getName(), "test1");
     }
     
+    @Test public void testBackendBusy() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final HTPasswdCredentialValidator blocking = new HTPasswdCredentialValidator() {
+            @Override
+            protected Subject doValidate(@Nonnull final ProfileRequestContext profileRequestContext,
+                    @Nonnull final AuthenticationContext authenticationContext,
+                    @Nonnull final UsernamePasswordContext usernamePasswordContext,
+                    @Nullable final WarningHandler warningHandler,
+                    @Nullable final ErrorHandler errorHandler) throws Exception {
+                entered.countDown();
+                release.await();
+                return super.doValidate(profileRequestContext, authenticationContext, usernamePasswordContext,
+                        warningHandler, errorHandler);
+            }
+        };
+        blocking.setId("blocking");
+        blocking.setResource(new ClassPathResource("net/shibboleth/idp/authn/impl/htpasswd.txt"));
+        blocking.setMaxConcurrentValidations(1);
+        blocking.setMaxQueuedValidations(0);
+        blocking.initialize();
+        action.setValidators(Collections.singletonList(blocking));
+        action.initialize();
+        
+        // Occupy the only slot with another request.
+        final ProfileRequestContext otherPrc = new ProfileRequestContext();
+        final AuthenticationContext otherAc = otherPrc.getSubcontext(AuthenticationContext.class, true);
+        final UsernamePasswordContext otherUpc = otherAc.getSubcontext(UsernamePasswordContext.class, true);
+        otherUpc.setUsername("PETER_THE_PRINCIPAL");
+        otherUpc.setPassword("changeit");
+        final Thread other = new Thread(() -> {
+            try {
+                blocking.validate(otherPrc, otherAc, null, null);
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        other.start();
+        entered.await();
+        
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("username", "PETER_THE_PRINCIPAL");
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("password", "changeit");
+        final AuthenticationContext ac = prc.getSubcontext(AuthenticationContext.class);
+        ac.setAttemptedFlow(authenticationFlows.get(0));
+        doExtract();
+
+        try {
+            final Event event = action.execute(src);
+            ActionTestingSupport.assertEvent(event, AuthnEventIds.BACKEND_BUSY);
+            Assert.assertNull(ac.getAuthenticationResult());
+        } finally {
+            release.countDown();
+            other.join();
+        }
+        
+        Assert.assertNotNull(otherUpc.getTransformedUsername());
+    }
+
     private void doExtract() throws Exception {
         final ExtractUsernamePasswordFromFormRequest extract = new ExtractUsernamePasswordFromFormRequest();
         extract.setHttpServletRequest(action.getHttpServletRequest());
         extract.initialize();
         extract.execute(src);
     }
-    
-}
\ No newline at end of file
+
+    /** Lockout manager that counts increments. */
+    private static class CountingLockoutManager implements AccountLockoutManager {
+        
+        /** Number of increments. */
+        private final AtomicInteger increments = new AtomicInteger();
+
+        /** {@inheritDoc} */
+        public boolean check(@Nonnull final ProfileRequestContext profileRequestContext) {
+            return false;
+        }
+
+        /** {@inheritDoc} */
+        public boolean increment(@Nonnull final ProfileRequestContext profileRequestContext) {
+            increments.incrementAndGet();
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        public boolean clear(@Nonnull final ProfileRequestContext profileRequestContext) {
+            return true;
+        }
+    }
+
+}
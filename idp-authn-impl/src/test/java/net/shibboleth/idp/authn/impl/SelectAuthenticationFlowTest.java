@@ -23,6 +23,7 @@ import java.util.List;
 
 import javax.security.auth.Subject;
 
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
 import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.authn.AuthnEventIds;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
@@ -295,4 +296,58 @@ public class SelectAuthenticationFlowTest extends BaseAuthenticationContextTest
         Assert.assertEquals(active, authCtx.getAuthenticationResult());
     }
     
-}
\ No newline at end of file
+
+    @Test public void testRequestSelectionTable() throws ComponentInitializationException {
+        final AuthenticationContext authCtx = prc.getSubcontext(AuthenticationContext.class);
+        final List<Principal> principals = Arrays.<Principal>asList(new TestPrincipal("test3"),
+                new TestPrincipal("test2"));
+        final RequestedPrincipalContext rpc = new RequestedPrincipalContext();
+        rpc.getPrincipalEvalPredicateFactoryRegistry().register(
+                TestPrincipal.class, "exact", new ExactPrincipalEvalPredicateFactory());
+        rpc.setOperator("exact");
+        rpc.setRequestedPrincipals(principals);
+        authCtx.addSubcontext(rpc, true);
+        final AuthenticationResult active = new AuthenticationResult("test3", new Subject());
+        active.getSubject().getPrincipals().add(new TestPrincipal("test3"));
+        authCtx.setActiveResults(Arrays.asList(active));
+        authCtx.getPotentialFlows().get("test3").setSupportedPrincipals(ImmutableList.of(principals.get(0)));
+        authCtx.getPotentialFlows().get("test2").setSupportedPrincipals(ImmutableList.of(principals.get(1)));
+        
+        final FlowSelectionTable table = new FlowSelectionTable();
+        table.initialize();
+        
+        action = new SelectAuthenticationFlow();
+        action.setSelectionTable(table);
+        action.initialize();
+        final Event event = action.execute(src);
+        
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(active, authCtx.getAuthenticationResult());
+        Assert.assertEquals(table.size(), 1);
+        
+        final List<List<AuthenticationFlowDescriptor>> candidates =
+                table.getCandidateFlows(rpc, authCtx.getPotentialFlows());
+        Assert.assertEquals(candidates.size(), 2);
+        Assert.assertEquals(candidates.get(0), List.of(authCtx.getPotentialFlows().get("test3")));
+        Assert.assertEquals(candidates.get(1), List.of(authCtx.getPotentialFlows().get("test2")));
+        Assert.assertSame(table.getCandidateFlows(rpc, authCtx.getPotentialFlows()), candidates);
+        
+        // A reloaded descriptor with the same ID must not reuse the stale entry.
+        final AuthenticationFlowDescriptor reloaded = new AuthenticationFlowDescriptor();
+        reloaded.setId("test3");
+        authCtx.getPotentialFlows().put("test3", reloaded);
+        final List<List<AuthenticationFlowDescriptor>> rebuilt =
+                table.getCandidateFlows(rpc, authCtx.getPotentialFlows());
+        Assert.assertNotSame(rebuilt, candidates);
+        Assert.assertTrue(rebuilt.get(0).isEmpty());
+        Assert.assertEquals(table.size(), 1);
+        
+        authCtx.setAuthenticationResult(null);
+        authCtx.setForceAuthn(true);
+        action = new SelectAuthenticationFlow();
+        action.setSelectionTable(table);
+        action.initialize();
+        ActionTestingSupport.assertEvent(action.execute(src), "test2");
+    }
+
+}
@@ -17,7 +17,13 @@
 
 package net.shibboleth.idp.authn.impl;
 
+import java.util.Collections;
+
+import javax.security.auth.Subject;
+
 import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.profile.ActionTestingSupport;
 
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.springframework.webflow.execution.Event;
@@ -69,4 +75,36 @@ public class SelectSubjectCanonicalizationFlowTest extends PopulateSubjectCanoni
         Assert.assertEquals(c14nCtx.getAttemptedFlow().getId(), "test2");
     }
 
-}
\ No newline at end of file
+    @Test public void testCachedResult() throws Exception {
+        final SubjectCanonicalizationCache cache = new SubjectCanonicalizationCache();
+        cache.setCacheableFlows(Collections.singletonList("test1"));
+        cache.initialize();
+        
+        action = new SelectSubjectCanonicalizationFlow();
+        action.setResultCache(cache);
+        action.initialize();
+        
+        final CacheSubjectCanonicalizationResult store = new CacheSubjectCanonicalizationResult();
+        store.setResultCache(cache);
+        store.initialize();
+        
+        final Subject subject = new Subject();
+        subject.getPrincipals().add(new UsernamePrincipal("foo"));
+        c14nCtx.setSubject(subject);
+        
+        Event event = action.execute(src);
+        Assert.assertEquals(event.getId(), "test1");
+        Assert.assertNull(c14nCtx.getPrincipalName());
+
+        c14nCtx.setPrincipalName("bar");
+        ActionTestingSupport.assertProceedEvent(store.execute(src));
+        
+        c14nCtx.setPrincipalName(null);
+        c14nCtx.setAttemptedFlow(null);
+        event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(c14nCtx.getPrincipalName(), "bar");
+        Assert.assertEquals(c14nCtx.getAttemptedFlow().getId(), "test1");
+    }
+
+}
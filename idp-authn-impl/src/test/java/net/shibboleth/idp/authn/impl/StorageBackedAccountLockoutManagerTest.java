@@ -19,6 +19,9 @@ package net.shibboleth.idp.authn.impl;
 
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -37,14 +40,18 @@ public class StorageBackedAccountLockoutManagerTest extends BaseAuthenticationCo
 
     private StorageBackedAccountLockoutManager manager;    
 
+    private MemoryStorageService ss;
+
+    private UsernameIPLockoutKeyStrategy keyStrategy;
+    
     @BeforeMethod public void setUp() throws Exception {
         super.setUp();
         
-        final MemoryStorageService ss = new MemoryStorageService();
+        ss = new MemoryStorageService();
         ss.setId("test");
         ss.initialize();
         
-        final UsernameIPLockoutKeyStrategy keyStrategy = new UsernameIPLockoutKeyStrategy();
+        keyStrategy = new UsernameIPLockoutKeyStrategy();
         keyStrategy.setHttpServletRequest((HttpServletRequest) src.getExternalContext().getNativeRequest());
         manager = new StorageBackedAccountLockoutManager();
         manager.setId("test");
@@ -109,4 +116,117 @@ public class StorageBackedAccountLockoutManagerTest extends BaseAuthenticationCo
         Assert.assertFalse(manager.check(prc));
     }
 
-}
\ No newline at end of file
+    @Test public void localTier() throws Exception {
+        final StorageBackedAccountLockoutManager localManager = buildLocalManager();
+        try {
+            Assert.assertTrue(localManager.increment(prc));
+            Assert.assertTrue(localManager.increment(prc));
+            Assert.assertTrue(localManager.increment(prc));
+            Assert.assertTrue(localManager.check(prc));
+            
+            // Not yet visible to the storage-only manager.
+            Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+            
+            localManager.flushLocalCounters();
+            
+            // Flushed to storage now, and still counted locally.
+            Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "3");
+            Assert.assertTrue(manager.check(prc));
+            Assert.assertTrue(localManager.check(prc));
+            
+            Assert.assertTrue(localManager.clear(prc));
+            Assert.assertFalse(localManager.check(prc));
+            Assert.assertFalse(manager.check(prc));
+        } finally {
+            localManager.destroy();
+        }
+    }
+
+    @Test public void localTierClearDropsPending() throws Exception {
+        final StorageBackedAccountLockoutManager localManager = buildLocalManager();
+        try {
+            Assert.assertTrue(localManager.increment(prc));
+            Assert.assertTrue(localManager.increment(prc));
+            Assert.assertTrue(localManager.clear(prc));
+            
+            localManager.flushLocalCounters();
+            Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+            
+            Assert.assertTrue(localManager.increment(prc));
+            localManager.flushLocalCounters();
+            Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "1");
+        } finally {
+            localManager.destroy();
+        }
+    }
+    
+    @Test public void localTierConcurrent() throws Exception {
+        final StorageBackedAccountLockoutManager localManager = buildLocalManager();
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                final Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 100; ++j) {
+                        localManager.increment(prc);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+            
+            localManager.flushLocalCounters();
+            Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "800");
+        } finally {
+            localManager.destroy();
+        }
+    }
+
+    @Test public void localTierEvictionFlushes() throws Exception {
+        final StorageBackedAccountLockoutManager localManager = buildLocalManager(1);
+        try {
+            Assert.assertTrue(localManager.increment(prc));
+            Assert.assertTrue(localManager.increment(prc));
+            Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+            
+            prc.getSubcontext(AuthenticationContext.class).getSubcontext(UsernamePasswordContext.class)
+                .setUsername("jsmith");
+            Assert.assertTrue(localManager.increment(prc));
+            
+            // Tracking the second key evicted the first, after adding its count to storage.
+            Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "2");
+            Assert.assertNull(ss.read("test", "jsmith!192.168.1.1"));
+        } finally {
+            localManager.destroy();
+        }
+    }
+    
+    private StorageBackedAccountLockoutManager buildLocalManager() throws Exception {
+        return buildLocalManager(10000);
+    }
+    
+    private StorageBackedAccountLockoutManager buildLocalManager(final long maxCounters) throws Exception {
+        final StorageBackedAccountLockoutManager localManager = new StorageBackedAccountLockoutManager();
+        localManager.setId("test");
+        localManager.setStorageService(ss);
+        localManager.setLockoutKeyStrategy(keyStrategy);
+        localManager.setMaxAttempts(3);
+        localManager.setCounterInterval(Duration.ofSeconds(3));
+        localManager.setLockoutDuration(Duration.ofSeconds(5));
+        // Long enough that flushes in these tests are driven directly.
+        localManager.setFlushInterval(Duration.ofHours(1));
+        localManager.setMaxLocalCounters(maxCounters);
+        localManager.initialize();
+        return localManager;
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.authn.impl;
+
+import java.security.Principal;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Arrays;
+
+import javax.security.auth.Subject;
+import javax.security.auth.x500.X500Principal;
+
+import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
+import net.shibboleth.idp.authn.principal.TestPrincipal;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.security.x509.X509Support;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link SubjectCanonicalizationCache} unit test. */
+public class SubjectCanonicalizationCacheTest {
+
+    /** Certificate for CN=foo.example.org with a subjectAltName of foo1@example.org. */
+    private static final String CERT1_BASE64 =
+            "MIIBpzCCAU6gAwIBAgIUSJohC2xjvLHEOCNfKp6bfJSy9HEwCgYIKoZIzj0EAwIw" +
+            "GjEYMBYGA1UEAwwPZm9vLmV4YW1wbGUub3JnMCAXDTI2MTAxOTAxNTkwOVoYDzIx" +
+            "MjYwOTI1MDE1OTA5WjAaMRgwFgYDVQQDDA9mb28uZXhhbXBsZS5vcmcwWTATBgcq" +
+            "hkjOPQIBBggqhkjOPQMBBwNCAASSwuSK1hjLv8kknm/2K1wuRlKdPKgF71p3rPcs" +
+            "6qC3fDMR7m3hDlwTGVbM/RUNqBwqdiyi98/i0pNcargkSnZSo3AwbjAdBgNVHQ4E" +
+            "FgQUWItnpYLh2qARAZ8rWL85XIJUQaUwHwYDVR0jBBgwFoAUWItnpYLh2qARAZ8r" +
+            "WL85XIJUQaUwDwYDVR0TAQH/BAUwAwEB/zAbBgNVHREEFDASgRBmb28xQGV4YW1w" +
+            "bGUub3JnMAoGCCqGSM49BAMCA0cAMEQCIH7laVFjXeQGFX4TjGpVQh2Ot8XKOD0F" +
+            "vV74CCDsV+mHAiAZq8xsYwa6j+v5OPJG+hlslLD0Th/pAmd4TL2U1wbyvw==";
+
+    /** Certificate for CN=foo.example.org with a subjectAltName of foo2@example.org. */
+    private static final String CERT2_BASE64 =
+            "MIIBqTCCAU6gAwIBAgIUGIPJ5Fy5+PtSyWb8n97CPNktAoEwCgYIKoZIzj0EAwIw" +
+            "GjEYMBYGA1UEAwwPZm9vLmV4YW1wbGUub3JnMCAXDTI2MTAxOTAxNTkwOVoYDzIx" +
+            "MjYwOTI1MDE1OTA5WjAaMRgwFgYDVQQDDA9mb28uZXhhbXBsZS5vcmcwWTATBgcq" +
+            "hkjOPQIBBggqhkjOPQMBBwNCAAT9tRJGmOW9as17YOfbCh/n6KF7qn5brO2lm735" +
+            "eYPpx8TYvlQaw9y6xo1Zqz4/3iwchLXDoA0qw33gzKVLdQW9o3AwbjAdBgNVHQ4E" +
+            "FgQU0yE0k+uhBXeFoa/b//N9OlNSD2UwHwYDVR0jBBgwFoAU0yE0k+uhBXeFoa/b" +
+            "//N9OlNSD2UwDwYDVR0TAQH/BAUwAwEB/zAbBgNVHREEFDASgRBmb28yQGV4YW1w" +
+            "bGUub3JnMAoGCCqGSM49BAMCA0kAMEYCIQDejMghD8/eV18+xisohOoRjM2aDiT0" +
+            "bzHIi02n5d+r9gIhAIV5cg7ZAl5pC7xLlL1U+yJer44HEbeTzOhe7cCEXc7q";
+
+    private SubjectCanonicalizationCache cache;
+    
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        cache = new SubjectCanonicalizationCache();
+        cache.setCacheableFlows(Arrays.asList("c14n/attribute", " c14n/x500 ", null));
+        cache.initialize();
+    }
+    
+    @Test public void testCacheable() throws ComponentInitializationException {
+        Assert.assertTrue(cache.isCacheable("c14n/attribute"));
+        Assert.assertTrue(cache.isCacheable("c14n/x500"));
+        Assert.assertFalse(cache.isCacheable("c14n/SAML2Transient"));
+        Assert.assertFalse(cache.isCacheable(null));
+        
+        final SubjectCanonicalizationContext ctx = buildContext("rp", new UsernamePrincipal("foo"));
+        cache.put("c14n/SAML2Transient", ctx, "bar");
+        Assert.assertNull(cache.get("c14n/SAML2Transient", ctx));
+        
+        cache = new SubjectCanonicalizationCache();
+        cache.setCacheableFlows(Arrays.asList("c14n/attribute"));
+        cache.setLifetime(Duration.ZERO);
+        cache.initialize();
+        Assert.assertFalse(cache.isCacheable("c14n/attribute"));
+    }
+    
+    @Test public void testKey() {
+        final SubjectCanonicalizationContext ctx =
+                buildContext("rp", new UsernamePrincipal("foo"), new TestPrincipal("baz"));
+        Assert.assertNull(cache.get("c14n/attribute", ctx));
+        cache.put("c14n/attribute", ctx, "bar");
+        Assert.assertEquals(cache.get("c14n/attribute", ctx), "bar");
+        
+        Assert.assertEquals(cache.get("c14n/attribute",
+                buildContext("rp", new TestPrincipal("baz"), new UsernamePrincipal("foo"))), "bar");
+        Assert.assertNull(cache.get("c14n/x500", ctx));
+        Assert.assertNull(cache.get("c14n/attribute",
+                buildContext("rp2", new UsernamePrincipal("foo"), new TestPrincipal("baz"))));
+        Assert.assertNull(cache.get("c14n/attribute", buildContext("rp", new UsernamePrincipal("foo"))));
+        Assert.assertNull(cache.get("c14n/attribute",
+                buildContext("rp", new UsernamePrincipal("baz"), new TestPrincipal("foo"))));
+        Assert.assertNull(cache.get("c14n/attribute", buildContext("rp")));
+        
+        cache.clear();
+        Assert.assertNull(cache.get("c14n/attribute", ctx));
+    }
+    
+    @Test public void testCertificates() throws Exception {
+        final X509Certificate cert1 = X509Support.decodeCertificate(CERT1_BASE64);
+        final X509Certificate cert2 = X509Support.decodeCertificate(CERT2_BASE64);
+        Assert.assertEquals(cert1.getSubjectX500Principal(), cert2.getSubjectX500Principal());
+        
+        final SubjectCanonicalizationContext ctx1 = buildContext("rp", cert1.getSubjectX500Principal());
+        ctx1.getSubject().getPublicCredentials().add(cert1);
+        final SubjectCanonicalizationContext ctx2 = buildContext("rp", cert2.getSubjectX500Principal());
+        ctx2.getSubject().getPublicCredentials().add(cert2);
+        
+        cache.put("c14n/x500", ctx1, "foo1@example.org");
+        Assert.assertEquals(cache.get("c14n/x500", ctx1), "foo1@example.org");
+        Assert.assertNull(cache.get("c14n/x500", ctx2));
+        Assert.assertNull(cache.get("c14n/x500", buildContext("rp", new X500Principal("CN=foo.example.org"))));
+        
+        cache.put("c14n/x500", ctx2, "foo2@example.org");
+        Assert.assertEquals(cache.get("c14n/x500", ctx1), "foo1@example.org");
+        Assert.assertEquals(cache.get("c14n/x500", ctx2), "foo2@example.org");
+        
+        // Other public credentials can't be fingerprinted.
+        final SubjectCanonicalizationContext other = buildContext("rp", new UsernamePrincipal("foo"));
+        other.getSubject().getPublicCredentials().add("credential");
+        cache.put("c14n/x500", other, "foo");
+        Assert.assertNull(cache.get("c14n/x500", other));
+    }
+    
+    @Test public void testExpiration() throws Exception {
+        cache = new SubjectCanonicalizationCache();
+        cache.setCacheableFlows(Arrays.asList("c14n/attribute"));
+        cache.setLifetime(Duration.ofMillis(50));
+        cache.setMaxEntries(1);
+        cache.initialize();
+        
+        final SubjectCanonicalizationContext ctx = buildContext("rp", new UsernamePrincipal("foo"));
+        final SubjectCanonicalizationContext ctx2 = buildContext("rp", new UsernamePrincipal("foo2"));
+        cache.put("c14n/attribute", ctx, "bar");
+        Assert.assertEquals(cache.get("c14n/attribute", ctx), "bar");
+        cache.put("c14n/attribute", ctx2, "bar2");
+        Assert.assertEquals(cache.get("c14n/attribute", ctx2), "bar2");
+        Assert.assertNull(cache.get("c14n/attribute", ctx));
+        
+        Thread.sleep(100);
+        Assert.assertNull(cache.get("c14n/attribute", ctx2));
+    }
+    
+    private SubjectCanonicalizationContext buildContext(final String requesterId,
+            final Principal... principals) {
+        final Subject subject = new Subject();
+        subject.getPrincipals().addAll(Arrays.asList(principals));
+        final SubjectCanonicalizationContext ctx = new SubjectCanonicalizationContext();
+        ctx.setSubject(subject);
+        ctx.setRequesterId(requesterId);
+        ctx.setResponderId("idp");
+        return ctx;
+    }
+
+}
@@ -17,14 +17,20 @@
 
 package net.shibboleth.idp.authn.impl;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opensaml.profile.context.ProfileRequestContext;
 import org.springframework.webflow.execution.Event;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.MultiFactorAuthenticationTransition;
 import net.shibboleth.idp.authn.principal.UsernamePrincipal;
 import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.utilities.java.support.logic.FunctionSupport;
 
 /** {@link TransitionMultiFactorAuthentication} unit test. */
 public class TransitionMultiFactorAuthenticationTest extends BaseMultiFactorAuthenticationContextTest {
@@ -71,4 +77,54 @@ public class TransitionMultiFactorAuthenticationTest extends BaseMultiFactorAuth
         Assert.assertNull(mfa.getNextFlowId());
     }
     
-}
\ No newline at end of file
+
+    @Test public void testWildcard() {
+        final MultiFactorAuthenticationTransition transition = new MultiFactorAuthenticationTransition();
+        final Map<String,Object> rules = new HashMap<>();
+        rules.put("proceed", FunctionSupport.<ProfileRequestContext,String>constant(null));
+        rules.put("Foo", " authn/test2 ");
+        rules.put("*", "authn/test3");
+        transition.setNextFlowStrategyMap(rules);
+        
+        Assert.assertEquals(transition.getNextFlow("Foo", prc), "authn/test2");
+        Assert.assertEquals(transition.getNextFlow("proceed", prc), "authn/test3");
+        Assert.assertEquals(transition.getNextFlow("Bar", prc), "authn/test3");
+        Assert.assertEquals(transition.getNextFlowStrategy("Foo").apply(prc), "authn/test2");
+        Assert.assertNull(transition.getNextFlowStrategy("Bar").apply(prc));
+        
+        rules.remove("*");
+        transition.setNextFlowStrategyMap(rules);
+        Assert.assertNull(transition.getNextFlow("proceed", prc));
+        Assert.assertNull(transition.getNextFlow("Bar", prc));
+        
+        mfa.getTransitionMap().put(null, transition);
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertNull(mfa.getNextFlowId());
+    }
+
+    @Test public void testSequenceActiveResults() {
+        final String[] flows = {"authn/test1", "authn/test2", "authn/test3"};
+        String prev = null;
+        for (final String flowId : flows) {
+            final MultiFactorAuthenticationTransition transition = new MultiFactorAuthenticationTransition();
+            transition.setNextFlow(flowId);
+            mfa.getTransitionMap().put(prev, transition);
+            prev = flowId;
+        }
+        
+        mfa.getActiveResults().clear();
+        mfa.setNextFlowId(null);
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+        int expected = 1;
+        for (final String flowId : flows) {
+            Assert.assertEquals(mfa.getNextFlowId(), flowId);
+            ac.setAuthenticationResult(new AuthenticationResult(flowId, new UsernamePrincipal("foo")));
+            ActionTestingSupport.assertProceedEvent(action.execute(src));
+            Assert.assertTrue(mfa.getActiveResults().containsKey(flowId));
+            Assert.assertEquals(mfa.getActiveResults().size(), expected++);
+        }
+        Assert.assertNull(mfa.getNextFlowId());
+    }
+
+}
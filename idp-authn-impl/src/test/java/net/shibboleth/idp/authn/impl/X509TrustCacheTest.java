@@ -0,0 +1,162 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.impl;
+
+import java.security.cert.CertificateException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.trust.TrustEngine;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.security.x509.X509Credential;
+import org.opensaml.security.x509.X509Support;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link X509TrustCache} unit test. */
+public class X509TrustCacheTest {
+
+    /** Self-signed certificate valid until 2126. */
+    private String currentCertBase64 =
+            "MIIBSzCB86ADAgECAgg5ZITMHLJq2TAKBggqhkjOPQQDAjAaMRgwFgYDVQQDEw9w" +
+            "aXYuZXhhbXBsZS5vcmcwIBcNMjYxMDE5MDAzNjQxWhgPMjEyNjA5MjUwMDM2NDFa" +
+            "MBoxGDAWBgNVBAMTD3Bpdi5leGFtcGxlLm9yZzBZMBMGByqGSM49AgEGCCqGSM49" +
+            "AwEHA0IABEXg1ERWSMJ4DrRXs3d8nSJs5S2rKFmNfhN5g2dNmhb/l50HCn2bQ0Xa" +
+            "ABtBfuZJyCiyOBR2tZkEi1k8vr3pkf6jITAfMB0GA1UdDgQWBBQEbGSLEX7ADaQV" +
+            "ZE3k3GevO7NRzjAKBggqhkjOPQQDAgNHADBEAiAXKAqhESdLJIOcLwEy8sup1Pgg" +
+            "bBNbOoMjOmFyhPtljwIgBAVje3vbJsIDdedS34L4N2drOdZ0zT6Mc8vJ++QewqE=";
+
+    /** Certificate that expired in 2017. */
+    private String expiredCertBase64 = 
+            "MIIDjDCCAnSgAwIBAgIBKjANBgkqhkiG9w0BAQUFADAtMRIwEAYDVQQKEwlJbnRl" +
+            "cm5ldDIxFzAVBgNVBAMTDmNhLmV4YW1wbGUub3JnMB4XDTA3MDQwOTA2MTIwOVoX" +
+            "DTE3MDQwNjA2MTIwOVowMTESMBAGA1UEChMJSW50ZXJuZXQyMRswGQYDVQQDExJm" +
+            "b29iYXIuZXhhbXBsZS5vcmcwggEiMA0GCSqGSIb3DQEBAQUAA4IBDwAwggEKAoIB" +
+            "AQDNWnkFmhy1vYa6gN/xBRKkZxFy3sUq2V0LsYb6Q3pe9Qlb6+BzaM5DrN8uIqqr" +
+            "oBE3Wp0LtrgKuQTpDpNFBdS2p5afiUtOYLWBDtizTOzs3Z36MGMjIPUYQ4s03IP3" +
+            "yPh2ud6EKpDPiYqzNbkRaiIwmYSit5r+RMYvd6fuKvTOn6h7PZI5AD7Rda7VWh5O" +
+            "VSoZXlRx3qxFho+mZhW0q4fUfTi5lWwf4EhkfBlzgw/k5gf4cOi6rrGpRS1zxmbt" +
+            "X1RAg+I20z6d04g0N2WsK5stszgYKoIROJCiXwjraa8/SoFcILolWQpttVHBIUYl" +
+            "yDlm8mIFleZf4ReFpfm+nUYxAgMBAAGjgbIwga8wCQYDVR0TBAIwADAsBglghkgB" +
+            "hvhCAQ0EHxYdT3BlblNTTCBHZW5lcmF0ZWQgQ2VydGlmaWNhdGUwHQYDVR0OBBYE" +
+            "FDgRgTkjaKoK6DoZfUZ4g9LDJUWuMFUGA1UdIwROMEyAFNXuZVPeUdqHrULqQW7y" +
+            "r9buRpQLoTGkLzAtMRIwEAYDVQQKEwlJbnRlcm5ldDIxFzAVBgNVBAMTDmNhLmV4" +
+            "YW1wbGUub3JnggEBMA0GCSqGSIb3DQEBBQUAA4IBAQCPj3Si4Eiw9abNgPBUhBXW" +
+            "d6eRYlIHaHcnez6j6g7foAOyuVIUso9Q5c6pvL87lmasK55l09YPXw1qmiH+bHMc" +
+            "rwEPODpLx7xd3snlOCi7FyxahxwSs8yfTu8Pq95rWt0LNcfHxQK938Cpnav6jgDo" +
+            "2uH/ywAOFFSnoBzGHAfScHMfj8asZ6THosYsklII7FSU8j49GV2utkvGB3mcu4ST" +
+            "uLdeRCZmi93vq1D4JVGsXC4UaHjg114+a+9q0XZdz6a1UW4pt1ryXIPotCS62M71" +
+            "pkJf5neHUinKAqgoRfPXowudZg1Zl8DjzoOBn+MNHRrR5KYbVGvdHcxoJLCwVB/v";
+    
+    private X509TrustCache cache;
+    
+    private AtomicInteger calls;
+    
+    private boolean outcome;
+    
+    private TrustEngine<X509Credential> engine;
+    
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        cache = new X509TrustCache();
+        cache.initialize();
+        calls = new AtomicInteger();
+        outcome = true;
+        engine = (token, criteria) -> {
+            calls.incrementAndGet();
+            return outcome;
+        };
+    }
+    
+    @Test public void testPositive() throws CertificateException, SecurityException {
+        final X509Credential cred = new BasicX509Credential(X509Support.decodeCertificate(currentCertBase64));
+        
+        Assert.assertTrue(cache.validate(engine, cred));
+        Assert.assertTrue(cache.validate(engine, cred));
+        Assert.assertTrue(cache.validate(engine,
+                new BasicX509Credential(X509Support.decodeCertificate(currentCertBase64))));
+        Assert.assertEquals(calls.get(), 1);
+        
+        // Distinct engine instances must not share outcomes.
+        final TrustEngine<X509Credential> other = (token, criteria) -> false;
+        Assert.assertFalse(cache.validate(other, cred));
+        Assert.assertTrue(cache.validate(engine, cred));
+        Assert.assertEquals(calls.get(), 1);
+        
+        cache.invalidate(engine);
+        Assert.assertTrue(cache.validate(engine, cred));
+        Assert.assertEquals(calls.get(), 2);
+    }
+
+    @Test public void testNegative() throws CertificateException, SecurityException {
+        final X509Credential cred = new BasicX509Credential(X509Support.decodeCertificate(currentCertBase64));
+        outcome = false;
+        
+        Assert.assertFalse(cache.validate(engine, cred));
+        Assert.assertFalse(cache.validate(engine, cred));
+        Assert.assertEquals(calls.get(), 1);
+        
+        cache.clear();
+        outcome = true;
+        Assert.assertTrue(cache.validate(engine, cred));
+        Assert.assertEquals(calls.get(), 2);
+    }
+
+    @Test public void testNegativeDisabled() throws ComponentInitializationException, CertificateException,
+            SecurityException {
+        cache = new X509TrustCache();
+        cache.setNegativeLifetime(Duration.ZERO);
+        cache.initialize();
+        final X509Credential cred = new BasicX509Credential(X509Support.decodeCertificate(currentCertBase64));
+        outcome = false;
+        
+        Assert.assertFalse(cache.validate(engine, cred));
+        Assert.assertFalse(cache.validate(engine, cred));
+        Assert.assertEquals(calls.get(), 2);
+    }
+
+    @Test public void testExpiredCertificate() throws CertificateException, SecurityException {
+        final X509Credential cred = new BasicX509Credential(X509Support.decodeCertificate(expiredCertBase64));
+        
+        Assert.assertTrue(cache.validate(engine, cred));
+        Assert.assertTrue(cache.validate(engine, cred));
+        Assert.assertEquals(calls.get(), 2);
+    }
+
+    @Test public void testException() throws CertificateException, SecurityException {
+        final X509Credential cred = new BasicX509Credential(X509Support.decodeCertificate(currentCertBase64));
+        final TrustEngine<X509Credential> failing = (token, criteria) -> {
+            calls.incrementAndGet();
+            throw new SecurityException("failed");
+        };
+        
+        for (int i = 0; i < 2; ++i) {
+            try {
+                cache.validate(failing, cred);
+                Assert.fail("Exception should have propagated");
+            } catch (final SecurityException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals(calls.get(), 2);
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.spnego.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.security.auth.Subject;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.login.LoginException;
+import javax.security.auth.spi.LoginModule;
+
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.Oid;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link GSSServerCredentialCache} unit test. */
+public class GSSServerCredentialCacheTest {
+
+    private KerberosSettings settings;
+    
+    private KerberosRealmSettings realm;
+    
+    /** Remaining accept lifetime of the credentials created, in seconds. */
+    private int credentialLifetime;
+    
+    @BeforeMethod public void setUp() {
+        StubLoginModule.logins.set(0);
+        StubLoginModule.logouts.set(0);
+        StubLoginModule.fail = false;
+        StubLoginModule.blockedPrincipal = null;
+        StubLoginModule.blocker = new CountDownLatch(0);
+        StubLoginModule.entered = new CountDownLatch(1);
+        
+        settings = new KerberosSettings();
+        settings.setLoginModuleClassName(StubLoginModule.class.getName());
+        realm = buildRealm("HTTP/idp.example.org@EXAMPLE.ORG");
+        credentialLifetime = GSSCredential.INDEFINITE_LIFETIME;
+    }
+    
+    @Test public void testCacheHit() throws Exception {
+        final GSSServerCredentialCache cache = new StubCredentialCache(Duration.ofHours(1), Duration.ofMinutes(1));
+        
+        final GSSCredential first = cache.getCredential(realm);
+        final GSSCredential second = cache.getCredential(realm);
+        Assert.assertSame(second, first);
+        Assert.assertEquals(StubLoginModule.logins.get(), 1);
+        
+        cache.release(first);
+        cache.release(second);
+        Assert.assertSame(cache.getCredential(realm), first);
+        Assert.assertEquals(StubLoginModule.logins.get(), 1);
+        verify(first, never()).dispose();
+        
+        final KerberosRealmSettings other = buildRealm("HTTP/idp.example.com@EXAMPLE.COM");
+        Assert.assertNotSame(cache.getCredential(other), first);
+        Assert.assertEquals(StubLoginModule.logins.get(), 2);
+        
+        cache.clear();
+        verify(first).dispose();
+        Assert.assertEquals(StubLoginModule.logouts.get(), 2);
+    }
+
+    @Test public void testExpiryRefresh() throws Exception {
+        // Each credential is due for renewal as soon as it is created.
+        credentialLifetime = 30;
+        final GSSServerCredentialCache cache = new StubCredentialCache(Duration.ofHours(1), Duration.ofMinutes(1));
+        
+        final GSSCredential first = cache.getCredential(realm);
+        final GSSCredential second = cache.getCredential(realm);
+        Assert.assertNotSame(second, first);
+        Assert.assertEquals(StubLoginModule.logins.get(), 2);
+        
+        // The superseded credential survives until its lease is returned.
+        verify(first, never()).dispose();
+        cache.release(first);
+        verify(first).dispose();
+        Assert.assertEquals(StubLoginModule.logouts.get(), 1);
+        
+        cache.release(second);
+        verify(second, never()).dispose();
+    }
+
+    @Test public void testMaxLifetimeRefresh() throws Exception {
+        final GSSServerCredentialCache cache = new StubCredentialCache(Duration.ofMillis(50), Duration.ZERO);
+        
+        final GSSCredential first = cache.getCredential(realm);
+        cache.release(first);
+        Assert.assertSame(cache.getCredential(realm), first);
+        cache.release(first);
+        
+        Thread.sleep(100);
+        Assert.assertNotSame(cache.getCredential(realm), first);
+        Assert.assertEquals(StubLoginModule.logins.get(), 2);
+        verify(first).dispose();
+    }
+
+    @Test public void testFailedLogin() throws Exception {
+        final GSSServerCredentialCache cache = new StubCredentialCache(Duration.ofHours(1), Duration.ofMinutes(1));
+        StubLoginModule.fail = true;
+        
+        try {
+            cache.getCredential(realm);
+            Assert.fail("Login should have failed");
+        } catch (final LoginException e) {
+            // expected
+        }
+        try {
+            cache.getCredential(realm);
+            Assert.fail("Login should have failed");
+        } catch (final LoginException e) {
+            // expected, as the failure is not cached
+        }
+        Assert.assertEquals(StubLoginModule.logins.get(), 2);
+        
+        StubLoginModule.fail = false;
+        final GSSCredential credential = cache.getCredential(realm);
+        Assert.assertSame(cache.getCredential(realm), credential);
+        Assert.assertEquals(StubLoginModule.logins.get(), 3);
+    }
+
+    @Test public void testLoginsPerRealm() throws Exception {
+        final GSSServerCredentialCache cache = new StubCredentialCache(Duration.ofHours(1), Duration.ofMinutes(1));
+        final KerberosRealmSettings other = buildRealm("HTTP/idp.example.com@EXAMPLE.COM");
+        StubLoginModule.blockedPrincipal = realm.getServicePrincipal();
+        StubLoginModule.blocker = new CountDownLatch(1);
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final Future<GSSCredential> blocked1 = executor.submit(() -> cache.getCredential(realm));
+            Assert.assertTrue(StubLoginModule.entered.await(5, TimeUnit.SECONDS));
+            final Future<GSSCredential> blocked2 = executor.submit(() -> cache.getCredential(realm));
+            
+            // A login for another realm is not held up by the stalled one.
+            final GSSCredential unblocked = executor.submit(() -> cache.getCredential(other)).get(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(unblocked);
+            Assert.assertFalse(blocked1.isDone());
+            Assert.assertFalse(blocked2.isDone());
+            
+            // Both requests for the stalled realm share its single login.
+            StubLoginModule.blocker.countDown();
+            Assert.assertSame(blocked1.get(5, TimeUnit.SECONDS), blocked2.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(StubLoginModule.logins.get(), 2);
+        } finally {
+            StubLoginModule.blocker.countDown();
+            executor.shutdownNow();
+        }
+    }
+    
+    @Nonnull private KerberosRealmSettings buildRealm(@Nonnull final String principal) {
+        final KerberosRealmSettings settings = new KerberosRealmSettings();
+        settings.setServicePrincipal(principal);
+        return settings;
+    }
+    
+    /** Cache that creates mock credentials in place of real ones. */
+    private class StubCredentialCache extends GSSServerCredentialCache {
+
+        /**
+         * Constructor.
+         *
+         * @param lifetime maximum lifetime
+         * @param window renewal window
+         * 
+         * @throws GSSException ...
+         */
+        StubCredentialCache(@Nonnull final Duration lifetime, @Nonnull final Duration window) throws GSSException {
+            super(settings, lifetime, window);
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        @Nonnull GSSCredential createCredential(@Nonnull final Subject subject) {
+            final GSSCredential credential = mock(GSSCredential.class);
+            try {
+                when(credential.getRemainingAcceptLifetime(any(Oid.class))).thenReturn(credentialLifetime);
+            } catch (final GSSException e) {
+                throw new IllegalStateException(e);
+            }
+            return credential;
+        }
+    }
+    
+    /** JAAS login module that counts logins and logouts, and can fail or stall on demand. */
+    public static class StubLoginModule implements LoginModule {
+        
+        /** Logins attempted. */
+        static final AtomicInteger logins = new AtomicInteger();
+
+        /** Logouts performed. */
+        static final AtomicInteger logouts = new AtomicInteger();
+        
+        /** Whether logins fail. */
+        static volatile boolean fail;
+        
+        /** Principal whose logins wait for {@link #blocker}. */
+        static volatile String blockedPrincipal;
+        
+        /** Latch on which to stall logins. */
+        static volatile CountDownLatch blocker;
+        
+        /** Latch signaled when a stalled login starts. */
+        static volatile CountDownLatch entered;
+        
+        /** Principal being logged in. */
+        private String principal;
+        
+        /** {@inheritDoc} */
+        public void initialize(final Subject subject, final CallbackHandler callbackHandler,
+                final Map<String,?> sharedState, final Map<String,?> options) {
+            principal = (String) options.get("principal");
+        }
+
+        /** {@inheritDoc} */
+        public boolean login() throws LoginException {
+            logins.incrementAndGet();
+            if (fail) {
+                throw new LoginException("Failed");
+            } else if (principal.equals(blockedPrincipal)) {
+                entered.countDown();
+                try {
+                    blocker.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    throw new LoginException("Interrupted");
+                }
+            }
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        public boolean commit() {
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        public boolean abort() {
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        public boolean logout() {
+            logouts.incrementAndGet();
+            return true;
+        }
+    }
+
+}
@@ -18,10 +18,15 @@
 package net.shibboleth.idp.authn.spnego.impl;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.security.auth.login.LoginException;
+
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
 
@@ -59,6 +64,39 @@ public class KerberosSettingsTest {
         assertEquals(settings.getRealms(), realms);
     }
 
+    @Test
+    public void testServerCredentialCache() throws ComponentInitializationException {
+        settings.setRealms(realms);
+        settings.initialize();
+        assertNull(settings.getServerCredentialCache());
+        
+        settings = new KerberosSettings();
+        settings.setRealms(realms);
+        settings.setCacheServerCredentials(true);
+        settings.setCredentialMaxLifetime(Duration.ofHours(1));
+        settings.setCredentialRenewalWindow(Duration.ZERO);
+        settings.initialize();
+        assertNotNull(settings.getServerCredentialCache());
+        
+        settings.destroy();
+        assertNull(settings.getServerCredentialCache());
+    }
+
+    @Test(expectedExceptions = LoginException.class)
+    public void testServerCredentialCacheLoginFailure() throws Exception {
+        settings.setRealms(realms);
+        settings.setLoginModuleClassName("net.shibboleth.NoSuchLoginModule");
+        settings.setCacheServerCredentials(true);
+        settings.initialize();
+        
+        settings.getServerCredentialCache().getCredential(realms.get(0));
+    }
+
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void zeroCredentialLifetime_shouldThrowException() {
+        settings.setCredentialMaxLifetime(Duration.ZERO);
+    }
+
     @Test(expectedExceptions = ComponentInitializationException.class)
     public void withoutMandatoryParameters_initialize_shouldThrowException() throws ComponentInitializationException {
         settings.initialize();
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.logic;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.net.IPRange;
+
+/**
+ * An immutable binary trie over the network prefixes of a set of {@link IPRange} objects, each associated
+ * with a value, that answers "which values have a range containing this address" in time proportional to
+ * the address length rather than to the number of ranges.
+ * 
+ * <p>IPv4 and IPv6 ranges are held in separate tries, and an address only ever matches ranges of its own
+ * family, consistent with {@link IPRange#contains(byte[])}.</p>
+ * 
+ * @param <T> type of value associated with each range
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public final class IPRangeTrie<T> {
+    
+    /** Number of bits in an IPv4 address. */
+    private static final int IPV4_BITS = 32;
+
+    /** Number of bits in an IPv6 address. */
+    private static final int IPV6_BITS = 128;
+
+    /** Root of the IPv4 trie. */
+    @Nonnull private final Node<T> ipv4Root;
+
+    /** Root of the IPv6 trie. */
+    @Nonnull private final Node<T> ipv6Root;
+    
+    /** Whether any ranges were supplied. */
+    private final boolean empty;
+    
+    /**
+     * Constructor.
+     * 
+     * <p>The iteration order of the input map determines the order of values sharing an identical
+     * prefix in lookup results.</p>
+     * 
+     * @param mappings ranges to index, keyed by the value to return when an address falls in one of them
+     */
+    public IPRangeTrie(@Nonnull @NonnullElements final Map<T,? extends Collection<IPRange>> mappings) {
+        Constraint.isNotNull(mappings, "Range mappings cannot be null");
+        
+        ipv4Root = new Node<>();
+        ipv6Root = new Node<>();
+        
+        boolean found = false;
+        for (final Map.Entry<T,? extends Collection<IPRange>> entry : mappings.entrySet()) {
+            Constraint.isNotNull(entry.getKey(), "Range value cannot be null");
+            if (entry.getValue() != null) {
+                for (final IPRange range : entry.getValue()) {
+                    if (range != null) {
+                        insert(range, entry.getKey());
+                        found = true;
+                    }
+                }
+            }
+        }
+        empty = !found;
+    }
+    
+    /**
+     * Get whether the trie contains no ranges.
+     * 
+     * @return true iff no ranges were indexed
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Get the values of every range containing the supplied address.
+     * 
+     * @param address address to look up
+     * 
+     * @return matching values, ordered from least to most specific range and without duplicates
+     */
+    @Nonnull @NonnullElements @Unmodifiable public List<T> lookup(@Nonnull final InetAddress address) {
+        return lookup(address.getAddress());
+    }
+    
+    /**
+     * Get the values of every range containing the supplied address.
+     * 
+     * @param address raw address bytes to look up, 4 bytes for IPv4 and 16 for IPv6
+     * 
+     * @return matching values, ordered from least to most specific range and without duplicates
+     */
+    @Nonnull @NonnullElements @Unmodifiable public List<T> lookup(@Nullable final byte[] address) {
+        final Node<T> root = rootFor(address);
+        if (root == null) {
+            return Collections.emptyList();
+        }
+        
+        List<T> results = null;
+        Node<T> node = root;
+        final int bits = address.length * 8;
+        for (int i = 0; node != null; ++i) {
+            if (node.values != null) {
+                if (results == null) {
+                    results = new ArrayList<>(node.values.size());
+                }
+                for (final T value : node.values) {
+                    if (!results.contains(value)) {
+                        results.add(value);
+                    }
+                }
+            }
+            node = i < bits ? node.children[bit(address, i)] : null;
+        }
+        
+        return results != null ? Collections.unmodifiableList(results) : Collections.emptyList();
+    }
+    
+    /**
+     * Get whether any range contains the supplied address.
+     * 
+     * @param address raw address bytes to look up, 4 bytes for IPv4 and 16 for IPv6
+     * 
+     * @return true iff at least one range contains the address
+     */
+    public boolean matches(@Nullable final byte[] address) {
+        Node<T> node = rootFor(address);
+        if (node == null) {
+            return false;
+        }
+        
+        final int bits = address.length * 8;
+        for (int i = 0; node != null; ++i) {
+            if (node.values != null) {
+                return true;
+            }
+            node = i < bits ? node.children[bit(address, i)] : null;
+        }
+        return false;
+    }
+    
+    /**
+     * Add a range to the appropriate trie.
+     * 
+     * @param range range to add
+     * @param value value to associate with it
+     */
+    private void insert(@Nonnull final IPRange range, @Nonnull final T value) {
+        final byte[] network = range.getNetworkAddress().getAddress();
+        final Node<T> root = rootFor(network);
+        Constraint.isNotNull(root, "Unsupported address length in range");
+        
+        final int prefixLength = prefixLength(range, network);
+        Node<T> node = root;
+        for (int i = 0; i < prefixLength; ++i) {
+            final int b = bit(network, i);
+            if (node.children[b] == null) {
+                node.children[b] = new Node<>();
+            }
+            node = node.children[b];
+        }
+        
+        if (node.values == null) {
+            node.values = new ArrayList<>(1);
+        }
+        if (!node.values.contains(value)) {
+            node.values.add(value);
+        }
+    }
+    
+    /**
+     * Get the trie root for an address of the given length.
+     * 
+     * @param address raw address bytes
+     * 
+     * @return the matching root, or null if the length is not that of an IPv4 or IPv6 address
+     */
+    @Nullable private Node<T> rootFor(@Nullable final byte[] address) {
+        if (address == null) {
+            return null;
+        } else if (address.length * 8 == IPV4_BITS) {
+            return ipv4Root;
+        } else if (address.length * 8 == IPV6_BITS) {
+            return ipv6Root;
+        }
+        return null;
+    }
+    
+    /**
+     * Derive the prefix length of a range from its network address.
+     * 
+     * <p>{@link IPRange} does not expose its mask size. The bits of the network address past the prefix
+     * are zero, so the prefix cannot end before the last one bit. Past that point, flipping a bit inside
+     * the prefix takes the address out of the range while flipping any later bit does not, so the
+     * remaining candidates are resolved by a binary search over that boundary.</p>
+     * 
+     * @param range range to examine
+     * @param network the range's network address
+     * 
+     * @return the number of significant bits in the range
+     */
+    private static int prefixLength(@Nonnull final IPRange range, @Nonnull final byte[] network) {
+        final int bits = network.length * 8;
+        
+        int low = 0;
+        for (int i = bits - 1; i >= 0; --i) {
+            if (bit(network, i) == 1) {
+                low = i + 1;
+                break;
+            }
+        }
+        
+        // Invariant: the prefix length lies in [low, high].
+        int high = bits;
+        final byte[] probe = network.clone();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final int mask = 0x80 >>> (mid % 8);
+            probe[mid / 8] ^= mask;
+            final boolean contained = range.contains(probe);
+            probe[mid / 8] ^= mask;
+            if (contained) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Get a single bit of an address, counting from the most significant.
+     * 
+     * @param address raw address bytes
+     * @param index bit index
+     * 
+     * @return 0 or 1
+     */
+    private static int bit(@Nonnull final byte[] address, final int index) {
+        return (address[index / 8] >>> (7 - (index % 8))) & 1;
+    }
+    
+    /**
+     * A trie node.
+     * 
+     * <p>Nodes are only mutated during construction of the enclosing trie, and are safely published
+     * through its final fields.</p>
+     * 
+     * @param <T> type of value
+     */
+    private static final class Node<T> {
+        
+        /** Child nodes for a zero and one bit. */
+        @SuppressWarnings("unchecked")
+        @Nonnull private final Node<T>[] children = new Node[2];
+        
+        /** Values of ranges ending at this node. */
+        @Nullable private List<T> values;
+    }
+    
+}
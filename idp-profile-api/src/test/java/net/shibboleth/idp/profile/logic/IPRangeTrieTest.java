@@ -0,0 +1,158 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.logic;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.shibboleth.utilities.java.support.net.IPRange;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.net.InetAddresses;
+
+/** Unit test for {@link IPRangeTrie}. */
+public class IPRangeTrieTest {
+
+    @Test
+    public void testEmpty() {
+        final IPRangeTrie<String> trie = new IPRangeTrie<>(Map.of());
+        
+        Assert.assertTrue(trie.isEmpty());
+        Assert.assertTrue(trie.lookup(InetAddresses.forString("192.168.1.1")).isEmpty());
+        Assert.assertFalse(trie.matches(null));
+        Assert.assertFalse(trie.matches(new byte[3]));
+    }
+    
+    @Test
+    public void testLookup() {
+        final Map<String,Collection<IPRange>> mappings = new LinkedHashMap<>();
+        mappings.put("wide", List.of(IPRange.parseCIDRBlock("10.0.0.0/8")));
+        mappings.put("narrow", List.of(IPRange.parseCIDRBlock("10.1.2.0/24"), IPRange.parseCIDRBlock("::1/128")));
+        mappings.put("host", List.of(IPRange.parseCIDRBlock("10.1.2.3/32")));
+        mappings.put("all", List.of(IPRange.parseCIDRBlock("0.0.0.0/0")));
+        mappings.put("v6", List.of(IPRange.parseCIDRBlock("2001:db8::/32")));
+        final IPRangeTrie<String> trie = new IPRangeTrie<>(mappings);
+        
+        Assert.assertFalse(trie.isEmpty());
+        Assert.assertEquals(trie.lookup(InetAddresses.forString("10.1.2.3")), List.of("all", "wide", "narrow", "host"));
+        Assert.assertEquals(trie.lookup(InetAddresses.forString("10.1.2.4")), List.of("all", "wide", "narrow"));
+        Assert.assertEquals(trie.lookup(InetAddresses.forString("10.2.0.1")), List.of("all", "wide"));
+        Assert.assertEquals(trie.lookup(InetAddresses.forString("192.168.1.1")), List.of("all"));
+        Assert.assertEquals(trie.lookup(InetAddresses.forString("::1")), List.of("narrow"));
+        Assert.assertEquals(trie.lookup(InetAddresses.forString("2001:db8:1::5")), List.of("v6"));
+        Assert.assertTrue(trie.lookup(InetAddresses.forString("2001:db9::5")).isEmpty());
+        Assert.assertTrue(trie.matches(InetAddresses.forString("2001:db8::").getAddress()));
+        Assert.assertFalse(trie.matches(InetAddresses.forString("::2").getAddress()));
+    }
+
+    @Test
+    public void testAgainstLinearScan() {
+        final Random random = new Random(42);
+        final Map<Integer,Collection<IPRange>> mappings = randomRanges(random, 200);
+        final IPRangeTrie<Integer> trie = new IPRangeTrie<>(mappings);
+        
+        for (int i = 0; i < 10000; ++i) {
+            final byte[] address = randomAddress(random);
+            Assert.assertEquals(new ArrayList<>(trie.lookup(address)).stream().sorted().toArray(),
+                    scan(mappings, address).stream().sorted().toArray());
+            Assert.assertEquals(trie.matches(address), !scan(mappings, address).isEmpty());
+        }
+    }
+    
+    /** Times the trie against a linear scan over a large range set, after a warm-up pass of each. */
+    @Test
+    public void benchmarkAgainstLinearScan() {
+        final Random random = new Random(42);
+        final Map<Integer,Collection<IPRange>> mappings = randomRanges(random, 2000);
+        final IPRangeTrie<Integer> trie = new IPRangeTrie<>(mappings);
+        final byte[][] addresses = new byte[20000][];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = randomAddress(random);
+        }
+        
+        long scanTime = 0;
+        long trieTime = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+            int hits = 0;
+            long start = System.nanoTime();
+            for (final byte[] address : addresses) {
+                hits += scan(mappings, address).size();
+            }
+            scanTime = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for (final byte[] address : addresses) {
+                hits -= trie.lookup(address).size();
+            }
+            trieTime = System.nanoTime() - start;
+            Assert.assertEquals(hits, 0);
+        }
+        
+        LoggerFactory.getLogger(IPRangeTrieTest.class).info("{} lookups over {} ranges: linear scan {}ms, trie {}ms",
+                addresses.length, mappings.size(), scanTime / 1000000, trieTime / 1000000);
+        Assert.assertTrue(trieTime < scanTime, "Trie lookups were slower than a linear scan");
+    }
+    
+    private Map<Integer,Collection<IPRange>> randomRanges(final Random random, final int count) {
+        final Map<Integer,Collection<IPRange>> mappings = new LinkedHashMap<>();
+        for (int i = 0; i < count; ++i) {
+            final byte[] address = randomAddress(random);
+            final int prefix = random.nextInt(address.length * 8 - 7) + 8;
+            final String cidr = InetAddresses.toAddrString(toInetAddress(address)) + "/" + prefix;
+            mappings.put(i, List.of(IPRange.parseCIDRBlock(cidr)));
+        }
+        return mappings;
+    }
+    
+    /** Addresses are drawn from a few small pools so that ranges and lookups actually overlap. */
+    private byte[] randomAddress(final Random random) {
+        final byte[] address = new byte[random.nextInt(4) == 0 ? 16 : 4];
+        random.nextBytes(address);
+        address[0] = (byte) (random.nextInt(4) + (address.length == 4 ? 10 : 0x20));
+        address[1] = (byte) random.nextInt(4);
+        return address;
+    }
+    
+    private InetAddress toInetAddress(final byte[] address) {
+        try {
+            return InetAddress.getByAddress(address);
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private List<Integer> scan(final Map<Integer,Collection<IPRange>> mappings, final byte[] address) {
+        final List<Integer> matches = new ArrayList<>();
+        for (final Map.Entry<Integer,Collection<IPRange>> e : mappings.entrySet()) {
+            for (final IPRange range : e.getValue()) {
+                if (range.contains(address)) {
+                    matches.add(e.getKey());
+                }
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.profile.spring.relyingparty.metadata.impl;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.xml.namespace.QName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.parsing.BeanDefinitionParsingException;
+import org.springframework.beans.factory.parsing.Location;
+import org.springframework.beans.factory.parsing.Problem;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.xml.ParserContext;
+import org.w3c.dom.Element;
+
+import net.shibboleth.ext.spring.util.SpringSupport;
+import net.shibboleth.idp.profile.spring.relyingparty.metadata.AbstractMetadataProviderParser;
+import net.shibboleth.idp.saml.metadata.impl.IndexedMetadataResolver;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.xml.ElementSupport;
+
+/**
+ * Parser for &lt;IndexedMetadataProvider&gt;.
+ * 
+ * @since 4.1.0
+ */
+public class IndexedMetadataProviderParser extends AbstractMetadataProviderParser {
+
+    /** Element name. */
+    @Nonnull public static final QName ELEMENT_NAME =
+            new QName(AbstractMetadataProviderParser.METADATA_NAMESPACE, "IndexedMetadataProvider");
+
+    /** Resolver attributes for criterion predicates, which the indexing resolver does not evaluate. */
+    @Nonnull private static final List<String> UNSUPPORTED_ATTRIBUTES =
+            List.of("satisfyAnyPredicates", "useDefaultPredicateRegistry", "criterionPredicateRegistryRef");
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(IndexedMetadataProviderParser.class);
+
+    /** {@inheritDoc} */
+    @Override protected Class<IndexedMetadataResolver> getNativeBeanClass(final Element element) {
+        return IndexedMetadataResolver.class;
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doNativeParse(final Element element, final ParserContext parserContext,
+            final BeanDefinitionBuilder builder) {
+        
+        for (final String name : UNSUPPORTED_ATTRIBUTES) {
+            if (element.hasAttributeNS(null, name)) {
+                log.error("IndexedMetadataProvider does not support the {} attribute", name);
+                throw new BeanDefinitionParsingException(new Problem(
+                        "IndexedMetadataProvider does not support the " + name + " attribute",
+                        new Location(parserContext.getReaderContext().getResource())));
+            }
+        }
+        
+        super.doNativeParse(element, parserContext, builder);
+
+        builder.addPropertyValue("indexDirectory",
+                StringSupport.trimOrNull(element.getAttributeNS(null, "indexDirectory")));
+
+        if (element.hasAttributeNS(null, "cacheSize")) {
+            builder.addPropertyValue("cacheSize",
+                    StringSupport.trimOrNull(element.getAttributeNS(null, "cacheSize")));
+        }
+
+        if (element.hasAttributeNS(null, "parserPoolRef")) {
+            builder.addPropertyReference("parserPool",
+                    StringSupport.trimOrNull(element.getAttributeNS(null, "parserPoolRef")));
+        }
+
+        final List<Element> childProviders =
+                ElementSupport.getChildElements(element, MetadataNamespaceHandler.METADATA_ELEMENT_NAME);
+        if (childProviders.size() != 1) {
+            log.error("IndexedMetadataProvider requires exactly one source MetadataProvider");
+            throw new BeanDefinitionParsingException(new Problem(
+                    "IndexedMetadataProvider requires exactly one source MetadataProvider",
+                    new Location(parserContext.getReaderContext().getResource())));
+        }
+
+        // The indexing resolver must install its filter before the source loads, so it owns the lifecycle.
+        final BeanDefinition source =
+                SpringSupport.parseCustomElement(childProviders.get(0), parserContext, builder, false);
+        source.setInitMethodName(null);
+        source.setDestroyMethodName(null);
+        builder.addPropertyValue("sourceResolver", source);
+    }
+}
@@ -61,6 +61,8 @@ public class MetadataNamespaceHandler extends BaseSpringNamespaceHandler {
                 new DynamicHTTPMetadataProviderParser());
         registerBeanDefinitionParser(LocalDynamicMetadataProviderParser.ELEMENT_NAME,
                 new LocalDynamicMetadataProviderParser());
+        registerBeanDefinitionParser(IndexedMetadataProviderParser.ELEMENT_NAME,
+                new IndexedMetadataProviderParser());
 
         // Filters
         registerBeanDefinitionParser(RequiredValidUntilParser.TYPE_NAME, new RequiredValidUntilParser());
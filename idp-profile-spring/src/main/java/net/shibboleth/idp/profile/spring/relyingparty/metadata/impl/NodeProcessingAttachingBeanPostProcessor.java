@@ -18,9 +18,9 @@
 package net.shibboleth.idp.profile.spring.relyingparty.metadata.impl;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
@@ -36,11 +36,15 @@ import org.springframework.core.Ordered;
 
 import net.shibboleth.idp.attribute.transcoding.AttributeTranscoderRegistry;
 import net.shibboleth.idp.saml.metadata.impl.AttributeMappingNodeProcessor;
+import net.shibboleth.idp.saml.metadata.impl.ParallelNodeProcessingMetadataFilter;
 import net.shibboleth.idp.saml.metadata.impl.ScopesNodeProcessor;
+import net.shibboleth.idp.saml.metadata.impl.TimedMetadataFilterChain;
 import net.shibboleth.idp.saml.metadata.impl.UIInfoNodeProcessor;
 import net.shibboleth.idp.saml.security.impl.KeyAuthorityNodeProcessor;
 import net.shibboleth.utilities.java.support.annotation.ParameterName;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.service.ReloadableService;
 
 /**
@@ -51,11 +55,18 @@ import net.shibboleth.utilities.java.support.service.ReloadableService;
  * This is done to ensure that other components function correctly, such as the PKIX trust engine and predicates that
  * depend on group information.
  * </p>
+ * 
+ * <p>
+ * The resulting filters are installed in a {@link TimedMetadataFilterChain} so the cost of filtering can be reported.
+ * </p>
  */
 public class NodeProcessingAttachingBeanPostProcessor implements BeanPostProcessor, Ordered {
 
     /** The registry of decoding rules. */
     @Nullable private final ReloadableService<AttributeTranscoderRegistry> transcoderRegistry;
+    
+    /** Parallelism cap for the attached filter. */
+    @Positive private int parallelism;
 
     /**
      * Constructor.
@@ -65,6 +76,20 @@ public class NodeProcessingAttachingBeanPostProcessor implements BeanPostProcess
     public NodeProcessingAttachingBeanPostProcessor(
             @Nullable @ParameterName(name="service") final ReloadableService<AttributeTranscoderRegistry> service) {
         transcoderRegistry = service;
+        parallelism = 1;
+    }
+    
+    /**
+     * Set the maximum number of threads with which an attached filter processes entities.
+     * 
+     * <p>Defaults to 1, which processes entities serially.</p>
+     * 
+     * @param cap parallelism cap
+     * 
+     * @since 4.1.0
+     */
+    public void setParallelism(@Positive final int cap) {
+        parallelism = (int) Constraint.isGreaterThan(0, cap, "Parallelism must be greater than 0");
     }
 
     /** {@inheritDoc} */
@@ -99,7 +124,8 @@ public class NodeProcessingAttachingBeanPostProcessor implements BeanPostProcess
         }
 
         if (!filterAttached) {
-            final NodeProcessingMetadataFilter filterToAttach = new NodeProcessingMetadataFilter();
+            final ParallelNodeProcessingMetadataFilter filterToAttach = new ParallelNodeProcessingMetadataFilter();
+            filterToAttach.setParallelism(parallelism);
             final List<MetadataNodeProcessor> processors = new ArrayList<>(List.of(
                             new EntitiesDescriptorNameProcessor(),
                             new KeyAuthorityNodeProcessor(), 
@@ -120,16 +146,42 @@ public class NodeProcessingAttachingBeanPostProcessor implements BeanPostProcess
             } else if (filter instanceof MetadataFilterChain) {
                 ((MetadataFilterChain) filter).getFilters().add(filterToAttach);
             } else {
-                final MetadataFilterChain chain = new MetadataFilterChain();
-                chain.setFilters(Arrays.asList(filter, filterToAttach));
+                final MetadataFilterChain chain = new TimedMetadataFilterChain();
+                chain.setFilters(new ArrayList<>(List.of(filter, filterToAttach)));
                 resolver.setMetadataFilter(chain);
             }
         }
 
+        resolver.setMetadataFilter(buildTimedChain(resolver.getMetadataFilter()));
+
         return resolver;
     }
 
     // Checkstyle: CyclomaticComplexity ON
+    
+    /**
+     * Ensure the resolver's filters are applied by a {@link TimedMetadataFilterChain}.
+     * 
+     * <p>A plain {@link MetadataFilterChain} is replaced by one with the same filters; anything else is
+     * wrapped.</p>
+     * 
+     * @param filter the resolver's filter
+     * 
+     * @return a timed chain applying the same filters
+     */
+    @Nonnull private TimedMetadataFilterChain buildTimedChain(@Nonnull final MetadataFilter filter) {
+        if (filter instanceof TimedMetadataFilterChain) {
+            return (TimedMetadataFilterChain) filter;
+        }
+        
+        final TimedMetadataFilterChain chain = new TimedMetadataFilterChain();
+        if (filter.getClass().equals(MetadataFilterChain.class)) {
+            chain.setFilters(new ArrayList<>(((MetadataFilterChain) filter).getFilters()));
+        } else {
+            chain.setFilters(new ArrayList<>(List.of(filter)));
+        }
+        return chain;
+    }
 
     /** {@inheritDoc} */
     @Override public Object postProcessAfterInitialization(final Object bean, final String beanName) {
@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -44,6 +45,9 @@ import org.opensaml.soap.client.security.SOAPClientSecurityProfileIdLookupFuncti
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import net.shibboleth.idp.attribute.AttributesMapContainer;
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
@@ -97,6 +101,9 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
     /** Cache the lookup in the context tree. */
     private boolean enableCaching;
     
+    /** Cache the metadata search across requests. */
+    private boolean enableMetadataCaching;
+    
     /** Examine only decoded/mapped tags in object metadata. */
     private boolean ignoreUnmappedEntityAttributes;
     
@@ -114,6 +121,9 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
 
     /** Strategy for obtaining profile ID for property naming. */
     @Nullable @NotEmpty private Function<BaseContext,String> profileIdLookupStrategy;
+    
+    /** Outcome of metadata searches keyed by metadata instance and profile ID. */
+    @Nullable private Cache<EntityDescriptor,Map<String,MetadataTag<T>>> metadataCache;
         
     /** Constructor. */
     public AbstractMetadataDrivenConfigurationLookupStrategy() {
@@ -147,6 +157,27 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
         enableCaching = flag;
     }
 
+    /**
+     * Sets whether the outcome of searching metadata should be cached across requests.
+     * 
+     * <p>The outcome is cached against the identity of the {@link EntityDescriptor} and the profile ID,
+     * so a refresh of the metadata implicitly invalidates it, and the cache holds the metadata weakly.
+     * The per-request cache enabled via {@link #setEnableCaching(boolean)} is consulted first, and
+     * any default value strategy is still applied on each request when no tag is found. Cached values
+     * are shared by all requests, so subclasses must translate tags into immutable values.</p>
+     * 
+     * <p>Default is false.</p>
+     * 
+     * @param flag flag to set
+     * 
+     * @since 4.1.0
+     */
+    public void setEnableMetadataCaching(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        enableMetadataCaching = flag;
+    }
+
     /**
      * Sets whether property lookup should be based solely on mapped/decoded objects
      * and not on underlying SAML Attributes.
@@ -249,6 +280,9 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
                 .map(s -> s + (s.endsWith("/") ? propertyName : '/' + propertyName))
                 .collect(Collectors.toUnmodifiableList());
         
+        if (enableMetadataCaching) {
+            metadataCache = CacheBuilder.newBuilder().weakKeys().build();
+        }
     }
 
     // Checkstyle: CyclomaticComplexity|MethodLength OFF    
@@ -294,15 +328,52 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
             profileId = "";
         }
         
+        MetadataTag<T> tag = null;
+        Map<String,MetadataTag<T>> entityCache = null;
+        if (metadataCache != null) {
+            entityCache = metadataCache.asMap().computeIfAbsent(entity, e -> new ConcurrentHashMap<>());
+            tag = entityCache.get(String.valueOf(profileId));
+            if (tag != null) {
+                log.debug("Returning cached metadata lookup for property '{}'", propertyName);
+            }
+        }
+        
+        if (tag == null) {
+            tag = findTag(entity, profileId);
+            if (entityCache != null) {
+                entityCache.put(String.valueOf(profileId), tag);
+            }
+        }
+        
+        final T result;
+        if (tag.found) {
+            result = tag.value;
+        } else {
+            log.debug("No applicable tag, applying default strategy for '{}'", propertyName);
+            result = defaultValueStrategy.apply(input);
+        }
+        if (enableCaching) {
+            cacheContext.getPropertyMap().put(propertyName, result);
+        }
+        return result;
+    }
+
+    /**
+     * Search the metadata for a tag supplying the property.
+     * 
+     * @param entity the metadata to examine
+     * @param profileId profile ID to base tag names on
+     * 
+     * @return the outcome of the search
+     */
+    @Nonnull private MetadataTag<T> findTag(@Nonnull final EntityDescriptor entity,
+            @Nullable final String profileId) {
+        
         // Look for "primary" tag name based on profile/property using mapped tags.
         IdPAttribute idpAttribute = findMatchingMappedTag(entity, profileId + '/' + propertyName);
         if (idpAttribute != null) {
             log.debug("Found matching tag '{}' for property '{}'", idpAttribute.getId(), propertyName);
-            final T result = translate(idpAttribute);
-            if (enableCaching) {
-                cacheContext.getPropertyMap().put(propertyName, result);
-            }
-            return result;
+            return new MetadataTag<>(translate(idpAttribute));
         }
         
         // Check aliases.
@@ -310,32 +381,20 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
             idpAttribute = findMatchingMappedTag(entity, alias);
             if (idpAttribute != null) {
                 log.debug("Found matching tag '{}' for property '{}'", idpAttribute.getId(), propertyName);
-                final T result = translate(idpAttribute);
-                if (enableCaching) {
-                    cacheContext.getPropertyMap().put(propertyName, result);
-                }
-                return result;
+                return new MetadataTag<>(translate(idpAttribute));
             }
         }
         
         if (ignoreUnmappedEntityAttributes) {
-            log.debug("No applicable mapped tag, applying default strategy for '{}'", propertyName);
-            final T ret = defaultValueStrategy.apply(input);
-            if (enableCaching) {
-                cacheContext.getPropertyMap().put(propertyName, ret);
-            }
-            return ret;
+            log.debug("No applicable mapped tag for '{}'", propertyName);
+            return MetadataTag.notFound();
         }
         
         // Look for "primary" tag name based on profile/property.
         Attribute attribute = findMatchingTag(entity, profileId + '/' + propertyName);
         if (attribute != null) {
             log.debug("Found matching tag '{}' for property '{}'", attribute.getName(), propertyName);
-            final T result = translate(attribute);
-            if (enableCaching) {
-                cacheContext.getPropertyMap().put(propertyName, result);
-            }
-            return result;
+            return new MetadataTag<>(translate(attribute));
         }
         
         // Check aliases.
@@ -343,20 +402,11 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
             attribute = findMatchingTag(entity, alias);
             if (attribute != null) {
                 log.debug("Found matching tag '{}' for property '{}'", attribute.getName(), propertyName);
-                final T result = translate(attribute);
-                if (enableCaching) {
-                    cacheContext.getPropertyMap().put(propertyName, result);
-                }
-                return result;
+                return new MetadataTag<>(translate(attribute));
             }
         }
         
-        log.debug("No applicable tag, applying default strategy for '{}'", propertyName);
-        final T ret = defaultValueStrategy.apply(input);
-        if (enableCaching) {
-            cacheContext.getPropertyMap().put(propertyName, ret);
-        }
-        return ret;
+        return MetadataTag.notFound();
     }
 // Checkstyle: CyclomaticComplexity|MethodLength ON
     
@@ -530,6 +580,51 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
         return null;
     }
     
+    /**
+     * Outcome of a metadata search.
+     * 
+     * @param <T> type of property
+     */
+    private static final class MetadataTag<T> {
+        
+        /** Shared outcome for an unsuccessful search. */
+        @Nonnull private static final MetadataTag<?> NOT_FOUND = new MetadataTag<>();
+        
+        /** Whether a tag was found. */
+        private final boolean found;
+        
+        /** The setting derived from the tag. */
+        @Nullable private final T value;
+        
+        /** Constructor for an unsuccessful search. */
+        private MetadataTag() {
+            found = false;
+            value = null;
+        }
+        
+        /**
+         * Constructor.
+         *
+         * @param val the setting derived from the tag
+         */
+        MetadataTag(@Nullable final T val) {
+            found = true;
+            value = val;
+        }
+        
+        /**
+         * Get the shared outcome for an unsuccessful search.
+         * 
+         * @param <T> type of property
+         * 
+         * @return unsuccessful outcome
+         */
+        @SuppressWarnings("unchecked")
+        @Nonnull static <T> MetadataTag<T> notFound() {
+            return (MetadataTag<T>) NOT_FOUND;
+        }
+    }
+    
     /** A child context that caches derived configuration properties. */
     public static final class CachedConfigurationContext extends BaseContext {
         
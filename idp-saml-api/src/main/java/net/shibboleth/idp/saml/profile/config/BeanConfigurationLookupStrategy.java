@@ -44,7 +44,8 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
  * A strategy function that examines SAML metadata associated with a relying party and derives bean-based
  * configuration settings based on EntityAttribute extension tags.
  * 
- * <p>Defaults to no caching of the result to avoid bean lifecycle issues if relying party config is reloaded.</p>
+ * <p>Defaults to no caching of the result to avoid bean lifecycle issues if relying party config is reloaded.
+ * The result is never cached across requests, since the bean may be a prototype.</p>
  * 
  * @param <T> type of bean
  * 
@@ -78,6 +79,19 @@ public class BeanConfigurationLookupStrategy<T> extends AbstractMetadataDrivenCo
         propertyType = Constraint.isNotNull(type, "Property type cannot be null");
     }
 
+    /**
+     * Metadata caching is not supported, since the bean may be a prototype or its definition may be
+     * reloaded, so this setting is ignored.
+     * 
+     * @param flag ignored
+     */
+    @Override
+    public void setEnableMetadataCaching(final boolean flag) {
+        if (flag) {
+            log.debug("Ignoring request to cache metadata lookup of bean-valued property");
+        }
+    }
+
     /** {@inheritDoc} */
     public void setApplicationContext(final ApplicationContext context) throws BeansException {
         ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
@@ -63,7 +63,7 @@ public class SetConfigurationLookupStrategy<T> extends AbstractCollectionConfigu
                 }
             }
         }
-        return result;
+        return Set.copyOf(result);
     }
     
     /** {@inheritDoc} */
@@ -84,7 +84,7 @@ public class SetConfigurationLookupStrategy<T> extends AbstractCollectionConfigu
                 }
             }
         }
-        return result;
+        return Set.copyOf(result);
     }
         
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.saml.profile.config;
+
+import java.util.List;
+
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.messaging.context.BaseContext;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.support.GenericApplicationContext;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+import net.shibboleth.idp.attribute.AttributesMapContainer;
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.logic.FunctionSupport;
+
+/** Unit test for {@link AbstractMetadataDrivenConfigurationLookupStrategy}. */
+public class MetadataDrivenConfigurationLookupStrategyTest extends XMLObjectBaseTestCase {
+
+    private EntityDescriptor entity;
+    
+    @Test public void testPerRequestCaching() throws ComponentInitializationException {
+        final BooleanConfigurationLookupStrategy strategy = buildStrategy(false);
+        final ProfileRequestContext prc = new ProfileRequestContext();
+        
+        entity = buildEntity("true");
+        Assert.assertTrue(strategy.apply(prc));
+        entity = buildEntity("false");
+        Assert.assertTrue(strategy.apply(prc));
+        Assert.assertFalse(strategy.apply(new ProfileRequestContext()));
+    }
+
+    @Test public void testMetadataCaching() throws ComponentInitializationException {
+        final BooleanConfigurationLookupStrategy strategy = buildStrategy(true);
+        
+        entity = buildEntity("true");
+        Assert.assertTrue(strategy.apply(new ProfileRequestContext()));
+        
+        // Changes to the same metadata instance are not seen.
+        entity.getObjectMetadata().clear();
+        Assert.assertTrue(strategy.apply(new ProfileRequestContext()));
+        
+        // A new metadata instance is.
+        entity = buildEntity("false");
+        Assert.assertFalse(strategy.apply(new ProfileRequestContext()));
+        
+        // The default is applied per-request when no tag exists.
+        entity = buildEntityDescriptor();
+        strategy.apply(new ProfileRequestContext());
+        Assert.assertNull(strategy.apply(new ProfileRequestContext()));
+    }
+
+    @Test public void testCachedCollection() throws ComponentInitializationException {
+        final ListConfigurationLookupStrategy<String> strategy = new ListConfigurationLookupStrategy<>();
+        strategy.setPropertyName("signAssertions");
+        strategy.setPropertyType(String.class);
+        strategy.setEnableMetadataCaching(true);
+        strategy.setMetadataLookupStrategy(ctx -> entity);
+        strategy.setProfileIdLookupStrategy(FunctionSupport.<BaseContext,String>constant("http://example.org/profile"));
+        strategy.initialize();
+        
+        entity = buildEntity("foo");
+        final List<String> result = strategy.apply(new ProfileRequestContext());
+        Assert.assertEquals(result, List.of("foo"));
+        Assert.assertThrows(UnsupportedOperationException.class, () -> result.add("bar"));
+        Assert.assertSame(strategy.apply(new ProfileRequestContext()), result);
+    }
+
+    @Test public void testBeanNotCached() throws ComponentInitializationException {
+        final GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean("prototype", StringBuilder.class, StringBuilder::new,
+                bd -> bd.setScope(BeanDefinition.SCOPE_PROTOTYPE));
+        context.refresh();
+        
+        final BeanConfigurationLookupStrategy<StringBuilder> strategy = new BeanConfigurationLookupStrategy<>();
+        strategy.setPropertyName("signAssertions");
+        strategy.setPropertyType(StringBuilder.class);
+        strategy.setApplicationContext(context);
+        strategy.setEnableMetadataCaching(true);
+        strategy.setMetadataLookupStrategy(ctx -> entity);
+        strategy.setProfileIdLookupStrategy(FunctionSupport.<BaseContext,String>constant("http://example.org/profile"));
+        strategy.initialize();
+        
+        entity = buildEntity("prototype");
+        final StringBuilder first = strategy.apply(new ProfileRequestContext());
+        Assert.assertNotNull(first);
+        Assert.assertNotSame(strategy.apply(new ProfileRequestContext()), first);
+        
+        context.close();
+    }
+
+    private BooleanConfigurationLookupStrategy buildStrategy(final boolean metadataCaching)
+            throws ComponentInitializationException {
+        final BooleanConfigurationLookupStrategy strategy = new BooleanConfigurationLookupStrategy();
+        strategy.setPropertyName("signAssertions");
+        strategy.setEnableMetadataCaching(metadataCaching);
+        strategy.setMetadataLookupStrategy(ctx -> entity);
+        strategy.setProfileIdLookupStrategy(FunctionSupport.<BaseContext,String>constant("http://example.org/profile"));
+        strategy.initialize();
+        return strategy;
+    }
+    
+    private EntityDescriptor buildEntity(final String value) {
+        final IdPAttribute tag = new IdPAttribute("http://example.org/profile/signAssertions");
+        tag.setValues(List.of(new StringAttributeValue(value)));
+        final Multimap<String,IdPAttribute> tags = ArrayListMultimap.create();
+        tags.put(tag.getId(), tag);
+        
+        final EntityDescriptor descriptor = buildEntityDescriptor();
+        descriptor.getObjectMetadata().put(new AttributesMapContainer(tags));
+        return descriptor;
+    }
+    
+    private EntityDescriptor buildEntityDescriptor() {
+        final EntityDescriptor descriptor = buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+        descriptor.setEntityID("https://sp.example.org");
+        return descriptor;
+    }
+
+}
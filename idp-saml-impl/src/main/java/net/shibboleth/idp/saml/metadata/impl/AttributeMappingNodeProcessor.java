@@ -25,7 +25,7 @@ import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
 
 import net.shibboleth.idp.attribute.AttributeDecodingException;
 import net.shibboleth.idp.attribute.AttributesMapContainer;
@@ -64,8 +64,11 @@ import com.google.common.collect.Multimap;
 /**
  * An implementation of {@link MetadataNodeProcessor} which extracts {@link IdPRequestedAttribute}s from any
  * {@link AttributeConsumingService} we find and {@link IdPAttribute}s from any {@link EntityDescriptor} that we find.
+ * 
+ * <p>Attributes attached to enclosing {@link EntitiesDescriptor}s are decoded once per group, so entities
+ * may safely be processed concurrently.</p>
  */
-@NotThreadSafe
+@ThreadSafe
 public class AttributeMappingNodeProcessor implements MetadataNodeProcessor {
 
     /** Class logger. */
@@ -114,7 +117,13 @@ public class AttributeMappingNodeProcessor implements MetadataNodeProcessor {
                     handleEntityAttributes(component.getComponent(), ((EntityDescriptor) metadataNode).getExtensions());
                     XMLObject parent = metadataNode.getParent();
                     while (parent instanceof EntitiesDescriptor) {
-                        handleEntityAttributes(component.getComponent(), ((EntitiesDescriptor) parent).getExtensions());
+                        // Groups are shared by their entities, so decode each one only once.
+                        synchronized (parent) {
+                            if (!parent.getObjectMetadata().containsKey(AttributesMapContainer.class)) {
+                                handleEntityAttributes(component.getComponent(),
+                                        ((EntitiesDescriptor) parent).getExtensions());
+                            }
+                        }
                         parent = parent.getParent();
                     }
                 }
@@ -0,0 +1,840 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.binding.artifact.SAMLSourceIDArtifact;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.criterion.ArtifactCriterion;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilterChain;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilterContext;
+import org.opensaml.saml.metadata.resolver.filter.impl.NodeProcessingMetadataFilter;
+import org.opensaml.saml.saml2.common.TimeBoundSAMLObject;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CountingOutputStream;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.component.DestructableComponent;
+import net.shibboleth.utilities.java.support.component.InitializableComponent;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+import net.shibboleth.utilities.java.support.xml.NamespaceSupport;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+/**
+ * A {@link MetadataResolver} that keeps the entities loaded by another, batch-oriented, resolver in a
+ * memory-mapped file on disk rather than on the heap.
+ * 
+ * <p>The source resolver retains responsibility for fetching, verifying and filtering the metadata, and for
+ * scheduling its refresh. A final filter is appended to its chain which writes each {@link EntityDescriptor}
+ * to a new index file, keyed by entityID and by the SHA-1 artifact source ID of the entityID, and then
+ * removes the entities from the document so that the source resolver retains only an empty shell.</p>
+ * 
+ * <p>Entities are unmarshalled on demand into a bounded cache. The enclosing {@link EntitiesDescriptor}
+ * elements, minus their children, are retained and rebuilt around each entity when it is materialized,
+ * after which the filter installed on this resolver (typically the node processing filter) is applied. Any
+ * {@link NodeProcessingMetadataFilter} installed on the source resolver is removed from it, since processing
+ * at load time would be lost once the entities are written out.</p>
+ * 
+ * <p>Only lookups by {@link EntityIdCriterion} or by an {@link ArtifactCriterion} containing a source ID
+ * artifact are supported.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class IndexedMetadataResolver extends AbstractIdentifiableInitializableComponent
+        implements RefreshableMetadataResolver {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(IndexedMetadataResolver.class);
+
+    /** Resolver supplying the verified and filtered metadata. */
+    @Nullable private MetadataResolver sourceResolver;
+    
+    /** Directory in which index files are written. */
+    @Nullable private Path indexDirectory;
+    
+    /** Maximum number of materialized entities to retain. */
+    @NonNegative private long cacheSize;
+    
+    /** Pool used to parse indexed entities. */
+    @Nullable private ParserPool parserPool;
+    
+    /** Filter applied to each entity as it is materialized. */
+    @Nullable private MetadataFilter metadataFilter;
+    
+    /** Whether resolved metadata must be valid. */
+    private boolean requireValidMetadata;
+    
+    /** Whether a failure to initialize the source resolver is fatal. */
+    private boolean failFastInitialization;
+    
+    /** The current index. */
+    @Nullable private volatile EntityIndex index;
+    
+    /** Constructor. */
+    public IndexedMetadataResolver() {
+        cacheSize = 1000;
+        requireValidMetadata = true;
+        failFastInitialization = true;
+    }
+    
+    /**
+     * Set the resolver that loads, verifies and filters the metadata to index.
+     * 
+     * <p>This resolver takes over its initialization and destruction, and it should be a batch resolver
+     * that has not been initialized.</p>
+     * 
+     * @param resolver source resolver
+     */
+    public void setSourceResolver(@Nonnull final MetadataResolver resolver) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        sourceResolver = Constraint.isNotNull(resolver, "Source resolver cannot be null");
+    }
+    
+    /**
+     * Set the directory in which to write index files.
+     * 
+     * <p>Each load of the metadata produces a new file, and the previous one is deleted once it
+     * has been replaced.</p>
+     * 
+     * @param directory index directory
+     */
+    public void setIndexDirectory(@Nonnull final Path directory) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        indexDirectory = Constraint.isNotNull(directory, "Index directory cannot be null");
+    }
+    
+    /**
+     * Set the maximum number of materialized entities to retain.
+     * 
+     * <p>Defaults to 1000.</p>
+     * 
+     * @param size cache size
+     */
+    public void setCacheSize(@NonNegative final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        cacheSize = Constraint.isGreaterThanOrEqual(0, size, "Cache size cannot be negative");
+    }
+    
+    /**
+     * Set the parser pool used to unmarshall indexed entities.
+     * 
+     * <p>Defaults to the globally configured pool.</p>
+     * 
+     * @param pool parser pool
+     */
+    public void setParserPool(@Nullable final ParserPool pool) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        parserPool = pool;
+    }
+    
+    /**
+     * Set whether a failure to initialize the source resolver is fatal.
+     * 
+     * <p>Defaults to true.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setFailFastInitialization(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        failFastInitialization = flag;
+    }
+    
+    /** {@inheritDoc} */
+    @Override public boolean isRequireValidMetadata() {
+        return requireValidMetadata;
+    }
+
+    /** {@inheritDoc} */
+    @Override public void setRequireValidMetadata(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        requireValidMetadata = flag;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>This filter is applied to each entity, within its rebuilt enclosing groups, as it is materialized.</p>
+     */
+    @Override @Nullable public MetadataFilter getMetadataFilter() {
+        return metadataFilter;
+    }
+
+    /** {@inheritDoc} */
+    @Override public void setMetadataFilter(@Nullable final MetadataFilter newFilter) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        metadataFilter = newFilter;
+    }
+    
+    /**
+     * Get the number of entities in the current index.
+     * 
+     * @return number of indexed entities
+     */
+    @NonNegative public int getIndexedEntityCount() {
+        final EntityIndex current = index;
+        return current != null ? current.entries.size() : 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull public Iterable<EntityDescriptor> resolve(@Nullable final CriteriaSet criteria)
+            throws ResolverException {
+        final EntityDescriptor entity = resolveSingle(criteria);
+        return entity != null ? Collections.singletonList(entity) : Collections.emptyList();
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public EntityDescriptor resolveSingle(@Nullable final CriteriaSet criteria)
+            throws ResolverException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        
+        final EntityIndex current = index;
+        if (current == null || criteria == null) {
+            return null;
+        }
+        
+        final String entityID = getEntityID(current, criteria);
+        if (entityID == null) {
+            log.debug("{} Criteria did not identify an entity", getLogPrefix());
+            return null;
+        }
+        
+        final IndexEntry entry = current.entries.get(entityID);
+        if (entry == null) {
+            log.debug("{} No entity found for '{}'", getLogPrefix(), entityID);
+            return null;
+        }
+        
+        final EntityDescriptor entity;
+        try {
+            entity = current.cache.get(entityID, () -> materialize(current, entry)).orElse(null);
+        } catch (final ExecutionException e) {
+            log.error("{} Error materializing entity '{}'", getLogPrefix(), entityID, e.getCause());
+            throw new ResolverException("Error materializing entity " + entityID, e.getCause());
+        }
+        
+        if (entity != null && requireValidMetadata && !isValid(entity)) {
+            log.debug("{} Entity '{}' is no longer valid", getLogPrefix(), entityID);
+            return null;
+        }
+        
+        return entity;
+    }
+    
+    /** {@inheritDoc} */
+    @Override public void refresh() throws ResolverException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        
+        if (sourceResolver instanceof RefreshableMetadataResolver) {
+            ((RefreshableMetadataResolver) sourceResolver).refresh();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Instant getLastUpdate() {
+        return sourceResolver instanceof RefreshableMetadataResolver
+                ? ((RefreshableMetadataResolver) sourceResolver).getLastUpdate() : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Instant getLastRefresh() {
+        return sourceResolver instanceof RefreshableMetadataResolver
+                ? ((RefreshableMetadataResolver) sourceResolver).getLastRefresh() : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Instant getLastSuccessfulRefresh() {
+        return sourceResolver instanceof RefreshableMetadataResolver
+                ? ((RefreshableMetadataResolver) sourceResolver).getLastSuccessfulRefresh() : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Boolean wasLastRefreshSuccess() {
+        return sourceResolver instanceof RefreshableMetadataResolver
+                ? ((RefreshableMetadataResolver) sourceResolver).wasLastRefreshSuccess() : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Throwable getLastFailureCause() {
+        return sourceResolver instanceof RefreshableMetadataResolver
+                ? ((RefreshableMetadataResolver) sourceResolver).getLastFailureCause() : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        if (sourceResolver == null) {
+            throw new ComponentInitializationException(getLogPrefix() + " Source resolver cannot be null");
+        } else if (indexDirectory == null) {
+            throw new ComponentInitializationException(getLogPrefix() + " Index directory cannot be null");
+        }
+        
+        if (parserPool == null) {
+            parserPool = XMLObjectProviderRegistrySupport.getParserPool();
+            if (parserPool == null) {
+                throw new ComponentInitializationException(getLogPrefix() + " ParserPool cannot be null");
+            }
+        }
+        
+        try {
+            Files.createDirectories(indexDirectory);
+            // Remove files left behind by an earlier run that did not shut down cleanly.
+            try (final DirectoryStream<Path> stale =
+                    Files.newDirectoryStream(indexDirectory, getIndexFilePrefix() + "*.idx")) {
+                for (final Path file : stale) {
+                    deleteIndexFile(file);
+                }
+            }
+        } catch (final IOException e) {
+            throw new ComponentInitializationException(getLogPrefix() + " Unable to create index directory "
+                    + indexDirectory, e);
+        }
+        
+        sourceResolver.setMetadataFilter(buildSourceFilter(sourceResolver.getMetadataFilter()));
+        
+        if (sourceResolver instanceof InitializableComponent) {
+            try {
+                ((InitializableComponent) sourceResolver).initialize();
+            } catch (final ComponentInitializationException e) {
+                if (failFastInitialization) {
+                    throw e;
+                }
+                log.error("{} Source resolver failed to initialize, continuing with no metadata",
+                        getLogPrefix(), e);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (sourceResolver instanceof DestructableComponent) {
+            ((DestructableComponent) sourceResolver).destroy();
+        }
+        
+        final EntityIndex current = index;
+        index = null;
+        if (current != null) {
+            deleteIndexFile(current.file);
+        }
+        
+        super.doDestroy();
+    }
+    
+    /**
+     * Build the filter to install on the source resolver.
+     * 
+     * @param existing filter already installed on the source resolver
+     * 
+     * @return the filter chain ending with the indexing filter
+     */
+    @Nonnull private MetadataFilter buildSourceFilter(@Nullable final MetadataFilter existing) {
+        final List<MetadataFilter> filters = new ArrayList<>();
+        if (existing instanceof MetadataFilterChain) {
+            filters.addAll(((MetadataFilterChain) existing).getFilters());
+        } else if (existing != null) {
+            filters.add(existing);
+        }
+        
+        if (filters.removeIf(NodeProcessingMetadataFilter.class::isInstance)) {
+            log.debug("{} Node processing moved from load time to materialization", getLogPrefix());
+        }
+        
+        filters.add(new IndexingFilter());
+        final MetadataFilterChain chain = new MetadataFilterChain();
+        chain.setFilters(filters);
+        return chain;
+    }
+    
+    /**
+     * Extract the entityID to look up from the criteria.
+     * 
+     * @param current the index in use
+     * @param criteria input criteria
+     * 
+     * @return the entityID, or null
+     */
+    @Nullable private String getEntityID(@Nonnull final EntityIndex current, @Nonnull final CriteriaSet criteria) {
+        final EntityIdCriterion entityIdCriterion = criteria.get(EntityIdCriterion.class);
+        if (entityIdCriterion != null) {
+            return entityIdCriterion.getEntityId();
+        }
+        
+        final ArtifactCriterion artifactCriterion = criteria.get(ArtifactCriterion.class);
+        if (artifactCriterion != null && artifactCriterion.getArtifact() instanceof SAMLSourceIDArtifact) {
+            final byte[] sourceID = ((SAMLSourceIDArtifact) artifactCriterion.getArtifact()).getSourceID();
+            return current.sourceIDs.get(BaseEncoding.base16().lowerCase().encode(sourceID));
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Rebuild an indexed entity within its enclosing groups and apply the installed filter.
+     * 
+     * @param current the index containing the entity
+     * @param entry the entity's index entry
+     * 
+     * @return the materialized entity, or empty if the filter removed it
+     * 
+     * @throws XMLParserException if the indexed data cannot be parsed
+     * @throws UnmarshallingException if the indexed data cannot be unmarshalled
+     * @throws FilterException if the filter fails
+     */
+    @Nonnull private Optional<EntityDescriptor> materialize(@Nonnull final EntityIndex current,
+            @Nonnull final IndexEntry entry) throws XMLParserException, UnmarshallingException, FilterException {
+        
+        XMLObject root = unmarshall(current.read(entry));
+        if (!(root instanceof EntityDescriptor)) {
+            throw new UnmarshallingException("Indexed data was not an EntityDescriptor");
+        }
+        
+        for (int group = entry.group; group >= 0; group = current.groupParents.get(group)) {
+            final XMLObject shell = unmarshall(current.groups.get(group));
+            if (!(shell instanceof EntitiesDescriptor)) {
+                throw new UnmarshallingException("Indexed group data was not an EntitiesDescriptor");
+            }
+            if (root instanceof EntityDescriptor) {
+                ((EntitiesDescriptor) shell).getEntityDescriptors().add((EntityDescriptor) root);
+            } else {
+                ((EntitiesDescriptor) shell).getEntitiesDescriptors().add((EntitiesDescriptor) root);
+            }
+            root = shell;
+        }
+        
+        if (metadataFilter != null) {
+            root = metadataFilter.filter(root, new MetadataFilterContext());
+        }
+        if (root == null) {
+            return Optional.empty();
+        }
+        
+        root.releaseChildrenDOM(true);
+        root.releaseDOM();
+        
+        return Optional.ofNullable(findEntity(root));
+    }
+    
+    /**
+     * Unmarshall an indexed element.
+     * 
+     * @param data serialized element
+     * 
+     * @return the unmarshalled object
+     * 
+     * @throws XMLParserException if the data cannot be parsed
+     * @throws UnmarshallingException if the data cannot be unmarshalled
+     */
+    @Nonnull private XMLObject unmarshall(@Nonnull final byte[] data)
+            throws XMLParserException, UnmarshallingException {
+        try (final InputStream in = new ByteArrayInputStream(data)) {
+            return XMLObjectSupport.unmarshallFromInputStream(parserPool, in);
+        } catch (final IOException e) {
+            throw new XMLParserException(e);
+        }
+    }
+    
+    /**
+     * Locate the single entity within a filtered, rebuilt tree.
+     * 
+     * @param root root of the tree
+     * 
+     * @return the entity, or null if it was filtered out
+     */
+    @Nullable private EntityDescriptor findEntity(@Nonnull final XMLObject root) {
+        if (root instanceof EntityDescriptor) {
+            return (EntityDescriptor) root;
+        } else if (root instanceof EntitiesDescriptor) {
+            final EntitiesDescriptor group = (EntitiesDescriptor) root;
+            if (!group.getEntityDescriptors().isEmpty()) {
+                return group.getEntityDescriptors().get(0);
+            }
+            for (final EntitiesDescriptor child : group.getEntitiesDescriptors()) {
+                final EntityDescriptor entity = findEntity(child);
+                if (entity != null) {
+                    return entity;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Check that an entity and its enclosing groups are within their validity period.
+     * 
+     * @param entity the entity to check
+     * 
+     * @return true iff the entity and its groups are valid
+     */
+    private boolean isValid(@Nonnull final EntityDescriptor entity) {
+        XMLObject node = entity;
+        while (node != null) {
+            if (node instanceof TimeBoundSAMLObject && !((TimeBoundSAMLObject) node).isValid()) {
+                return false;
+            }
+            node = node.getParent();
+        }
+        return true;
+    }
+    
+    /**
+     * Write a new index from a filtered metadata document.
+     * 
+     * @param metadata the document to index
+     * 
+     * @return the new index
+     * 
+     * @throws IOException if the index file cannot be written or mapped
+     * @throws MarshallingException if the document cannot be marshalled
+     */
+    @Nonnull private EntityIndex writeIndex(@Nonnull final XMLObject metadata)
+            throws IOException, MarshallingException {
+        
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        
+        final Path file = Files.createTempFile(indexDirectory, getIndexFilePrefix(), ".idx");
+        try {
+            final EntityIndex newIndex = new EntityIndex(file, cacheSize);
+            XMLObjectSupport.marshall(metadata);
+            try (final CountingOutputStream out =
+                    new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                indexNode(metadata, -1, newIndex, digest, out);
+            }
+            
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Index file exceeds maximum size");
+                }
+                newIndex.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            return newIndex;
+        } catch (final IOException | MarshallingException e) {
+            deleteIndexFile(file);
+            throw e;
+        }
+    }
+    
+    /**
+     * Write an entity or group, and any descendants, to the index.
+     * 
+     * @param node the node to index
+     * @param group index of the enclosing group, or -1
+     * @param newIndex the index being built
+     * @param digest digest for computing source IDs
+     * @param out index file output
+     * 
+     * @throws IOException if the index file cannot be written
+     */
+    private void indexNode(@Nonnull final XMLObject node, final int group, @Nonnull final EntityIndex newIndex,
+            @Nonnull final MessageDigest digest, @Nonnull final CountingOutputStream out) throws IOException {
+        
+        if (node instanceof EntityDescriptor) {
+            final String entityID = ((EntityDescriptor) node).getEntityID();
+            if (entityID == null) {
+                log.warn("{} Skipping EntityDescriptor with no entityID", getLogPrefix());
+                return;
+            } else if (newIndex.entries.containsKey(entityID)) {
+                log.warn("{} Skipping duplicate EntityDescriptor for '{}'", getLogPrefix(), entityID);
+                return;
+            }
+            
+            final Element element = node.getDOM();
+            NamespaceSupport.rootNamespaces(element);
+            final long offset = out.getCount();
+            SerializeSupport.writeNode(element, out);
+            newIndex.entries.put(entityID, new IndexEntry(offset, out.getCount() - offset, group));
+            newIndex.sourceIDs.put(BaseEncoding.base16().lowerCase().encode(
+                    digest.digest(entityID.getBytes(StandardCharsets.UTF_8))), entityID);
+            
+        } else if (node instanceof EntitiesDescriptor) {
+            final EntitiesDescriptor entities = (EntitiesDescriptor) node;
+            newIndex.groups.add(serializeGroupShell(entities.getDOM()));
+            newIndex.groupParents.add(group);
+            final int index = newIndex.groups.size() - 1;
+            
+            for (final EntitiesDescriptor child : entities.getEntitiesDescriptors()) {
+                indexNode(child, index, newIndex, digest, out);
+            }
+            for (final EntityDescriptor child : entities.getEntityDescriptors()) {
+                indexNode(child, index, newIndex, digest, out);
+            }
+        }
+    }
+    
+    /**
+     * Serialize a group without its child entities, groups or signature.
+     * 
+     * @param element the group's DOM
+     * 
+     * @return the serialized shell
+     */
+    @Nonnull private byte[] serializeGroupShell(@Nonnull final Element element) {
+        NamespaceSupport.rootNamespaces(element);
+        final Element shell = (Element) element.cloneNode(true);
+        
+        Node child = shell.getFirstChild();
+        while (child != null) {
+            final Node next = child.getNextSibling();
+            if (child.getNodeType() == Node.ELEMENT_NODE
+                    && ((SAMLConstants.SAML20MD_NS.equals(child.getNamespaceURI())
+                            && ("EntityDescriptor".equals(child.getLocalName())
+                                    || "EntitiesDescriptor".equals(child.getLocalName())))
+                        || (SignatureConstants.XMLSIG_NS.equals(child.getNamespaceURI())
+                                && "Signature".equals(child.getLocalName())))) {
+                shell.removeChild(child);
+            }
+            child = next;
+        }
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializeSupport.writeNode(shell, out);
+        return out.toByteArray();
+    }
+    
+    /**
+     * Install a new index and discard the previous one.
+     * 
+     * @param newIndex the index to install
+     */
+    private void swapIndex(@Nonnull final EntityIndex newIndex) {
+        final EntityIndex previous = index;
+        index = newIndex;
+        log.info("{} Indexed {} entities to {}", getLogPrefix(), newIndex.entries.size(), newIndex.file);
+        if (previous != null) {
+            previous.cache.invalidateAll();
+            deleteIndexFile(previous.file);
+        }
+    }
+    
+    /**
+     * Delete an index file, logging any failure.
+     * 
+     * @param file the file to delete
+     */
+    private void deleteIndexFile(@Nonnull final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (final IOException e) {
+            log.warn("{} Unable to delete index file {}: {}", getLogPrefix(), file, e.getMessage());
+        }
+    }
+    
+    /**
+     * Get the prefix for this resolver's index file names.
+     * 
+     * <p>The delimiter cannot appear in the sanitized ID, so no resolver's prefix is a prefix of another's.</p>
+     * 
+     * @return prefix
+     */
+    @Nonnull @NotEmpty private String getIndexFilePrefix() {
+        return getId().replaceAll("[^A-Za-z0-9._-]", "_") + "+";
+    }
+    
+    /**
+     * Get a prefix for log messages.
+     * 
+     * @return prefix
+     */
+    @Nonnull @NotEmpty private String getLogPrefix() {
+        return "Metadata Resolver " + getClass().getSimpleName() + " " + getId() + ":";
+    }
+    
+    /**
+     * Final filter on the source resolver that indexes the metadata and strips its entities.
+     */
+    private class IndexingFilter implements MetadataFilter {
+
+        /** {@inheritDoc} */
+        @Override @Nullable public XMLObject filter(@Nullable final XMLObject metadata,
+                @Nonnull final MetadataFilterContext context) throws FilterException {
+            if (metadata == null) {
+                return null;
+            }
+            
+            try {
+                swapIndex(writeIndex(metadata));
+            } catch (final IOException | MarshallingException e) {
+                throw new FilterException("Unable to index metadata", e);
+            }
+            
+            if (metadata instanceof EntitiesDescriptor) {
+                metadata.releaseChildrenDOM(true);
+                metadata.releaseDOM();
+                ((EntitiesDescriptor) metadata).getEntitiesDescriptors().clear();
+                ((EntitiesDescriptor) metadata).getEntityDescriptors().clear();
+                return metadata;
+            }
+            
+            return null;
+        }
+    }
+    
+    /** Location of an entity within an index file. */
+    private static final class IndexEntry {
+        
+        /** Offset of the serialized entity. */
+        private final int offset;
+        
+        /** Length of the serialized entity. */
+        private final int length;
+        
+        /** Index of the enclosing group, or -1. */
+        private final int group;
+        
+        /**
+         * Constructor.
+         *
+         * @param off offset of the serialized entity
+         * @param len length of the serialized entity
+         * @param grp index of the enclosing group
+         * 
+         * @throws IOException if the entity lies beyond the mappable range
+         */
+        IndexEntry(final long off, final long len, final int grp) throws IOException {
+            if (off + len > Integer.MAX_VALUE) {
+                throw new IOException("Index file exceeds maximum size");
+            }
+            offset = (int) off;
+            length = (int) len;
+            group = grp;
+        }
+    }
+    
+    /** A generation of indexed metadata. */
+    private static final class EntityIndex {
+        
+        /** Backing file. */
+        @Nonnull private final Path file;
+        
+        /** Entries by entityID. */
+        @Nonnull private final Map<String,IndexEntry> entries;
+        
+        /** entityIDs by hex-encoded source ID. */
+        @Nonnull private final Map<String,String> sourceIDs;
+        
+        /** Serialized group shells. */
+        @Nonnull private final List<byte[]> groups;
+        
+        /** Index of each group's enclosing group, or -1. */
+        @Nonnull private final List<Integer> groupParents;
+        
+        /** Materialized entities. */
+        @Nonnull private final Cache<String,Optional<EntityDescriptor>> cache;
+        
+        /** Mapped file contents. */
+        @Nullable private MappedByteBuffer data;
+        
+        /**
+         * Constructor.
+         *
+         * @param path backing file
+         * @param size maximum number of materialized entities to retain
+         */
+        EntityIndex(@Nonnull final Path path, @NonNegative final long size) {
+            file = path;
+            entries = new HashMap<>();
+            sourceIDs = new HashMap<>();
+            groups = new ArrayList<>();
+            groupParents = new ArrayList<>();
+            cache = CacheBuilder.newBuilder().maximumSize(size).build();
+        }
+        
+        /**
+         * Read the serialized form of an entity.
+         * 
+         * @param entry the entity's entry
+         * 
+         * @return the serialized entity
+         */
+        @Nonnull byte[] read(@Nonnull final IndexEntry entry) {
+            final ByteBuffer buffer = data.duplicate();
+            buffer.position(entry.offset);
+            final byte[] bytes = new byte[entry.length];
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+
+}
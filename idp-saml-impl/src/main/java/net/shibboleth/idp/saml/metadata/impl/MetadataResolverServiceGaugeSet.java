@@ -16,6 +16,7 @@
  */
 package net.shibboleth.idp.saml.metadata.impl;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -24,11 +25,14 @@ import java.util.Map;
 import java.util.function.BiConsumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.opensaml.saml.metadata.resolver.BatchMetadataResolver;
 import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
 import org.opensaml.saml.metadata.resolver.MetadataResolver;
 import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilterChain;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -153,6 +157,58 @@ public class MetadataResolverServiceGaugeSet extends ReloadableServiceGaugeSet<M
                         });
                     }
                 });
+
+        getMetricMap().put(
+                MetricRegistry.name(DEFAULT_METRIC_NAME, metricName, "filterTime"),
+                new Gauge<Map<String,Duration>>() {
+                    public Map<String,Duration> getValue() {
+                        return valueGetter(new BiConsumer<Builder<String,Duration>, MetadataResolver>() {
+                            public void accept(final Builder<String,Duration> mapBuilder,
+                                    final MetadataResolver resolver) {
+                                final MetadataFilter filter = resolver.getMetadataFilter();
+                                if (filter instanceof TimedMetadataFilterChain
+                                        && ((TimedMetadataFilterChain) filter).getLastFilterDuration() != null) {
+                                    mapBuilder.put(resolver.getId(),
+                                            ((TimedMetadataFilterChain) filter).getLastFilterDuration());
+                                }
+                            };
+                        });
+                    }
+                });
+
+        getMetricMap().put(
+                MetricRegistry.name(DEFAULT_METRIC_NAME, metricName, "nodeProcessingTime"),
+                new Gauge<Map<String,Duration>>() {
+                    public Map<String,Duration> getValue() {
+                        return valueGetter(new BiConsumer<Builder<String,Duration>, MetadataResolver>() {
+                            public void accept(final Builder<String,Duration> mapBuilder,
+                                    final MetadataResolver resolver) {
+                                final ParallelNodeProcessingMetadataFilter filter =
+                                        getNodeProcessingFilter(resolver.getMetadataFilter());
+                                if (filter != null && filter.getLastProcessingDuration() != null) {
+                                    mapBuilder.put(resolver.getId(), filter.getLastProcessingDuration());
+                                }
+                            };
+                        });
+                    }
+                });
+
+        getMetricMap().put(
+                MetricRegistry.name(DEFAULT_METRIC_NAME, metricName, "nodeProcessingEntities"),
+                new Gauge<Map<String,Integer>>() {
+                    public Map<String,Integer> getValue() {
+                        return valueGetter(new BiConsumer<Builder<String,Integer>, MetadataResolver>() {
+                            public void accept(final Builder<String,Integer> mapBuilder,
+                                    final MetadataResolver resolver) {
+                                final ParallelNodeProcessingMetadataFilter filter =
+                                        getNodeProcessingFilter(resolver.getMetadataFilter());
+                                if (filter != null && filter.getLastProcessingDuration() != null) {
+                                    mapBuilder.put(resolver.getId(), filter.getLastEntityCount());
+                                }
+                            };
+                        });
+                    }
+                });
     }
 // Checkstyle: MethodLength ON
 
@@ -187,6 +243,28 @@ public class MetadataResolverServiceGaugeSet extends ReloadableServiceGaugeSet<M
         return source.getClass().getName() + ": <Detailed error message not specified>";
     }
 
+    /**
+     * Locate the node processing filter, if any, installed in a resolver.
+     * 
+     * @param filter the resolver's filter
+     * 
+     * @return the node processing filter, or null
+     */
+    @Nullable private ParallelNodeProcessingMetadataFilter getNodeProcessingFilter(
+            @Nullable final MetadataFilter filter) {
+        if (filter instanceof ParallelNodeProcessingMetadataFilter) {
+            return (ParallelNodeProcessingMetadataFilter) filter;
+        } else if (filter instanceof MetadataFilterChain) {
+            for (final MetadataFilter f : ((MetadataFilterChain) filter).getFilters()) {
+                final ParallelNodeProcessingMetadataFilter result = getNodeProcessingFilter(f);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Helper Function for map construction.
      * 
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilterContext;
+import org.opensaml.saml.metadata.resolver.filter.MetadataNodeProcessor;
+import org.opensaml.saml.metadata.resolver.filter.impl.NodeProcessingMetadataFilter;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link NodeProcessingMetadataFilter} that can process the entities in an aggregate concurrently.
+ * 
+ * <p>Everything outside of an {@link EntityDescriptor} is processed first, in document order, so
+ * that processors relying on information attached to enclosing groups observe it. The subtree of each
+ * {@link EntityDescriptor} is then processed, in document order within the subtree, on a dedicated
+ * fork-join pool whose parallelism is capped by {@link #setParallelism(int)}.</p>
+ * 
+ * <p>With a parallelism of 1, the default, processing happens serially on the calling thread. Any larger
+ * value requires that every installed {@link MetadataNodeProcessor} be thread-safe.</p>
+ * 
+ * <p>The duration of the most recent run and the number of entities it processed are retained
+ * for reporting.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class ParallelNodeProcessingMetadataFilter extends NodeProcessingMetadataFilter {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ParallelNodeProcessingMetadataFilter.class);
+
+    /** Maximum number of threads processing entities. */
+    @Positive private int parallelism;
+    
+    /** Pool for concurrent processing. */
+    @Nullable private ForkJoinPool pool;
+    
+    /** Duration of the last run. */
+    @Nullable private volatile Duration lastProcessingDuration;
+    
+    /** Number of entities processed by the last run. */
+    private volatile int lastEntityCount;
+    
+    /** Constructor. */
+    public ParallelNodeProcessingMetadataFilter() {
+        parallelism = 1;
+    }
+    
+    /**
+     * Get the maximum number of threads processing entities.
+     * 
+     * @return parallelism cap
+     */
+    @Positive public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Set the maximum number of threads processing entities.
+     * 
+     * @param cap parallelism cap
+     */
+    public void setParallelism(@Positive final int cap) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        parallelism = (int) Constraint.isGreaterThan(0, cap, "Parallelism must be greater than 0");
+    }
+    
+    /**
+     * Get the duration of the most recent run.
+     * 
+     * @return duration of last run, or null
+     */
+    @Nullable public Duration getLastProcessingDuration() {
+        return lastProcessingDuration;
+    }
+    
+    /**
+     * Get the number of entities processed by the most recent run.
+     * 
+     * @return entity count
+     */
+    public int getLastEntityCount() {
+        return lastEntityCount;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        if (parallelism > 1) {
+            pool = new ForkJoinPool(parallelism);
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public XMLObject filter(@Nullable final XMLObject metadata,
+            @Nonnull final MetadataFilterContext context) throws FilterException {
+        if (metadata == null) {
+            return null;
+        }
+        
+        final long start = System.nanoTime();
+        final List<MetadataNodeProcessor> processors = getNodeProcessors();
+        
+        final List<EntityDescriptor> entities = new ArrayList<>();
+        processOuterNode(processors, metadata, entities);
+        
+        if (pool == null || entities.size() < 2) {
+            for (final EntityDescriptor entity : entities) {
+                processSubtree(processors, entity);
+            }
+        } else {
+            log.debug("Processing {} entities with parallelism of {}", entities.size(), parallelism);
+            try {
+                pool.submit(() -> entities.parallelStream().forEach(entity -> {
+                    try {
+                        processSubtree(processors, entity);
+                    } catch (final FilterException e) {
+                        throw new WrappedFilterException(e);
+                    }
+                })).get();
+            } catch (final ExecutionException e) {
+                // The pool may re-wrap exceptions crossing threads, so search the chain.
+                Throwable cause = e.getCause();
+                while (cause != null && !(cause instanceof WrappedFilterException)) {
+                    cause = cause.getCause();
+                }
+                if (cause != null) {
+                    throw (FilterException) cause.getCause();
+                }
+                throw new FilterException("Error processing metadata nodes", e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FilterException("Interrupted processing metadata nodes", e);
+            }
+        }
+        
+        lastEntityCount = entities.size();
+        lastProcessingDuration = Duration.ofNanos(System.nanoTime() - start);
+        log.debug("Processed {} entities in {}", lastEntityCount, lastProcessingDuration);
+        
+        return metadata;
+    }
+    
+    /**
+     * Process a node and its descendants, deferring any {@link EntityDescriptor} subtrees.
+     * 
+     * @param processors processors to apply
+     * @param node node to process
+     * @param entities collection of deferred entities
+     * 
+     * @throws FilterException if a processor fails
+     */
+    private void processOuterNode(@Nonnull @NonnullElements final List<MetadataNodeProcessor> processors,
+            @Nonnull final XMLObject node, @Nonnull @NonnullElements final List<EntityDescriptor> entities)
+                    throws FilterException {
+        if (node instanceof EntityDescriptor) {
+            entities.add((EntityDescriptor) node);
+            return;
+        }
+        
+        for (final MetadataNodeProcessor processor : processors) {
+            processor.process(node);
+        }
+        
+        final List<XMLObject> children = node.getOrderedChildren();
+        if (children != null) {
+            for (final XMLObject child : children) {
+                if (child != null) {
+                    processOuterNode(processors, child, entities);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Process a node and all of its descendants.
+     * 
+     * @param processors processors to apply
+     * @param node node to process
+     * 
+     * @throws FilterException if a processor fails
+     */
+    private void processSubtree(@Nonnull @NonnullElements final List<MetadataNodeProcessor> processors,
+            @Nonnull final XMLObject node) throws FilterException {
+        
+        for (final MetadataNodeProcessor processor : processors) {
+            processor.process(node);
+        }
+        
+        final List<XMLObject> children = node.getOrderedChildren();
+        if (children != null) {
+            for (final XMLObject child : children) {
+                if (child != null) {
+                    processSubtree(processors, child);
+                }
+            }
+        }
+    }
+    
+    /** Unchecked wrapper to carry a {@link FilterException} out of a parallel stream. */
+    private static final class WrappedFilterException extends RuntimeException {
+
+        /** Serial version UID. */
+        private static final long serialVersionUID = -3412470312877152713L;
+
+        /**
+         * Constructor.
+         *
+         * @param cause the wrapped exception
+         */
+        WrappedFilterException(@Nonnull final FilterException cause) {
+            super(cause);
+        }
+    }
+    
+}
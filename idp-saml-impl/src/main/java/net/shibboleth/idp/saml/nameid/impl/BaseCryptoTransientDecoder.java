@@ -28,6 +28,7 @@ import com.google.common.base.Strings;
 import net.shibboleth.idp.saml.nameid.NameDecoderException;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.collection.Pair;
 import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
@@ -39,6 +40,9 @@ import net.shibboleth.utilities.java.support.security.DataSealerException;
 /**
  * An abstract action which contains the logic to do crypto transient decoding matching. This reverses the work done by
  * {@link CryptoTransientIdGenerationStrategy}
+ * 
+ * <p>Values produced by a {@link CryptoTransientIdCodec} are decoded with the codec if one is supplied,
+ * and all other values with the {@link DataSealer}.</p>
  */
 public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableInitializableComponent {
 
@@ -48,6 +52,9 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
     /** Object used to protect and encrypt the data. */
     @NonnullAfterInit private DataSealer dataSealer;
 
+    /** Optional codec for compact values. */
+    @Nullable private CryptoTransientIdCodec codec;
+
     /** cache for the log prefix - to save multiple recalculations. */
     @Nullable private String logPrefix;
 
@@ -71,6 +78,19 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
         dataSealer = Constraint.isNotNull(sealer, "DataSealer cannot be null");
     }
 
+    /**
+     * Set a codec to use for values in its format.
+     * 
+     * @param newCodec codec for compact values
+     * 
+     * @since 4.1.0
+     */
+    public void setCodec(@Nullable final CryptoTransientIdCodec newCodec) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        codec = newCodec;
+    }
+
     /**
      * Convert the transient Id into the principal.
      * 
@@ -90,6 +110,18 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
             throw new NameDecoderException(getLogPrefix() + " Requester ID was null");
         }
 
+        if (codec != null && codec.isEncoded(transientId)) {
+            final Pair<String,String> decoded;
+            try {
+                decoded = codec.decode(transientId);
+            } catch (final DataExpiredException e) {
+                throw new NameDecoderException(getLogPrefix() + " Principal identifier has expired");
+            } catch (final DataSealerException e) {
+                throw new NameDecoderException(getLogPrefix() + " Caught exception decoding transient identifier", e);
+            }
+            return checkRequester(decoded.getFirst(), decoded.getSecond(), requesterId);
+        }
+
         final String decodedId;
         try {
             decodedId = dataSealer.unwrap(transientId);
@@ -112,12 +144,26 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
             return null;
         }
 
-        if (requesterId != null && !requesterId.equals(parts[0])) {
-            log.warn("{} Transient identifier issued to {} but requested by {}", getLogPrefix(), parts[0], requesterId);
+        return checkRequester(parts[0], parts[1], requesterId);
+    }
+
+    /**
+     * Check that a decoded identifier was issued to the requester.
+     * 
+     * @param issuedTo relying party the identifier was issued to
+     * @param principal decoded principal name
+     * @param requesterId the requester ID
+     * 
+     * @return the principal name, or null if the requester doesn't match
+     */
+    @Nullable @NotEmpty private String checkRequester(@Nonnull final String issuedTo,
+            @Nonnull final String principal, @Nonnull @NotEmpty final String requesterId) {
+        if (!requesterId.equals(issuedTo)) {
+            log.warn("{} Transient identifier issued to {} but requested by {}", getLogPrefix(), issuedTo, requesterId);
             return null;
         }
 
-        return parts[1];
+        return principal;
     }
 
     /** {@inheritDoc} */
@@ -0,0 +1,311 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.saml.nameid.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.security.DataExpiredException;
+import net.shibboleth.utilities.java.support.security.DataSealerException;
+import net.shibboleth.utilities.java.support.security.DataSealerKeyStrategy;
+
+/**
+ * Compact encoding of crypto transient identifiers, an alternative to wrapping them with a
+ * {@link net.shibboleth.utilities.java.support.security.DataSealer}.
+ * 
+ * <p>The expiration, relying party and principal name are packed into a binary record, encrypted with
+ * AES-GCM under the current key of the same {@link DataSealerKeyStrategy} used by the sealer, and encoded
+ * with unpadded URL-safe base64 after a {@link #VERSION_PREFIX}. The key name is carried in the clear and
+ * authenticated so that keys can be rolled over. Cipher instances are reused per-thread.</p>
+ * 
+ * <p>As with the sealer, the keys are checked with a test encoding at startup unless the key strategy
+ * is expected to be locked at that point, and key errors at runtime are reported as
+ * {@link DataSealerException}s.</p>
+ * 
+ * <p>Values produced by a data sealer never carry the prefix, so decoders can accept both formats.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class CryptoTransientIdCodec extends AbstractInitializableComponent {
+
+    /** Prefix identifying values in this format. */
+    @Nonnull @NotEmpty public static final String VERSION_PREFIX = "1.";
+
+    /** Cipher transformation. */
+    @Nonnull @NotEmpty private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+
+    /** Size of IV in bytes. */
+    private static final int IV_LENGTH = 12;
+
+    /** Size of authentication tag in bits. */
+    private static final int TAG_LENGTH = 128;
+
+    /** Fixed size of the plaintext record (expiration and relying party length). */
+    private static final int RECORD_OVERHEAD = Long.BYTES + Short.BYTES;
+
+    /** Per-thread cipher instances. */
+    @Nonnull private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(CIPHER_ALGORITHM);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to obtain " + CIPHER_ALGORITHM + " cipher", e);
+        }
+    });
+
+    /** Source of IVs. */
+    @Nonnull private final SecureRandom random;
+
+    /** Source of keys. */
+    @NonnullAfterInit private DataSealerKeyStrategy keyStrategy;
+    
+    /** Whether the key strategy may be unable to supply keys at startup. */
+    private boolean lockedAtStartup;
+
+    /** Constructor. */
+    public CryptoTransientIdCodec() {
+        random = new SecureRandom();
+    }
+
+    /**
+     * Set the source of keys.
+     * 
+     * @param strategy key strategy
+     */
+    public void setKeyStrategy(@Nonnull final DataSealerKeyStrategy strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        keyStrategy = Constraint.isNotNull(strategy, "DataSealerKeyStrategy cannot be null");
+    }
+
+    /**
+     * Set whether the key strategy may be unable to supply keys at startup, skipping the test encoding
+     * otherwise performed during initialization.
+     * 
+     * <p>This should match the setting of the corresponding
+     * {@link net.shibboleth.utilities.java.support.security.DataSealer}.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setLockedAtStartup(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        lockedAtStartup = flag;
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (keyStrategy == null) {
+            throw new ComponentInitializationException("DataSealerKeyStrategy cannot be null");
+        }
+        
+        if (!lockedAtStartup) {
+            try {
+                testEncoding();
+            } catch (final DataSealerException e) {
+                throw new ComponentInitializationException("Exception testing transient identifier encoding", e);
+            }
+        }
+    }
+
+    /**
+     * Get whether a value is in the format produced by this codec.
+     * 
+     * @param value input value
+     * 
+     * @return true iff the value carries the version prefix
+     */
+    public boolean isEncoded(@Nonnull final String value) {
+        return value.startsWith(VERSION_PREFIX);
+    }
+
+    /**
+     * Encode a transient identifier.
+     * 
+     * @param relyingPartyId relying party the identifier is issued to
+     * @param principalName principal name
+     * @param expiration expiration of the identifier
+     * 
+     * @return the encoded identifier
+     * 
+     * @throws DataSealerException if encoding fails
+     */
+    @Nonnull @NotEmpty public String encode(@Nonnull @NotEmpty final String relyingPartyId,
+            @Nonnull @NotEmpty final String principalName, @Nonnull final Instant expiration)
+                    throws DataSealerException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        return doEncode(relyingPartyId, principalName, expiration);
+    }
+
+    /**
+     * Decode a transient identifier.
+     * 
+     * @param value the encoded identifier
+     * 
+     * @return the relying party and principal name
+     * 
+     * @throws DataExpiredException if the identifier has expired
+     * @throws DataSealerException if decoding fails
+     */
+    @Nonnull public Pair<String,String> decode(@Nonnull final String value) throws DataSealerException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        return doDecode(value);
+    }
+
+    /**
+     * Encode a transient identifier, without checking the component state.
+     * 
+     * @param relyingPartyId relying party the identifier is issued to
+     * @param principalName principal name
+     * @param expiration expiration of the identifier
+     * 
+     * @return the encoded identifier
+     * 
+     * @throws DataSealerException if encoding fails
+     */
+    @Nonnull @NotEmpty private String doEncode(@Nonnull @NotEmpty final String relyingPartyId,
+            @Nonnull @NotEmpty final String principalName, @Nonnull final Instant expiration)
+                    throws DataSealerException {
+        final byte[] rp = relyingPartyId.getBytes(StandardCharsets.UTF_8);
+        if (rp.length > 0xFFFF) {
+            throw new DataSealerException("Relying party name is too long");
+        }
+        final byte[] principal = principalName.getBytes(StandardCharsets.UTF_8);
+
+        try {
+            final Pair<String,SecretKey> key = keyStrategy.getDefaultKey();
+            if (key.getFirst() == null || key.getSecond() == null) {
+                throw new DataSealerException("No default key available");
+            }
+            final byte[] alias = key.getFirst().getBytes(StandardCharsets.UTF_8);
+            if (alias.length > 0xFF) {
+                throw new DataSealerException("Key name is too long");
+            }
+
+            final ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + rp.length + principal.length);
+            record.putLong(expiration.toEpochMilli()).putShort((short) rp.length).put(rp).put(principal);
+
+            final int header = 1 + alias.length;
+            final byte[] out = new byte[header + IV_LENGTH + record.capacity() + TAG_LENGTH / 8];
+            out[0] = (byte) alias.length;
+            System.arraycopy(alias, 0, out, 1, alias.length);
+            final byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            System.arraycopy(iv, 0, out, header, IV_LENGTH);
+
+            final Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key.getSecond(), new GCMParameterSpec(TAG_LENGTH, iv));
+            cipher.updateAAD(out, 0, header);
+            cipher.doFinal(record.array(), 0, record.capacity(), out, header + IV_LENGTH);
+
+            return VERSION_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(out);
+        } catch (final GeneralSecurityException e) {
+            throw new DataSealerException("Exception encrypting transient identifier", e);
+        }
+    }
+
+    /**
+     * Decode a transient identifier, without checking the component state.
+     * 
+     * @param value the encoded identifier
+     * 
+     * @return the relying party and principal name
+     * 
+     * @throws DataExpiredException if the identifier has expired
+     * @throws DataSealerException if decoding fails
+     */
+    @Nonnull private Pair<String,String> doDecode(@Nonnull final String value) throws DataSealerException {
+        if (!isEncoded(value)) {
+            throw new DataSealerException("Value is not a compact transient identifier");
+        }
+
+        final byte[] in;
+        try {
+            in = Base64.getUrlDecoder().decode(value.substring(VERSION_PREFIX.length()));
+        } catch (final IllegalArgumentException e) {
+            throw new DataSealerException("Transient identifier was not properly encoded", e);
+        }
+
+        final int header = in.length > 0 ? 1 + (in[0] & 0xFF) : 0;
+        if (header == 0 || in.length < header + IV_LENGTH + RECORD_OVERHEAD + TAG_LENGTH / 8) {
+            throw new DataSealerException("Transient identifier was truncated");
+        }
+
+        final byte[] record;
+        try {
+            final SecretKey key = keyStrategy.getKey(new String(in, 1, header - 1, StandardCharsets.UTF_8));
+            if (key == null) {
+                throw new DataSealerException("Key named in transient identifier is not available");
+            }
+            final Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, in, header, IV_LENGTH));
+            cipher.updateAAD(in, 0, header);
+            record = cipher.doFinal(in, header + IV_LENGTH, in.length - header - IV_LENGTH);
+        } catch (final GeneralSecurityException e) {
+            throw new DataSealerException("Exception decrypting transient identifier", e);
+        }
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(record);
+            if (Instant.now().toEpochMilli() > buffer.getLong()) {
+                throw new DataExpiredException("Transient identifier has expired");
+            }
+            final int rpLength = buffer.getShort() & 0xFFFF;
+            final String rp = new String(record, buffer.position(), rpLength, StandardCharsets.UTF_8);
+            final int offset = buffer.position() + rpLength;
+            return new Pair<>(rp, new String(record, offset, record.length - offset, StandardCharsets.UTF_8));
+        } catch (final IndexOutOfBoundsException e) {
+            throw new DataSealerException("Decrypted transient identifier was malformed");
+        }
+    }
+
+    /**
+     * Check that the key strategy supplies a usable key by encoding and decoding a test value.
+     * 
+     * @throws DataSealerException if the test fails
+     */
+    private void testEncoding() throws DataSealerException {
+        final String rp = "https://test.example.org/";
+        final String principal = "test";
+        final Pair<String,String> decoded = doDecode(doEncode(rp, principal, Instant.now().plusSeconds(60)));
+        if (!rp.equals(decoded.getFirst()) || !principal.equals(decoded.getSecond())) {
+            throw new DataSealerException("Test encoding did not round-trip");
+        }
+    }
+
+}
@@ -21,6 +21,7 @@ import java.time.Duration;
 import java.time.Instant;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -38,6 +39,9 @@ import org.slf4j.LoggerFactory;
 /**
  * Generates transients using a {@link DataSealer} to encrypt the result into a recoverable value,
  * for use with stateless clustering.
+ * 
+ * <p>If a {@link CryptoTransientIdCodec} is supplied, it is used in place of the sealer to produce a
+ * more compact value. Decoders must be able to handle that format before enabling it.</p>
  */
 public class CryptoTransientIdGenerationStrategy extends AbstractIdentifiableInitializableComponent
         implements TransientIdGenerationStrategy {
@@ -48,6 +52,9 @@ public class CryptoTransientIdGenerationStrategy extends AbstractIdentifiableIni
     /** Object used to protect and encrypt the data. */
     @NonnullAfterInit private DataSealer dataSealer;
 
+    /** Optional codec for compact values. */
+    @Nullable private CryptoTransientIdCodec codec;
+
     /** Length tokens are valid. */
     @Nonnull private Duration idLifetime;
 
@@ -67,6 +74,19 @@ public class CryptoTransientIdGenerationStrategy extends AbstractIdentifiableIni
         dataSealer = Constraint.isNotNull(sealer, "DataSealer cannot be null");
     }
     
+    /**
+     * Set a codec to use in place of the data sealer.
+     * 
+     * @param newCodec codec for compact values
+     * 
+     * @since 4.1.0
+     */
+    public void setCodec(@Nullable final CryptoTransientIdCodec newCodec) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        codec = newCodec;
+    }
+    
     /**
      * Get the time ids are valid.
      * 
@@ -94,7 +114,7 @@ public class CryptoTransientIdGenerationStrategy extends AbstractIdentifiableIni
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
 
-        if (null == dataSealer) {
+        if (null == dataSealer && null == codec) {
             throw new ComponentInitializationException("DataSealer cannot be null");
         }
     }
@@ -105,6 +125,14 @@ public class CryptoTransientIdGenerationStrategy extends AbstractIdentifiableIni
             @Nonnull @NotEmpty final String principalName) throws SAMLException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         
+        if (codec != null) {
+            try {
+                return codec.encode(relyingPartyId, principalName, Instant.now().plus(idLifetime));
+            } catch (final DataSealerException e) {
+                throw new SAMLException("Exception encoding principal identifier", e);
+            }
+        }
+        
         final StringBuilder principalTokenIdBuilder = new StringBuilder();
         principalTokenIdBuilder.append(relyingPartyId).append("!").append(principalName);
 
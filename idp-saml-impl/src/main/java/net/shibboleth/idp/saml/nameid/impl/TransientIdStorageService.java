@@ -0,0 +1,846 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.saml.nameid.impl;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.opensaml.storage.AbstractStorageService;
+import org.opensaml.storage.MutableStorageRecord;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.VersionMismatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An in-memory {@link org.opensaml.storage.StorageService} designed for the reverse mappings written by
+ * {@link StoredTransientIdGenerationStrategy}, suitable for injection as its <code>idStore</code> and
+ * into the corresponding decoders.
+ * 
+ * <p>Records are spread across independently locked shards. Each shard tracks expiring records in a timer
+ * wheel of time slots, so the periodic cleanup task only visits the slots whose time has passed rather than
+ * scanning every record. Records whose expiration lies beyond the wheel's horizon remain in their slot until
+ * a later rotation reaches them.</p>
+ * 
+ * <p>The number of records is bounded, and an {@link OverflowPolicy} determines whether a new record is
+ * rejected or the soonest-expiring record in the shard is evicted to make room. The bound is divided evenly
+ * among the shards and enforced per shard, so that eviction never needs to look beyond the shard being
+ * written to.</p>
+ * 
+ * <p>An optional {@link Replicator} is notified of every new record and consulted on a local miss, which
+ * allows identifiers issued by one node to be resolved by another.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class TransientIdStorageService extends AbstractStorageService {
+
+    /** Prefix of gauge tracking the number of records, qualified by the service ID. */
+    @Nonnull @NotEmpty public static final String SIZE_METRIC_NAME = "net.shibboleth.idp.transientId.store.size";
+
+    /** Name of counter tracking successful reads. */
+    @Nonnull @NotEmpty public static final String HITS_METRIC_NAME = "net.shibboleth.idp.transientId.store.hits";
+
+    /** Name of counter tracking unsuccessful reads. */
+    @Nonnull @NotEmpty public static final String MISSES_METRIC_NAME =
+            "net.shibboleth.idp.transientId.store.misses";
+
+    /** Name of counter tracking expired records. */
+    @Nonnull @NotEmpty public static final String EXPIRIES_METRIC_NAME =
+            "net.shibboleth.idp.transientId.store.expiries";
+
+    /** Name of counter tracking records evicted or rejected because the store was full. */
+    @Nonnull @NotEmpty public static final String OVERFLOWS_METRIC_NAME =
+            "net.shibboleth.idp.transientId.store.overflows";
+
+    /** Behavior when the store is full. */
+    public enum OverflowPolicy {
+        /** Fail the creation of the new record. */
+        REJECT,
+        
+        /** Evict the soonest-expiring record in the affected shard. */
+        EVICT,
+    }
+
+    /**
+     * Hook for sharing records with other nodes.
+     */
+    public interface Replicator {
+
+        /**
+         * Propagate a newly created record.
+         * 
+         * @param context record context
+         * @param key record key
+         * @param value record value
+         * @param expiration record expiration
+         */
+        void replicate(@Nonnull @NotEmpty String context, @Nonnull @NotEmpty String key,
+                @Nonnull @NotEmpty String value, @Nullable Long expiration);
+
+        /**
+         * Look up a record not found locally.
+         * 
+         * @param context record context
+         * @param key record key
+         * 
+         * @return the record, or null
+         * 
+         * @throws IOException if the lookup fails
+         */
+        @Nullable StorageRecord<?> lookup(@Nonnull @NotEmpty String context, @Nonnull @NotEmpty String key)
+                throws IOException;
+    }
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(TransientIdStorageService.class);
+
+    /** Current number of records. */
+    @Nonnull private final AtomicInteger size;
+
+    /** Number of shards. */
+    @Positive private int shardCount;
+
+    /** Number of slots in each timer wheel. */
+    @Positive private int wheelSize;
+
+    /** Time covered by each wheel slot. */
+    @Nonnull private Duration wheelResolution;
+
+    /** Maximum number of records. */
+    @Positive private int maxRecords;
+
+    /** Behavior when full. */
+    @Nonnull private OverflowPolicy overflowPolicy;
+
+    /** Optional replication hook. */
+    @Nullable private Replicator replicator;
+
+    /** The shards. */
+    @Nullable private Shard[] shards;
+    
+    /** Maximum number of records in each shard. */
+    private int maxShardRecords;
+
+    /** Constructor. */
+    public TransientIdStorageService() {
+        size = new AtomicInteger();
+        shardCount = 16;
+        wheelSize = 1024;
+        wheelResolution = Duration.ofSeconds(30);
+        maxRecords = 1000000;
+        overflowPolicy = OverflowPolicy.EVICT;
+        setCleanupInterval(wheelResolution);
+    }
+
+    /**
+     * Set the number of independently locked shards, rounded up to a power of two.
+     * 
+     * <p>Defaults to 16.</p>
+     * 
+     * @param count number of shards
+     */
+    public void setShardCount(@Positive final int count) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        shardCount = (int) Constraint.isGreaterThan(0, count, "Shard count must be positive");
+    }
+
+    /**
+     * Set the number of slots in each shard's timer wheel, rounded up to a power of two.
+     * 
+     * <p>Defaults to 1024.</p>
+     * 
+     * @param slots number of slots
+     */
+    public void setWheelSize(@Positive final int slots) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        wheelSize = (int) Constraint.isGreaterThan(0, slots, "Wheel size must be positive");
+    }
+
+    /**
+     * Set the time covered by each slot of the timer wheel.
+     * 
+     * <p>Defaults to 30 seconds. Expired records are never returned, but may remain in memory for up to
+     * this long, or longer if the cleanup interval is longer.</p>
+     * 
+     * @param resolution slot duration
+     */
+    public void setWheelResolution(@Nonnull final Duration resolution) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        Constraint.isNotNull(resolution, "Resolution cannot be null");
+        Constraint.isFalse(resolution.isNegative() || resolution.isZero(), "Resolution must be positive");
+        
+        wheelResolution = resolution;
+    }
+
+    /**
+     * Set the maximum number of records to hold.
+     * 
+     * <p>Defaults to 1000000. Each shard holds an equal share, and the number of shards is reduced
+     * if necessary so that each can hold at least one record.</p>
+     * 
+     * @param max maximum number of records
+     */
+    public void setMaxRecords(@Positive final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        maxRecords = (int) Constraint.isGreaterThan(0, max, "Maximum records must be positive");
+    }
+
+    /**
+     * Set the behavior when the store is full.
+     * 
+     * <p>Defaults to {@link OverflowPolicy#EVICT}.</p>
+     * 
+     * @param policy overflow policy
+     */
+    public void setOverflowPolicy(@Nonnull final OverflowPolicy policy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        overflowPolicy = Constraint.isNotNull(policy, "Overflow policy cannot be null");
+    }
+
+    /**
+     * Set a hook for sharing records with other nodes.
+     * 
+     * @param hook replication hook
+     */
+    public void setReplicator(@Nullable final Replicator hook) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        replicator = hook;
+    }
+
+    /**
+     * Get the number of records held.
+     * 
+     * @return number of records
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        final int slots = roundUp(wheelSize);
+        shards = new Shard[Math.min(roundUp(shardCount), Integer.highestOneBit(maxRecords))];
+        maxShardRecords = maxRecords / shards.length;
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new Shard(slots, System.currentTimeMillis() / wheelResolution.toMillis());
+        }
+
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        registry.remove(getSizeMetricName());
+        registry.register(getSizeMetricName(), (Gauge<Integer>) this::size);
+
+        super.doInitialize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        MetricsSupport.getMetricRegistry().remove(getSizeMetricName());
+        super.doDestroy();
+    }
+
+    /**
+     * Get the name of the gauge tracking the number of records in this instance.
+     * 
+     * @return gauge name
+     */
+    @Nonnull @NotEmpty public String getSizeMetricName() {
+        return MetricRegistry.name(SIZE_METRIC_NAME, getId());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected TimerTask getCleanupTask() {
+        return new TimerTask() {
+            public void run() {
+                advance(System.currentTimeMillis());
+            }
+        };
+    }
+
+    /**
+     * Release records in every wheel slot whose time has passed.
+     * 
+     * @param now current time
+     */
+    void advance(final long now) {
+        int expired = 0;
+        for (final Shard shard : shards) {
+            synchronized (shard) {
+                expired += shard.advance(now);
+            }
+        }
+        if (expired > 0) {
+            log.debug("Released {} expired transient ID records", expired);
+            MetricsSupport.getMetricRegistry().counter(EXPIRIES_METRIC_NAME).inc(expired);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        if (!insert(new Key(context, key), new MutableStorageRecord<>(value, expiration))) {
+            return false;
+        }
+
+        if (replicator != null) {
+            replicator.replicate(context, key, value, expiration);
+        }
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("unchecked")
+    @Nullable public <T> StorageRecord<T> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        final Key k = new Key(context, key);
+        final Shard shard = shardFor(k);
+        synchronized (shard) {
+            final Entry entry = shard.live(k, System.currentTimeMillis());
+            if (entry != null) {
+                MetricsSupport.getMetricRegistry().counter(HITS_METRIC_NAME).inc();
+                return (StorageRecord<T>) entry.record;
+            }
+        }
+
+        if (replicator != null) {
+            final StorageRecord<?> remote = replicator.lookup(context, key);
+            if (remote != null && (remote.getExpiration() == null
+                    || remote.getExpiration() > System.currentTimeMillis())) {
+                MetricsSupport.getMetricRegistry().counter(HITS_METRIC_NAME).inc();
+                final MutableStorageRecord<T> record =
+                        new MutableStorageRecord<>(remote.getValue(), remote.getExpiration());
+                try {
+                    insert(k, record);
+                } catch (final IOException e) {
+                    log.debug("Unable to retain replicated record locally: {}", e.getMessage());
+                }
+                return record;
+            }
+        }
+
+        MetricsSupport.getMetricRegistry().counter(MISSES_METRIC_NAME).inc();
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public <T> Pair<Long,StorageRecord<T>> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Positive final long version) throws IOException {
+
+        final StorageRecord<T> record = read(context, key);
+        if (record == null) {
+            return new Pair<>();
+        } else if (record.getVersion() == version) {
+            return new Pair<>(version, null);
+        }
+        return new Pair<>(record.getVersion(), record);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean update(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException {
+        try {
+            return doUpdate(null, new Key(context, key), value, expiration) != null;
+        } catch (final VersionMismatchException e) {
+            throw new IllegalStateException("Unversioned update failed on version", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public Long updateWithVersion(@Positive final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value,
+            @Nullable @Positive final Long expiration) throws IOException, VersionMismatchException {
+        return doUpdate(version, new Key(context, key), value, expiration);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean updateExpiration(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nullable @Positive final Long expiration) throws IOException {
+        try {
+            return doUpdate(null, new Key(context, key), null, expiration) != null;
+        } catch (final VersionMismatchException e) {
+            throw new IllegalStateException("Unversioned update failed on version", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean delete(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
+            throws IOException {
+        try {
+            return doDelete(null, new Key(context, key));
+        } catch (final VersionMismatchException e) {
+            throw new IllegalStateException("Unversioned delete failed on version", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean deleteWithVersion(@Positive final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+        return doDelete(version, new Key(context, key));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateContextExpiration(@Nonnull @NotEmpty final String context,
+            @Nullable @Positive final Long expiration) throws IOException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        final long now = System.currentTimeMillis();
+        for (final Shard shard : shards) {
+            synchronized (shard) {
+                for (final Entry entry : shard.entries.values()) {
+                    if (entry.key.context.equals(context) && !entry.isExpired(now)) {
+                        entry.record.setExpiration(expiration);
+                        shard.schedule(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+        removeFromContext(context, false);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void reap(@Nonnull @NotEmpty final String context) throws IOException {
+        removeFromContext(context, true);
+    }
+
+    /**
+     * Add a record if no live record with the same key exists, applying the overflow policy if needed.
+     * 
+     * @param key record key
+     * @param record record to add
+     * 
+     * @return true iff the record was added
+     * 
+     * @throws IOException if the store is full and the policy forbids eviction
+     */
+    private boolean insert(@Nonnull final Key key, @Nonnull final MutableStorageRecord<?> record)
+            throws IOException {
+        final Shard shard = shardFor(key);
+        synchronized (shard) {
+            if (shard.live(key, System.currentTimeMillis()) != null) {
+                return false;
+            }
+            
+            if (shard.entries.size() >= maxShardRecords) {
+                MetricsSupport.getMetricRegistry().counter(OVERFLOWS_METRIC_NAME).inc();
+                if (overflowPolicy == OverflowPolicy.REJECT || !shard.evictSoonest()) {
+                    throw new IOException("Transient ID store is full");
+                }
+                size.decrementAndGet();
+            }
+            
+            final Entry entry = new Entry(key, record);
+            shard.entries.put(key, entry);
+            shard.schedule(entry);
+            size.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Update a record's value and/or expiration.
+     * 
+     * @param version version to match, or null
+     * @param key record key
+     * @param value new value, or null to update only the expiration
+     * @param expiration new expiration
+     * 
+     * @return the record's version, or null if no live record exists
+     * 
+     * @throws VersionMismatchException if the version doesn't match
+     */
+    @Nullable private Long doUpdate(@Nullable final Long version, @Nonnull final Key key,
+            @Nullable final String value, @Nullable final Long expiration) throws VersionMismatchException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        final Shard shard = shardFor(key);
+        synchronized (shard) {
+            final Entry entry = shard.live(key, System.currentTimeMillis());
+            if (entry == null) {
+                return null;
+            } else if (version != null && entry.record.getVersion() != version) {
+                throw new VersionMismatchException();
+            }
+            
+            if (value != null) {
+                entry.record.setValue(value);
+                entry.record.incrementVersion();
+            }
+            entry.record.setExpiration(expiration);
+            shard.schedule(entry);
+            return entry.record.getVersion();
+        }
+    }
+
+    /**
+     * Delete a record.
+     * 
+     * @param version version to match, or null
+     * @param key record key
+     * 
+     * @return true iff a live record was deleted
+     * 
+     * @throws VersionMismatchException if the version doesn't match
+     */
+    private boolean doDelete(@Nullable final Long version, @Nonnull final Key key) throws VersionMismatchException {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        final Shard shard = shardFor(key);
+        synchronized (shard) {
+            final Entry entry = shard.live(key, System.currentTimeMillis());
+            if (entry == null) {
+                return false;
+            } else if (version != null && entry.record.getVersion() != version) {
+                throw new VersionMismatchException();
+            }
+            shard.remove(entry);
+            size.decrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Remove all, or all expired, records in a context.
+     * 
+     * @param context context to clean
+     * @param expiredOnly whether to only remove expired records
+     */
+    private void removeFromContext(@Nonnull final String context, final boolean expiredOnly) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+
+        final long now = System.currentTimeMillis();
+        for (final Shard shard : shards) {
+            synchronized (shard) {
+                final Iterator<Entry> entries = shard.entries.values().iterator();
+                while (entries.hasNext()) {
+                    final Entry entry = entries.next();
+                    if (entry.key.context.equals(context) && (!expiredOnly || entry.isExpired(now))) {
+                        entries.remove();
+                        shard.unlink(entry);
+                        size.decrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the shard responsible for a key.
+     * 
+     * @param key record key
+     * 
+     * @return the shard
+     */
+    @Nonnull private Shard shardFor(@Nonnull final Key key) {
+        final int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+
+    /**
+     * Round a value up to a power of two.
+     * 
+     * @param value input value
+     * 
+     * @return the smallest power of two not less than the input
+     */
+    private static int roundUp(final int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /** Composite record key. */
+    private static final class Key {
+
+        /** Record context. */
+        @Nonnull private final String context;
+
+        /** Record key. */
+        @Nonnull private final String key;
+
+        /**
+         * Constructor.
+         *
+         * @param ctx record context
+         * @param k record key
+         */
+        Key(@Nonnull final String ctx, @Nonnull final String k) {
+            context = Constraint.isNotNull(ctx, "Context cannot be null");
+            key = Constraint.isNotNull(k, "Key cannot be null");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof Key)) {
+                return false;
+            }
+            return key.equals(((Key) obj).key) && context.equals(((Key) obj).context);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, key);
+        }
+    }
+
+    /** A stored record, linked into a timer wheel slot if it expires. */
+    private static final class Entry {
+
+        /** Record key. */
+        @Nonnull private final Key key;
+
+        /** The record. */
+        @Nonnull private final MutableStorageRecord<?> record;
+
+        /** Wheel tick in which the record expires, or -1 if not scheduled. */
+        private long tick;
+
+        /** Previous entry in the slot. */
+        @Nullable private Entry prev;
+
+        /** Next entry in the slot. */
+        @Nullable private Entry next;
+
+        /**
+         * Constructor.
+         *
+         * @param k record key
+         * @param r the record
+         */
+        Entry(@Nonnull final Key k, @Nonnull final MutableStorageRecord<?> r) {
+            key = k;
+            record = r;
+            tick = -1;
+        }
+
+        /**
+         * Get whether the record has expired.
+         * 
+         * @param now current time
+         * 
+         * @return true iff the record has expired
+         */
+        boolean isExpired(final long now) {
+            final Long expiration = record.getExpiration();
+            return expiration != null && expiration <= now;
+        }
+    }
+
+    /** A lock stripe holding a subset of the records and its own timer wheel. */
+    private final class Shard {
+
+        /** Records by key. */
+        @Nonnull private final Map<Key,Entry> entries;
+
+        /** Heads of the per-slot lists. */
+        @Nonnull private final Entry[] slots;
+
+        /** Last tick whose slot has been processed. */
+        private long cursor;
+
+        /**
+         * Constructor.
+         *
+         * @param slotCount number of wheel slots, a power of two
+         * @param startTick current tick
+         */
+        Shard(final int slotCount, final long startTick) {
+            entries = new HashMap<>();
+            slots = new Entry[slotCount];
+            cursor = startTick - 1;
+        }
+
+        /**
+         * Get a live entry, removing it if it has expired.
+         * 
+         * @param key record key
+         * @param now current time
+         * 
+         * @return the live entry, or null
+         */
+        @Nullable Entry live(@Nonnull final Key key, final long now) {
+            final Entry entry = entries.get(key);
+            if (entry != null && entry.isExpired(now)) {
+                remove(entry);
+                size.decrementAndGet();
+                MetricsSupport.getMetricRegistry().counter(EXPIRIES_METRIC_NAME).inc();
+                return null;
+            }
+            return entry;
+        }
+
+        /**
+         * Place an entry into the slot matching its expiration, or none if it doesn't expire.
+         * 
+         * @param entry entry to schedule
+         */
+        void schedule(@Nonnull final Entry entry) {
+            unlink(entry);
+            final Long expiration = entry.record.getExpiration();
+            if (expiration == null) {
+                return;
+            }
+            
+            entry.tick = Math.max(expiration / wheelResolution.toMillis(), cursor + 1);
+            final int slot = (int) (entry.tick & (slots.length - 1));
+            entry.next = slots[slot];
+            if (entry.next != null) {
+                entry.next.prev = entry;
+            }
+            slots[slot] = entry;
+        }
+
+        /**
+         * Remove an entry from its slot.
+         * 
+         * @param entry entry to unlink
+         */
+        void unlink(@Nonnull final Entry entry) {
+            if (entry.tick < 0) {
+                return;
+            }
+            
+            if (entry.prev != null) {
+                entry.prev.next = entry.next;
+            } else {
+                slots[(int) (entry.tick & (slots.length - 1))] = entry.next;
+            }
+            if (entry.next != null) {
+                entry.next.prev = entry.prev;
+            }
+            entry.prev = null;
+            entry.next = null;
+            entry.tick = -1;
+        }
+
+        /**
+         * Remove an entry entirely.
+         * 
+         * @param entry entry to remove
+         */
+        void remove(@Nonnull final Entry entry) {
+            entries.remove(entry.key);
+            unlink(entry);
+        }
+
+        /**
+         * Evict the soonest-expiring entry in the next non-empty slot, which is the soonest-expiring
+         * entry overall unless that slot only holds entries from later rotations.
+         * 
+         * @return true iff an entry was evicted
+         */
+        boolean evictSoonest() {
+            for (int i = 1; i <= slots.length; ++i) {
+                final Entry head = slots[(int) ((cursor + i) & (slots.length - 1))];
+                if (head != null) {
+                    Entry victim = head;
+                    for (Entry e = head.next; e != null; e = e.next) {
+                        if (e.tick < victim.tick) {
+                            victim = e;
+                        }
+                    }
+                    remove(victim);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Process every slot for ticks that have completely elapsed.
+         * 
+         * @param now current time
+         * 
+         * @return number of entries released
+         */
+        int advance(final long now) {
+            final long last = now / wheelResolution.toMillis() - 1;
+            if (last <= cursor) {
+                return 0;
+            }
+            
+            // After a long gap, a single pass over every slot suffices.
+            final long first = Math.max(cursor + 1, last - slots.length + 1);
+            int released = 0;
+            for (long t = first; t <= last; ++t) {
+                Entry entry = slots[(int) (t & (slots.length - 1))];
+                while (entry != null) {
+                    final Entry next = entry.next;
+                    if (entry.tick <= last) {
+                        remove(entry);
+                        size.decrementAndGet();
+                        ++released;
+                    }
+                    entry = next;
+                }
+            }
+            cursor = last;
+            return released;
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.saml.profile.impl;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.namespace.QName;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.opensaml.saml.saml2.metadata.Endpoint;
+import org.opensaml.saml.saml2.metadata.IndexedEndpoint;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A cache of endpoints resolved from metadata, shared across instances of
+ * {@link PopulateBindingAndEndpointContexts}.
+ * 
+ * <p>Results are held against the identity of the peer's {@link RoleDescriptor}, weakly, so a metadata
+ * reload that replaces the descriptor implicitly discards them. Within a role, results are keyed by the
+ * content of the template endpoint built from the request and by the candidate bindings. The results held
+ * for each role are capped, evicting the least recently used, since the template is request-supplied.</p>
+ * 
+ * <p>Only endpoints that were validated against metadata should be cached, since the result is then
+ * necessarily one of the role's own endpoints.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class EndpointResolutionCache {
+
+    /** Name of counter tracking cache hits. */
+    @Nonnull @NotEmpty public static final String HITS_METRIC_NAME = "net.shibboleth.idp.saml.endpoints.cache.hits";
+
+    /** Name of counter tracking cache misses. */
+    @Nonnull @NotEmpty public static final String MISSES_METRIC_NAME =
+            "net.shibboleth.idp.saml.endpoints.cache.misses";
+
+    /** Default maximum number of results to hold per role. */
+    public static final int DEFAULT_MAX_ENTRIES_PER_ROLE = 64;
+
+    /** Cached results by role. */
+    @Nonnull private final Cache<RoleDescriptor,Cache<Key,Endpoint>> cache;
+    
+    /** Maximum number of results to hold per role. */
+    @Positive private final int maxEntriesPerRole;
+
+    /** Constructor. */
+    public EndpointResolutionCache() {
+        this(DEFAULT_MAX_ENTRIES_PER_ROLE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries maximum number of results to hold per role
+     */
+    public EndpointResolutionCache(@Positive final int maxEntries) {
+        maxEntriesPerRole = (int) Constraint.isGreaterThan(0, maxEntries, "Maximum entries must be greater than 0");
+        cache = CacheBuilder.newBuilder().weakKeys().build();
+    }
+
+    /**
+     * Get the cached endpoint for a template and set of bindings, if any.
+     * 
+     * @param role peer role
+     * @param template template endpoint
+     * @param bindings candidate bindings in preference order
+     * 
+     * @return the cached endpoint, or null
+     */
+    @Nullable public Endpoint get(@Nonnull final RoleDescriptor role, @Nonnull final Endpoint template,
+            @Nonnull @NonnullElements final List<String> bindings) {
+        
+        final Cache<Key,Endpoint> entries = cache.getIfPresent(role);
+        final Endpoint endpoint = entries != null ? entries.getIfPresent(new Key(template, bindings)) : null;
+        MetricsSupport.getMetricRegistry().counter(endpoint != null ? HITS_METRIC_NAME : MISSES_METRIC_NAME).inc();
+        return endpoint;
+    }
+
+    /**
+     * Cache the endpoint resolved for a template and set of bindings.
+     * 
+     * @param role peer role
+     * @param template template endpoint
+     * @param bindings candidate bindings in preference order
+     * @param endpoint resolved endpoint
+     */
+    public void put(@Nonnull final RoleDescriptor role, @Nonnull final Endpoint template,
+            @Nonnull @NonnullElements final List<String> bindings, @Nonnull final Endpoint endpoint) {
+        try {
+            cache.get(role, () -> CacheBuilder.newBuilder().maximumSize(maxEntriesPerRole).build()).put(
+                    new Key(template, bindings), endpoint);
+        } catch (final ExecutionException e) {
+            // Not possible with a builder as the loader.
+        }
+    }
+
+    /** Discard all cached results. */
+    public void clear() {
+        cache.invalidateAll();
+    }
+    
+    /** Cache key capturing the resolution inputs. */
+    private static final class Key {
+        
+        /** Endpoint type. */
+        @Nullable private final QName type;
+        
+        /** Requested location. */
+        @Nullable private final String location;
+
+        /** Requested binding. */
+        @Nullable private final String binding;
+
+        /** Requested index. */
+        @Nullable private final Integer index;
+        
+        /** Candidate bindings. */
+        @Nonnull private final List<String> bindings;
+        
+        /**
+         * Constructor.
+         *
+         * @param template template endpoint
+         * @param candidates candidate bindings
+         */
+        Key(@Nonnull final Endpoint template, @Nonnull final List<String> candidates) {
+            type = template.getElementQName();
+            location = template.getLocation();
+            binding = template.getBinding();
+            index = template instanceof IndexedEndpoint ? ((IndexedEndpoint) template).getIndex() : null;
+            bindings = List.copyOf(candidates);
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof Key)) {
+                return false;
+            }
+            
+            final Key other = (Key) obj;
+            return Objects.equals(type, other.type) && Objects.equals(location, other.location)
+                    && Objects.equals(binding, other.binding) && Objects.equals(index, other.index)
+                    && bindings.equals(other.bindings);
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, location, binding, index, bindings);
+        }
+    }
+
+}
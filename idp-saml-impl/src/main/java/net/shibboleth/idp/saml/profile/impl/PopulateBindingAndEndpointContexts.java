@@ -66,6 +66,7 @@ import org.opensaml.saml.criterion.RoleDescriptorCriterion;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.saml.saml2.metadata.Endpoint;
 import org.opensaml.saml.saml2.metadata.IndexedEndpoint;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -123,6 +124,9 @@ public class PopulateBindingAndEndpointContexts extends AbstractProfileAction {
     /** List of possible bindings, in preference order. */
     @Nonnull @NonnullElements private List<BindingDescriptor> bindingDescriptors;
     
+    /** Optional cache of endpoints resolved from metadata. */
+    @Nullable private EndpointResolutionCache endpointCache;
+    
     /** Whether an artifact-based binding implies the use of a secure channel. */
     private boolean artifactImpliesSecureChannel;
     
@@ -198,6 +202,22 @@ public class PopulateBindingAndEndpointContexts extends AbstractProfileAction {
         endpointResolver = Constraint.isNotNull(resolver, "EndpointResolver cannot be null");
     }
     
+    /**
+     * Set a cache of endpoints resolved from metadata to consult before invoking the resolver.
+     * 
+     * <p>The cache is bypassed whenever the request's endpoint is trusted without validation against
+     * metadata.</p>
+     * 
+     * @param cache endpoint cache
+     * 
+     * @since 4.1.0
+     */
+    public void setEndpointCache(@Nullable final EndpointResolutionCache cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        endpointCache = cache;
+    }
+    
     /**
      * Set lookup strategy to return the bindings to evaluate for use, in preference order.
      * 
@@ -400,20 +420,32 @@ public class PopulateBindingAndEndpointContexts extends AbstractProfileAction {
         log.trace("{} Candidate outbound bindings: {}", getLogPrefix(), bindings);
         
         // Build criteria for the resolver.
-        final CriteriaSet criteria = new CriteriaSet(new BindingCriterion(bindings),
-                buildEndpointCriterion(bindings.get(0)));
-        if (mdContext != null && mdContext.getRoleDescriptor() != null) {
-            criteria.add(new RoleDescriptorCriterion(mdContext.getRoleDescriptor()));
+        final EndpointCriterion<?> endpointCriterion = buildEndpointCriterion(bindings.get(0));
+        final CriteriaSet criteria = new CriteriaSet(new BindingCriterion(bindings), endpointCriterion);
+        final RoleDescriptor role = mdContext != null ? mdContext.getRoleDescriptor() : null;
+        if (role != null) {
+            criteria.add(new RoleDescriptorCriterion(role));
         } else {
             log.debug("{} No metadata available for endpoint resolution", getLogPrefix());
         }
         
+        // Only endpoints validated against metadata are safe to reuse.
+        final boolean cacheable = endpointCache != null && role != null && !endpointCriterion.isTrusted();
+        
         // Attempt resolution.
-        Endpoint resolvedEndpoint = null;
-        try {
-            resolvedEndpoint = endpointResolver.resolveSingle(criteria);
-        } catch (final ResolverException e) {
-            log.error("{} Error resolving outbound message endpoint", getLogPrefix(), e);
+        Endpoint resolvedEndpoint =
+                cacheable ? endpointCache.get(role, endpointCriterion.getEndpoint(), bindings) : null;
+        if (resolvedEndpoint != null) {
+            log.debug("{} Using cached endpoint resolution result", getLogPrefix());
+        } else {
+            try {
+                resolvedEndpoint = endpointResolver.resolveSingle(criteria);
+                if (cacheable && resolvedEndpoint != null) {
+                    endpointCache.put(role, endpointCriterion.getEndpoint(), bindings, resolvedEndpoint);
+                }
+            } catch (final ResolverException e) {
+                log.error("{} Error resolving outbound message endpoint", getLogPrefix(), e);
+            }
         }
         
         if (resolvedEndpoint == null) {
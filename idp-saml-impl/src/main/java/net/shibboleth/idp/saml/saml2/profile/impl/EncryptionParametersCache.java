@@ -0,0 +1,251 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.saml.saml2.profile.impl;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.namespace.QName;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+import org.opensaml.xmlsec.EncryptionConfiguration;
+import org.opensaml.xmlsec.EncryptionParameters;
+import org.opensaml.xmlsec.encryption.support.RSAOAEPParameters;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A cache of resolved {@link EncryptionParameters}, shared across instances of
+ * {@link PopulateEncryptionParameters}.
+ * 
+ * <p>Results are held against the identity of the peer's {@link RoleDescriptor}, weakly, so a metadata
+ * reload that replaces the descriptor implicitly discards them. Within a role, results are keyed by the
+ * identity of each {@link EncryptionConfiguration} in the effective list along with the other resolution
+ * inputs, so reloading configuration also results in a miss. The results held for each role are capped,
+ * evicting the least recently used, so configurations built per request can't accumulate.</p>
+ * 
+ * <p>Callers are always handed a copy of the cached parameters. Per-message key material is generated
+ * during encryption and is never part of the cached result.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class EncryptionParametersCache {
+
+    /** Name of counter tracking cache hits. */
+    @Nonnull @NotEmpty public static final String HITS_METRIC_NAME =
+            "net.shibboleth.idp.saml.encryptionParameters.cache.hits";
+
+    /** Name of counter tracking cache misses. */
+    @Nonnull @NotEmpty public static final String MISSES_METRIC_NAME =
+            "net.shibboleth.idp.saml.encryptionParameters.cache.misses";
+
+    /** Default maximum number of results to hold per role. */
+    public static final int DEFAULT_MAX_ENTRIES_PER_ROLE = 16;
+
+    /** Cached results by role. */
+    @Nonnull private final Cache<RoleDescriptor,Cache<Key,EncryptionParameters>> cache;
+    
+    /** Maximum number of results to hold per role. */
+    @Positive private final int maxEntriesPerRole;
+
+    /** Constructor. */
+    public EncryptionParametersCache() {
+        this(DEFAULT_MAX_ENTRIES_PER_ROLE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries maximum number of results to hold per role
+     */
+    public EncryptionParametersCache(@Positive final int maxEntries) {
+        maxEntriesPerRole = (int) Constraint.isGreaterThan(0, maxEntries, "Maximum entries must be greater than 0");
+        cache = CacheBuilder.newBuilder().weakKeys().build();
+    }
+
+    /**
+     * Get a copy of the cached parameters for a set of resolution inputs, if any.
+     * 
+     * @param role peer role
+     * @param configurations effective configurations
+     * @param encryptionOptional whether encryption is optional
+     * @param entityId peer entityID
+     * @param protocol protocol
+     * @param peerRole role type
+     * 
+     * @return a copy of the cached parameters, or null
+     */
+    @Nullable public EncryptionParameters get(@Nonnull final RoleDescriptor role,
+            @Nonnull @NonnullElements final List<EncryptionConfiguration> configurations,
+            final boolean encryptionOptional, @Nullable final String entityId, @Nullable final String protocol,
+            @Nullable final QName peerRole) {
+        
+        final Cache<Key,EncryptionParameters> entries = cache.getIfPresent(role);
+        final EncryptionParameters params = entries != null
+                ? entries.getIfPresent(new Key(configurations, encryptionOptional, entityId, protocol, peerRole)) : null;
+        if (params == null) {
+            MetricsSupport.getMetricRegistry().counter(MISSES_METRIC_NAME).inc();
+            return null;
+        }
+        MetricsSupport.getMetricRegistry().counter(HITS_METRIC_NAME).inc();
+        return copy(params);
+    }
+
+    /**
+     * Cache the parameters resolved for a set of inputs.
+     * 
+     * <p>Only instances of {@link EncryptionParameters} itself are cached, as subclasses can't be copied
+     * reliably.</p>
+     * 
+     * @param role peer role
+     * @param configurations effective configurations
+     * @param encryptionOptional whether encryption is optional
+     * @param entityId peer entityID
+     * @param protocol protocol
+     * @param peerRole role type
+     * @param params resolved parameters
+     */
+// Checkstyle: ParameterNumber OFF
+    public void put(@Nonnull final RoleDescriptor role,
+            @Nonnull @NonnullElements final List<EncryptionConfiguration> configurations,
+            final boolean encryptionOptional, @Nullable final String entityId, @Nullable final String protocol,
+            @Nullable final QName peerRole, @Nonnull final EncryptionParameters params) {
+        
+        if (params.getClass() != EncryptionParameters.class) {
+            return;
+        }
+        
+        try {
+            cache.get(role, () -> CacheBuilder.newBuilder().maximumSize(maxEntriesPerRole).build()).put(
+                    new Key(configurations, encryptionOptional, entityId, protocol, peerRole), copy(params));
+        } catch (final ExecutionException e) {
+            // Not possible with a builder as the loader.
+        }
+    }
+// Checkstyle: ParameterNumber ON
+
+    /** Discard all cached results. */
+    public void clear() {
+        cache.invalidateAll();
+    }
+    
+    /**
+     * Copy a set of parameters.
+     * 
+     * @param params input parameters
+     * 
+     * @return the copy
+     */
+    @Nonnull private EncryptionParameters copy(@Nonnull final EncryptionParameters params) {
+        final EncryptionParameters result = new EncryptionParameters();
+        result.setKeyTransportEncryptionCredential(params.getKeyTransportEncryptionCredential());
+        result.setKeyTransportEncryptionAlgorithm(params.getKeyTransportEncryptionAlgorithm());
+        result.setKeyTransportKeyInfoGenerator(params.getKeyTransportKeyInfoGenerator());
+        result.setDataEncryptionCredential(params.getDataEncryptionCredential());
+        result.setDataEncryptionAlgorithm(params.getDataEncryptionAlgorithm());
+        result.setDataKeyInfoGenerator(params.getDataKeyInfoGenerator());
+        final RSAOAEPParameters oaep = params.getRSAOAEPParameters();
+        if (oaep != null) {
+            result.setRSAOAEPParameters(new RSAOAEPParameters(oaep.getDigestMethod(),
+                    oaep.getMaskGenerationFunction(), oaep.getOAEPParams()));
+        }
+        return result;
+    }
+    
+    /** Cache key comparing the configurations by identity. */
+    private static final class Key {
+        
+        /** Effective configurations. */
+        @Nonnull private final EncryptionConfiguration[] configurations;
+        
+        /** Whether encryption is optional. */
+        private final boolean optional;
+        
+        /** Peer entityID. */
+        @Nullable private final String entityId;
+
+        /** Protocol. */
+        @Nullable private final String protocol;
+
+        /** Role type. */
+        @Nullable private final QName role;
+        
+        /**
+         * Constructor.
+         *
+         * @param configs effective configurations
+         * @param encryptionOptional whether encryption is optional
+         * @param id peer entityID
+         * @param prot protocol
+         * @param peerRole role type
+         */
+        Key(@Nonnull final List<EncryptionConfiguration> configs, final boolean encryptionOptional,
+                @Nullable final String id, @Nullable final String prot, @Nullable final QName peerRole) {
+            configurations = configs.toArray(new EncryptionConfiguration[configs.size()]);
+            optional = encryptionOptional;
+            entityId = id;
+            protocol = prot;
+            role = peerRole;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof Key)) {
+                return false;
+            }
+            
+            final Key other = (Key) obj;
+            if (optional != other.optional || configurations.length != other.configurations.length
+                    || !Objects.equals(entityId, other.entityId) || !Objects.equals(protocol, other.protocol)
+                    || !Objects.equals(role, other.role)) {
+                return false;
+            }
+            for (int i = 0; i < configurations.length; ++i) {
+                if (configurations[i] != other.configurations[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            int hash = Objects.hash(optional, entityId, protocol, role);
+            for (final EncryptionConfiguration config : configurations) {
+                hash = 31 * hash + System.identityHashCode(config);
+            }
+            return hash;
+        }
+    }
+
+}
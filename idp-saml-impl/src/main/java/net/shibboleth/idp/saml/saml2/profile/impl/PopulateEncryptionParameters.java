@@ -36,6 +36,7 @@ import org.opensaml.saml.criterion.ProtocolCriterion;
 import org.opensaml.saml.criterion.RoleDescriptorCriterion;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
 import org.opensaml.saml.saml2.profile.context.EncryptionContext;
 import org.opensaml.xmlsec.EncryptionConfiguration;
 import org.opensaml.xmlsec.EncryptionParameters;
@@ -107,6 +108,9 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
     /** Resolver for parameters to store into context. */
     @NonnullAfterInit private EncryptionParametersResolver encParamsresolver;
     
+    /** Optional cache of resolved parameters. */
+    @Nullable private EncryptionParametersCache parametersCache;
+    
     /** Active configurations to feed into resolver. */
     @Nullable @NonnullElements private List<EncryptionConfiguration> encryptionConfigurations;
     
@@ -217,6 +221,21 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
         encParamsresolver = Constraint.isNotNull(newResolver, "EncryptionParametersResolver cannot be null");
     }
     
+    /**
+     * Set a cache of resolved parameters to consult before invoking the resolver.
+     * 
+     * <p>Results are only cached when the peer's role metadata is available.</p>
+     * 
+     * @param cache parameter cache
+     * 
+     * @since 4.1.0
+     */
+    public void setParametersCache(@Nullable final EncryptionParametersCache cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        parametersCache = cache;
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -313,8 +332,7 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
                 throw new ResolverException("No EncryptionConfigurations returned by lookup strategy");
             }
             
-            final EncryptionParameters params =
-                    encParamsresolver.resolveSingle(buildCriteriaSet(profileRequestContext));
+            final EncryptionParameters params = resolveParameters(profileRequestContext);
             log.debug("{} {} EncryptionParameters", getLogPrefix(),
                     params != null ? "Resolved" : "Failed to resolve");
             if (params != null) {
@@ -347,6 +365,42 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
     }
 // Checkstyle: CyclomaticComplexity ON
     
+    /**
+     * Resolve the parameters to use, via the cache if one is installed and the peer's role is known.
+     * 
+     * @param profileRequestContext current profile request context
+     * 
+     * @return the resolved parameters, or null
+     * 
+     * @throws ResolverException if an error occurs during resolution
+     */
+    @Nullable private EncryptionParameters resolveParameters(
+            @Nonnull final ProfileRequestContext profileRequestContext) throws ResolverException {
+        
+        final SAMLPeerEntityContext peerCtx = parametersCache != null && peerContextLookupStrategy != null
+                ? peerContextLookupStrategy.apply(profileRequestContext) : null;
+        final SAMLMetadataContext metadataCtx =
+                peerCtx != null ? peerCtx.getSubcontext(SAMLMetadataContext.class) : null;
+        final RoleDescriptor role = metadataCtx != null ? metadataCtx.getRoleDescriptor() : null;
+        if (role == null) {
+            return encParamsresolver.resolveSingle(buildCriteriaSet(profileRequestContext));
+        }
+        
+        EncryptionParameters params = parametersCache.get(role, encryptionConfigurations, encryptionOptional,
+                peerCtx.getEntityId(), samlProtocol, peerRole);
+        if (params != null) {
+            log.debug("{} Using cached EncryptionParameters for {}", getLogPrefix(), peerCtx.getEntityId());
+            return params;
+        }
+        
+        params = encParamsresolver.resolveSingle(buildCriteriaSet(profileRequestContext));
+        if (params != null) {
+            parametersCache.put(role, encryptionConfigurations, encryptionOptional, peerCtx.getEntityId(),
+                    samlProtocol, peerRole, params);
+        }
+        return params;
+    }
+    
     /**
      * Build the criteria used as input to the {@link EncryptionParametersResolver}.
      * 
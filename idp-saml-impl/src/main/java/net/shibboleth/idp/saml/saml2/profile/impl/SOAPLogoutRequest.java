@@ -17,12 +17,19 @@
 
 package net.shibboleth.idp.saml.saml2.profile.impl;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.idp.profile.context.AuditContext;
+import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.idp.session.context.AsyncLogoutPropagationContext;
+import net.shibboleth.idp.session.context.LogoutContext;
 import net.shibboleth.idp.session.context.LogoutPropagationContext;
 import net.shibboleth.idp.session.context.LogoutPropagationContext.Result;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
@@ -32,6 +39,7 @@ import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.messaging.MessageException;
 import org.opensaml.messaging.context.InOutOperationContext;
 import org.opensaml.messaging.context.navigate.ChildContextLookup;
@@ -40,6 +48,7 @@ import org.opensaml.profile.action.ActionSupport;
 import org.opensaml.profile.action.EventIds;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.opensaml.profile.context.navigate.OutboundMessageContextLookup;
+import org.opensaml.saml.common.binding.BindingDescriptor;
 import org.opensaml.saml.common.messaging.context.SAMLBindingContext;
 import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
 import org.opensaml.saml.common.messaging.context.SAMLMetadataContext;
@@ -57,6 +66,9 @@ import org.opensaml.soap.common.SOAPException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 /**
  * Profile action that propagates a prepared {@link LogoutRequest} message to an SP via the SOAP
  * binding, encapsulating SOAP pipeline construction and execution.
@@ -69,6 +81,16 @@ import org.slf4j.LoggerFactory;
  * 
  * <p>The response message is also stored off in the inbound message context.</p>
  * 
+ * <p>If an {@link ExecutorService} is supplied and an {@link AsyncLogoutPropagationContext} is found, the
+ * request is instead dispatched for concurrent execution, the result is set to
+ * {@link Result#Pending}, and the eventual outcome is left to the owner of that context to collect.
+ * No response message is stored in the inbound message context in that case; the response is instead
+ * left in the operation's own messaging state, alongside the current {@link AuditContext}, so that the
+ * exchange can be audited once it completes.</p>
+ * 
+ * <p>Results are also recorded in a {@link LogoutContext} if one is found, and the latency and
+ * failures of each exchange are tracked in per-service metrics.</p>
+ * 
  * @event {@link EventIds#PROCEED_EVENT_ID}
  * @event {@link EventIds#INVALID_PROFILE_CTX}
  * @event {@link EventIds#INVALID_MSG_CTX}
@@ -82,6 +104,9 @@ import org.slf4j.LoggerFactory;
  */
 public class SOAPLogoutRequest extends AbstractProfileAction {
     
+    /** Prefix of per-service metric names. */
+    @Nonnull @NotEmpty public static final String METRIC_NAME_PREFIX = "net.shibboleth.idp.saml.logout.soap";
+    
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(SOAPLogoutRequest.class);
         
@@ -96,6 +121,18 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
 
     /** Strategy function for access to {@link SAMLEndpointContext} to retrieve address from. */
     @Nonnull private Function<ProfileRequestContext,SAMLEndpointContext> endpointContextLookupStrategy;
+
+    /** Lookup strategy for context in which to dispatch concurrent requests. */
+    @Nonnull private Function<ProfileRequestContext,AsyncLogoutPropagationContext> asyncContextLookupStrategy;
+
+    /** Lookup strategy for context in which to record results. */
+    @Nonnull private Function<ProfileRequestContext,LogoutContext> logoutContextLookupStrategy;
+
+    /** Lookup strategy for audit state to defer along with concurrent requests. */
+    @Nonnull private Function<ProfileRequestContext,AuditContext> auditContextLookupStrategy;
+    
+    /** Executor for concurrent requests. */
+    @Nullable private ExecutorService executor;
     
     /** SOAP client. */
     @NonnullAfterInit private SOAPClient soapClient;
@@ -115,6 +152,12 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
     /** Endpoint context to determine destination address. */
     @Nullable private SAMLEndpointContext epContext;
     
+    /** Context in which to dispatch concurrent requests. */
+    @Nullable private AsyncLogoutPropagationContext asyncContext;
+    
+    /** Context in which to record results. */
+    @Nullable private LogoutContext logoutContext;
+    
     /** Constructor. */
     public SOAPLogoutRequest() {
         
@@ -134,6 +177,10 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
                 new ChildContextLookup<>(SAMLEndpointContext.class, true).compose(
                         new ChildContextLookup<>(SAMLPeerEntityContext.class, true).compose(
                                 new OutboundMessageContextLookup()));
+        
+        asyncContextLookupStrategy = new ChildContextLookup<>(AsyncLogoutPropagationContext.class);
+        logoutContextLookupStrategy = new ChildContextLookup<>(LogoutContext.class);
+        auditContextLookupStrategy = new ChildContextLookup<>(AuditContext.class);
     }
     
     /**
@@ -187,6 +234,65 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
                 "SAMLEndpointContext lookup strategy cannot be null");
     }
     
+    /**
+     * Set lookup strategy for {@link AsyncLogoutPropagationContext} in which to dispatch concurrent requests.
+     * 
+     * @param strategy  lookup strategy
+     * 
+     * @since 4.1.0
+     */
+    public void setAsyncContextLookupStrategy(
+            @Nonnull final Function<ProfileRequestContext,AsyncLogoutPropagationContext> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        asyncContextLookupStrategy = Constraint.isNotNull(strategy,
+                "AsyncLogoutPropagationContext lookup strategy cannot be null");
+    }
+
+    /**
+     * Set lookup strategy for {@link LogoutContext} in which to record results.
+     * 
+     * @param strategy  lookup strategy
+     * 
+     * @since 4.1.0
+     */
+    public void setLogoutContextLookupStrategy(
+            @Nonnull final Function<ProfileRequestContext,LogoutContext> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        logoutContextLookupStrategy = Constraint.isNotNull(strategy, "LogoutContext lookup strategy cannot be null");
+    }
+
+    /**
+     * Set lookup strategy for {@link AuditContext} to defer along with concurrent requests.
+     * 
+     * @param strategy  lookup strategy
+     * 
+     * @since 4.1.0
+     */
+    public void setAuditContextLookupStrategy(
+            @Nonnull final Function<ProfileRequestContext,AuditContext> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        auditContextLookupStrategy = Constraint.isNotNull(strategy, "AuditContext lookup strategy cannot be null");
+    }
+    
+    /**
+     * Set an executor with which to dispatch requests concurrently when an
+     * {@link AsyncLogoutPropagationContext} is present.
+     * 
+     * <p>The executor should be bounded; requests it rejects are sent synchronously.</p>
+     * 
+     * @param service executor, or null to always send synchronously
+     * 
+     * @since 4.1.0
+     */
+    public void setExecutor(@Nullable final ExecutorService service) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        executor = service;
+    }
+    
     /**
      * Set the SOAP client instance.
      * 
@@ -249,6 +355,8 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
         }
         
         mdContext = metadataContextLookupStrategy.apply(profileRequestContext);
+        asyncContext = executor != null ? asyncContextLookupStrategy.apply(profileRequestContext) : null;
+        logoutContext = logoutContextLookupStrategy.apply(profileRequestContext);
         
         return true;
     }
@@ -256,6 +364,10 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
     /** {@inheritDoc} */
     @Override
     protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        
+        final SPSession session = propagationContext.getSession();
+        final String serviceId = session != null ? session.getId() : null;
+        
         try {
             final InOutOperationContext opContext = new SAMLSOAPClientContextBuilder<>()
                     .setOutboundMessage(logoutRequest)
@@ -266,18 +378,15 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
                     .build();
             
             logoutRequest.setDestination(epContext.getEndpoint().getLocation());
+            
+            if (asyncContext != null && session != null && dispatch(profileRequestContext, opContext, session)) {
+                return;
+            }
         
             log.debug("{} Executing LogoutRequest over SOAP 1.1 binding to endpoint: {}", getLogPrefix(),
                     logoutRequest.getDestination());
             
-            soapClient.send(logoutRequest.getDestination(), opContext);
-            final Object response = opContext.getInboundMessageContext().getMessage();
-            
-            if (response == null) {
-                throw new MessageException("No response message received");
-            } else if (!(response instanceof LogoutResponse)) {
-                throw new MessageException("Message received was not of correct type");
-            }
+            final LogoutResponse response = send(logoutRequest.getDestination(), opContext, serviceId);
             
             // Store off message so audit extraction works.
             // Also mock/copy SAMLBindingContext for the same reason (it's SOAP in both directions).
@@ -290,7 +399,7 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
             
             log.debug("{} Processing LogoutResponse received via SOAP 1.1 binding from endpoint: {}", getLogPrefix(),
                     logoutRequest.getDestination());
-            handleResponse(profileRequestContext, (LogoutResponse) response);
+            propagationContext.setResult(handleResponse(response, serviceId));
         } catch (final ClassCastException e) {
             log.warn("{} SOAP message payload was not an instance of LogoutResponse", getLogPrefix());
             ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_MESSAGE);
@@ -298,16 +407,124 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
             log.warn("{} SOAP logout request failed", getLogPrefix(), e);
             ActionSupport.buildEvent(profileRequestContext, EventIds.IO_ERROR);
         }
+        
+        if (logoutContext != null && serviceId != null) {
+            logoutContext.addPropagationResult(serviceId, propagationContext.getResult());
+        }
+    }
+    
+    /**
+     * Dispatch the request for concurrent execution.
+     * 
+     * @param profileRequestContext profile request context
+     * @param opContext operation context for the exchange
+     * @param session session being logged out
+     * 
+     * @return true iff the request was dispatched, false if it must be sent synchronously
+     */
+    private boolean dispatch(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final InOutOperationContext opContext, @Nonnull final SPSession session) {
+        
+        final String destination = logoutRequest.getDestination();
+        final String serviceId = session.getId();
+        final SAMLBindingContext outboundBindingContext =
+                profileRequestContext.getOutboundMessageContext().getSubcontext(SAMLBindingContext.class);
+        final BindingDescriptor bindingDescriptor =
+                outboundBindingContext != null ? outboundBindingContext.getBindingDescriptor() : null;
+        
+        try {
+            final Future<Result> future = executor.submit(() -> {
+                log.debug("{} Executing concurrent LogoutRequest over SOAP 1.1 binding to endpoint: {}",
+                        getLogPrefix(), destination);
+                try {
+                    final LogoutResponse response = send(destination, opContext, serviceId);
+                    // Mock/copy SAMLBindingContext so audit extraction works, as in the synchronous case.
+                    opContext.getInboundMessageContext().getSubcontext(SAMLBindingContext.class, true)
+                        .setBindingDescriptor(bindingDescriptor);
+                    return handleResponse(response, serviceId);
+                } catch (final MessageException | SOAPException | SecurityException e) {
+                    log.warn("{} SOAP logout request to {} failed", getLogPrefix(), serviceId, e);
+                    return Result.Failure;
+                }
+            });
+            final AsyncLogoutPropagationContext.Operation operation = asyncContext.addPending(session, future);
+            operation.setAuditContext(auditContextLookupStrategy.apply(profileRequestContext));
+            operation.setOperationContext(opContext);
+            propagationContext.setResult(Result.Pending);
+            log.debug("{} Dispatched LogoutRequest to {} for concurrent execution", getLogPrefix(), serviceId);
+            return true;
+        } catch (final RejectedExecutionException e) {
+            log.warn("{} Concurrent logout propagation capacity exceeded, sending request synchronously",
+                    getLogPrefix());
+            return false;
+        }
+    }
+    
+    /**
+     * Send the request and return the response, tracking latency and failures for the service.
+     * 
+     * @param destination endpoint address
+     * @param opContext operation context for the exchange
+     * @param serviceId name of service for metrics
+     * 
+     * @return the response
+     * 
+     * @throws MessageException if a response of the proper type is not received
+     * @throws SOAPException if the SOAP exchange fails
+     * @throws SecurityException if a security error occurs
+     */
+    @Nonnull private LogoutResponse send(@Nonnull final String destination,
+            @Nonnull final InOutOperationContext opContext, @Nullable final String serviceId)
+                    throws MessageException, SOAPException, SecurityException {
+        
+        final Timer.Context timer = serviceId != null
+                ? MetricsSupport.getMetricRegistry().timer(
+                        MetricRegistry.name(METRIC_NAME_PREFIX, serviceId, "latency")).time()
+                : null;
+        boolean success = false;
+        try {
+            soapClient.send(destination, opContext);
+            final Object response = opContext.getInboundMessageContext().getMessage();
+            
+            if (response == null) {
+                throw new MessageException("No response message received");
+            } else if (!(response instanceof LogoutResponse)) {
+                throw new MessageException("Message received was not of correct type");
+            }
+            success = true;
+            return (LogoutResponse) response;
+        } finally {
+            if (timer != null) {
+                timer.stop();
+            }
+            if (!success) {
+                countFailure(serviceId);
+            }
+        }
+    }
+    
+    /**
+     * Increment the failure count for a service.
+     * 
+     * @param serviceId name of service
+     */
+    private void countFailure(@Nullable final String serviceId) {
+        if (serviceId != null) {
+            MetricsSupport.getMetricRegistry().counter(
+                    MetricRegistry.name(METRIC_NAME_PREFIX, serviceId, "failures")).inc();
+        }
     }
 
     /**
      * Turn status from response into an appropriate result.
      * 
-     * @param profileRequestContext current profile request context
      * @param response message to examine
+     * @param serviceId name of service for metrics
+     * 
+     * @return the result
      */
-    private void handleResponse(@Nonnull final ProfileRequestContext profileRequestContext,
-            @Nonnull final LogoutResponse response) {
+    @Nonnull private Result handleResponse(@Nonnull final LogoutResponse response,
+            @Nullable final String serviceId) {
         final Status status = response.getStatus();
         if (status != null) {
             StatusCode code = status.getStatusCode();
@@ -316,11 +533,11 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
                     code = code.getStatusCode();
                     if (code == null || code.getValue() == null || !StatusCode.PARTIAL_LOGOUT.equals(code.getValue())) {
                         log.debug("{} Logout successful", getLogPrefix());
-                        propagationContext.setResult(Result.Success);
-                    } else {
-                        log.debug("{} Logout partially successful", getLogPrefix());
+                        return Result.Success;
                     }
-                    return;
+                    log.debug("{} Logout partially successful", getLogPrefix());
+                    countFailure(serviceId);
+                    return Result.Failure;
                 }
                 log.warn("{} LogoutResponse received with status code '{}'", getLogPrefix(), code.getValue());
             } else {
@@ -329,6 +546,8 @@ public class SOAPLogoutRequest extends AbstractProfileAction {
         } else {
             log.warn("{} LogoutResponse received with no status", getLogPrefix());
         }
+        countFailure(serviceId);
+        return Result.Failure;
     }
     
 }
\ No newline at end of file
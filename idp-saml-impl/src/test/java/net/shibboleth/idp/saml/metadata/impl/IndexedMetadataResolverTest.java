@@ -0,0 +1,178 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.stream.Stream;
+
+import net.shibboleth.idp.saml.security.impl.KeyAuthorityNodeProcessor;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.saml.criterion.ArtifactCriterion;
+import org.opensaml.saml.metadata.resolver.filter.impl.NodeProcessingMetadataFilter;
+import org.opensaml.saml.metadata.resolver.impl.FilesystemMetadataResolver;
+import org.opensaml.saml.saml2.binding.artifact.SAML2ArtifactType0004;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.security.x509.PKIXValidationInformation;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link IndexedMetadataResolver}. */
+public class IndexedMetadataResolverTest extends XMLObjectBaseTestCase {
+    
+    private Path directory;
+    
+    private Path metadataFile;
+    
+    private FilesystemMetadataResolver source;
+    
+    private IndexedMetadataResolver resolver;
+    
+    @BeforeMethod public void setUp() throws Exception {
+        directory = Files.createTempDirectory("indexed-metadata");
+
+        final URL mdURL = IndexedMetadataResolverTest.class
+                .getResource("/net/shibboleth/idp/saml/impl/security/KeyAuthority-NodeProcessor-metadata.xml");
+        metadataFile = Files.createTempFile("indexed-metadata", ".xml");
+        Files.copy(new File(mdURL.toURI()).toPath(), metadataFile, StandardCopyOption.REPLACE_EXISTING);
+        source = new FilesystemMetadataResolver(metadataFile.toFile());
+        source.setParserPool(parserPool);
+        source.setMetadataFilter(buildNodeProcessingFilter());
+        source.setId("source");
+        
+        resolver = new IndexedMetadataResolver();
+        resolver.setId("test");
+        resolver.setSourceResolver(source);
+        resolver.setIndexDirectory(directory);
+        resolver.setParserPool(parserPool);
+        resolver.setMetadataFilter(buildNodeProcessingFilter());
+        resolver.initialize();
+    }
+    
+    @AfterMethod public void tearDown() throws IOException {
+        resolver.destroy();
+        try (final Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals(files.count(), 0);
+        }
+        Files.delete(directory);
+        Files.delete(metadataFile);
+    }
+    
+    @Test public void testIndex() throws Exception {
+        Assert.assertEquals(resolver.getIndexedEntityCount(), 4);
+        Assert.assertNull(source.resolveSingle(
+                new CriteriaSet(new EntityIdCriterion("https://idp-top.example.org"))));
+        try (final Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals(files.count(), 1);
+        }
+        Assert.assertNull(resolver.resolveSingle(
+                new CriteriaSet(new EntityIdCriterion("https://unknown.example.org"))));
+        Assert.assertNull(resolver.resolveSingle(new CriteriaSet()));
+    }
+
+    /** Results must match {@link KeyAuthorityNodeProcessor}'s own test, relying on rebuilt groups. */
+    @Test public void testMaterialization() throws Exception {
+        final String[] entities = {
+                "https://idp-top.example.org",
+                "https://idp-sub1.example.org",
+                "https://idp-sub2.example.org",
+                "https://idp-sub2a.example.org",
+        };
+        for (int i = 0; i < entities.length; ++i) {
+            final CriteriaSet criteria = new CriteriaSet(new EntityIdCriterion(entities[i]));
+            final EntityDescriptor entity = resolver.resolveSingle(criteria);
+            Assert.assertEquals(entity.getEntityID(), entities[i]);
+            final List<PKIXValidationInformation> infos =
+                    entity.getObjectMetadata().get(PKIXValidationInformation.class);
+            Assert.assertEquals(infos.size(), i + 2);
+            Assert.assertSame(resolver.resolveSingle(criteria), entity);
+        }
+    }
+
+    @Test public void testSourceID() throws Exception {
+        final byte[] sourceID = MessageDigest.getInstance("SHA-1").digest(
+                "https://idp-sub2.example.org".getBytes(StandardCharsets.UTF_8));
+        final SAML2ArtifactType0004 artifact =
+                new SAML2ArtifactType0004(new byte[] {0, 0}, sourceID, new byte[20]);
+        final EntityDescriptor entity = resolver.resolveSingle(new CriteriaSet(new ArtifactCriterion(artifact)));
+        Assert.assertEquals(entity.getEntityID(), "https://idp-sub2.example.org");
+    }
+
+    @Test public void testRefresh() throws Exception {
+        final EntityDescriptor before =
+                resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion("https://idp-top.example.org")));
+        // Force the source to reload the unchanged file.
+        Files.setLastModifiedTime(metadataFile,
+                FileTime.fromMillis(Files.getLastModifiedTime(metadataFile).toMillis() + 10000));
+        resolver.refresh();
+        Assert.assertEquals(resolver.getIndexedEntityCount(), 4);
+        Assert.assertNotNull(resolver.getLastRefresh());
+        try (final Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals(files.count(), 1);
+        }
+        final EntityDescriptor after =
+                resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion("https://idp-top.example.org")));
+        Assert.assertNotSame(after, before);
+        Assert.assertEquals(after.getEntityID(), before.getEntityID());
+    }
+    
+    /** Only files left behind by a resolver with the same ID are stale, not those of one whose ID extends it. */
+    @Test public void testStaleFiles() throws Exception {
+        final Path shared = Files.createDirectories(directory.resolve("shared"));
+        final Path stale = Files.createFile(shared.resolve("test+1.idx"));
+        final Path foreign = Files.createFile(shared.resolve("test-other+2.idx"));
+        
+        final FilesystemMetadataResolver otherSource = new FilesystemMetadataResolver(metadataFile.toFile());
+        otherSource.setParserPool(parserPool);
+        otherSource.setId("otherSource");
+        final IndexedMetadataResolver other = new IndexedMetadataResolver();
+        other.setId("test");
+        other.setSourceResolver(otherSource);
+        other.setIndexDirectory(shared);
+        other.setParserPool(parserPool);
+        other.initialize();
+        try {
+            Assert.assertFalse(Files.exists(stale));
+            Assert.assertTrue(Files.exists(foreign));
+        } finally {
+            other.destroy();
+            Files.delete(foreign);
+            Files.delete(shared);
+        }
+    }
+    
+    private NodeProcessingMetadataFilter buildNodeProcessingFilter() throws Exception {
+        final NodeProcessingMetadataFilter filter = new NodeProcessingMetadataFilter();
+        filter.setNodeProcessors(List.of(new KeyAuthorityNodeProcessor()));
+        filter.initialize();
+        return filter;
+    }
+    
+}
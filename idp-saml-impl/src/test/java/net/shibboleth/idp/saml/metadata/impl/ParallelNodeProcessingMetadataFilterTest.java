@@ -0,0 +1,149 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.shibboleth.idp.saml.security.impl.KeyAuthorityNodeProcessor;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataNodeProcessor;
+import org.opensaml.saml.metadata.resolver.impl.FilesystemMetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.security.x509.PKIXValidationInformation;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link ParallelNodeProcessingMetadataFilter}. */
+public class ParallelNodeProcessingMetadataFilterTest extends XMLObjectBaseTestCase {
+    
+    private ParallelNodeProcessingMetadataFilter filter;
+    
+    private FilesystemMetadataResolver resolver;
+    
+    @AfterMethod public void tearDown() {
+        if (resolver != null) {
+            resolver.destroy();
+        }
+        if (filter != null) {
+            filter.destroy();
+        }
+    }
+    
+    @Test public void testSerial() throws Exception {
+        init(1, new KeyAuthorityNodeProcessor());
+        checkKeyAuthorities();
+        Assert.assertEquals(filter.getLastEntityCount(), 4);
+    }
+
+    @Test public void testParallel() throws Exception {
+        // Each entity waits for a second one to start, which can only happen if they're processed concurrently.
+        final CountDownLatch latch = new CountDownLatch(2);
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final MetadataNodeProcessor rendezvous = node -> {
+            if (node instanceof EntityDescriptor) {
+                threads.add(Thread.currentThread().getName());
+                latch.countDown();
+                try {
+                    if (!latch.await(5, TimeUnit.SECONDS)) {
+                        timedOut.set(true);
+                    }
+                } catch (final InterruptedException e) {
+                    throw new FilterException(e);
+                }
+            }
+        };
+        
+        init(4, new KeyAuthorityNodeProcessor(), rendezvous);
+        checkKeyAuthorities();
+        Assert.assertEquals(filter.getLastEntityCount(), 4);
+        Assert.assertNotNull(filter.getLastProcessingDuration());
+        Assert.assertFalse(timedOut.get());
+        Assert.assertTrue(threads.size() > 1);
+    }
+
+    @Test public void testFailure() throws Exception {
+        final MetadataNodeProcessor failing = node -> {
+            if (node instanceof EntityDescriptor
+                    && "https://idp-sub2.example.org".equals(((EntityDescriptor) node).getEntityID())) {
+                throw new FilterException("Failed");
+            }
+        };
+
+        filter = new ParallelNodeProcessingMetadataFilter();
+        filter.setNodeProcessors(List.of(failing));
+        filter.setParallelism(4);
+        filter.initialize();
+        
+        resolver = buildResolver();
+        resolver.setFailFastInitialization(false);
+        resolver.initialize();
+        Assert.assertNull(resolver.resolveSingle(
+                new CriteriaSet(new EntityIdCriterion("https://idp-top.example.org"))));
+    }
+    
+    private void init(final int parallelism, final MetadataNodeProcessor... processors) throws Exception {
+        filter = new ParallelNodeProcessingMetadataFilter();
+        filter.setNodeProcessors(List.of(processors));
+        filter.setParallelism(parallelism);
+        filter.initialize();
+        
+        resolver = buildResolver();
+        resolver.initialize();
+    }
+    
+    private FilesystemMetadataResolver buildResolver() throws Exception {
+        final URL mdURL = ParallelNodeProcessingMetadataFilterTest.class
+                .getResource("/net/shibboleth/idp/saml/impl/security/KeyAuthority-NodeProcessor-metadata.xml");
+        final FilesystemMetadataResolver fileResolver = new FilesystemMetadataResolver(new File(mdURL.toURI()));
+        fileResolver.setParserPool(parserPool);
+        fileResolver.setMetadataFilter(filter);
+        fileResolver.setId("test");
+        return fileResolver;
+    }
+    
+    /** Results must match {@link KeyAuthorityNodeProcessor}'s own test, relying on group processing order. */
+    private void checkKeyAuthorities() throws Exception {
+        final String[] entities = {
+                "https://idp-top.example.org",
+                "https://idp-sub1.example.org",
+                "https://idp-sub2.example.org",
+                "https://idp-sub2a.example.org",
+        };
+        for (int i = 0; i < entities.length; ++i) {
+            final EntityDescriptor entity =
+                    resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(entities[i])));
+            final List<PKIXValidationInformation> infos =
+                    entity.getObjectMetadata().get(PKIXValidationInformation.class);
+            Assert.assertEquals(infos.size(), i + 2);
+        }
+    }
+    
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.shibboleth.idp.saml.security.impl.KeyAuthorityNodeProcessor;
+
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.metadata.resolver.impl.FilesystemMetadataResolver;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link TimedMetadataFilterChain}. */
+public class TimedMetadataFilterChainTest extends XMLObjectBaseTestCase {
+    
+    @Test public void testTiming() throws Exception {
+        final ParallelNodeProcessingMetadataFilter nodeFilter = new ParallelNodeProcessingMetadataFilter();
+        nodeFilter.setNodeProcessors(List.of(new KeyAuthorityNodeProcessor()));
+        nodeFilter.initialize();
+        
+        final TimedMetadataFilterChain chain = new TimedMetadataFilterChain();
+        chain.setFilters(new ArrayList<MetadataFilter>(List.of(nodeFilter)));
+        Assert.assertNull(chain.getLastFilterDuration());
+        
+        final URL mdURL = TimedMetadataFilterChainTest.class
+                .getResource("/net/shibboleth/idp/saml/impl/security/KeyAuthority-NodeProcessor-metadata.xml");
+        final FilesystemMetadataResolver resolver = new FilesystemMetadataResolver(new File(mdURL.toURI()));
+        resolver.setParserPool(parserPool);
+        resolver.setMetadataFilter(chain);
+        resolver.setId("test");
+        try {
+            resolver.initialize();
+            
+            Assert.assertNotNull(chain.getLastFilterDuration());
+            Assert.assertTrue(chain.getLastFilterDuration().compareTo(nodeFilter.getLastProcessingDuration()) >= 0);
+        } finally {
+            resolver.destroy();
+            nodeFilter.destroy();
+        }
+    }
+    
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.saml.nameid.impl;
+
+import java.security.KeyException;
+import java.time.Duration;
+import java.time.Instant;
+
+import javax.crypto.SecretKey;
+
+import net.shibboleth.ext.spring.resource.ResourceHelper;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.security.DataExpiredException;
+import net.shibboleth.utilities.java.support.security.DataSealer;
+import net.shibboleth.utilities.java.support.security.DataSealerException;
+import net.shibboleth.utilities.java.support.security.DataSealerKeyStrategy;
+import net.shibboleth.utilities.java.support.security.impl.BasicKeystoreKeyStrategy;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link CryptoTransientIdCodec}.
+ */
+public class CryptoTransientIdCodecTest {
+
+    private final static Duration TIMEOUT = Duration.ofMinutes(5);
+
+    private final static String PRINCIPAL = "The!Principal\u00e9";
+
+    private final static String RECIPIENT = "https://sp.example.org/recipient";
+
+    private DataSealer dataSealer;
+
+    private CryptoTransientIdCodec codec;
+
+    @BeforeClass public void setUp() throws ComponentInitializationException {
+        final BasicKeystoreKeyStrategy kstrategy = new BasicKeystoreKeyStrategy();
+        kstrategy.setKeyAlias("secret");
+        kstrategy.setKeyPassword("kpassword");
+        kstrategy.setKeystorePassword("password");
+        kstrategy.setKeystoreResource(ResourceHelper.of(
+                new ClassPathResource("/net/shibboleth/idp/saml/impl/attribute/resolver/SealerKeyStore.jks")));
+        kstrategy.setKeyVersionResource(ResourceHelper.of(
+                new ClassPathResource("/net/shibboleth/idp/saml/impl/attribute/resolver/SealerKeyStore.kver")));
+        kstrategy.initialize();
+
+        dataSealer = new DataSealer();
+        dataSealer.setKeyStrategy(kstrategy);
+        dataSealer.initialize();
+
+        codec = new CryptoTransientIdCodec();
+        codec.setKeyStrategy(kstrategy);
+        codec.initialize();
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoKeyStrategy() throws ComponentInitializationException {
+        new CryptoTransientIdCodec().initialize();
+    }
+
+    @Test public void testRoundTrip() throws DataSealerException {
+        final String encoded = codec.encode(RECIPIENT, PRINCIPAL, Instant.now().plus(TIMEOUT));
+        Assert.assertTrue(codec.isEncoded(encoded));
+        Assert.assertTrue(encoded.substring(CryptoTransientIdCodec.VERSION_PREFIX.length()).matches("[A-Za-z0-9_-]+"));
+        Assert.assertNotEquals(codec.encode(RECIPIENT, PRINCIPAL, Instant.now().plus(TIMEOUT)), encoded);
+
+        final Pair<String,String> decoded = codec.decode(encoded);
+        Assert.assertEquals(decoded.getFirst(), RECIPIENT);
+        Assert.assertEquals(decoded.getSecond(), PRINCIPAL);
+    }
+
+    @Test public void testSmaller() throws DataSealerException {
+        final Instant expiration = Instant.now().plus(TIMEOUT);
+        final String sealed = dataSealer.wrap(RECIPIENT + "!" + PRINCIPAL, expiration);
+        Assert.assertFalse(codec.isEncoded(sealed));
+        Assert.assertTrue(codec.encode(RECIPIENT, PRINCIPAL, expiration).length() < sealed.length());
+    }
+
+    @Test(expectedExceptions = DataExpiredException.class)
+    public void testExpired() throws DataSealerException {
+        codec.decode(codec.encode(RECIPIENT, PRINCIPAL, Instant.now().minusSeconds(1)));
+    }
+
+    @Test(expectedExceptions = DataSealerException.class)
+    public void testTruncated() throws DataSealerException {
+        final String encoded = codec.encode(RECIPIENT, PRINCIPAL, Instant.now().plus(TIMEOUT));
+        codec.decode(encoded.substring(0, encoded.length() - 4));
+    }
+
+    @Test(expectedExceptions = DataSealerException.class)
+    public void testNotEncoded() throws DataSealerException {
+        codec.decode(dataSealer.wrap(RECIPIENT + "!" + PRINCIPAL, Instant.now().plus(TIMEOUT)));
+    }
+
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testLockedKeyStrategy() throws ComponentInitializationException {
+        final CryptoTransientIdCodec locked = new CryptoTransientIdCodec();
+        locked.setKeyStrategy(new LockedKeyStrategy());
+        locked.initialize();
+    }
+
+    @Test(expectedExceptions = DataSealerException.class)
+    public void testLockedAtStartup() throws ComponentInitializationException, DataSealerException {
+        final CryptoTransientIdCodec locked = new CryptoTransientIdCodec();
+        locked.setKeyStrategy(new LockedKeyStrategy());
+        locked.setLockedAtStartup(true);
+        locked.initialize();
+        locked.encode(RECIPIENT, PRINCIPAL, Instant.now().plus(TIMEOUT));
+    }
+
+    /**
+     * Times round trips through the codec and through the data sealer, after a warm-up pass of each.
+     * 
+     * @throws DataSealerException ...
+     */
+    @Test public void benchmark() throws DataSealerException {
+        final int iterations = 20000;
+        final Instant expiration = Instant.now().plus(TIMEOUT);
+        
+        long sealerTime = 0;
+        long codecTime = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                Assert.assertEquals(dataSealer.unwrap(dataSealer.wrap(RECIPIENT + "!" + PRINCIPAL + i, expiration)),
+                        RECIPIENT + "!" + PRINCIPAL + i);
+            }
+            sealerTime = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                Assert.assertEquals(codec.decode(codec.encode(RECIPIENT, PRINCIPAL + i, expiration)).getSecond(),
+                        PRINCIPAL + i);
+            }
+            codecTime = System.nanoTime() - start;
+        }
+        
+        LoggerFactory.getLogger(CryptoTransientIdCodecTest.class).info("{} round trips: DataSealer {}ms, codec {}ms",
+                iterations, sealerTime / 1000000, codecTime / 1000000);
+    }
+
+    /** Key strategy that is unable to supply keys. */
+    private static class LockedKeyStrategy implements DataSealerKeyStrategy {
+
+        /** {@inheritDoc} */
+        public Pair<String,SecretKey> getDefaultKey() throws KeyException {
+            throw new KeyException("Locked");
+        }
+
+        /** {@inheritDoc} */
+        public SecretKey getKey(final String name) throws KeyException {
+            throw new KeyException("Locked");
+        }
+    }
+
+}
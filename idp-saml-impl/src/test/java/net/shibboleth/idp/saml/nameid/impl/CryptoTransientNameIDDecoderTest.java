@@ -63,6 +63,8 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
 
     private DataSealer dataSealer;
 
+    private CryptoTransientIdCodec codec;
+
     private CryptoTransientNameIDDecoder decoder;
     
     /**
@@ -94,8 +96,13 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
         dataSealer.setKeyStrategy(kstrategy);
         dataSealer.initialize();
 
+        codec = new CryptoTransientIdCodec();
+        codec.setKeyStrategy(kstrategy);
+        codec.initialize();
+
         decoder = new CryptoTransientNameIDDecoder();
         decoder.setDataSealer(dataSealer);
+        decoder.setCodec(codec);
         decoder.setId("Decoder");
         decoder.initialize();
     }
@@ -149,10 +156,42 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
         Assert.assertNull(decoder.decode(ct, "my" + RECIPIENT));
     }
 
+    @Test public void compact() throws Exception {
+        final String ct = codec.encode(RECIPIENT, PRINCIPAL, Instant.now().plus(TIMEOUT));
+
+        Assert.assertEquals(decoder.decode(ct, RECIPIENT), PRINCIPAL);
+        Assert.assertNull(decoder.decode(ct, "my" + RECIPIENT));
+    }
+
+    @Test(expectedExceptions = NameDecoderException.class)
+    public void compactTimeout() throws DataSealerException, NameDecoderException {
+        final String ct = codec.encode(RECIPIENT, PRINCIPAL, Instant.now().minusMillis(5));
+
+        decoder.decode(ct, RECIPIENT);
+    }
+
+    @Test(expectedExceptions = NameDecoderException.class)
+    public void compactBadData() throws DataSealerException, NameDecoderException {
+        final String ct = codec.encode(RECIPIENT, PRINCIPAL, Instant.now().plus(TIMEOUT));
+
+        decoder.decode(ct.substring(0, ct.length() - 2) + (ct.endsWith("AA") ? "BB" : "AA"), RECIPIENT);
+    }
+
     @Test public void decode() throws Exception {
+        decode(false);
+    }
+
+    @Test public void decodeCompact() throws Exception {
+        decode(true);
+    }
+
+    private void decode(final boolean compact) throws Exception {
         
         final CryptoTransientIdGenerationStrategy strategy = new CryptoTransientIdGenerationStrategy();
         strategy.setDataSealer(dataSealer);
+        if (compact) {
+            strategy.setCodec(codec);
+        }
         strategy.setId("strategy");
         strategy.setIdLifetime(TIMEOUT);
         strategy.initialize();
@@ -167,6 +206,7 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
         prc.getSubcontext(SubjectContext.class, true).setPrincipalName(TestSources.PRINCIPAL_ID);
         
         final NameID nameID = generator.generate(prc, generator.getFormat());
+        Assert.assertEquals(codec.isEncoded(nameID.getValue()), compact);
 
         final NameIDCanonicalizationFlowDescriptor desc = new NameIDCanonicalizationFlowDescriptor();
         desc.setId("C14NDesc");
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.shibboleth.idp.saml.nameid.impl;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.VersionMismatchException;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link TransientIdStorageService}.
+ */
+public class TransientIdStorageServiceTest {
+
+    private static final String CONTEXT = TransientIdParameters.CONTEXT;
+
+    private TransientIdStorageService store;
+
+    @AfterMethod public void tearDown() {
+        if (store != null) {
+            store.destroy();
+            store = null;
+        }
+    }
+
+    @Nonnull private TransientIdStorageService buildStore(final int max,
+            @Nonnull final TransientIdStorageService.OverflowPolicy policy) throws ComponentInitializationException {
+        store = new TransientIdStorageService();
+        store.setId("test");
+        store.setShardCount(2);
+        store.setWheelSize(8);
+        store.setWheelResolution(Duration.ofSeconds(1));
+        store.setCleanupInterval(Duration.ZERO);
+        store.setMaxRecords(max);
+        store.setOverflowPolicy(policy);
+        return store;
+    }
+
+    @Test public void testCrud() throws Exception {
+        buildStore(100, TransientIdStorageService.OverflowPolicy.REJECT).initialize();
+        final long exp = System.currentTimeMillis() + 60000;
+
+        Assert.assertTrue(store.create(CONTEXT, "id1", "value1", exp));
+        Assert.assertFalse(store.create(CONTEXT, "id1", "value2", exp));
+        Assert.assertTrue(store.create("other", "id1", "value3", null));
+        Assert.assertEquals(store.size(), 2);
+
+        StorageRecord<?> record = store.read(CONTEXT, "id1");
+        Assert.assertEquals(record.getValue(), "value1");
+        Assert.assertEquals(record.getVersion(), 1);
+        Assert.assertNull(store.read(CONTEXT, "id2"));
+
+        Assert.assertTrue(store.update(CONTEXT, "id1", "value2", exp));
+        Assert.assertEquals(store.read(CONTEXT, "id1").getVersion(), 2);
+        Assert.assertNull(store.read(CONTEXT, "id1", 2).getSecond());
+        Assert.assertEquals(store.read(CONTEXT, "id1", 1).getSecond().getValue(), "value2");
+        Assert.assertEquals(store.updateWithVersion(2, CONTEXT, "id1", "value3", exp), Long.valueOf(3));
+        try {
+            store.updateWithVersion(2, CONTEXT, "id1", "value4", exp);
+            Assert.fail("Version mismatch not detected");
+        } catch (final VersionMismatchException e) {
+            
+        }
+        Assert.assertFalse(store.update(CONTEXT, "id2", "value", exp));
+
+        Assert.assertTrue(store.updateExpiration(CONTEXT, "id1", exp + 1000));
+        record = store.read(CONTEXT, "id1");
+        Assert.assertEquals(record.getExpiration(), Long.valueOf(exp + 1000));
+        Assert.assertEquals(record.getVersion(), 3);
+
+        Assert.assertTrue(store.delete(CONTEXT, "id1"));
+        Assert.assertFalse(store.delete(CONTEXT, "id1"));
+        Assert.assertEquals(store.size(), 1);
+
+        store.deleteContext("other");
+        Assert.assertEquals(store.size(), 0);
+    }
+
+    @Test public void testExpiry() throws Exception {
+        buildStore(100, TransientIdStorageService.OverflowPolicy.REJECT).initialize();
+        final long now = System.currentTimeMillis();
+
+        store.create(CONTEXT, "soon", "value", now + 2000);
+        store.create(CONTEXT, "later", "value", now + 5000);
+        // Beyond the 8 second horizon of the wheel.
+        store.create(CONTEXT, "much-later", "value", now + 20000);
+        store.create(CONTEXT, "never", "value", null);
+        Assert.assertEquals(store.size(), 4);
+
+        store.advance(now + 1000);
+        Assert.assertEquals(store.size(), 4);
+
+        store.advance(now + 4000);
+        Assert.assertEquals(store.size(), 3);
+
+        store.advance(now + 12000);
+        Assert.assertEquals(store.size(), 2);
+        Assert.assertNotNull(store.read(CONTEXT, "much-later"));
+
+        store.advance(now + 30000);
+        Assert.assertEquals(store.size(), 1);
+        Assert.assertNotNull(store.read(CONTEXT, "never"));
+    }
+
+    @Test public void testExpiredNotReturned() throws Exception {
+        buildStore(100, TransientIdStorageService.OverflowPolicy.REJECT).initialize();
+
+        store.create(CONTEXT, "id", "value", System.currentTimeMillis() - 1);
+        Assert.assertNull(store.read(CONTEXT, "id"));
+        Assert.assertEquals(store.size(), 0);
+        Assert.assertTrue(store.create(CONTEXT, "id", "value", null));
+    }
+
+    @Test public void testReap() throws Exception {
+        buildStore(100, TransientIdStorageService.OverflowPolicy.REJECT).initialize();
+
+        store.create(CONTEXT, "id1", "value", System.currentTimeMillis() - 1);
+        store.create(CONTEXT, "id2", "value", null);
+        store.reap(CONTEXT);
+        Assert.assertEquals(store.size(), 1);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testReject() throws Exception {
+        buildStore(2, TransientIdStorageService.OverflowPolicy.REJECT).setShardCount(1);
+        store.initialize();
+        final long exp = System.currentTimeMillis() + 60000;
+
+        store.create(CONTEXT, "id1", "value", exp);
+        store.create(CONTEXT, "id2", "value", exp);
+        store.create(CONTEXT, "id3", "value", exp);
+    }
+
+    @Test public void testEvict() throws Exception {
+        buildStore(2, TransientIdStorageService.OverflowPolicy.EVICT).setShardCount(1);
+        store.initialize();
+        final long now = System.currentTimeMillis();
+
+        store.create(CONTEXT, "id1", "value", now + 5000);
+        store.create(CONTEXT, "id2", "value", now + 3000);
+        Assert.assertTrue(store.create(CONTEXT, "id3", "value", now + 4000));
+        Assert.assertEquals(store.size(), 2);
+        Assert.assertNull(store.read(CONTEXT, "id2"));
+        Assert.assertNotNull(store.read(CONTEXT, "id1"));
+    }
+
+    @Test public void testEvictSharded() throws Exception {
+        buildStore(4, TransientIdStorageService.OverflowPolicy.EVICT).initialize();
+        final long now = System.currentTimeMillis();
+
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertTrue(store.create(CONTEXT, "id" + i, "value", now + 5000 + i));
+            Assert.assertTrue(store.size() <= 4);
+        }
+        Assert.assertEquals(store.size(), 4);
+        Assert.assertNotNull(store.read(CONTEXT, "id99"));
+    }
+
+    @Test public void testSizeMetric() throws Exception {
+        buildStore(100, TransientIdStorageService.OverflowPolicy.REJECT).initialize();
+        final TransientIdStorageService other = new TransientIdStorageService();
+        other.setId("other");
+        other.setCleanupInterval(Duration.ZERO);
+        other.initialize();
+        try {
+            Assert.assertNotEquals(other.getSizeMetricName(), store.getSizeMetricName());
+            store.create(CONTEXT, "id1", "value", null);
+            Assert.assertEquals(MetricsSupport.getMetricRegistry().getGauges().get(
+                    store.getSizeMetricName()).getValue(), 1);
+            Assert.assertEquals(MetricsSupport.getMetricRegistry().getGauges().get(
+                    other.getSizeMetricName()).getValue(), 0);
+        } finally {
+            other.destroy();
+        }
+        Assert.assertFalse(MetricsSupport.getMetricRegistry().getGauges().containsKey(other.getSizeMetricName()));
+    }
+
+    @Test public void testReplication() throws Exception {
+        final Map<String,StorageRecord<?>> remote = new HashMap<>();
+        buildStore(100, TransientIdStorageService.OverflowPolicy.REJECT).setReplicator(
+                new TransientIdStorageService.Replicator() {
+                    public void replicate(final String context, final String key, final String value,
+                            final Long expiration) {
+                        remote.put(key, new StorageRecord<>(value, expiration));
+                    }
+
+                    public StorageRecord<?> lookup(final String context, final String key) {
+                        return remote.get(key);
+                    }
+                });
+        store.initialize();
+
+        store.create(CONTEXT, "local", "value", null);
+        Assert.assertTrue(remote.containsKey("local"));
+
+        remote.put("remote", new StorageRecord<>("value2", null));
+        Assert.assertEquals(store.read(CONTEXT, "remote").getValue(), "value2");
+        Assert.assertEquals(store.size(), 2);
+    }
+
+    @Test public void testStrategy() throws Exception {
+        buildStore(100, TransientIdStorageService.OverflowPolicy.REJECT).initialize();
+
+        final StoredTransientIdGenerationStrategy strategy = new StoredTransientIdGenerationStrategy();
+        strategy.setId("strategy");
+        strategy.setIdStore(store);
+        strategy.initialize();
+
+        final String id = strategy.generate("https://sp.example.org", "jdoe");
+        final TransientIdParameters params =
+                new TransientIdParameters(store.read(TransientIdParameters.CONTEXT, id).getValue());
+        Assert.assertEquals(params.getAttributeRecipient(), "https://sp.example.org");
+        Assert.assertEquals(params.getPrincipal(), "jdoe");
+    }
+
+}
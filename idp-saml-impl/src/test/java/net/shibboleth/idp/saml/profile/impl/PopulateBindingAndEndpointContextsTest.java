@@ -25,6 +25,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 
@@ -37,8 +38,11 @@ import net.shibboleth.idp.saml.saml2.profile.config.BrowserSSOProfileConfigurati
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.logic.FunctionSupport;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
 import net.shibboleth.utilities.java.support.xml.XMLParserException;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.core.xml.XMLObjectBaseTestCase;
 import org.opensaml.core.xml.io.Unmarshaller;
 import org.opensaml.core.xml.io.UnmarshallingException;
@@ -54,8 +58,11 @@ import org.opensaml.saml.common.profile.SAMLEventIds;
 import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
+import org.opensaml.saml.saml2.metadata.Endpoint;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
 import org.opensaml.saml.saml2.profile.SAML2ActionTestingSupport;
+import org.slf4j.LoggerFactory;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 import org.testng.Assert;
@@ -481,6 +488,192 @@ public class PopulateBindingAndEndpointContextsTest extends XMLObjectBaseTestCas
         Assert.assertEquals(epCtx.getEndpoint().getLocation(), LOCATION_POST);
     }
     
+    /**
+     * Resolution results reused until the role changes.
+     * 
+     * @throws Exception ...
+     */
+    @Test
+    public void testCachedResolution() throws Exception {
+        final EntityDescriptor entity = loadMetadata("/net/shibboleth/idp/saml/impl/profile/SPWithEndpoints.xml");
+        final SAMLMetadataContext mdCtx = new SAMLMetadataContext();
+        mdCtx.setEntityDescriptor(entity);
+        mdCtx.setRoleDescriptor(entity.getSPSSODescriptor("required"));
+        prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true).addSubcontext(mdCtx);
+        
+        final PopulateBindingAndEndpointContexts cachingAction = buildCachingAction(new EndpointResolutionCache());
+        final long hits = MetricsSupport.getMetricRegistry().counter(EndpointResolutionCache.HITS_METRIC_NAME).getCount();
+        
+        ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+        final SAMLEndpointContext epCtx = prc.getOutboundMessageContext().getSubcontext(
+                SAMLPeerEntityContext.class, false).getSubcontext(SAMLEndpointContext.class, false);
+        final Endpoint first = epCtx.getEndpoint();
+        Assert.assertEquals(first.getLocation(), LOCATION_POST);
+        
+        ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+        Assert.assertSame(epCtx.getEndpoint(), first);
+        Assert.assertEquals(MetricsSupport.getMetricRegistry().counter(
+                EndpointResolutionCache.HITS_METRIC_NAME).getCount(), hits + 1);
+        
+        // A different request is a miss.
+        ((AuthnRequest) prc.getInboundMessageContext().getMessage()).setAssertionConsumerServiceURL(LOCATION);
+        ActionTestingSupport.assertEvent(cachingAction.execute(rc), SAMLEventIds.ENDPOINT_RESOLUTION_FAILED);
+        
+        // Reloaded metadata is a miss.
+        ((AuthnRequest) prc.getInboundMessageContext().getMessage()).setAssertionConsumerServiceURL(LOCATION_POST);
+        final EntityDescriptor reloaded =
+                loadMetadata("/net/shibboleth/idp/saml/impl/profile/SPWithEndpoints.xml");
+        mdCtx.setRoleDescriptor(reloaded.getSPSSODescriptor("required"));
+        ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+        Assert.assertNotSame(epCtx.getEndpoint(), first);
+        Assert.assertEquals(epCtx.getEndpoint().getLocation(), LOCATION_POST);
+        Assert.assertEquals(MetricsSupport.getMetricRegistry().counter(
+                EndpointResolutionCache.HITS_METRIC_NAME).getCount(), hits + 1);
+    }
+    
+    /**
+     * Unverified requests are never cached, even with a role in hand.
+     * 
+     * @throws Exception ...
+     */
+    @Test
+    public void testUnverifiedNotCached() throws Exception {
+        final EntityDescriptor entity = loadMetadata("/net/shibboleth/idp/saml/impl/profile/SPWithEndpoints.xml");
+        final SAMLMetadataContext mdCtx = new SAMLMetadataContext();
+        mdCtx.setRoleDescriptor(entity.getSPSSODescriptor("required"));
+        prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true).addSubcontext(mdCtx);
+        Assert.assertFalse(prc.getSubcontext(RelyingPartyContext.class).isVerified());
+        
+        final EndpointResolutionCache cache = new EndpointResolutionCache();
+        final PopulateBindingAndEndpointContexts cachingAction = buildCachingAction(cache);
+        final long misses =
+                MetricsSupport.getMetricRegistry().counter(EndpointResolutionCache.MISSES_METRIC_NAME).getCount();
+        
+        ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+        ((AuthnRequest) prc.getInboundMessageContext().getMessage()).setAssertionConsumerServiceURL(LOCATION);
+        ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+        Assert.assertEquals(prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class).getSubcontext(
+                SAMLEndpointContext.class).getEndpoint().getLocation(), LOCATION);
+        Assert.assertEquals(MetricsSupport.getMetricRegistry().counter(
+                EndpointResolutionCache.MISSES_METRIC_NAME).getCount(), misses);
+        Assert.assertNull(cache.get(mdCtx.getRoleDescriptor(), buildTemplate(LOCATION_POST),
+                List.of(SAMLConstants.SAML2_POST_BINDING_URI)));
+    }
+    
+    /**
+     * A repeated resolution against a role with many endpoints is served from the cache.
+     * 
+     * @throws Exception ...
+     */
+    @Test
+    public void testCachedResolutionSkipsResolver() throws Exception {
+        final SPSSODescriptor role = setUpRoleWithManyEndpoints();
+        
+        final AtomicInteger resolutions = new AtomicInteger();
+        final PopulateBindingAndEndpointContexts cachingAction =
+                buildCachingAction(new EndpointResolutionCache(), new DefaultEndpointResolver<>() {
+                    @Override
+                    public Endpoint resolveSingle(final CriteriaSet criteria) throws ResolverException {
+                        resolutions.incrementAndGet();
+                        return super.resolveSingle(criteria);
+                    }
+                });
+        
+        ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+        final SAMLEndpointContext epCtx = prc.getOutboundMessageContext().getSubcontext(
+                SAMLPeerEntityContext.class, false).getSubcontext(SAMLEndpointContext.class, false);
+        final Endpoint first = epCtx.getEndpoint();
+        Assert.assertSame(first, role.getAssertionConsumerServices().get(59));
+        Assert.assertEquals(resolutions.get(), 1);
+        
+        ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+        Assert.assertSame(epCtx.getEndpoint(), first);
+        Assert.assertEquals(resolutions.get(), 1);
+    }
+    
+    /**
+     * Times resolution with and without the cache against a role with many endpoints, after a warm-up pass of each.
+     * 
+     * @throws Exception ...
+     */
+    @Test
+    public void benchmarkCachedResolution() throws Exception {
+        final SPSSODescriptor role = setUpRoleWithManyEndpoints();
+        final PopulateBindingAndEndpointContexts cachingAction = buildCachingAction(new EndpointResolutionCache());
+        final int iterations = 10000;
+        
+        long uncachedTime = 0;
+        long cachedTime = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                ActionTestingSupport.assertProceedEvent(action.execute(rc));
+            }
+            uncachedTime = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+            }
+            cachedTime = System.nanoTime() - start;
+        }
+        
+        Assert.assertSame(prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class).getSubcontext(
+                SAMLEndpointContext.class).getEndpoint(), role.getAssertionConsumerServices().get(59));
+        LoggerFactory.getLogger(PopulateBindingAndEndpointContextsTest.class).info(
+                "{} resolutions against {} endpoints: uncached {}ms, cached {}ms", iterations,
+                role.getAssertionConsumerServices().size(), uncachedTime / 1000000, cachedTime / 1000000);
+    }
+    
+    /**
+     * Install a role with 60 POST endpoints as the peer's metadata, and request the last of them.
+     * 
+     * @return the role
+     */
+    @Nonnull private SPSSODescriptor setUpRoleWithManyEndpoints() {
+        final SPSSODescriptor role = buildXMLObject(SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+        for (int i = 0; i < 60; ++i) {
+            final AssertionConsumerService acs = buildXMLObject(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
+            acs.setBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+            acs.setLocation("https://sp.example.org/ACS" + i);
+            acs.setIndex(i);
+            role.getAssertionConsumerServices().add(acs);
+        }
+        final SAMLMetadataContext mdCtx = new SAMLMetadataContext();
+        mdCtx.setEntityDescriptor(buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME));
+        mdCtx.setRoleDescriptor(role);
+        prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true).addSubcontext(mdCtx);
+        ((AuthnRequest) prc.getInboundMessageContext().getMessage()).setAssertionConsumerServiceURL(
+                "https://sp.example.org/ACS59");
+        return role;
+    }
+    
+    @Nonnull private PopulateBindingAndEndpointContexts buildCachingAction(@Nonnull final EndpointResolutionCache cache)
+            throws ComponentInitializationException {
+        return buildCachingAction(cache, new DefaultEndpointResolver<>());
+    }
+    
+    @Nonnull private Endpoint buildTemplate(@Nonnull final String location) {
+        final AssertionConsumerService acs = buildXMLObject(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
+        acs.setLocation(location);
+        return acs;
+    }
+    
+    @Nonnull private PopulateBindingAndEndpointContexts buildCachingAction(@Nonnull final EndpointResolutionCache cache,
+            @Nonnull final DefaultEndpointResolver<Endpoint> resolver) throws ComponentInitializationException {
+        final PopulateBindingAndEndpointContexts cachingAction = new PopulateBindingAndEndpointContexts();
+        cachingAction.setEndpointResolver(resolver);
+        cachingAction.setEndpointType(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
+        cachingAction.setEndpointCache(cache);
+        final BindingDescriptor binding = new BindingDescriptor();
+        binding.setId(SAMLConstants.SAML2_POST_BINDING_URI);
+        binding.initialize();
+        cachingAction.setBindingDescriptorsLookupStrategy(
+                FunctionSupport.<ProfileRequestContext,List<BindingDescriptor>>constant(List.of(binding)));
+        cachingAction.initialize();
+        return cachingAction;
+    }
+    
     @Nonnull private EntityDescriptor loadMetadata(@Nonnull @NotEmpty final String path) throws UnmarshallingException {
         
         try {
@@ -18,6 +18,7 @@
 package net.shibboleth.idp.saml.saml2.profile.impl;
 
 import java.util.Collections;
+import java.util.List;
 
 import net.shibboleth.idp.profile.ActionTestingSupport;
 import net.shibboleth.idp.profile.IdPEventIds;
@@ -32,12 +33,18 @@ import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
 
 import org.opensaml.core.OpenSAMLInitBaseTestCase;
+import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.profile.action.EventIds;
 import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.common.messaging.context.SAMLMetadataContext;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
 import org.opensaml.saml.saml2.profile.context.EncryptionContext;
+import org.opensaml.xmlsec.EncryptionConfiguration;
 import org.opensaml.xmlsec.EncryptionParameters;
 import org.opensaml.xmlsec.EncryptionParametersResolver;
 import org.opensaml.xmlsec.criterion.EncryptionConfigurationCriterion;
+import org.opensaml.xmlsec.impl.BasicEncryptionConfiguration;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 import org.testng.Assert;
@@ -136,10 +143,63 @@ public class PopulateEncryptionParametersTest extends OpenSAMLInitBaseTestCase {
         Assert.assertNull(ctx.getAttributeEncryptionParameters());
     }
     
+    @Test public void testCache() throws Exception {
+        final MockResolver resolver = new MockResolver(false);
+        final EncryptionParametersCache cache = new EncryptionParametersCache();
+        final SAMLMetadataContext mdCtx = prc.getOutboundMessageContext().getSubcontext(
+                SAMLPeerEntityContext.class, true).getSubcontext(SAMLMetadataContext.class, true);
+        mdCtx.setRoleDescriptor((SPSSODescriptor) XMLObjectSupport.buildXMLObject(
+                SPSSODescriptor.DEFAULT_ELEMENT_NAME));
+        
+        action.setEncryptionParametersResolver(resolver);
+        action.setParametersCache(cache);
+        action.initialize();
+        
+        Event event = action.execute(rc);
+        ActionTestingSupport.assertProceedEvent(event);
+        final EncryptionParameters first = prc.getSubcontext(RelyingPartyContext.class).getSubcontext(
+                EncryptionContext.class).getAssertionEncryptionParameters();
+        Assert.assertNotNull(first);
+        Assert.assertEquals(resolver.count, 1);
+
+        event = action.execute(rc);
+        ActionTestingSupport.assertProceedEvent(event);
+        final EncryptionParameters second = prc.getSubcontext(RelyingPartyContext.class).getSubcontext(
+                EncryptionContext.class).getAssertionEncryptionParameters();
+        Assert.assertNotNull(second);
+        Assert.assertNotSame(second, first);
+        Assert.assertEquals(resolver.count, 1);
+        
+        // A new role, as after a metadata reload, results in a miss.
+        mdCtx.setRoleDescriptor((SPSSODescriptor) XMLObjectSupport.buildXMLObject(
+                SPSSODescriptor.DEFAULT_ELEMENT_NAME));
+        event = action.execute(rc);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(resolver.count, 2);
+    }
+    
+    @Test public void testCacheBound() {
+        final EncryptionParametersCache cache = new EncryptionParametersCache(1);
+        final SPSSODescriptor role = (SPSSODescriptor) XMLObjectSupport.buildXMLObject(
+                SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+        final List<EncryptionConfiguration> configs1 = List.of(new BasicEncryptionConfiguration());
+        final List<EncryptionConfiguration> configs2 = List.of(new BasicEncryptionConfiguration());
+        
+        cache.put(role, configs1, false, "sp", null, null, new EncryptionParameters());
+        Assert.assertNotNull(cache.get(role, configs1, false, "sp", null, null));
+        Assert.assertNull(cache.get(role, configs2, false, "sp", null, null));
+        
+        cache.put(role, configs2, false, "sp", null, null, new EncryptionParameters());
+        Assert.assertNotNull(cache.get(role, configs2, false, "sp", null, null));
+        Assert.assertNull(cache.get(role, configs1, false, "sp", null, null));
+    }
+    
     private class MockResolver implements EncryptionParametersResolver {
 
         private boolean throwException;
         
+        private int count;
+        
         public MockResolver(final boolean shouldThrow) {
             throwException = shouldThrow;
         }
@@ -158,6 +218,7 @@ public class PopulateEncryptionParametersTest extends OpenSAMLInitBaseTestCase {
             }
             
             Constraint.isNotNull(criteria.get(EncryptionConfigurationCriterion.class), "Criterion was null");
+            ++count;
             return new EncryptionParameters();
         }
         
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.saml2.profile.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.idp.profile.RequestContextBuilder;
+import net.shibboleth.idp.profile.context.AuditContext;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.context.AsyncLogoutPropagationContext;
+import net.shibboleth.idp.session.context.LogoutContext;
+import net.shibboleth.idp.session.context.LogoutPropagationContext;
+import net.shibboleth.idp.session.context.LogoutPropagationContext.Result;
+import net.shibboleth.idp.session.impl.CompleteAsyncLogoutPropagation;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.core.OpenSAMLInitBaseTestCase;
+import org.opensaml.core.metrics.MetricsSupport;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.messaging.context.InOutOperationContext;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.common.messaging.context.SAMLBindingContext;
+import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.saml2.core.LogoutRequest;
+import org.opensaml.saml.saml2.core.LogoutResponse;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.metadata.SingleLogoutService;
+import org.opensaml.soap.client.SOAPClient;
+import org.opensaml.soap.common.SOAPException;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link SOAPLogoutRequest} unit test. */
+public class SOAPLogoutRequestTest extends OpenSAMLInitBaseTestCase {
+    
+    private static final String FAILING_ENDPOINT = "https://failing.example.org/SLO";
+
+    private RequestContext src;
+    
+    private ProfileRequestContext prc;
+    
+    private ExecutorService executor;
+    
+    @BeforeMethod public void setUp() {
+        src = new RequestContextBuilder().buildRequestContext();
+        prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+        prc.getSubcontext(LogoutContext.class, true);
+        executor = Executors.newFixedThreadPool(3);
+    }
+    
+    @AfterMethod public void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    @Test public void testSynchronous() throws ComponentInitializationException {
+        final SOAPLogoutRequest action = buildAction(new StubSOAPClient(null), null);
+        
+        prepare("https://sp.example.org", "https://sp.example.org/SLO");
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        
+        Assert.assertEquals(prc.getSubcontext(LogoutPropagationContext.class).getResult(), Result.Success);
+        Assert.assertTrue(prc.getInboundMessageContext().getMessage() instanceof LogoutResponse);
+        Assert.assertEquals(prc.getSubcontext(LogoutContext.class).getPropagationResults().get(
+                "https://sp.example.org"), Result.Success);
+        Assert.assertTrue(MetricsSupport.getMetricRegistry().getTimers().containsKey(
+                SOAPLogoutRequest.METRIC_NAME_PREFIX + ".https://sp.example.org.latency"));
+    }
+
+    @Test public void testSynchronousFailure() throws ComponentInitializationException {
+        final SOAPLogoutRequest action = buildAction(new StubSOAPClient(null), executor);
+        
+        final long failures = MetricsSupport.getMetricRegistry().counter(
+                SOAPLogoutRequest.METRIC_NAME_PREFIX + ".https://failing.example.org.failures").getCount();
+        
+        prepare("https://failing.example.org", FAILING_ENDPOINT);
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertEvent(event, EventIds.IO_ERROR);
+        
+        Assert.assertEquals(prc.getSubcontext(LogoutPropagationContext.class).getResult(), Result.Failure);
+        Assert.assertEquals(prc.getSubcontext(LogoutContext.class).getPropagationResults().get(
+                "https://failing.example.org"), Result.Failure);
+        Assert.assertEquals(MetricsSupport.getMetricRegistry().counter(
+                SOAPLogoutRequest.METRIC_NAME_PREFIX + ".https://failing.example.org.failures").getCount(),
+                failures + 1);
+    }
+    
+    @Test public void testConcurrent() throws ComponentInitializationException {
+        // Each stub response waits for the other successful ones, so this only completes if run concurrently.
+        final SOAPLogoutRequest action = buildAction(new StubSOAPClient(new CyclicBarrier(2)), executor);
+        prc.getSubcontext(AsyncLogoutPropagationContext.class, true);
+        
+        prepare("https://sp1.example.org", "https://sp1.example.org/SLO");
+        final AuditContext auditCtx = prc.getSubcontext(AuditContext.class);
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+        Assert.assertEquals(prc.getSubcontext(LogoutPropagationContext.class).getResult(), Result.Pending);
+        Assert.assertNull(prc.getInboundMessageContext().getMessage());
+        final AsyncLogoutPropagationContext.Operation operation =
+                prc.getSubcontext(AsyncLogoutPropagationContext.class).getPending().get(0);
+        Assert.assertSame(operation.getAuditContext(), auditCtx);
+        Assert.assertNotNull(operation.getOperationContext());
+
+        prepare("https://failing.example.org", FAILING_ENDPOINT);
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+
+        prepare("https://sp2.example.org", "https://sp2.example.org/SLO");
+        ActionTestingSupport.assertProceedEvent(action.execute(src));
+        
+        Assert.assertEquals(prc.getSubcontext(AsyncLogoutPropagationContext.class).getPending().size(), 3);
+        
+        final CompleteAsyncLogoutPropagation complete = new CompleteAsyncLogoutPropagation();
+        complete.setTimeout(Duration.ofSeconds(5));
+        complete.initialize();
+        ActionTestingSupport.assertProceedEvent(complete.execute(src));
+        
+        final LogoutContext logoutCtx = prc.getSubcontext(LogoutContext.class);
+        Assert.assertEquals(logoutCtx.getPropagationResults().get("https://sp1.example.org"), Result.Success);
+        Assert.assertEquals(logoutCtx.getPropagationResults().get("https://sp2.example.org"), Result.Success);
+        Assert.assertEquals(logoutCtx.getPropagationResults().get("https://failing.example.org"), Result.Failure);
+        
+        // The response is left in the operation's own messaging state for auditing.
+        final MessageContext responseCtx = operation.getOperationContext().getInboundMessageContext();
+        Assert.assertTrue(responseCtx.getMessage() instanceof LogoutResponse);
+        Assert.assertNotNull(responseCtx.getSubcontext(SAMLBindingContext.class));
+    }
+    
+    @Nonnull private SOAPLogoutRequest buildAction(@Nonnull final SOAPClient client,
+            final ExecutorService service) throws ComponentInitializationException {
+        final SOAPLogoutRequest action = new SOAPLogoutRequest();
+        action.setSOAPClient(client);
+        action.setExecutor(service);
+        action.initialize();
+        return action;
+    }
+    
+    /**
+     * Set up the tree for propagation to a single SP, as the propagation flow does.
+     * 
+     * @param spId SP name
+     * @param location SLO endpoint
+     */
+    private void prepare(@Nonnull final String spId, @Nonnull final String location) {
+        prc.removeSubcontext(LogoutPropagationContext.class);
+        prc.removeSubcontext(AuditContext.class);
+        prc.getSubcontext(AuditContext.class, true);
+        final LogoutPropagationContext propCtx = prc.getSubcontext(LogoutPropagationContext.class, true);
+        propCtx.setSession(new BasicSPSession(spId, Instant.now(), Instant.now().plusSeconds(60)));
+        
+        prc.setInboundMessageContext(new MessageContext());
+        prc.setOutboundMessageContext(new MessageContext());
+        prc.getOutboundMessageContext().setMessage(XMLObjectSupport.buildXMLObject(LogoutRequest.DEFAULT_ELEMENT_NAME));
+        prc.getOutboundMessageContext().getSubcontext(SAMLBindingContext.class, true);
+        
+        final SingleLogoutService endpoint =
+                (SingleLogoutService) XMLObjectSupport.buildXMLObject(SingleLogoutService.DEFAULT_ELEMENT_NAME);
+        endpoint.setLocation(location);
+        prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true).getSubcontext(
+                SAMLEndpointContext.class, true).setEndpoint(endpoint);
+    }
+    
+    /** Stub SOAP endpoints that succeed, except for {@link #FAILING_ENDPOINT}. */
+    private static class StubSOAPClient implements SOAPClient {
+        
+        /** Optional barrier to wait on before responding. */
+        private final CyclicBarrier barrier;
+        
+        /**
+         * Constructor.
+         *
+         * @param b optional barrier
+         */
+        public StubSOAPClient(final CyclicBarrier b) {
+            barrier = b;
+        }
+
+        /** {@inheritDoc} */
+        public void send(@Nonnull final String endpoint, @Nonnull final InOutOperationContext operationContext)
+                throws SOAPException {
+            if (FAILING_ENDPOINT.equals(endpoint)) {
+                throw new SOAPException("Endpoint unavailable");
+            }
+            
+            if (barrier != null) {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (final Exception e) {
+                    throw new SOAPException("Requests were not concurrent", e);
+                }
+            }
+            
+            final StatusCode code = (StatusCode) XMLObjectSupport.buildXMLObject(StatusCode.DEFAULT_ELEMENT_NAME);
+            code.setValue(StatusCode.SUCCESS);
+            final Status status = (Status) XMLObjectSupport.buildXMLObject(Status.DEFAULT_ELEMENT_NAME);
+            status.setStatusCode(code);
+            final LogoutResponse response =
+                    (LogoutResponse) XMLObjectSupport.buildXMLObject(LogoutResponse.DEFAULT_ELEMENT_NAME);
+            response.setStatus(status);
+            
+            if (operationContext.getInboundMessageContext() == null) {
+                operationContext.setInboundMessageContext(new MessageContext());
+            }
+            operationContext.getInboundMessageContext().setMessage(response);
+        }
+    }
+    
+}
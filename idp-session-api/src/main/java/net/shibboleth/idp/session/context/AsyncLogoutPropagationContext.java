@@ -0,0 +1,179 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.context;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.profile.context.AuditContext;
+import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.utilities.java.support.annotation.constraint.Live;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.messaging.context.BaseContext;
+import org.opensaml.messaging.context.InOutOperationContext;
+
+/**
+ * A {@link BaseContext} that tracks logout propagation operations dispatched for concurrent execution.
+ * 
+ * <p>Its presence signals to propagation mechanisms capable of doing so that they may dispatch
+ * their work asynchronously rather than completing it inline, and the owner of the context is
+ * responsible for collecting the results.</p>
+ * 
+ * @since 4.1.0
+ */
+public final class AsyncLogoutPropagationContext extends BaseContext {
+
+    /** Time the context was created, as the basis of an overall deadline. */
+    @Nonnull private final Instant creationTime;
+    
+    /** Dispatched operations. */
+    @Nonnull @NonnullElements private final List<Operation> pending;
+    
+    /** Constructor. */
+    public AsyncLogoutPropagationContext() {
+        creationTime = Instant.now();
+        pending = new ArrayList<>();
+    }
+    
+    /**
+     * Get the time the context was created.
+     * 
+     * @return creation time
+     */
+    @Nonnull public Instant getCreationTime() {
+        return creationTime;
+    }
+    
+    /**
+     * Get a live list of the dispatched operations.
+     * 
+     * @return dispatched operations
+     */
+    @Nonnull @NonnullElements @Live public List<Operation> getPending() {
+        return pending;
+    }
+    
+    /**
+     * Add a dispatched operation.
+     * 
+     * @param session session being logged out
+     * @param result eventual result of the operation
+     * 
+     * @return the added operation, to which additional state may be attached
+     */
+    @Nonnull public Operation addPending(@Nonnull final SPSession session,
+            @Nonnull final Future<LogoutPropagationContext.Result> result) {
+        final Operation operation = new Operation(session, result);
+        pending.add(operation);
+        return operation;
+    }
+    
+    /**
+     * A dispatched operation, along with the state needed to audit it once it completes.
+     */
+    public static final class Operation {
+        
+        /** Session being logged out. */
+        @Nonnull private final SPSession session;
+        
+        /** Eventual result of the operation. */
+        @Nonnull private final Future<LogoutPropagationContext.Result> result;
+        
+        /** Audit state collected before the operation was dispatched. */
+        @Nullable private AuditContext auditContext;
+        
+        /** Messaging state of the exchange, populated with the response once it arrives. */
+        @Nullable private InOutOperationContext operationContext;
+        
+        /**
+         * Constructor.
+         *
+         * @param sess session being logged out
+         * @param res eventual result of the operation
+         */
+        private Operation(@Nonnull final SPSession sess, @Nonnull final Future<LogoutPropagationContext.Result> res) {
+            session = Constraint.isNotNull(sess, "SPSession cannot be null");
+            result = Constraint.isNotNull(res, "Result cannot be null");
+        }
+        
+        /**
+         * Get the session being logged out.
+         * 
+         * @return session being logged out
+         */
+        @Nonnull public SPSession getSession() {
+            return session;
+        }
+        
+        /**
+         * Get the eventual result of the operation.
+         * 
+         * @return eventual result
+         */
+        @Nonnull public Future<LogoutPropagationContext.Result> getResult() {
+            return result;
+        }
+        
+        /**
+         * Get the audit state collected before the operation was dispatched.
+         * 
+         * @return audit state, or null
+         */
+        @Nullable public AuditContext getAuditContext() {
+            return auditContext;
+        }
+        
+        /**
+         * Set the audit state collected before the operation was dispatched, to be completed and written
+         * once the operation completes.
+         * 
+         * @param context audit state
+         */
+        public void setAuditContext(@Nullable final AuditContext context) {
+            auditContext = context;
+        }
+        
+        /**
+         * Get the messaging state of the exchange.
+         * 
+         * <p>The inbound message context is only safe to access once the operation has completed.</p>
+         * 
+         * @return messaging state, or null
+         */
+        @Nullable public InOutOperationContext getOperationContext() {
+            return operationContext;
+        }
+        
+        /**
+         * Set the messaging state of the exchange.
+         * 
+         * @param context messaging state
+         */
+        public void setOperationContext(@Nullable final InOutOperationContext context) {
+            operationContext = context;
+        }
+    }
+    
+}
@@ -50,12 +50,16 @@ public final class LogoutContext extends BaseContext {
 
     /** An index of the session objects by an externally assigned key. */
     @Nonnull @NonnullElements private final Map<String,SPSession> keyedSessionMap;
+    
+    /** Results of logout propagation, by service. */
+    @Nonnull @NonnullElements private final Map<String,LogoutPropagationContext.Result> propagationResults;
         
     /** Constructor. */
     public LogoutContext() {
         idpSessions = new ArrayList<>();
         sessionMap = ArrayListMultimap.create(10, 1);
         keyedSessionMap = new HashMap<>();
+        propagationResults = new HashMap<>();
     }
     
     /**
@@ -100,4 +104,33 @@ public final class LogoutContext extends BaseContext {
         return sessionMap.get(id);
     }
     
+    /**
+     * Get a live map of logout propagation results, keyed by the name of the service.
+     * 
+     * <p>This is populated by propagation mechanisms that report results back to a caller
+     * iterating over multiple sessions, such as back-channel propagation.</p>
+     * 
+     * @return propagation results by service
+     * 
+     * @since 4.1.0
+     */
+    @Nonnull @NonnullElements @Live public Map<String,LogoutPropagationContext.Result> getPropagationResults() {
+        return propagationResults;
+    }
+    
+    /**
+     * Record the result of a logout propagation for a service, retaining any earlier failure for
+     * that service.
+     * 
+     * @param id name of service
+     * @param result result of propagation
+     * 
+     * @since 4.1.0
+     */
+    public void addPropagationResult(@Nonnull @NotEmpty final String id,
+            @Nonnull final LogoutPropagationContext.Result result) {
+        propagationResults.merge(id, result,
+                (prev, next) -> prev == LogoutPropagationContext.Result.Failure ? prev : next);
+    }
+    
 }
\ No newline at end of file
@@ -37,7 +37,14 @@ public final class LogoutPropagationContext extends BaseContext {
         Success,
 
         /** Failed logout propagation result. */
-        Failure
+        Failure,
+        
+        /**
+         * Logout propagation dispatched but not yet complete.
+         * 
+         * @since 4.1.0
+         */
+        Pending
     }
 
     /** SP session to be destroyed. */
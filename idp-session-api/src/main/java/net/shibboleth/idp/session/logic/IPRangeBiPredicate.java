@@ -17,8 +17,11 @@
 
 package net.shibboleth.idp.session.logic;
 
+import java.net.InetAddress;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.BiPredicate;
 
 import javax.annotation.Nonnull;
@@ -26,6 +29,7 @@ import javax.annotation.Nullable;
 
 import com.google.common.net.InetAddresses;
 
+import net.shibboleth.idp.profile.logic.IPRangeTrie;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.net.IPRange;
@@ -35,10 +39,14 @@ public class IPRangeBiPredicate implements BiPredicate<String,String> {
     
     /** IP ranges to match against. */
     @Nonnull @NonnullElements private Collection<IPRange> addressRanges;
+    
+    /** Prefix trie mapping addresses to the indexes of the ranges containing them. */
+    @Nonnull private IPRangeTrie<Integer> rangeTrie;
 
     /** Constructor. */
     IPRangeBiPredicate() {
         addressRanges = List.of();
+        rangeTrie = new IPRangeTrie<>(Map.of());
     }
     
     /**
@@ -50,6 +58,13 @@ public class IPRangeBiPredicate implements BiPredicate<String,String> {
         Constraint.isNotNull(ranges, "Address range collection cannot be null");
         
         addressRanges = List.copyOf(ranges);
+        
+        final Map<Integer,Collection<IPRange>> indexed = new LinkedHashMap<>(addressRanges.size());
+        int i = 0;
+        for (final IPRange range : addressRanges) {
+            indexed.put(i++, List.of(range));
+        }
+        rangeTrie = new IPRangeTrie<>(indexed);
     }
     
     /** {@inheritDoc} */
@@ -61,8 +76,19 @@ public class IPRangeBiPredicate implements BiPredicate<String,String> {
             return true;
         }
         
-        for (final IPRange range : addressRanges) {
-            if (range.contains(InetAddresses.forString(input1)) && range.contains(InetAddresses.forString(input2))) {
+        if (rangeTrie.isEmpty()) {
+            return false;
+        }
+        
+        final InetAddress address1 = InetAddresses.forString(input1);
+        final InetAddress address2 = InetAddresses.forString(input2);
+        final List<Integer> ranges1 = rangeTrie.lookup(address1);
+        if (ranges1.isEmpty()) {
+            return false;
+        }
+        
+        for (final Integer range : rangeTrie.lookup(address2)) {
+            if (ranges1.contains(range)) {
                 return true;
             }
         }
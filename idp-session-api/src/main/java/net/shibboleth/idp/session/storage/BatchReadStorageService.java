@@ -0,0 +1,61 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.storage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+
+/**
+ * Extension of {@link StorageService} that is capable of reading a number of records within a single
+ * context in one operation.
+ * 
+ * <p>Implementations backed by a remote store (e.g., a database) should issue a single query for the
+ * whole set of keys rather than a round trip per record. Callers should not use this interface directly
+ * but go through {@link BatchReadSupport}, which falls back to individual reads for other services.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public interface BatchReadStorageService extends StorageService {
+
+    /**
+     * Retrieve the records matching the supplied keys within a context.
+     * 
+     * <p>Keys for which no unexpired record exists are omitted from the result.</p>
+     * 
+     * @param <T> type of record
+     * @param context context to search
+     * @param keys keys of the records to retrieve
+     * 
+     * @return map of keys to matching records
+     * @throws IOException if errors occur in the read process
+     */
+    @Nonnull @NonnullElements <T> Map<String,StorageRecord<T>> readAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) throws IOException;
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.storage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+
+/**
+ * Helper methods for reading several records from a {@link StorageService} at once.
+ * 
+ * @since 4.1.0
+ */
+public final class BatchReadSupport {
+
+    /** Constructor. */
+    private BatchReadSupport() {
+        
+    }
+    
+    /**
+     * Retrieve the records matching the supplied keys within a context.
+     * 
+     * <p>If the service implements {@link BatchReadStorageService}, the read is delegated to it, otherwise
+     * the records are read one at a time.</p>
+     * 
+     * @param <T> type of record
+     * @param storageService the storage service to read from
+     * @param context context to search
+     * @param keys keys of the records to retrieve
+     * 
+     * @return map of keys to matching records, omitting any keys with no record
+     * @throws IOException if errors occur in the read process
+     */
+    @Nonnull @NonnullElements public static <T> Map<String,StorageRecord<T>> readAll(
+            @Nonnull final StorageService storageService, @Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) throws IOException {
+        
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        } else if (storageService instanceof BatchReadStorageService) {
+            return ((BatchReadStorageService) storageService).readAll(context, keys);
+        }
+        
+        final Map<String,StorageRecord<T>> records = new HashMap<>(keys.size());
+        for (final String key : keys) {
+            final StorageRecord<T> record = storageService.read(context, key);
+            if (record != null) {
+                records.put(key, record);
+            }
+        }
+        return records;
+    }
+    
+}
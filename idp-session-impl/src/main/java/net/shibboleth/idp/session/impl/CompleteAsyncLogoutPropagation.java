@@ -0,0 +1,274 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.idp.profile.context.AuditContext;
+import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.idp.session.context.AsyncLogoutPropagationContext;
+import net.shibboleth.idp.session.context.AsyncLogoutPropagationContext.Operation;
+import net.shibboleth.idp.session.context.LogoutContext;
+import net.shibboleth.idp.session.context.LogoutPropagationContext.Result;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.context.navigate.ChildContextLookup;
+import org.opensaml.profile.action.ActionSupport;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.action.ProfileAction;
+import org.opensaml.profile.context.EventContext;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Profile action that waits for logout propagation operations tracked by an
+ * {@link AsyncLogoutPropagationContext} to complete and records their results in the {@link LogoutContext}.
+ * 
+ * <p>All operations share a single deadline measured from the creation of the tracking context.
+ * Operations that have not completed by the deadline are cancelled and treated as failures.</p>
+ * 
+ * <p>Operations dispatched along with an {@link AuditContext} are audited as they complete by running
+ * a configured sequence of actions with that context temporarily installed in place of the current one,
+ * and with the exchange's response, if any, temporarily installed as the inbound message context. Their
+ * outcome has no effect on the result of this action.</p>
+ * 
+ * <p>The action does nothing if no {@link AsyncLogoutPropagationContext} is found.</p>
+ * 
+ * @event {@link EventIds#PROCEED_EVENT_ID}
+ * @event {@link EventIds#INVALID_PROFILE_CTX}
+ * @post The {@link AsyncLogoutPropagationContext} is removed, and the results of the operations it
+ *  tracked are added to {@link LogoutContext#getPropagationResults()}.
+ * 
+ * @since 4.1.0
+ */
+public class CompleteAsyncLogoutPropagation extends AbstractProfileAction {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CompleteAsyncLogoutPropagation.class);
+    
+    /** Lookup function for AsyncLogoutPropagationContext. */
+    @Nonnull private Function<ProfileRequestContext,AsyncLogoutPropagationContext> asyncContextLookupStrategy;
+
+    /** Lookup function for LogoutContext. */
+    @Nonnull private Function<ProfileRequestContext,LogoutContext> logoutContextLookupStrategy;
+    
+    /** Overall time limit for the operations to complete. */
+    @Nonnull private Duration timeout;
+    
+    /** Actions to run to audit each completed operation. */
+    @Nonnull @NonnullElements private List<ProfileAction> auditActions;
+    
+    /** AsyncLogoutPropagationContext to access. */
+    @Nullable private AsyncLogoutPropagationContext asyncContext;
+
+    /** LogoutContext to access. */
+    @Nullable private LogoutContext logoutContext;
+    
+    /** Constructor. */
+    public CompleteAsyncLogoutPropagation() {
+        asyncContextLookupStrategy = new ChildContextLookup<>(AsyncLogoutPropagationContext.class);
+        logoutContextLookupStrategy = new ChildContextLookup<>(LogoutContext.class);
+        timeout = Duration.ofSeconds(10);
+        auditActions = Collections.emptyList();
+    }
+    
+    /**
+     * Set the lookup strategy for the AsyncLogoutPropagationContext to access.
+     * 
+     * @param strategy  lookup strategy
+     */
+    public void setAsyncContextLookupStrategy(
+            @Nonnull final Function<ProfileRequestContext,AsyncLogoutPropagationContext> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        asyncContextLookupStrategy = Constraint.isNotNull(strategy,
+                "AsyncLogoutPropagationContext lookup strategy cannot be null");
+    }
+    
+    /**
+     * Set the lookup strategy for the LogoutContext to access.
+     * 
+     * @param strategy  lookup strategy
+     */
+    public void setLogoutContextLookupStrategy(
+            @Nonnull final Function<ProfileRequestContext,LogoutContext> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        logoutContextLookupStrategy = Constraint.isNotNull(strategy,
+                "LogoutContext lookup strategy cannot be null");
+    }
+    
+    /**
+     * Set the overall time limit for the operations to complete, measured from the creation of the
+     * {@link AsyncLogoutPropagationContext}.
+     * 
+     * <p>Defaults to 10 seconds.</p>
+     * 
+     * @param limit time limit
+     */
+    public void setTimeout(@Nonnull final Duration limit) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(limit, "Timeout cannot be null");
+        Constraint.isFalse(limit.isNegative(), "Timeout cannot be negative");
+        
+        timeout = limit;
+    }
+    
+    /**
+     * Set the actions to run to audit each completed operation that was dispatched along with an
+     * {@link AuditContext}, typically the population of fields from the response followed by the
+     * writing of the audit log.
+     * 
+     * @param actions audit actions
+     */
+    public void setAuditActions(@Nullable @NonnullElements final Collection<ProfileAction> actions) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        if (actions != null) {
+            auditActions = List.copyOf(actions);
+        } else {
+            auditActions = Collections.emptyList();
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        
+        if (!super.doPreExecute(profileRequestContext)) {
+            return false;
+        }
+        
+        asyncContext = asyncContextLookupStrategy.apply(profileRequestContext);
+        if (asyncContext == null) {
+            log.debug("{} No AsyncLogoutPropagationContext found, nothing to do", getLogPrefix());
+            return false;
+        }
+        
+        logoutContext = logoutContextLookupStrategy.apply(profileRequestContext);
+        if (logoutContext == null) {
+            log.warn("{} No LogoutContext found in which to record results", getLogPrefix());
+            ActionSupport.buildEvent(profileRequestContext, EventIds.INVALID_PROFILE_CTX);
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        
+        final Instant deadline = asyncContext.getCreationTime().plus(timeout);
+        
+        log.debug("{} Waiting for {} logout propagation operation(s)", getLogPrefix(),
+                asyncContext.getPending().size());
+        
+        for (final Operation operation : asyncContext.getPending()) {
+            final SPSession session = operation.getSession();
+            final Future<Result> future = operation.getResult();
+            Result result = Result.Failure;
+            try {
+                final long remaining = Math.max(0, Duration.between(Instant.now(), deadline).toMillis());
+                result = future.get(remaining, TimeUnit.MILLISECONDS);
+            } catch (final TimeoutException e) {
+                log.warn("{} Logout propagation to {} did not complete in time", getLogPrefix(), session.getId());
+                future.cancel(true);
+            } catch (final ExecutionException e) {
+                log.warn("{} Logout propagation to {} failed", getLogPrefix(), session.getId(), e.getCause());
+            } catch (final InterruptedException e) {
+                log.warn("{} Interrupted waiting for logout propagation to {}", getLogPrefix(), session.getId());
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+            }
+            
+            if (result == null || result == Result.Pending) {
+                result = Result.Failure;
+            }
+            log.debug("{} Logout propagation to {} result: {}", getLogPrefix(), session.getId(), result);
+            logoutContext.addPropagationResult(session.getId(), result);
+            
+            if (operation.getAuditContext() != null && !auditActions.isEmpty()) {
+                audit(profileRequestContext, operation, future.isDone() && !future.isCancelled());
+            }
+        }
+        
+        if (asyncContext.getParent() != null) {
+            asyncContext.getParent().removeSubcontext(asyncContext);
+        }
+    }
+    
+    /**
+     * Run the audit actions for a completed operation against its deferred audit state.
+     * 
+     * @param profileRequestContext profile request context
+     * @param operation the completed operation
+     * @param responded whether the exchange ran to completion and may have left a response to audit
+     */
+    private void audit(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final Operation operation, final boolean responded) {
+        
+        final AuditContext currentAuditContext = profileRequestContext.getSubcontext(AuditContext.class);
+        final MessageContext currentInboundContext = profileRequestContext.getInboundMessageContext();
+        
+        try {
+            profileRequestContext.addSubcontext(operation.getAuditContext(), true);
+            if (responded && operation.getOperationContext() != null
+                    && operation.getOperationContext().getInboundMessageContext() != null) {
+                profileRequestContext.setInboundMessageContext(
+                        operation.getOperationContext().getInboundMessageContext());
+            }
+            
+            for (final ProfileAction action : auditActions) {
+                action.execute(profileRequestContext);
+                final EventContext eventCtx = profileRequestContext.getSubcontext(EventContext.class);
+                if (eventCtx != null) {
+                    log.warn("{} Audit of logout propagation to {} signaled event {}", getLogPrefix(),
+                            operation.getSession().getId(), eventCtx.getEvent());
+                    profileRequestContext.removeSubcontext(eventCtx);
+                    break;
+                }
+            }
+        } finally {
+            profileRequestContext.setInboundMessageContext(currentInboundContext);
+            if (currentAuditContext != null) {
+                profileRequestContext.addSubcontext(currentAuditContext, true);
+            } else {
+                profileRequestContext.removeSubcontext(AuditContext.class);
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,362 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.idp.session.impl.SessionStorageMetrics.Operation;
+import net.shibboleth.idp.session.storage.BatchReadStorageService;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.storage.StorageCapabilities;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageSerializer;
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.VersionMismatchException;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * Wrapper for a {@link StorageService} that reports the operations performed to a {@link SessionStorageMetrics}
+ * instance.
+ * 
+ * <p>Operations that take a {@link StorageSerializer} are serialized here so the size of the value can be
+ * tracked, and are then passed on to the wrapped service in serialized form.</p>
+ */
+@ThreadSafe
+final class InstrumentedStorageService implements BatchReadStorageService {
+
+    /** Wrapped service. */
+    @Nonnull private final StorageService storageService;
+    
+    /** Metrics to report to. */
+    @Nonnull private final SessionStorageMetrics metrics;
+    
+    /**
+     * Constructor.
+     *
+     * @param service the service to wrap
+     * @param storageMetrics metrics to report to
+     */
+    InstrumentedStorageService(@Nonnull final StorageService service,
+            @Nonnull final SessionStorageMetrics storageMetrics) {
+        storageService = Constraint.isNotNull(service, "StorageService cannot be null");
+        metrics = Constraint.isNotNull(storageMetrics, "SessionStorageMetrics cannot be null");
+    }
+    
+    /** {@inheritDoc} */
+    @Nullable public String getId() {
+        return storageService.getId();
+    }
+
+    /** {@inheritDoc} */
+    @Nonnull public StorageCapabilities getCapabilities() {
+        return storageService.getCapabilities();
+    }
+
+    /** {@inheritDoc} */
+    public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+        final Timer.Context timer = start(Operation.CREATE);
+        try {
+            recordWrite(value);
+            return storageService.create(context, key, value, expiration);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public <T> boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull final T value, @Nonnull final StorageSerializer<T> serializer, @Nullable final Long expiration)
+                    throws IOException {
+        return create(context, key, serializer.serialize(value), expiration);
+    }
+
+    /** {@inheritDoc} */
+    public boolean create(@Nonnull final Object value) throws IOException {
+        final Timer.Context timer = start(Operation.CREATE);
+        try {
+            return storageService.create(value);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public <T> StorageRecord<T> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException {
+        final Timer.Context timer = start(Operation.READ);
+        try {
+            final StorageRecord<T> record = storageService.read(context, key);
+            recordRead(record);
+            return record;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public Object read(@Nonnull final Object value) throws IOException {
+        final Timer.Context timer = start(Operation.READ);
+        try {
+            return storageService.read(value);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Nonnull public <T> Pair<Long,StorageRecord<T>> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, final long version) throws IOException {
+        final Timer.Context timer = start(Operation.READ);
+        try {
+            final Pair<Long,StorageRecord<T>> result = storageService.read(context, key, version);
+            recordRead(result.getSecond());
+            return result;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>If the wrapped service cannot read in bulk, each record is read, and counted, separately.</p>
+     */
+    @Nonnull @NonnullElements public <T> Map<String,StorageRecord<T>> readAll(
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        } else if (!(storageService instanceof BatchReadStorageService)) {
+            final Map<String,StorageRecord<T>> records = new HashMap<>(keys.size());
+            for (final String key : keys) {
+                final StorageRecord<T> record = read(context, key);
+                if (record != null) {
+                    records.put(key, record);
+                }
+            }
+            return records;
+        }
+        
+        final Timer.Context timer = start(Operation.READ);
+        try {
+            final Map<String,StorageRecord<T>> records =
+                    ((BatchReadStorageService) storageService).readAll(context, keys);
+            records.values().forEach(this::recordRead);
+            return records;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean update(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+        final Timer.Context timer = start(Operation.UPDATE);
+        try {
+            recordWrite(value);
+            return storageService.update(context, key, value, expiration);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public <T> boolean update(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull final T value, @Nonnull final StorageSerializer<T> serializer, @Nullable final Long expiration)
+                    throws IOException {
+        return update(context, key, serializer.serialize(value), expiration);
+    }
+
+    /** {@inheritDoc} */
+    public boolean update(@Nonnull final Object value) throws IOException {
+        final Timer.Context timer = start(Operation.UPDATE);
+        try {
+            return storageService.update(value);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public Long updateWithVersion(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value,
+            @Nullable final Long expiration) throws IOException, VersionMismatchException {
+        final Timer.Context timer = start(Operation.UPDATE);
+        try {
+            recordWrite(value);
+            return storageService.updateWithVersion(version, context, key, value, expiration);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public <T> Long updateWithVersion(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull final T value,
+            @Nonnull final StorageSerializer<T> serializer, @Nullable final Long expiration)
+                    throws IOException, VersionMismatchException {
+        return updateWithVersion(version, context, key, serializer.serialize(value), expiration);
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public Long updateWithVersion(final long version, @Nonnull final Object value)
+            throws IOException, VersionMismatchException {
+        final Timer.Context timer = start(Operation.UPDATE);
+        try {
+            return storageService.updateWithVersion(version, value);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean updateExpiration(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nullable final Long expiration) throws IOException {
+        final Timer.Context timer = start(Operation.UPDATE_EXPIRATION);
+        try {
+            return storageService.updateExpiration(context, key, expiration);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean updateExpiration(@Nonnull final Object value) throws IOException {
+        final Timer.Context timer = start(Operation.UPDATE_EXPIRATION);
+        try {
+            return storageService.updateExpiration(value);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean delete(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
+            throws IOException {
+        final Timer.Context timer = start(Operation.DELETE);
+        try {
+            return storageService.delete(context, key);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean delete(@Nonnull final Object value) throws IOException {
+        final Timer.Context timer = start(Operation.DELETE);
+        try {
+            return storageService.delete(value);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean deleteWithVersion(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+        final Timer.Context timer = start(Operation.DELETE);
+        try {
+            return storageService.deleteWithVersion(version, context, key);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean deleteWithVersion(final long version, @Nonnull final Object value)
+            throws IOException, VersionMismatchException {
+        final Timer.Context timer = start(Operation.DELETE);
+        try {
+            return storageService.deleteWithVersion(version, value);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void reap(@Nonnull @NotEmpty final String context) throws IOException {
+        storageService.reap(context);
+    }
+
+    /** {@inheritDoc} */
+    public void updateContextExpiration(@Nonnull @NotEmpty final String context, @Nullable final Long expiration)
+            throws IOException {
+        final Timer.Context timer = start(Operation.UPDATE_EXPIRATION);
+        try {
+            storageService.updateContextExpiration(context, expiration);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+        final Timer.Context timer = start(Operation.DELETE);
+        try {
+            storageService.deleteContext(context);
+        } finally {
+            timer.stop();
+        }
+    }
+    
+    /**
+     * Start the timer for an operation.
+     * 
+     * @param op operation type
+     * 
+     * @return the timer context
+     */
+    @Nonnull private Timer.Context start(@Nonnull final Operation op) {
+        return metrics.time(op);
+    }
+    
+    /**
+     * Record the size of a record read.
+     * 
+     * @param record the record, or null
+     */
+    private void recordRead(@Nullable final StorageRecord<?> record) {
+        if (record != null && record.getValue() != null) {
+            metrics.recordReadSize(record.getValue().length());
+        }
+    }
+    
+    /**
+     * Record the size of a value written.
+     * 
+     * @param value the value
+     */
+    private void recordWrite(@Nonnull final String value) {
+        metrics.recordWriteSize(value.length());
+    }
+
+}
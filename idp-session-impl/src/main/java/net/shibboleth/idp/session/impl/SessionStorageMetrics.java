@@ -0,0 +1,198 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.ParameterName;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+
+/**
+ * A set of metrics describing the use of a {@link org.opensaml.storage.StorageService} by the
+ * {@link StorageBackedSessionManager}.
+ * 
+ * <p>Each type of storage operation is tracked by a {@link Timer}, which provides both a count and a latency
+ * histogram. Retries caused by version conflicts are counted by the site of the conflict, and the sizes of
+ * the values read and written are tracked by histograms.</p>
+ * 
+ * @since 4.1.0
+ */
+@ThreadSafe
+public class SessionStorageMetrics implements MetricSet, MetricFilter {
+
+    /** Default prefix for metrics. */
+    @Nonnull @NotEmpty public static final String DEFAULT_METRIC_NAME = "net.shibboleth.idp.session.storage";
+    
+    /** Conflict site when updating the master session record. */
+    @Nonnull @NotEmpty public static final String CONFLICT_SESSION = "session";
+
+    /** Conflict site when saving an {@link net.shibboleth.idp.authn.AuthenticationResult}. */
+    @Nonnull @NotEmpty public static final String CONFLICT_RESULT = "result";
+
+    /** Conflict site when saving an {@link net.shibboleth.idp.session.SPSession}. */
+    @Nonnull @NotEmpty public static final String CONFLICT_SPSESSION = "spsession";
+
+    /** Conflict site when maintaining the secondary service index. */
+    @Nonnull @NotEmpty public static final String CONFLICT_INDEX = "index";
+    
+    /** Types of storage operation tracked. */
+    public enum Operation {
+        /** Record reads. */
+        READ("read"),
+        /** Record creation. */
+        CREATE("create"),
+        /** Record updates. */
+        UPDATE("update"),
+        /** Expiration updates. */
+        UPDATE_EXPIRATION("updateExpiration"),
+        /** Record and context deletion. */
+        DELETE("delete");
+        
+        /** Name used in metrics. */
+        @Nonnull @NotEmpty private final String metricName;
+        
+        /**
+         * Constructor.
+         *
+         * @param name name used in metrics
+         */
+        Operation(@Nonnull @NotEmpty final String name) {
+            metricName = name;
+        }
+    }
+    
+    /** The map of metrics. */
+    @Nonnull @NonnullElements private final Map<String,Metric> metrics;
+
+    /** Timers for each operation type. */
+    @Nonnull @NonnullElements private final Map<Operation,Timer> timers;
+
+    /** Conflict counters by site. */
+    @Nonnull @NonnullElements private final Map<String,Counter> conflicts;
+    
+    /** Size of values read. */
+    @Nonnull private final Histogram readSizes;
+
+    /** Size of values written. */
+    @Nonnull private final Histogram writeSizes;
+    
+    /** Constructor. */
+    public SessionStorageMetrics() {
+        this(DEFAULT_METRIC_NAME);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param metricName name to include in metric names produced by this set
+     */
+    public SessionStorageMetrics(@Nonnull @NotEmpty @ParameterName(name="metricName") final String metricName) {
+        Constraint.isNotEmpty(metricName, "Metric name cannot be null or empty");
+        
+        metrics = new HashMap<>();
+        timers = new EnumMap<>(Operation.class);
+        conflicts = new HashMap<>();
+        
+        for (final Operation op : Operation.values()) {
+            final Timer timer = new Timer();
+            timers.put(op, timer);
+            metrics.put(MetricRegistry.name(metricName, op.metricName), timer);
+        }
+        
+        for (final String site : new String[] {CONFLICT_SESSION, CONFLICT_RESULT, CONFLICT_SPSESSION,
+                CONFLICT_INDEX}) {
+            final Counter counter = new Counter();
+            conflicts.put(site, counter);
+            metrics.put(MetricRegistry.name(metricName, "conflicts", site), counter);
+        }
+        
+        readSizes = new Histogram(new ExponentiallyDecayingReservoir());
+        metrics.put(MetricRegistry.name(metricName, "size", "read"), readSizes);
+        writeSizes = new Histogram(new ExponentiallyDecayingReservoir());
+        metrics.put(MetricRegistry.name(metricName, "size", "write"), writeSizes);
+    }
+    
+    /** {@inheritDoc} */
+    public Map<String,Metric> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /** {@inheritDoc} */
+    public boolean matches(final String name, final Metric metric) {
+        return metrics.containsKey(name);
+    }
+    
+    /**
+     * Start timing an operation.
+     * 
+     * @param op operation type
+     * 
+     * @return timer context to stop when the operation completes
+     */
+    @Nonnull public Timer.Context time(@Nonnull final Operation op) {
+        return timers.get(op).time();
+    }
+    
+    /**
+     * Record a version conflict requiring a retry.
+     * 
+     * @param site the site of the conflict
+     */
+    public void recordConflict(@Nonnull @NotEmpty final String site) {
+        final Counter counter = conflicts.get(site);
+        if (counter != null) {
+            counter.inc();
+        }
+    }
+    
+    /**
+     * Record the size of a value read from storage.
+     * 
+     * @param size size in characters
+     */
+    public void recordReadSize(final int size) {
+        readSizes.update(size);
+    }
+
+    /**
+     * Record the size of a value written to storage.
+     * 
+     * @param size size in characters
+     */
+    public void recordWriteSize(final int size) {
+        writeSizes.update(size);
+    }
+
+}
@@ -19,10 +19,12 @@ package net.shibboleth.idp.session.impl;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -32,6 +34,7 @@ import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.session.AbstractIdPSession;
 import net.shibboleth.idp.session.SPSession;
 import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.session.storage.BatchReadSupport;
 import net.shibboleth.utilities.java.support.annotation.constraint.Live;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -168,22 +171,38 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     @Nonnull @NonnullElements @NotLive @Unmodifiable public Set<AuthenticationResult> getAuthenticationResults() {
         
         // Check for any sparse/null values in the map, which need to be loaded before returning a complete set.
-        final Iterator<Map.Entry<String,Optional<AuthenticationResult>>> entries =
-                getAuthenticationResultMap().entrySet().iterator();
-        while (entries.hasNext()) {
-            final Map.Entry<String,Optional<AuthenticationResult>> entry = entries.next();
-            if (entry.getValue().isEmpty()) {
-                try {
-                    final AuthenticationResult result = loadAuthenticationResultFromStorage(entry.getKey());
-                    if (result != null) {
-                        entry.setValue(Optional.of(result));
-                    } else {
-                        // A null here means the reference to the record should be removed.
-                        entries.remove();
+        final Collection<String> sparseKeys = getAuthenticationResultMap().entrySet().stream()
+                .filter(e -> e.getValue().isEmpty())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toUnmodifiableList());
+        if (!sparseKeys.isEmpty()) {
+            try {
+                // Read all the missing records at once, and then decode each one.
+                final Map<String,StorageRecord<AuthenticationResult>> records = BatchReadSupport.readAll(
+                        sessionManager.getStorageService(), getId(), sparseKeys);
+                final Iterator<Map.Entry<String,Optional<AuthenticationResult>>> entries =
+                        getAuthenticationResultMap().entrySet().iterator();
+                while (entries.hasNext()) {
+                    final Map.Entry<String,Optional<AuthenticationResult>> entry = entries.next();
+                    if (entry.getValue().isEmpty()) {
+                        try {
+                            final AuthenticationResult result =
+                                    decodeAuthenticationResult(entry.getKey(), records.get(entry.getKey()));
+                            if (result != null) {
+                                entry.setValue(Optional.of(result));
+                            } else {
+                                // A null here means the reference to the record should be removed.
+                                entries.remove();
+                            }
+                        } catch (final IOException e) {
+                            // An exception implies the record *might* still be accessible later.
+                        }
                     }
-                } catch (final IOException e) {
-                    // An exception implies the record *might* still be accessible later.
                 }
+            } catch (final IOException e) {
+                log.error("Exception loading AuthenticationResults for session {} from storage: {}", getId(),
+                        e.getMessage());
+                // An exception implies the records *might* still be accessible later.
             }
         }
         
@@ -336,22 +355,38 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         
         if (sessionManager.isTrackSPSessions() && sessionManager.storageServiceMeetsThreshold()) {
             // Check for any sparse/null values in the map, which need to be loaded before returning a complete set.
-            final Iterator<Map.Entry<String, Optional<SPSession>>> entries =
-                    getSPSessionMap().entrySet().iterator();
-            while (entries.hasNext()) {
-                final Map.Entry<String, Optional<SPSession>> entry = entries.next();
-                if (entry.getValue().isEmpty()) {
-                    try {
-                        final SPSession result = loadSPSessionFromStorage(entry.getKey());
-                        if (result != null) {
-                            entry.setValue(Optional.of(result));
-                        } else {
-                            // A null here means the reference to the record should be removed.
-                            entries.remove();
+            final Collection<String> sparseKeys = getSPSessionMap().entrySet().stream()
+                    .filter(e -> e.getValue().isEmpty())
+                    .map(e -> getSPSessionStorageKey(e.getKey()))
+                    .collect(Collectors.toUnmodifiableList());
+            if (!sparseKeys.isEmpty()) {
+                try {
+                    // Read all the missing records at once, and then decode each one.
+                    final Map<String,StorageRecord<SPSession>> records = BatchReadSupport.readAll(
+                            sessionManager.getStorageService(), getId(), sparseKeys);
+                    final Iterator<Map.Entry<String, Optional<SPSession>>> entries =
+                            getSPSessionMap().entrySet().iterator();
+                    while (entries.hasNext()) {
+                        final Map.Entry<String, Optional<SPSession>> entry = entries.next();
+                        if (entry.getValue().isEmpty()) {
+                            try {
+                                final String key = getSPSessionStorageKey(entry.getKey());
+                                final SPSession result = decodeSPSession(entry.getKey(), key, records.get(key));
+                                if (result != null) {
+                                    entry.setValue(Optional.of(result));
+                                } else {
+                                    // A null here means the reference to the record should be removed.
+                                    entries.remove();
+                                }
+                            } catch (final IOException e) {
+                                // An exception implies the record *might* still be accessible later.
+                            }
                         }
-                    } catch (final IOException e) {
-                        // An exception implies the record *might* still be accessible later.
                     }
+                } catch (final IOException e) {
+                    log.error("Exception loading SPSessions for session {} from storage: {}", getId(),
+                            e.getMessage());
+                    // An exception implies the records *might* still be accessible later.
                 }
             }
         }
@@ -544,21 +579,46 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
             throws IOException {
         log.debug("Loading AuthenticationResult for flow {} in session {}", flowId, getId());
         
-        final AuthenticationFlowDescriptor flow = sessionManager.getAuthenticationFlowDescriptor(flowId);
-        if (flow == null) {
+        if (sessionManager.getAuthenticationFlowDescriptor(flowId) == null) {
             log.warn("No flow descriptor installed for ID {}, unable to load result from storage", flowId);
             return null;
         }
         
         try {
             final StorageRecord<AuthenticationResult> record = sessionManager.getStorageService().read(getId(), flowId);
-            if (record != null) {
-                return record.getValue(flow, getId(), flowId);
-            }
+            return decodeAuthenticationResult(flowId, record);
+        } catch (final IOException e) {
+            log.error("Exception loading AuthenticationResult for flow {} from storage: {}", flowId, e.getMessage());
+            throw e;
+        }
+    }
+    
+    /**
+     * Deserializes an {@link AuthenticationResult} record using the object attached to the corresponding
+     * {@link AuthenticationFlowDescriptor}.
+     * 
+     * @param flowId ID of result/flow
+     * @param record the record read from storage, or null if none was found
+     * 
+     * @return the stored result, or null if the record is missing or unusable
+     * @throws IOException if a possibly transitory error occurs
+     */
+    @Nullable private AuthenticationResult decodeAuthenticationResult(@Nonnull @NotEmpty final String flowId,
+            @Nullable final StorageRecord<AuthenticationResult> record) throws IOException {
+        
+        final AuthenticationFlowDescriptor flow = sessionManager.getAuthenticationFlowDescriptor(flowId);
+        if (flow == null) {
+            log.warn("No flow descriptor installed for ID {}, unable to load result from storage", flowId);
+            return null;
+        } else if (record == null) {
             log.debug("No AuthenticationResult for flow {} in session {}", flowId, getId());
             return null;
+        }
+        
+        try {
+            return record.getValue(flow, getId(), flowId);
         } catch (final IOException e) {
-            log.error("Exception loading AuthenticationResult for flow {} from storage: {}", flowId, e.getMessage());
+            log.error("Exception decoding AuthenticationResult for flow {}: {}", flowId, e.getMessage());
             throw e;
         }
     }
@@ -595,6 +655,10 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                     success = sessionManager.getStorageService().update(getId(), flowId, result, flow,
                             result.getLastActivityInstant().plus(flow.getInactivityTimeout()).plus(
                                 AuthenticationFlowDescriptor.STORAGE_EXPIRATION_OFFSET).toEpochMilli());
+                    if (!success) {
+                        // The record was deleted out from under us, so we race to recreate it.
+                        sessionManager.recordStorageConflict(SessionStorageMetrics.CONFLICT_RESULT);
+                    }
                 }
             } while (!success && attempts-- > 0);
             
@@ -626,11 +690,33 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         
         try {
             final StorageRecord<SPSession> record = sessionManager.getStorageService().read(getId(), key);
-            if (record == null) {
-                log.debug("No SPSession found for service {} in session {}", serviceId, getId());
-                return null;
-            }
-            
+            return decodeSPSession(serviceId, key, record);
+        } catch (final IOException e) {
+            log.error("IOException loading SPSession for service {} from storage: {}", serviceId, e.getMessage());
+            throw e;
+        }
+    }
+    
+    /**
+     * Deserializes a {@link SPSession} record using the object registered in the attached
+     * {@link net.shibboleth.idp.session.SPSessionSerializerRegistry}.
+     * 
+     * @param serviceId ID of service for session
+     * @param key storage key of the record
+     * @param record the record read from storage, or null if none was found
+     * 
+     * @return the stored session, or null if the record is missing
+     * @throws IOException if the record is unusable
+     */
+    @Nullable private SPSession decodeSPSession(@Nonnull @NotEmpty final String serviceId,
+            @Nonnull @NotEmpty final String key, @Nullable final StorageRecord<SPSession> record) throws IOException {
+        
+        if (record == null) {
+            log.debug("No SPSession found for service {} in session {}", serviceId, getId());
+            return null;
+        }
+        
+        try {
             // Parse out the class type.
             final int pos = record.getValue().indexOf(':');
             if (pos <= 0) {
@@ -652,11 +738,10 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                     record.getVersion(), getId(), key, record.getValue().substring(pos + 1), record.getExpiration());
             
         } catch (final IOException e) {
-            log.error("IOException loading SPSession for service {} from storage: {}", serviceId, e.getMessage());
+            log.error("IOException decoding SPSession for service {}: {}", serviceId, e.getMessage());
             throw e;
         } catch (final ClassNotFoundException e) {
-            log.error("ClassNotFoundException loading SPSession for service {} from storage: {}", serviceId,
-                    e.getMessage());
+            log.error("ClassNotFoundException decoding SPSession for service {}: {}", serviceId, e.getMessage());
             throw new IOException(e);
         }
     }
@@ -698,6 +783,10 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                     // The record already exists, so we need to overwrite via an update.
                     success = sessionManager.getStorageService().update(getId(), key, builder.toString(),
                             exp.toEpochMilli());
+                    if (!success) {
+                        // The record was deleted out from under us, so we race to recreate it.
+                        sessionManager.recordStorageConflict(SessionStorageMetrics.CONFLICT_SPSESSION);
+                    }
                 }
             } while (!success && attempts-- > 0);
             
@@ -747,6 +836,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
             version = ver;
             return true;
         } catch (final VersionMismatchException e) {
+            sessionManager.recordStorageConflict(SessionStorageMetrics.CONFLICT_SESSION);
             // The record has changed underneath. We need to deserialize the session back into the
             // same object by passing ourselves as the target object to a new serializer instance.
             final StorageRecord<StorageBackedIdPSession> record =
@@ -165,6 +165,9 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
 
     /** Mappings between a SPSession type and a serializer implementation. */
     @Nullable private SPSessionSerializerRegistry spSessionSerializerRegistry;
+    
+    /** Optional metrics to track storage use. */
+    @Nullable private SessionStorageMetrics storageMetrics;
 
     /**
      * Constructor.
@@ -490,6 +493,45 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         spSessionSerializerRegistry = registry;
     }
 
+    /**
+     * Get the {@link SessionStorageMetrics} used to track use of the {@link StorageService}.
+     * 
+     * @return the metrics, or null
+     * 
+     * @since 4.1.0
+     */
+    @Nullable public SessionStorageMetrics getStorageMetrics() {
+        return storageMetrics;
+    }
+    
+    /**
+     * Set a {@link SessionStorageMetrics} instance to track use of the {@link StorageService}.
+     * 
+     * <p>If set, the service is wrapped during initialization so that every operation is counted and timed.</p>
+     * 
+     * @param metrics metrics to report to
+     * 
+     * @since 4.1.0
+     */
+    public void setStorageMetrics(@Nullable final SessionStorageMetrics metrics) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        storageMetrics = metrics;
+    }
+    
+    /**
+     * Record a storage version conflict that requires an operation to be retried.
+     * 
+     * @param site the site of the conflict
+     * 
+     * @since 4.1.0
+     */
+    protected void recordStorageConflict(@Nonnull @NotEmpty final String site) {
+        if (storageMetrics != null) {
+            storageMetrics.recordConflict(site);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -507,6 +549,10 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             throw new ComponentInitializationException("Tracking SPSessions requires a spSessionSerializerRegistry");
         }
 
+        if (storageMetrics != null) {
+            storageService = new InstrumentedStorageService(storageService, storageMetrics);
+        }
+
         // This is our private instance, so we initialize it.
         serializer.initialize();
     }
@@ -709,6 +755,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                 }
             } catch (final VersionMismatchException e) {
                 log.debug("Secondary index record was updated between read/update, retrying");
+                recordStorageConflict(SessionStorageMetrics.CONFLICT_INDEX);
                 indexBySPSession(idpSession, spSession, attempts - 1);
             }
         }
@@ -789,6 +836,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                 }
             } catch (final VersionMismatchException e) {
                 log.debug("Secondary index record was updated between read/update/delete, retrying");
+                recordStorageConflict(SessionStorageMetrics.CONFLICT_INDEX);
                 unindexSPSession(idpSession, spSession, attempts - 1);
             }
         }
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.idp.profile.AbstractProfileAction;
+import net.shibboleth.idp.profile.ActionTestingSupport;
+import net.shibboleth.idp.profile.RequestContextBuilder;
+import net.shibboleth.idp.profile.context.AuditContext;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.context.AsyncLogoutPropagationContext;
+import net.shibboleth.idp.session.context.LogoutContext;
+import net.shibboleth.idp.session.context.LogoutPropagationContext.Result;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.messaging.context.InOutOperationContext;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link CompleteAsyncLogoutPropagation} unit test. */
+public class CompleteAsyncLogoutPropagationTest {
+    
+    private RequestContext src;
+    
+    private ProfileRequestContext prc;
+    
+    private CompleteAsyncLogoutPropagation action;
+    
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        src = new RequestContextBuilder().buildRequestContext();
+        prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+        
+        action = new CompleteAsyncLogoutPropagation();
+        action.setTimeout(Duration.ofMillis(500));
+        action.initialize();
+    }
+    
+    @Test public void testNoContext() {
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+    }
+
+    @Test public void testNoLogoutContext() {
+        prc.getSubcontext(AsyncLogoutPropagationContext.class, true);
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertEvent(event, EventIds.INVALID_PROFILE_CTX);
+    }
+    
+    @Test public void testResults() {
+        final LogoutContext logoutCtx = prc.getSubcontext(LogoutContext.class, true);
+        final AsyncLogoutPropagationContext asyncCtx = prc.getSubcontext(AsyncLogoutPropagationContext.class, true);
+        
+        final CompletableFuture<Result> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException());
+        final CompletableFuture<Result> hung = new CompletableFuture<>();
+        
+        asyncCtx.addPending(session("https://sp1.example.org"), CompletableFuture.completedFuture(Result.Success));
+        asyncCtx.addPending(session("https://sp2.example.org"), failed);
+        asyncCtx.addPending(session("https://sp3.example.org"), hung);
+        asyncCtx.addPending(session("https://sp4.example.org"),
+                CompletableFuture.supplyAsync(() -> Result.Success));
+        asyncCtx.addPending(session("https://sp4.example.org"), CompletableFuture.completedFuture(Result.Failure));
+        
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        
+        Assert.assertNull(prc.getSubcontext(AsyncLogoutPropagationContext.class));
+        Assert.assertTrue(hung.isCancelled());
+        Assert.assertEquals(logoutCtx.getPropagationResults().size(), 4);
+        Assert.assertEquals(logoutCtx.getPropagationResults().get("https://sp1.example.org"), Result.Success);
+        Assert.assertEquals(logoutCtx.getPropagationResults().get("https://sp2.example.org"), Result.Failure);
+        Assert.assertEquals(logoutCtx.getPropagationResults().get("https://sp3.example.org"), Result.Failure);
+        Assert.assertEquals(logoutCtx.getPropagationResults().get("https://sp4.example.org"), Result.Failure);
+    }
+    
+    @Test public void testAudit() throws ComponentInitializationException {
+        prc.getSubcontext(LogoutContext.class, true);
+        final AsyncLogoutPropagationContext asyncCtx = prc.getSubcontext(AsyncLogoutPropagationContext.class, true);
+        final AuditContext currentAuditCtx = prc.getSubcontext(AuditContext.class, true);
+        final MessageContext currentInboundCtx = prc.getInboundMessageContext();
+        
+        final AuditContext deferredAuditCtx = new AuditContext();
+        final MessageContext responseCtx = new MessageContext();
+        responseCtx.setMessage("response");
+        final InOutOperationContext opCtx = new InOutOperationContext(responseCtx, new MessageContext());
+        
+        final AsyncLogoutPropagationContext.Operation audited =
+                asyncCtx.addPending(session("https://sp1.example.org"),
+                        CompletableFuture.completedFuture(Result.Success));
+        audited.setAuditContext(deferredAuditCtx);
+        audited.setOperationContext(opCtx);
+        
+        final AsyncLogoutPropagationContext.Operation unanswered =
+                asyncCtx.addPending(session("https://sp2.example.org"), new CompletableFuture<>());
+        unanswered.setAuditContext(new AuditContext());
+        unanswered.setOperationContext(new InOutOperationContext(new MessageContext(), new MessageContext()));
+        
+        asyncCtx.addPending(session("https://sp3.example.org"), CompletableFuture.completedFuture(Result.Success));
+        
+        final List<AuditContext> auditContexts = new ArrayList<>();
+        final List<Object> messages = new ArrayList<>();
+        final AbstractProfileAction auditAction = new AbstractProfileAction() {
+            protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+                auditContexts.add(profileRequestContext.getSubcontext(AuditContext.class));
+                messages.add(profileRequestContext.getInboundMessageContext() != null
+                        ? profileRequestContext.getInboundMessageContext().getMessage() : null);
+            }
+        };
+        auditAction.initialize();
+        
+        action = new CompleteAsyncLogoutPropagation();
+        action.setTimeout(Duration.ofMillis(500));
+        action.setAuditActions(List.of(auditAction));
+        action.initialize();
+        
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        
+        // The unanswered operation is audited without its (incomplete) response.
+        Assert.assertEquals(auditContexts.size(), 2);
+        Assert.assertSame(auditContexts.get(0), deferredAuditCtx);
+        Assert.assertSame(auditContexts.get(1), unanswered.getAuditContext());
+        Assert.assertEquals(messages.get(0), "response");
+        Assert.assertNotEquals(messages.get(1), "response");
+        
+        Assert.assertSame(prc.getSubcontext(AuditContext.class), currentAuditCtx);
+        Assert.assertSame(prc.getInboundMessageContext(), currentInboundCtx);
+    }
+    
+    private BasicSPSession session(final String id) {
+        return new BasicSPSession(id, Instant.now(), Instant.now().plusSeconds(60));
+    }
+    
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.util.List;
+
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.session.criterion.SessionIdCriterion;
+import net.shibboleth.utilities.java.support.net.HttpServletRequestResponseContext;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.storage.impl.MemoryStorageService;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+
+/** {@link SessionStorageMetrics} unit test. */
+public class SessionStorageMetricsTest extends SessionManagerBaseTestCase {
+
+    private SessionStorageMetrics metrics;
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void adjustProperties() {
+        metrics = new SessionStorageMetrics();
+        sessionManager.setStorageMetrics(metrics);
+    }
+    
+    @Test
+    public void testMetrics() throws SessionException, ResolverException {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        HttpServletRequestResponseContext.loadCurrent(request, new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        Assert.assertNotNull(sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId()))));
+        
+        final Timer creates = (Timer) metrics.getMetrics().get(SessionStorageMetrics.DEFAULT_METRIC_NAME + ".create");
+        final Timer reads = (Timer) metrics.getMetrics().get(SessionStorageMetrics.DEFAULT_METRIC_NAME + ".read");
+        Assert.assertEquals(creates.getCount(), 1);
+        Assert.assertEquals(reads.getCount(), 1);
+        
+        final Histogram readSizes =
+                (Histogram) metrics.getMetrics().get(SessionStorageMetrics.DEFAULT_METRIC_NAME + ".size.read");
+        final Histogram writeSizes =
+                (Histogram) metrics.getMetrics().get(SessionStorageMetrics.DEFAULT_METRIC_NAME + ".size.write");
+        Assert.assertTrue(writeSizes.getSnapshot().getMax() > 0);
+        Assert.assertEquals(readSizes.getSnapshot().getMax(), writeSizes.getSnapshot().getMax());
+        
+        sessionManager.destroySession(session.getId(), true);
+        final Timer deletes = (Timer) metrics.getMetrics().get(SessionStorageMetrics.DEFAULT_METRIC_NAME + ".delete");
+        Assert.assertEquals(deletes.getCount(), 1);
+        
+        HttpServletRequestResponseContext.clearCurrent();
+    }
+    
+    @Test
+    public void testReadAll() throws Exception {
+        final MemoryStorageService memory = new MemoryStorageService();
+        memory.setId("memory");
+        memory.initialize();
+        memory.create("context", "a", "foo", null);
+        memory.create("context", "b", "bar", null);
+        
+        final SessionStorageMetrics localMetrics = new SessionStorageMetrics("test");
+        final InstrumentedStorageService service = new InstrumentedStorageService(memory, localMetrics);
+        Assert.assertEquals(service.readAll("context", List.of("a", "b", "c")).size(), 2);
+        
+        final Timer reads = (Timer) localMetrics.getMetrics().get("test.read");
+        Assert.assertEquals(reads.getCount(), 3);
+        
+        memory.destroy();
+    }
+    
+}
@@ -242,6 +242,11 @@ public class StorageBackedSessionManagerTest extends SessionManagerBaseTestCase
         // Test various methods and removals.
         Assert.assertEquals(session.getAuthenticationResults().size(), 2);
         
+        // Load from storage and check the full set is filled in.
+        final IdPSession reloaded =
+                sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId())));
+        Assert.assertEquals(reloaded.getAuthenticationResults().size(), 2);
+        
         Assert.assertFalse(session.removeAuthenticationResult(baz));
         Assert.assertTrue(session.removeAuthenticationResult(bar));
         
@@ -294,6 +299,11 @@ public class StorageBackedSessionManagerTest extends SessionManagerBaseTestCase
         // Test various methods and removals.
         Assert.assertEquals(session.getSPSessions().size(), 2);
         
+        // Load from storage and check the full set is filled in.
+        final IdPSession reloaded =
+                sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId())));
+        Assert.assertEquals(reloaded.getSPSessions().size(), 2);
+        
         Assert.assertTrue(session.removeSPSession(bar));
         Assert.assertFalse(session.removeSPSession(bar));
         